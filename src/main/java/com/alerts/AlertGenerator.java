@@ -7,9 +7,14 @@ import com.design_pattern.Factory.*;
 import com.design_pattern.strategy.*;
 
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.stream.IntStream;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * The {@code AlertGenerator} class is responsible for monitoring patient data
@@ -19,21 +24,25 @@ import java.util.stream.IntStream;
  *
  * Each of these methods will return once they have found a problem, This will later on be
  * updated to simply trigger and alert.
+ *
+ * One generator can evaluate several patients at the same time, see
+ * {@link #evaluateData(Map, ExecutorService)}; the triggered alerts are collected in a
+ * synchronized list.
+ *
+ * Besides evaluating whole lists of records, the generator can be fed one record at a time
+ * through {@link #onRecord(PatientRecord)}. Every patient then gets its own set of strategies
+ * that keep their trends between records, so alerts fire as soon as the reading arrives.
+ * The strategies of a patient can be tuned with {@link #configurePatient(int, AlertThresholds)}.
  */
 public class AlertGenerator {
-    private ArrayList<Alert> Alerts = new ArrayList<>();
+    private List<Alert> Alerts = Collections.synchronizedList(new ArrayList<>());
     private  DataStorage dataStorage;
+    private final Map<Integer, AlertInterface[]> patientStrategies = new ConcurrentHashMap<>();
+    private final Map<Integer, AlertThresholds> patientThresholds = new ConcurrentHashMap<>();
+    private volatile int maxRetainedAlerts = Integer.MAX_VALUE;
+    private boolean silent; // drops every alert, used to rebuild the trends of the strategies
 
-    private static final double SYSTOLIC_PRESSURE_MAX = 180 ;
-    private static final double SYSTOLIC_PRESSURE_MIN = 90 ;
-    private static final double DIASTOLIC_PRESSURE_MAX = 120 ;
-    private static final double DIASTOLIC_PRESSURE_MIN = 60 ;
-    private static final double OXYGEN_SATURATION_MIN = 92 ;
-
-    private String patientId ;
-
-
-
+    private static final RecordDispatcher DISPATCHER = new RecordDispatcher(createStrategies(AlertThresholds.DEFAULT));
 
     /**
      * Constructs an {@code AlertGenerator} with a specified {@code DataStorage}.
@@ -63,20 +72,118 @@ public class AlertGenerator {
         if (patient == null){
             System.out.println("patient is null");
         }else{
-            List<PatientRecord> records = patient.getRecords() ;
-            patientId = Integer.toString(records.get(0).getPatientId());
+            evaluateData(patient.getPatientId(), patient.getRecords());
+        }
+
+
 
-            int patientID = Integer.parseInt(patientId);
+    }
+
+    /**
+     * Evaluates a list of records of one patient, e.g. a time window taken from the storage,
+     * without having to copy them into a new {@link Patient} first.
+     * The list is walked once, every record goes only to the strategies that need its type,
+     * see {@link RecordDispatcher}.
+     *
+     * @param patientID the patient the records belong to
+     * @param records   the records to evaluate, ordered by timestamp
+     */
+    public void evaluateData(int patientID, List<PatientRecord> records) {
+        DISPATCHER.dispatch(createStrategies(getThresholds(patientID)), patientID, records, this);
+    }
 
-            new BloodPressureStrategy(new BloodPressureAlertFactory()).checkAlert(patientID , records , this);
-            new OxygenSaturationStrategy(new OxygenSaturationAlertFactory()).checkAlert(patientID, records ,this);
-            new HeartRateStrategy(new HeartRateAlertFactory()).checkAlert(patientID , records , this);
-            new HypotensiveHypoxemiaStrategy(new HypotensiveHypoxemiaAlertFactory()).checkAlert(patientID , records , this);
-            new EmergencyButtonStrategy(new EmergencyButtonFactory()).checkAlert(patientID , records , this);
+    /**
+     * Feeds one new record to the strategies of its patient. The strategies are created the first
+     * time a patient is seen and keep their state afterwards, each record costs O(1).
+     * Records of different patients can be fed from different threads at the same time.
+     *
+     * @param record the record that just arrived
+     */
+    public void onRecord(PatientRecord record) {
+        int patientID = record.getPatientId();
+        AlertInterface[] strategies = patientStrategies.computeIfAbsent(patientID, id -> createStrategies(getThresholds(id)));
+        synchronized (strategies) {
+            DISPATCHER.dispatch(strategies, patientID, record, this);
         }
+    }
 
+    /**
+     * Overrides the alert settings of one patient. The strategies the patient already had
+     * for {@link #onRecord(PatientRecord)} are dropped, so they start again with the new settings.
+     *
+     * @param patientID  the patient to configure
+     * @param thresholds the settings to use for that patient
+     */
+    public void configurePatient(int patientID, AlertThresholds thresholds) {
+        patientThresholds.put(patientID, thresholds);
+        patientStrategies.remove(patientID);
+    }
 
+    /**
+     * @param patientID the patient to look up
+     * @return the settings used for that patient, {@link AlertThresholds#DEFAULT} unless it was configured
+     */
+    public AlertThresholds getThresholds(int patientID) {
+        return patientThresholds.getOrDefault(patientID, AlertThresholds.DEFAULT);
+    }
+
+    /**
+     * Feeds records that were already evaluated before, e.g. restored after a restart, to the strategies
+     * of their patient without triggering any alert, so the strategies get their trends back.
+     *
+     * @param patientID the patient the records belong to
+     * @param records   the records, ordered by timestamp
+     */
+    public void warmUp(int patientID, List<PatientRecord> records) {
+        AlertGenerator discarded = new AlertGenerator(dataStorage);
+        discarded.silent = true;
+        AlertInterface[] strategies = patientStrategies.computeIfAbsent(patientID, id -> createStrategies(getThresholds(id)));
+        synchronized (strategies) {
+            DISPATCHER.dispatch(strategies, patientID, records, discarded);
+        }
+    }
 
+    private static AlertInterface[] createStrategies(AlertThresholds thresholds) {
+        return new AlertInterface[]{
+                new BloodPressureStrategy(new BloodPressureAlertFactory()),
+                new OxygenSaturationStrategy(new OxygenSaturationAlertFactory()),
+                new HeartRateStrategy(new HeartRateAlertFactory()
+                        , thresholds.getHeartRateWindowSize()
+                        , thresholds.getHeartRateThreshold()),
+                new HypotensiveHypoxemiaStrategy(new HypotensiveHypoxemiaAlertFactory()),
+                new EmergencyButtonStrategy(new EmergencyButtonFactory())
+        };
+    }
+
+    /**
+     * Evaluates several patients in parallel, one task per patient on the given executor.
+     * Every patient is evaluated exactly like {@link #evaluateData(int, List)} does, so the
+     * alerts are the same as on the sequential path, only their order between patients may differ.
+     * The method returns once every patient has been evaluated.
+     *
+     * @param recordsByPatient the records to evaluate, by patient ID
+     * @param executor         the threads to spread the patients over, e.g. a {@link java.util.concurrent.ForkJoinPool}
+     */
+    public void evaluateData(Map<Integer, List<PatientRecord>> recordsByPatient, ExecutorService executor) {
+        List<Callable<Void>> tasks = new ArrayList<>(recordsByPatient.size());
+        for (Map.Entry<Integer, List<PatientRecord>> entry : recordsByPatient.entrySet()) {
+            int patientID = entry.getKey();
+            List<PatientRecord> records = entry.getValue();
+            tasks.add(() -> {
+                evaluateData(patientID, records);
+                return null;
+            });
+        }
+
+        try {
+            for (Future<Void> result : executor.invokeAll(tasks)) {
+                result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Evaluation of a patient failed", e.getCause());
+        }
     }
 
     /**
@@ -88,18 +195,37 @@ public class AlertGenerator {
      * @param alert the alert object containing details about the alert condition
      */
     public void triggerAlert(Alert alert) {
+        if (silent) {
+            return;
+        }
         // Implementation might involve logging the alert or notifying staff
         System.out.printf("Patient ID : %s | Condition : %s | TimeStamp: %d%n ",
             alert.getPatientId(),
             alert.getCondition(),
             alert.getTimestamp()
         );
-        Alerts.add(alert);
+        synchronized (Alerts) {
+            Alerts.add(alert);
+            if (Alerts.size() > maxRetainedAlerts) {
+                Alerts.subList(0, Alerts.size() - maxRetainedAlerts / 2).clear(); // drop the oldest in one go
+            }
+        }
 
     }
 
+    /**
+     * Limits how many alerts {@link #getAlerts()} keeps, which a long running generator fed through
+     * {@link #onRecord(PatientRecord)} needs. When the limit is passed, the oldest half is dropped.
+     *
+     * @param maxRetainedAlerts the maximum number of alerts kept
+     */
+    public void setMaxRetainedAlerts(int maxRetainedAlerts) {
+        this.maxRetainedAlerts = maxRetainedAlerts;
+    }
+
     /**
      * This is a getter method such that I can evaluate wether the trigger method was used during testing
+     * The list is synchronized, hold its lock while iterating if patients are still being evaluated.
      * @return - List or alerts
      */
     public List<Alert> getAlerts(){
@@ -0,0 +1,41 @@
+package com.alerts;
+
+/**
+ * Per patient settings of the alert strategies. The defaults are the values the strategies
+ * always used; {@link AlertGenerator#configurePatient(int, AlertThresholds)} overrides them
+ * for a single patient, e.g. one whose heart rate is known to be unstable.
+ *
+ * Instances are immutable, the {@code with...} methods return a changed copy.
+ */
+public final class AlertThresholds {
+
+    public static final AlertThresholds DEFAULT = new AlertThresholds(5, -1);
+
+    private final int heartRateWindowSize;
+    private final double heartRateThreshold;
+
+    private AlertThresholds(int heartRateWindowSize, double heartRateThreshold) {
+        if (heartRateWindowSize < 1) {
+            throw new IllegalArgumentException("The heart rate window needs at least one reading: " + heartRateWindowSize);
+        }
+        this.heartRateWindowSize = heartRateWindowSize;
+        this.heartRateThreshold = heartRateThreshold;
+    }
+
+    /**
+     * @param windowSize - number of previous ECG readings the new reading is compared with
+     * @param threshold - an alert fires when the average minus the new reading is at most this value
+     * @return a copy with the given heart rate settings
+     */
+    public AlertThresholds withHeartRate(int windowSize, double threshold) {
+        return new AlertThresholds(windowSize, threshold);
+    }
+
+    public int getHeartRateWindowSize() {
+        return heartRateWindowSize;
+    }
+
+    public double getHeartRateThreshold() {
+        return heartRateThreshold;
+    }
+}
@@ -0,0 +1,88 @@
+package com.alerts;
+
+import com.data_management.PatientRecord;
+import com.data_management.RecordTypes;
+import com.design_pattern.strategy.AlertInterface;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Hands every record of a patient to the strategies that need it, in a single pass over the records.
+ *
+ * The strategies are looked up by the interned code of the record type, see {@link RecordTypes},
+ * in a table that is filled the first time a code is seen. Each strategy therefore gets exactly its
+ * own records, in their original order, without filtering the whole list itself and without any
+ * intermediate list per strategy.
+ *
+ * The table holds indexes into a strategy array, so one dispatcher serves every set of strategies
+ * built in the same order as the prototypes it was created with.
+ */
+public class RecordDispatcher {
+
+    private static final int[] NONE = new int[0];
+
+    private final AlertInterface[] prototypes;
+    private volatile int[][] targetsByCode = new int[0][];
+
+    /**
+     * @param prototypes - one instance of every strategy, in the order the strategy arrays will use
+     */
+    public RecordDispatcher(AlertInterface[] prototypes) {
+        this.prototypes = prototypes.clone();
+    }
+
+    /**
+     * Feeds every record to the strategies that accept its type.
+     *
+     * @param strategies - the strategies of the patient, in the same order as the prototypes
+     * @param patientId - the patient the records belong to
+     * @param records - the records, ordered by timestamp
+     * @param generator - where alerts are triggered
+     */
+    public void dispatch(AlertInterface[] strategies, int patientId, List<PatientRecord> records, AlertGenerator generator) {
+        for (int i = 0; i < records.size(); i++) {
+            dispatch(strategies, patientId, records.get(i), generator);
+        }
+    }
+
+    /**
+     * Feeds one record to the strategies that accept its type.
+     *
+     * @param strategies - the strategies of the patient, in the same order as the prototypes
+     * @param patientId - the patient the record belongs to
+     * @param record - the record
+     * @param generator - where alerts are triggered
+     */
+    public void dispatch(AlertInterface[] strategies, int patientId, PatientRecord record, AlertGenerator generator) {
+        int[] targets = targetsFor(record.getTypeCode());
+        for (int target : targets) {
+            strategies[target].onRecord(patientId, record, generator);
+        }
+    }
+
+    private int[] targetsFor(int typeCode) {
+        int[][] table = targetsByCode;
+        if (typeCode < table.length && table[typeCode] != null) {
+            return table[typeCode];
+        }
+        synchronized (this) {
+            table = targetsByCode;
+            if (typeCode < table.length && table[typeCode] != null) {
+                return table[typeCode];
+            }
+            String recordType = RecordTypes.nameOf(typeCode);
+            int[] targets = new int[prototypes.length];
+            int count = 0;
+            for (int i = 0; i < prototypes.length; i++) {
+                if (prototypes[i].accepts(recordType)) {
+                    targets[count++] = i;
+                }
+            }
+            int[][] grown = Arrays.copyOf(table, Math.max(table.length, typeCode + 1));
+            grown[typeCode] = count == 0 ? NONE : Arrays.copyOf(targets, count);
+            targetsByCode = grown;
+            return grown[typeCode];
+        }
+    }
+}
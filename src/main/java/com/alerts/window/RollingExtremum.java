@@ -0,0 +1,182 @@
+package com.alerts.window;
+
+/**
+ * Exact maximum (or minimum) of the readings of the last {@code spanMillis} milliseconds.
+ *
+ * Backed by a monotonic deque in two primitive arrays: a reading that is dominated by a newer
+ * one can never be the extreme again and is dropped, so the front of the deque always holds the
+ * answer. Every reading is pushed and popped at most once, which makes a reading cost O(1)
+ * amortized, and nothing is boxed. The arrays start small and only grow when the readings of the
+ * span keep decreasing (for a maximum), so one instance per patient stays cheap. A reading that
+ * arrives late, older than the newest one, is put in its place, which costs a shift of the deque.
+ *
+ * Not thread safe, an instance belongs to one patient.
+ */
+public class RollingExtremum {
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    private final boolean keepsMaximum;
+    private final long spanMillis;
+
+    // (key, value) pairs, the key is a timestamp or, inside a RollingWindow, a sequence number
+    private long[] keys;
+    private double[] values;
+    private int front;
+    private int length;
+
+    /**
+     * @param spanMillis - how far back the maximum reaches, in milliseconds
+     * @return a rolling maximum over the given span
+     */
+    public static RollingExtremum maximum(long spanMillis) {
+        return new RollingExtremum(true, spanMillis);
+    }
+
+    /**
+     * @param spanMillis - how far back the minimum reaches, in milliseconds
+     * @return a rolling minimum over the given span
+     */
+    public static RollingExtremum minimum(long spanMillis) {
+        return new RollingExtremum(false, spanMillis);
+    }
+
+    RollingExtremum(boolean keepsMaximum, long spanMillis) {
+        if (spanMillis <= 0) {
+            throw new IllegalArgumentException("The span must be positive: " + spanMillis);
+        }
+        this.keepsMaximum = keepsMaximum;
+        this.spanMillis = spanMillis;
+        this.keys = new long[INITIAL_CAPACITY];
+        this.values = new double[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Adds a reading and drops the readings that are older than the span. A late reading, older than
+     * the newest one, goes in its place and does not move the span; if it is already out of the span
+     * of the newest reading it is ignored.
+     *
+     * @param timestamp - time of the reading, in milliseconds
+     * @param value - the measurement value
+     */
+    public void add(long timestamp, double value) {
+        if (length > 0 && timestamp < keys[(front + length - 1) % keys.length]) {
+            insert(timestamp, value);
+            return;
+        }
+        expire(timestamp);
+        push(timestamp, value);
+    }
+
+    /**
+     * Drops the readings that are older than the span at the given time, a reading taken exactly
+     * {@code spanMillis} ago is already out.
+     *
+     * @param now - the current time, in milliseconds
+     */
+    public void expire(long now) {
+        if (spanMillis != Long.MAX_VALUE) {
+            removeUpTo(now - spanMillis);
+        }
+    }
+
+    /**
+     * @return the extreme of the readings of the span, NaN when there is none
+     */
+    public double get() {
+        return length == 0 ? Double.NaN : values[front];
+    }
+
+    public boolean isEmpty() {
+        return length == 0;
+    }
+
+    public void clear() {
+        front = 0;
+        length = 0;
+    }
+
+    // keys must never decrease from one push to the next
+    void push(long key, double value) {
+        while (length > 0) {
+            double last = values[(front + length - 1) % values.length];
+            if (keepsMaximum ? last <= value : last >= value) {
+                length--;
+            } else {
+                break;
+            }
+        }
+        if (length == keys.length) {
+            grow();
+        }
+        int slot = (front + length) % keys.length;
+        keys[slot] = key;
+        values[slot] = value;
+        length++;
+    }
+
+    // a late reading, keyed before the newest entry: goes between the entries by key, unless a newer entry dominates it
+    private void insert(long key, double value) {
+        long newest = keys[(front + length - 1) % keys.length];
+        if (spanMillis != Long.MAX_VALUE && key <= newest - spanMillis) {
+            return; // already out of the span
+        }
+        int at = length;
+        while (at > 0 && keys[(front + at - 1) % keys.length] > key) {
+            at--;
+        }
+        double next = values[(front + at) % values.length]; // at < length, the newest key is larger
+        if (keepsMaximum ? next >= value : next <= value) {
+            return; // a newer reading is at least as extreme, this one can never be the answer
+        }
+        int from = at; // the older entries it dominates go, they form the end of [0, at)
+        while (from > 0) {
+            double older = values[(front + from - 1) % values.length];
+            if (keepsMaximum ? older <= value : older >= value) {
+                from--;
+            } else {
+                break;
+            }
+        }
+        int tail = length - at;
+        long[] tailKeys = new long[tail];
+        double[] tailValues = new double[tail];
+        for (int i = 0; i < tail; i++) {
+            tailKeys[i] = keys[(front + at + i) % keys.length];
+            tailValues[i] = values[(front + at + i) % values.length];
+        }
+        length = from;
+        if (from + 1 + tail > keys.length) {
+            grow();
+        }
+        int slot = (front + from) % keys.length;
+        keys[slot] = key;
+        values[slot] = value;
+        for (int i = 0; i < tail; i++) {
+            slot = (front + from + 1 + i) % keys.length;
+            keys[slot] = tailKeys[i];
+            values[slot] = tailValues[i];
+        }
+        length = from + 1 + tail;
+    }
+
+    // drops every entry whose key is at most the given one
+    void removeUpTo(long key) {
+        while (length > 0 && keys[front] <= key) {
+            front = (front + 1) % keys.length;
+            length--;
+        }
+    }
+
+    private void grow() {
+        long[] newKeys = new long[keys.length * 2];
+        double[] newValues = new double[values.length * 2];
+        for (int i = 0; i < length; i++) {
+            newKeys[i] = keys[(front + i) % keys.length];
+            newValues[i] = values[(front + i) % values.length];
+        }
+        keys = newKeys;
+        values = newValues;
+        front = 0;
+    }
+}
@@ -0,0 +1,204 @@
+package com.alerts.window;
+
+/**
+ * Rolling aggregate over the last readings of a signal: sum, mean, variance, minimum and maximum.
+ *
+ * The window holds at most {@code maxSamples} readings and, optionally, only readings younger than
+ * {@code maxAgeMillis}. Adding a reading costs O(1) amortized: the sums are updated in place and
+ * the minimum and maximum come from two {@link RollingExtremum} deques. Everything lives in primitive arrays
+ * allocated up front, so no object is created per reading. A time bounded window that needs more
+ * room than it was given grows its arrays, which only happens while it warms up.
+ *
+ * Not thread safe, an instance belongs to one patient.
+ */
+public class RollingWindow {
+
+    /** use as {@code maxAgeMillis} for a window that is only bounded by the number of readings */
+    public static final long NO_AGE_LIMIT = Long.MAX_VALUE;
+
+    private final int maxSamples;
+    private final long maxAgeMillis;
+
+    // ring of the readings in the window, oldest at head
+    private long[] timestamps;
+    private double[] values;
+    private int head;
+    private int size;
+    private long added; // sequence number of the next reading
+
+    // sums are kept relative to the first reading, which keeps the variance accurate for large values
+    private double shift;
+    private double sum;
+    private double sumOfSquares;
+
+    private final RollingExtremum minimum;
+    private final RollingExtremum maximum;
+
+    /**
+     * Window bounded by the number of readings only.
+     *
+     * @param maxSamples - number of readings kept
+     */
+    public RollingWindow(int maxSamples) {
+        this(maxSamples, NO_AGE_LIMIT);
+    }
+
+    /**
+     * @param maxSamples - maximum number of readings kept
+     * @param maxAgeMillis - readings older than this, relative to the newest one, leave the window
+     */
+    public RollingWindow(int maxSamples, long maxAgeMillis) {
+        if (maxSamples < 1) {
+            throw new IllegalArgumentException("A window needs room for at least one reading: " + maxSamples);
+        }
+        if (maxAgeMillis <= 0) {
+            throw new IllegalArgumentException("The age of a window must be positive: " + maxAgeMillis);
+        }
+        this.maxSamples = maxSamples;
+        this.maxAgeMillis = maxAgeMillis;
+        int capacity = maxAgeMillis == NO_AGE_LIMIT ? maxSamples : Math.min(maxSamples, 64);
+        this.timestamps = new long[capacity];
+        this.values = new double[capacity];
+        // the deques are keyed by sequence number, this window decides which readings leave them
+        this.minimum = new RollingExtremum(false, NO_AGE_LIMIT);
+        this.maximum = new RollingExtremum(true, NO_AGE_LIMIT);
+    }
+
+    /**
+     * Adds a reading. Readings that fall out of the window because of it are removed first.
+     *
+     * @param timestamp - time of the reading, in milliseconds; readings are expected in time order
+     * @param value - the measurement value
+     */
+    public void add(long timestamp, double value) {
+        expire(timestamp);
+        if (size == maxSamples) {
+            removeOldest();
+        }
+        if (size == timestamps.length) {
+            grow();
+        }
+        if (size == 0) {
+            shift = value;
+            sum = 0;
+            sumOfSquares = 0;
+        }
+
+        timestamps[(head + size) % timestamps.length] = timestamp;
+        values[(head + size) % values.length] = value;
+        size++;
+        double shifted = value - shift;
+        sum += shifted;
+        sumOfSquares += shifted * shifted;
+        minimum.push(added, value);
+        maximum.push(added, value);
+        added++;
+    }
+
+    /**
+     * Removes the readings that are too old at the given time. Only needed to age the window
+     * when no new reading arrives, {@link #add} already does it.
+     *
+     * @param now - the current time, in milliseconds
+     */
+    public void expire(long now) {
+        if (maxAgeMillis == NO_AGE_LIMIT) {
+            return;
+        }
+        while (size > 0 && timestamps[head] <= now - maxAgeMillis) {
+            removeOldest();
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return true once the window holds {@code maxSamples} readings
+     */
+    public boolean isFull() {
+        return size == maxSamples;
+    }
+
+    public double sum() {
+        return sum + size * shift;
+    }
+
+    /**
+     * @return the mean of the readings in the window, NaN when it is empty
+     */
+    public double mean() {
+        return size == 0 ? Double.NaN : shift + sum / size;
+    }
+
+    /**
+     * @return the population variance of the readings in the window, NaN when it is empty
+     */
+    public double variance() {
+        if (size == 0) {
+            return Double.NaN;
+        }
+        double mean = sum / size;
+        return Math.max(0, sumOfSquares / size - mean * mean);
+    }
+
+    /**
+     * @return the smallest reading in the window, NaN when it is empty
+     */
+    public double min() {
+        return size == 0 ? Double.NaN : minimum.get();
+    }
+
+    /**
+     * @return the largest reading in the window, NaN when it is empty
+     */
+    public double max() {
+        return size == 0 ? Double.NaN : maximum.get();
+    }
+
+    /**
+     * @return the timestamp of the oldest reading still in the window
+     */
+    public long oldestTimestamp() {
+        if (size == 0) {
+            throw new IllegalStateException("The window is empty");
+        }
+        return timestamps[head];
+    }
+
+    public void clear() {
+        head = 0;
+        size = 0;
+        minimum.clear();
+        maximum.clear();
+    }
+
+    private void removeOldest() {
+        long sequence = added - size;
+        double shifted = values[head] - shift;
+        sum -= shifted;
+        sumOfSquares -= shifted * shifted;
+        minimum.removeUpTo(sequence);
+        maximum.removeUpTo(sequence);
+        head = (head + 1) % timestamps.length;
+        size--;
+    }
+
+    private void grow() {
+        int capacity = Math.min(maxSamples, timestamps.length * 2);
+        long[] newTimestamps = new long[capacity];
+        double[] newValues = new double[capacity];
+        for (int i = 0; i < size; i++) {
+            newTimestamps[i] = timestamps[(head + i) % timestamps.length];
+            newValues[i] = values[(head + i) % values.length];
+        }
+        timestamps = newTimestamps;
+        values = newValues;
+        head = 0;
+    }
+}
@@ -0,0 +1,150 @@
+package com.alerts.window;
+
+/**
+ * Streaming join of two signals of one patient: "condition A holds on signal X within
+ * {@code withinMillis} of condition B holding on signal Y", e.g. a low systolic pressure
+ * close in time to a low saturation.
+ *
+ * The caller evaluates the conditions itself and reports every reading of the two signals with
+ * {@link #onFirst(long, boolean)} and {@link #onSecond(long, boolean)}. The timestamps of the
+ * recent readings for which a condition held are kept in a small primitive ring per signal, so
+ * a reading that arrives a little late still finds its partner. A reading for which the condition
+ * does not hold means the condition is over: the earlier entries of that signal can no longer be
+ * joined with readings of the other signal taken after it.
+ *
+ * A match opens an episode and only the first match of an episode is reported. The episode
+ * ends when one of the conditions stops holding, or when no match was seen for
+ * {@code withinMillis}; the next match after that is reported again.
+ *
+ * Not thread safe, an instance belongs to one patient.
+ */
+public class TemporalJoin {
+
+    private final long withinMillis;
+    private final Ring first;
+    private final Ring second;
+
+    private boolean inEpisode;
+    private long lastMatch;
+
+    /**
+     * @param withinMillis - the two conditions match when their readings are less than this apart
+     * @param capacity - how many recent readings of each signal are remembered
+     */
+    public TemporalJoin(long withinMillis, int capacity) {
+        if (withinMillis <= 0) {
+            throw new IllegalArgumentException("The join interval must be positive: " + withinMillis);
+        }
+        if (capacity < 1) {
+            throw new IllegalArgumentException("The join needs room for at least one reading: " + capacity);
+        }
+        this.withinMillis = withinMillis;
+        this.first = new Ring(capacity);
+        this.second = new Ring(capacity);
+    }
+
+    /**
+     * Reports a reading of the first signal.
+     *
+     * @param timestamp - time of the reading, in milliseconds
+     * @param conditionHolds - whether the condition of the first signal holds for this reading
+     * @return true if this reading starts a new matching episode
+     */
+    public boolean onFirst(long timestamp, boolean conditionHolds) {
+        return onReading(first, second, timestamp, conditionHolds);
+    }
+
+    /**
+     * Reports a reading of the second signal.
+     *
+     * @param timestamp - time of the reading, in milliseconds
+     * @param conditionHolds - whether the condition of the second signal holds for this reading
+     * @return true if this reading starts a new matching episode
+     */
+    public boolean onSecond(long timestamp, boolean conditionHolds) {
+        return onReading(second, first, timestamp, conditionHolds);
+    }
+
+    /**
+     * @return true while the last reported match has not ended yet
+     */
+    public boolean isInEpisode() {
+        return inEpisode;
+    }
+
+    public void clear() {
+        first.clear();
+        second.clear();
+        inEpisode = false;
+    }
+
+    private boolean onReading(Ring own, Ring other, long timestamp, boolean conditionHolds) {
+        if (inEpisode && timestamp - lastMatch >= withinMillis) {
+            inEpisode = false; // no match for too long
+        }
+        if (!conditionHolds) {
+            own.endAt(timestamp);
+            if (timestamp >= lastMatch) {
+                inEpisode = false;
+            }
+            return false;
+        }
+
+        own.add(timestamp);
+        if (!other.hasWithin(timestamp, withinMillis)) {
+            return false;
+        }
+        lastMatch = Math.max(lastMatch, timestamp);
+        if (inEpisode) {
+            return false;
+        }
+        inEpisode = true;
+        return true;
+    }
+
+    /**
+     * Timestamps of the recent readings of one signal for which the condition held, with the time
+     * the condition stopped holding after each of them. When it is full the oldest entry is overwritten.
+     */
+    private static final class Ring {
+        private final long[] timestamps;
+        private final long[] ends;
+        private int next;
+        private int size;
+
+        Ring(int capacity) {
+            this.timestamps = new long[capacity];
+            this.ends = new long[capacity];
+        }
+
+        void add(long timestamp) {
+            timestamps[next] = timestamp;
+            ends[next] = Long.MAX_VALUE;
+            next = (next + 1) % timestamps.length;
+            size = Math.min(size + 1, timestamps.length);
+        }
+
+        boolean hasWithin(long timestamp, long withinMillis) {
+            for (int i = 0; i < size; i++) {
+                if (Math.abs(timestamps[i] - timestamp) < withinMillis && timestamp < ends[i]) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        // the condition stopped holding at the given time for every entry taken before it
+        void endAt(long timestamp) {
+            for (int i = 0; i < size; i++) {
+                if (timestamps[i] <= timestamp && ends[i] > timestamp) {
+                    ends[i] = timestamp;
+                }
+            }
+        }
+
+        void clear() {
+            next = 0;
+            size = 0;
+        }
+    }
+}
@@ -3,6 +3,7 @@ package com.cardio_generator;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
@@ -10,9 +11,12 @@ import com.cardio_generator.generators.*;
 
 import com.cardio_generator.outputs.*;
 import com.cardio_generator.outputs.FileOutputStrategy;
+import com.cardio_generator.outputs.FileRotation;
 import com.data_management.DataStorage;
 import com.data_management.Patient;
 import com.data_management.PatientRecord;
+import com.data_management.RetentionCompactor;
+import com.data_management.RetentionPolicy;
 
 import java.io.IOException;
 import java.nio.file.Files;
@@ -34,6 +38,16 @@ public class HealthDataSimulator {
     private static OutputStrategy outputStrategy = new ConsoleOutputStrategy(); // Default output strategy
     private static final Random random = new Random();
     private static final Map<Integer, Patient> patientRegistry = new ConcurrentHashMap<>();
+    private static int analysisThreads = 1; // patients evaluated one after another by default
+    private static ForkJoinPool analysisPool;
+    private static RetentionPolicy retention = RetentionPolicy.DEFAULT; // keeps the registry from growing forever
+    private static FileRotation fileRotation = FileRotation.NONE; // the file output never rotates by default
+    private static long webSocketBatchMillis = 0; // every reading is its own WebSocket message by default
+    private static int webSocketBatchSize = WebSocketOutputStrategy.DEFAULT_MAX_BATCH_RECORDS;
+    private static TcpOutputStrategy.SlowClientPolicy tcpSlowClients = TcpOutputStrategy.SlowClientPolicy.DISCONNECT;
+    private static long tcpBacklogBytes = TcpOutputStrategy.DEFAULT_MAX_BACKLOG_BYTES;
+    private static final RetentionCompactor retentionCompactor =
+            new RetentionCompactor(patientRegistry.values(), RetentionCompactor.DEFAULT_PERIOD_MILLIS);
 
 
     private static volatile HealthDataSimulator instance;
@@ -91,34 +105,37 @@ public class HealthDataSimulator {
     // its task is to create a collection on n datapoints such that they can be processed by the alert generator
     public static void buffer_Analyse(){
         System.out.println("run buffer");
-        Map<Integer , Patient> bufferPatientMap = new ConcurrentHashMap<>();
+        Map<Integer , List<PatientRecord>> bufferPatientMap = new HashMap<>();
         long timestamp = System.currentTimeMillis();
 
 
         for(int i = 1 ; i<patientCount+1 ; i++){
-            List<PatientRecord> record = patientRegistry.get(i).getRecords();
-            for ( int j = 0; j<record.size(); j++){
-                if(record.get(j).getTimestamp()<= timestamp && record.get(j).getTimestamp()>=(timestamp-1000*60*30)){
-                    if(bufferPatientMap.get(i) == null){
-                        Patient patient = new Patient(i);
-                        patient.addRecord(record.get(j).getMeasurementValue() , record.get(j).getRecordType() , record.get(j).getTimestamp());
-                        bufferPatientMap.put(i,patient);
-                    }
-                    else{
-                        bufferPatientMap.get(i).addRecord(record.get(j).getMeasurementValue() , record.get(j).getRecordType() , record.get(j).getTimestamp());
-                    }
-                }
+            Patient patient = patientRegistry.get(i);
+            if (patient == null) {
+                continue;
+            }
+            // snapshot view of the last 30 minutes, the generators keep writing while it is analysed
+            List<PatientRecord> record = patient.getRecords(timestamp-1000*60*30, timestamp);
+            if (!record.isEmpty()) {
+                bufferPatientMap.put(i, record);
             }
         }
         getAlerts(bufferPatientMap);
 
     }
 
-    private static void getAlerts(Map<Integer , Patient> patientMap){
+    private static void getAlerts(Map<Integer , List<PatientRecord>> patientMap){
         DataStorage dataStorage = null;
         com.alerts.AlertGenerator alertGenerator = new com.alerts.AlertGenerator(dataStorage);
-        for(int i = 1 ; i<patientCount+1; i++){
-            alertGenerator.evaluateData(patientMap.get(i));
+        if (analysisThreads > 1) {
+            if (analysisPool == null) {
+                analysisPool = new ForkJoinPool(analysisThreads);
+            }
+            alertGenerator.evaluateData(patientMap, analysisPool);
+        } else {
+            for (Map.Entry<Integer, List<PatientRecord>> patient : patientMap.entrySet()) {
+                alertGenerator.evaluateData(patient.getKey(), patient.getValue());
+            }
         }
 
     }
@@ -133,6 +150,10 @@ public class HealthDataSimulator {
      */
 
     private static void parseArguments(String[] args) throws IOException {
+        String fileDirectory = null; // the file output is created last, once its rotation is known
+        int webSocketPort = -1; // same for the WebSocket output and its batches
+        int tcpPort = -1; // and the TCP output and its slow clients
+        boolean tcpBinary = false;
         for (int i = 0; i < args.length; i++) {
             switch (args[i]) {
                 case "-h":
@@ -149,9 +170,88 @@ public class HealthDataSimulator {
                         }
                     }
                     break;
+                case "--analysis-threads":
+                    if (i + 1 < args.length) {
+                        try {
+                            analysisThreads = Math.max(1, Integer.parseInt(args[++i]));
+                        } catch (NumberFormatException e) {
+                            System.err.println("Error: Invalid number of analysis threads. Using default value: " + analysisThreads);
+                        }
+                    }
+                    break;
+                case "--retention-hours":
+                    if (i + 1 < args.length) {
+                        try {
+                            retention = retention.withTimeToLive(Long.parseLong(args[++i]) * 60 * 60 * 1000);
+                        } catch (IllegalArgumentException e) {
+                            System.err.println("Error: Invalid retention. Using default value: "
+                                    + retention.getTimeToLive("ECG") / (60 * 60 * 1000) + " hours");
+                        }
+                    }
+                    break;
+                case "--file-rotate-mb":
+                    if (i + 1 < args.length) {
+                        try {
+                            fileRotation = fileRotation.withMaxBytes(Long.parseLong(args[++i]) * 1024 * 1024);
+                        } catch (IllegalArgumentException e) {
+                            System.err.println("Error: Invalid rotation size. The files will not rotate by size.");
+                        }
+                    }
+                    break;
+                case "--file-rotate-minutes":
+                    if (i + 1 < args.length) {
+                        try {
+                            fileRotation = fileRotation.withInterval(Long.parseLong(args[++i]) * 60 * 1000);
+                        } catch (IllegalArgumentException e) {
+                            System.err.println("Error: Invalid rotation interval. The files will not rotate by time.");
+                        }
+                    }
+                    break;
+                case "--websocket-batch-ms":
+                    if (i + 1 < args.length) {
+                        try {
+                            webSocketBatchMillis = Math.max(0, Long.parseLong(args[++i]));
+                        } catch (NumberFormatException e) {
+                            System.err.println("Error: Invalid batch window. Every reading is sent on its own.");
+                        }
+                    }
+                    break;
+                case "--websocket-batch-size":
+                    if (i + 1 < args.length) {
+                        try {
+                            webSocketBatchSize = Math.max(1, Integer.parseInt(args[++i]));
+                        } catch (NumberFormatException e) {
+                            System.err.println("Error: Invalid batch size. Using default value: " + webSocketBatchSize);
+                        }
+                    }
+                    break;
+                case "--tcp-slow-client":
+                    if (i + 1 < args.length) {
+                        try {
+                            tcpSlowClients = TcpOutputStrategy.SlowClientPolicy.valueOf(args[++i].toUpperCase());
+                        } catch (IllegalArgumentException e) {
+                            System.err.println("Error: Invalid slow client policy. Using default value: " + tcpSlowClients);
+                        }
+                    }
+                    break;
+                case "--tcp-backlog-kb":
+                    if (i + 1 < args.length) {
+                        try {
+                            tcpBacklogBytes = Math.max(16, Long.parseLong(args[++i])) * 1024;
+                        } catch (NumberFormatException e) {
+                            System.err.println("Error: Invalid backlog. Using default value: " + tcpBacklogBytes / 1024 + " KB");
+                        }
+                    }
+                    break;
+                case "--file-compress":
+                    fileRotation = fileRotation.withCompression(true);
+                    break;
                 case "--output":
                     if (i + 1 < args.length) {
                         String outputArg = args[++i];
+                        fileDirectory = null;
+                        webSocketPort = -1;
+                        tcpPort = -1;
                         if (outputArg.equals("console")) {
                             outputStrategy = new ConsoleOutputStrategy();
                         } else if (outputArg.startsWith("file:")) {
@@ -160,23 +260,31 @@ public class HealthDataSimulator {
                             if (!Files.exists(outputPath)) {
                                 Files.createDirectories(outputPath);
                             }
-                            outputStrategy = new FileOutputStrategy(baseDirectory);
+                            fileDirectory = baseDirectory;
                         } else if (outputArg.startsWith("websocket:")) {
                             try {
                                 int port = Integer.parseInt(outputArg.substring(10));
-                                // Initialize your WebSocket output strategy here
-                                outputStrategy = new WebSocketOutputStrategy(port);
+                                // the WebSocket output strategy is initialized once the batching is known
+                                webSocketPort = port;
                                 System.out.println("WebSocket output will be on port: " + port);
                             } catch (NumberFormatException e) {
                                 System.err.println(
                                         "Invalid port for WebSocket output. Please specify a valid port number.");
                             }
+                        } else if (outputArg.startsWith("tcp-binary:")) {
+                            try {
+                                tcpPort = Integer.parseInt(outputArg.substring(11));
+                                tcpBinary = true;
+                                System.out.println("Binary TCP socket output will be on port: " + tcpPort);
+                            } catch (NumberFormatException e) {
+                                System.err.println("Invalid port for TCP output. Please specify a valid port number.");
+                            }
                         } else if (outputArg.startsWith("tcp:")) {
                             try {
-                                int port = Integer.parseInt(outputArg.substring(4));
-                                // Initialize your TCP socket output strategy here
-                                outputStrategy = new TcpOutputStrategy(port);
-                                System.out.println("TCP socket output will be on port: " + port);
+                                tcpPort = Integer.parseInt(outputArg.substring(4));
+                                tcpBinary = false;
+                                // the TCP socket output strategy is initialized once its options are known
+                                System.out.println("TCP socket output will be on port: " + tcpPort);
                             } catch (NumberFormatException e) {
                                 System.err.println("Invalid port for TCP output. Please specify a valid port number.");
                             }
@@ -191,6 +299,15 @@ public class HealthDataSimulator {
                     System.exit(1);
             }
         }
+        if (fileDirectory != null) {
+            outputStrategy = new FileOutputStrategy(fileDirectory, fileRotation);
+        }
+        if (tcpPort >= 0) {
+            outputStrategy = new TcpOutputStrategy(tcpPort, tcpBinary, tcpSlowClients, tcpBacklogBytes);
+        }
+        if (webSocketPort >= 0) {
+            outputStrategy = new WebSocketOutputStrategy(webSocketPort, webSocketBatchMillis, webSocketBatchSize);
+        }
     }
 
 
@@ -203,11 +320,30 @@ public class HealthDataSimulator {
         System.out.println("  -h                       Show help and exit.");
         System.out.println(
                 "  --patient-count <count>  Specify the number of patients to simulate data for (default: 50).");
+        System.out.println(
+                "  --analysis-threads <n>   Number of threads that evaluate the patients for alerts (default: 1).");
+        System.out.println(
+                "  --retention-hours <h>    Hours of history kept per patient, older than one hour is downsampled (default: 24).");
         System.out.println("  --output <type>          Define the output method. Options are:");
         System.out.println("                             'console' for console output,");
         System.out.println("                             'file:<directory>' for file output,");
         System.out.println("                             'websocket:<port>' for WebSocket output,");
-        System.out.println("                             'tcp:<port>' for TCP socket output.");
+        System.out.println("                             'tcp:<port>' for TCP socket output,");
+        System.out.println("                             'tcp-binary:<port>' for TCP socket output in binary frames.");
+        System.out.println(
+                "  --file-rotate-mb <mb>    Start a new file segment once a file output file reaches this size.");
+        System.out.println(
+                "  --file-rotate-minutes <m> Start a new file segment every m minutes.");
+        System.out.println(
+                "  --file-compress          GZIP the closed file segments.");
+        System.out.println(
+                "  --websocket-batch-ms <ms> Send the WebSocket readings in batches, at most ms late (default: off).");
+        System.out.println(
+                "  --websocket-batch-size <n> Most readings in one WebSocket batch (default: 512).");
+        System.out.println(
+                "  --tcp-slow-client <p>    'disconnect' (default) or 'drop' the readings of a TCP client that falls behind.");
+        System.out.println(
+                "  --tcp-backlog-kb <kb>    How far a TCP client may fall behind (default: 4096).");
         System.out.println("Example:");
         System.out.println("  java HealthDataSimulator --patient-count 100 --output websocket:8080");
         System.out.println(
@@ -260,6 +396,7 @@ public class HealthDataSimulator {
                 e.printStackTrace();
             }
         }, 60*30, TimeUnit.SECONDS);
+        retentionCompactor.configure(retention);
 
     }
 
@@ -0,0 +1,248 @@
+package com.cardio_generator.outputs;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * The binary alternative to the "patientId,timestamp,label,data" text lines of the network outputs.
+ *
+ * A stream of frames, each starting with its kind:
+ *
+ *     record: RECORD, patient id (int), timestamp (long), label code (unsigned short), value (double)
+ *     label:  LABEL, label code (unsigned short), length (unsigned short), label in UTF-8
+ *
+ * so a reading always takes {@value #RECORD_BYTES} bytes and needs no formatting nor parsing. The label
+ * codes are a dictionary of the connection: the sender announces a label with a label frame before the
+ * first record that uses its code, and the receiver keeps the codes it was told about. Frames have a
+ * known length, so they can be cut from a byte stream (TCP) as well as sent as WebSocket messages.
+ *
+ * Only numeric data can be sent, a trailing '%' is dropped. Other data, e.g. the "triggered" of an
+ * alert, has no binary form; the text clients can not store it either.
+ */
+public final class BinaryRecordFormat {
+
+    /** WebSocket subprotocol a client asks for to receive binary frames */
+    public static final String PROTOCOL = "cardio-binary-v1";
+
+    public static final byte RECORD = 1;
+    public static final byte LABEL = 2;
+    public static final int RECORD_BYTES = 1 + 4 + 8 + 2 + 8;
+    public static final int MAX_LABELS = 1 << 16;
+
+    private BinaryRecordFormat() {
+    }
+
+    /**
+     * @param data - the data of a reading, as given to an {@link OutputStrategy}
+     * @return its value, NaN if it is not a number
+     */
+    public static double parseValue(String data) {
+        int end = data.length();
+        if (end > 0 && data.charAt(end - 1) == '%') {
+            end--;
+        }
+        try {
+            return Double.parseDouble(end == data.length() ? data : data.substring(0, end));
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * Writes a record frame at the position of the buffer.
+     */
+    public static void putRecord(ByteBuffer out, int patientId, long timestamp, int labelCode, double value) {
+        out.put(RECORD).putInt(patientId).putLong(timestamp).putShort((short) labelCode).putDouble(value);
+    }
+
+    /**
+     * @return a complete label frame announcing the code of a label
+     */
+    public static byte[] labelFrame(int labelCode, String label) {
+        byte[] name = label.getBytes(StandardCharsets.UTF_8);
+        if (name.length > 0xFFFF) {
+            throw new IllegalArgumentException("Label too long: " + label.length() + " characters");
+        }
+        return ByteBuffer.allocate(5 + name.length).put(LABEL).putShort((short) labelCode)
+                .putShort((short) name.length).put(name).array();
+    }
+
+    /**
+     * The label codes of a sender. A code is handed out the first time a label is used, and announced
+     * while the dictionary is locked, so a record using it can not overtake its label frame.
+     */
+    public static final class Dictionary {
+        private final Map<String, Integer> codes = new HashMap<>();
+        private volatile Map<String, Integer> published = Map.of();
+        private byte[][] frames = new byte[16][];
+
+        /**
+         * @param label - the label of a reading
+         * @param announce - sends the label frame of a new label to every receiver, called with the dictionary locked
+         * @return the code of the label, -1 if the dictionary is full
+         */
+        public int codeOf(String label, Consumer<byte[]> announce) {
+            Integer code = published.get(label);
+            if (code != null) {
+                return code;
+            }
+            synchronized (this) {
+                code = codes.get(label);
+                if (code == null) {
+                    if (codes.size() == MAX_LABELS) {
+                        return -1;
+                    }
+                    code = codes.size();
+                    if (code == frames.length) {
+                        frames = Arrays.copyOf(frames, code * 2);
+                    }
+                    frames[code] = labelFrame(code, label);
+                    announce.accept(frames[code]);
+                    codes.put(label, code);
+                    published = Map.copyOf(codes);
+                }
+                return code;
+            }
+        }
+
+        /**
+         * Runs an action with the dictionary locked, so no label is added meanwhile, e.g. to send every label frame
+         * to a new receiver and then register it.
+         *
+         * @param action - gets the label frames of every code handed out so far
+         */
+        public synchronized void locked(Consumer<byte[][]> action) {
+            action.accept(Arrays.copyOf(frames, codes.size()));
+        }
+    }
+
+    /**
+     * Receives the records decoded by a {@link Decoder}.
+     */
+    public interface Sink {
+        void record(int patientId, long timestamp, String label, double value);
+    }
+
+    /**
+     * Receives the frames decoded by a {@link Decoder} with their label codes, for receivers that look
+     * every label up once, when it is announced, rather than once per record.
+     */
+    public interface FrameSink {
+        /**
+         * @param labelCode - the code the label goes by on this connection from now on
+         * @param label - the label
+         */
+        void label(int labelCode, String label);
+
+        /**
+         * @param patientId - the unique identifier of the patient
+         * @param timestamp - the time at which the measurement was taken
+         * @param labelCode - the code of a label already handed to {@link #label}
+         * @param value - the value of the reading
+         */
+        void record(int patientId, long timestamp, int labelCode, double value);
+    }
+
+    /**
+     * Decodes the frames of one connection and keeps its dictionary. Not thread safe.
+     */
+    public static final class Decoder {
+        private String[] labels = new String[16];
+        private long invalidFrames;
+        private boolean lost;
+
+        /**
+         * Decodes every complete frame from the position of the buffer. A frame cut short at the end is left in
+         * the buffer, its position then points at it. A frame of an unknown kind ends the decoding, what follows
+         * can not be told apart from garbage, and the buffer is consumed.
+         *
+         * @param in - the bytes received
+         * @param sink - gets the records
+         * @return false if a frame could not be decoded
+         */
+        public boolean decode(ByteBuffer in, Sink sink) {
+            return decode(in, sink, null);
+        }
+
+        /**
+         * Same as {@link #decode(ByteBuffer, Sink)}, the label frames are handed over as well and the records
+         * keep their label code.
+         *
+         * @param in - the bytes received
+         * @param frames - gets the labels and the records
+         * @return false if a frame could not be decoded
+         */
+        public boolean decode(ByteBuffer in, FrameSink frames) {
+            return decode(in, null, frames);
+        }
+
+        // exactly one of the sinks is given
+        private boolean decode(ByteBuffer in, Sink sink, FrameSink frames) {
+            boolean valid = true;
+            while (in.hasRemaining()) {
+                int start = in.position();
+                byte kind = in.get(start);
+                if (kind == RECORD) {
+                    if (in.remaining() < RECORD_BYTES) {
+                        break;
+                    }
+                    in.position(start + 1);
+                    int patientId = in.getInt();
+                    long timestamp = in.getLong();
+                    int code = in.getShort() & 0xFFFF;
+                    double value = in.getDouble();
+                    if (code < labels.length && labels[code] != null) {
+                        if (sink != null) {
+                            sink.record(patientId, timestamp, labels[code], value);
+                        } else {
+                            frames.record(patientId, timestamp, code, value);
+                        }
+                    } else {
+                        invalidFrames++; // its label was never announced
+                        valid = false;
+                    }
+                } else if (kind == LABEL) {
+                    if (in.remaining() < 5 || in.remaining() < 5 + (in.getShort(start + 3) & 0xFFFF)) {
+                        break;
+                    }
+                    in.position(start + 1);
+                    int code = in.getShort() & 0xFFFF;
+                    int length = in.getShort() & 0xFFFF;
+                    if (code >= labels.length) {
+                        labels = Arrays.copyOf(labels, Math.max(code + 1, labels.length * 2));
+                    }
+                    byte[] name = new byte[length];
+                    in.get(name);
+                    labels[code] = new String(name, StandardCharsets.UTF_8);
+                    if (frames != null) {
+                        frames.label(code, labels[code]);
+                    }
+                } else {
+                    invalidFrames++;
+                    lost = true;
+                    in.position(in.limit());
+                    return false;
+                }
+            }
+            return valid;
+        }
+
+        /**
+         * @return true if a frame of an unknown kind was met: on a byte stream nothing after it can be trusted
+         */
+        public boolean isLost() {
+            return lost;
+        }
+
+        /**
+         * @return the number of frames that could not be decoded so far
+         */
+        public long getInvalidFrames() {
+            return invalidFrames;
+        }
+    }
+}
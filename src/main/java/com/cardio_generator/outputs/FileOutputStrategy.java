@@ -1,41 +1,133 @@
 package com.cardio_generator.outputs;
 
+import com.data_management.SegmentManifest;
 
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * It is a class that implements {@link OutputStrategy}
  * to save all patient information in a file of our choice
+ *
+ * Every label keeps its file open for as long as the strategy lives. A reading is formatted straight
+ * into the in-memory buffer of its label, and full buffers are handed to a background writer thread,
+ * so the generator threads never wait for the disk unless it falls far behind: at most
+ * {@link #MAX_QUEUED_BUFFERS} full buffers can wait to be written before the generators are held back.
+ * Buffers that are not full are written every flush interval, so a reading reaches the file at most
+ * that long after it was generated. {@link #close()}, also run by a shutdown hook, writes whatever is left.
+ *
+ * The files can be rotated by size or time, see {@link FileRotation}. Rotation happens on the
+ * background writer, compression of the closed segments on a thread of its own.
  */
 // The name of the File was lower case and was fixed to follow the CamelCase writing convention
-public class FileOutputStrategy implements OutputStrategy {
+public class FileOutputStrategy implements OutputStrategy, AutoCloseable {
+
+    public static final int DEFAULT_BUFFER_BYTES = 64 * 1024;
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 20;
+    public static final int MAX_QUEUED_BUFFERS = 64;
+
+    private static final byte[] PATIENT = "Patient ID: ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TIMESTAMP = ", Timestamp: ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] LINE_END = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
 
     private String baseDirectory; // Names of Variables have to start with lower case and followed with Capital case for the next word
 
     // constants should be static
     public static final ConcurrentHashMap<String, String> FILE_MAP = new ConcurrentHashMap<>(); // Any time we encounter a final , we have to write the name in capitals;
 
+    private final int bufferBytes;
+    private final long flushIntervalMillis;
+    private final FileRotation rotation;
+    private final ExecutorService compressor; // null when the segments are not compressed
+    private final ConcurrentHashMap<String, LabelWriter> writers = new ConcurrentHashMap<>();
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>(); // buffers waiting for the disk, in order
+    private final Semaphore queuedBuffers = new Semaphore(MAX_QUEUED_BUFFERS); // holds the generators back
+    private final Queue<byte[]> freeBuffers = new ConcurrentLinkedQueue<>();
+    private final Thread writerThread;
+    private final Thread shutdownHook;
+    private volatile boolean closed;
+
     /**
      * The constructor takes in a directory as a string and assignes it as a global private variable
      * @param baseDirectory - address of the directory where we want to save the data
      */
     public FileOutputStrategy(String baseDirectory) {
+        this(baseDirectory, DEFAULT_BUFFER_BYTES, DEFAULT_FLUSH_INTERVAL_MILLIS, FileRotation.NONE);
+    }
+
+    /**
+     * @param baseDirectory - address of the directory where we want to save the data
+     * @param rotation - when the file of a label is closed and a new one started
+     */
+    public FileOutputStrategy(String baseDirectory, FileRotation rotation) {
+        this(baseDirectory, DEFAULT_BUFFER_BYTES, DEFAULT_FLUSH_INTERVAL_MILLIS, rotation);
+    }
+
+    /**
+     * @param baseDirectory - address of the directory where we want to save the data
+     * @param bufferBytes - size of the buffer of every label, a full buffer is written right away
+     * @param flushIntervalMillis - how long a reading may wait in a buffer that is not full
+     */
+    public FileOutputStrategy(String baseDirectory, int bufferBytes, long flushIntervalMillis) {
+        this(baseDirectory, bufferBytes, flushIntervalMillis, FileRotation.NONE);
+    }
+
+    /**
+     * @param baseDirectory - address of the directory where we want to save the data
+     * @param bufferBytes - size of the buffer of every label, a full buffer is written right away
+     * @param flushIntervalMillis - how long a reading may wait in a buffer that is not full
+     * @param rotation - when the file of a label is closed and a new one started
+     */
+    public FileOutputStrategy(String baseDirectory, int bufferBytes, long flushIntervalMillis, FileRotation rotation) {
+        if (bufferBytes < 256 || flushIntervalMillis < 1) {
+            throw new IllegalArgumentException("The buffer needs at least 256 bytes and the flush interval 1 ms");
+        }
         this.baseDirectory = baseDirectory;
+        this.bufferBytes = bufferBytes;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.rotation = rotation;
+        this.compressor = rotation.isCompressed() ? Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "file-output-compressor");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+        try {
+            // Create the directory
+            Files.createDirectories(Paths.get(baseDirectory));
+        } catch (IOException e) {
+            System.err.println("Error creating base directory: " + e.getMessage());
+        }
+        writerThread = new Thread(this::writeLoop, "file-output-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+        shutdownHook = new Thread(this::close, "file-output-shutdown");
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
     }
 
 
     /**
-     * This method  creates if needed a file where the patient information will be stored in
-     *
-     * @throws IOException - makes sure that the filed is created without any error and if there is that they are flagged.
-     *
-     * After taking care of creating a file we now start adding the values to it
-     * @throws IOException makes sure that the file gets filled without any issues
+     * This method formats the patient information into the buffer of its label, the file of the label
+     * is created if needed and stays open. The line is written to the file by the background writer.
      *
      * @param patientId - the ID of the patient
      * @param timestamp -  at what time the test was "taken"
@@ -44,28 +136,344 @@ public class FileOutputStrategy implements OutputStrategy {
      */
     @Override
     public void output(int patientId, long timestamp, String label, String data) {
-        try {
-            // Create the directory
-            Files.createDirectories(Paths.get(baseDirectory));
-        } catch (IOException e) {
-            System.err.println("Error creating base directory: " + e.getMessage());
+        if (closed) {
+            System.err.println("Error writing to file for " + label + ": the output is closed");
             return;
         }
-        // FilePath variable should be lower case
-        // Set the FilePath variable
-        String filePath = FILE_MAP.computeIfAbsent(label, k -> Paths.get(baseDirectory, label + ".txt").toString());
-
-        // Write the data to the file
-        // Code had to be linewrapped
-        try (PrintWriter out = new PrintWriter(
-                Files.newBufferedWriter(
-                        Paths.get(filePath),
-                        StandardOpenOption.CREATE,
-                        StandardOpenOption.APPEND))) {
-            out.printf("Patient ID: %d, Timestamp: %d, Label: %s, Data: %s%n",
-                    patientId, timestamp, label, data); // code had to be line - wrapped
+        LabelWriter writer = writers.computeIfAbsent(label, LabelWriter::new);
+        if (writer.append(patientId, timestamp, data)) {
+            // a full buffer was queued, wait here if the disk is too far behind
+            queuedBuffers.acquireUninterruptibly();
+        }
+    }
+
+    /**
+     * Writes every buffered reading, closes the files and stops the background writer.
+     * Readings output afterwards are dropped.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        for (LabelWriter writer : writers.values()) {
+            writer.handOff(false);
+        }
+        queue.add(Pending.STOP);
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (LabelWriter writer : writers.values()) {
+            writer.closeFile();
+        }
+        if (compressor != null) {
+            compressor.shutdown();
+            try {
+                compressor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        try {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        } catch (IllegalStateException e) {
+            // already shutting down, this is the hook
+        }
+    }
+
+    private void writeLoop() {
+        long nextFlush = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+        while (true) {
+            Pending pending;
+            try {
+                pending = queue.poll(Math.max(0, nextFlush - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                continue; // only close() stops the writer, so nothing is lost
+            }
+            if (pending == Pending.STOP) {
+                // close() queued the last buffers before this
+                return;
+            }
+            if (pending != null) {
+                write(pending);
+            }
+            if (System.nanoTime() - nextFlush >= 0) {
+                // buffers that are not full go behind the full ones already queued, so the order is kept
+                for (LabelWriter writer : writers.values()) {
+                    writer.handOff(false);
+                    writer.rotateIfDue(0);
+                }
+                nextFlush = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+            }
+        }
+    }
+
+    private void write(Pending pending) {
+        try {
+            pending.writer.openFile();
+            pending.writer.rotateIfDue(pending.length);
+            FileChannel channel = pending.writer.openFile();
+            ByteBuffer bytes = ByteBuffer.wrap(pending.buffer, 0, pending.length);
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+            pending.writer.written(pending);
         } catch (IOException e) {// change Exception to IOException as exceptions should be the most specific possible
-            System.err.println("Error writing to file " + filePath + ": " + e.getMessage());
+            System.err.println("Error writing to file " + pending.writer.filePath + ": " + e.getMessage());
+        } finally {
+            if (pending.buffer.length == bufferBytes) {
+                freeBuffers.add(pending.buffer);
+            }
+            if (pending.holdsPermit) {
+                queuedBuffers.release();
+            }
+        }
+    }
+
+    /**
+     * A buffer on its way to the disk.
+     */
+    private static final class Pending {
+        static final Pending STOP = new Pending(null, null, 0, false, 0, 0, 0);
+
+        final LabelWriter writer;
+        final byte[] buffer;
+        final int length;
+        final boolean holdsPermit;
+        final long firstTimestamp; // lowest timestamp in the buffer
+        final long lastTimestamp; // highest timestamp in the buffer
+        final int readings;
+
+        Pending(LabelWriter writer, byte[] buffer, int length, boolean holdsPermit, long firstTimestamp,
+                long lastTimestamp, int readings) {
+            this.writer = writer;
+            this.buffer = buffer;
+            this.length = length;
+            this.holdsPermit = holdsPermit;
+            this.firstTimestamp = firstTimestamp;
+            this.lastTimestamp = lastTimestamp;
+            this.readings = readings;
+        }
+    }
+
+    /**
+     * The open file and the current buffer of one label.
+     */
+    private final class LabelWriter {
+        final String label;
+        final Path filePath;
+        final byte[] labelBytes; // ", Label: <label>, Data: "
+        byte[] buffer;
+        int length;
+        long bufferFirst = Long.MAX_VALUE;
+        long bufferLast = Long.MIN_VALUE;
+        int bufferReadings;
+
+        // the file and its segment, only used by the background writer
+        FileChannel channel;
+        long segmentBytes;
+        long segmentOpenedAt;
+        long segmentFirst = Long.MAX_VALUE;
+        long segmentLast = Long.MIN_VALUE;
+        long segmentReadings;
+        long nextSequence = -1;
+
+        LabelWriter(String label) {
+            this.label = label;
+            // FilePath variable should be lower case
+            // Set the FilePath variable
+            this.filePath = Paths.get(baseDirectory, label + ".txt");
+            FILE_MAP.putIfAbsent(label, filePath.toString());
+            this.labelBytes = (", Label: " + label + ", Data: ").getBytes(StandardCharsets.UTF_8);
+            this.buffer = newBuffer();
+        }
+
+        // formats the reading into the buffer, true if a full buffer had to be queued
+        synchronized boolean append(int patientId, long timestamp, String data) {
+            int lineLength = PATIENT.length + digits(patientId) + TIMESTAMP.length + digits(timestamp)
+                    + labelBytes.length + data.length() + LINE_END.length;
+            boolean queued = false;
+            if (length + lineLength > buffer.length) {
+                queued = handOff(true);
+                if (lineLength > buffer.length) {
+                    buffer = new byte[lineLength]; // an odd, huge value, goes out on its own
+                }
+            }
+            length = put(PATIENT, length);
+            length = putNumber(patientId, length);
+            length = put(TIMESTAMP, length);
+            length = putNumber(timestamp, length);
+            length = put(labelBytes, length);
+            for (int i = 0; i < data.length(); i++) {
+                char c = data.charAt(i);
+                buffer[length++] = c < 128 ? (byte) c : (byte) '?';
+            }
+            length = put(LINE_END, length);
+            bufferFirst = Math.min(bufferFirst, timestamp);
+            bufferLast = Math.max(bufferLast, timestamp);
+            bufferReadings++;
+            return queued;
+        }
+
+        // queues what the buffer holds for the background writer, true if it did
+        synchronized boolean handOff(boolean holdsPermit) {
+            if (length == 0) {
+                return false;
+            }
+            queue.add(new Pending(this, buffer, length, holdsPermit, bufferFirst, bufferLast, bufferReadings));
+            buffer = newBuffer();
+            length = 0;
+            bufferFirst = Long.MAX_VALUE;
+            bufferLast = Long.MIN_VALUE;
+            bufferReadings = 0;
+            return holdsPermit;
+        }
+
+        FileChannel openFile() throws IOException {
+            if (channel == null) {
+                Files.createDirectories(filePath.getParent());
+                channel = FileChannel.open(filePath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.APPEND);
+                segmentBytes = channel.size();
+                segmentOpenedAt = System.currentTimeMillis();
+                if (segmentBytes > 0) {
+                    // left by an earlier run, the time range of what it holds is unknown
+                    segmentFirst = Long.MIN_VALUE;
+                    segmentLast = Long.MAX_VALUE;
+                }
+            }
+            return channel;
+        }
+
+        void written(Pending pending) {
+            segmentBytes += pending.length;
+            segmentFirst = Math.min(segmentFirst, pending.firstTimestamp);
+            segmentLast = Math.max(segmentLast, pending.lastTimestamp);
+            segmentReadings += pending.readings;
+        }
+
+        // rotates the file if the incoming bytes would take it past the size limit, or it is open for too long
+        void rotateIfDue(long incoming) {
+            if (channel == null || segmentBytes == 0) {
+                return;
+            }
+            boolean full = segmentBytes > rotation.getMaxBytes() - incoming;
+            boolean expired = rotation.getIntervalMillis() != FileRotation.NEVER
+                    && System.currentTimeMillis() - segmentOpenedAt >= rotation.getIntervalMillis();
+            if (full || expired) {
+                rotate();
+            }
+        }
+
+        private void rotate() {
+            Path directory = filePath.getParent();
+            try {
+                closeFile();
+                if (nextSequence < 0) {
+                    nextSequence = lastSequence(directory) + 1;
+                }
+                Path segment = filePath.resolveSibling(SegmentManifest.segmentName(label, nextSequence++));
+                Files.move(filePath, segment, StandardCopyOption.ATOMIC_MOVE);
+                SegmentManifest.Entry entry = new SegmentManifest.Entry(segment.getFileName().toString(), label,
+                        segmentFirst, segmentLast, segmentReadings);
+                if (compressor != null) {
+                    compressor.execute(() -> compress(segment, entry));
+                } else {
+                    SegmentManifest.append(directory, entry);
+                }
+            } catch (IOException e) {
+                System.err.println("Error rotating file " + filePath + ": " + e.getMessage());
+            } finally {
+                segmentBytes = 0;
+                segmentFirst = Long.MAX_VALUE;
+                segmentLast = Long.MIN_VALUE;
+                segmentReadings = 0;
+            }
+        }
+
+        // GZIPs a closed segment, it only gets into the manifest once the compressed file is complete
+        private void compress(Path segment, SegmentManifest.Entry entry) {
+            Path directory = segment.getParent();
+            String compressedName = segment.getFileName() + ".gz";
+            Path temporary = segment.resolveSibling(compressedName + ".tmp");
+            try {
+                try (InputStream in = Files.newInputStream(segment);
+                     OutputStream out = new GZIPOutputStream(Files.newOutputStream(temporary), 64 * 1024)) {
+                    in.transferTo(out);
+                }
+                Files.move(temporary, segment.resolveSibling(compressedName), StandardCopyOption.ATOMIC_MOVE);
+                SegmentManifest.append(directory, new SegmentManifest.Entry(compressedName, entry.getLabel(),
+                        entry.getFirstTimestamp(), entry.getLastTimestamp(), entry.getReadings()));
+                Files.delete(segment);
+            } catch (IOException e) {
+                System.err.println("Error compressing " + segment + ", it stays uncompressed: " + e.getMessage());
+                try {
+                    Files.deleteIfExists(temporary);
+                    SegmentManifest.append(directory, entry);
+                } catch (IOException ignored) {
+                    // it is read in full without a manifest line
+                }
+            }
+        }
+
+        private long lastSequence(Path directory) throws IOException {
+            long last = 0;
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, label + "-*")) {
+                for (Path file : stream) {
+                    last = Math.max(last, SegmentManifest.sequenceOf(label, file.getFileName().toString()));
+                }
+            }
+            return last;
+        }
+
+        void closeFile() {
+            try {
+                if (channel != null) {
+                    channel.close();
+                    channel = null;
+                }
+            } catch (IOException e) {
+                System.err.println("Error closing file " + filePath + ": " + e.getMessage());
+            }
+        }
+
+        private int put(byte[] bytes, int at) {
+            System.arraycopy(bytes, 0, buffer, at, bytes.length);
+            return at + bytes.length;
+        }
+
+        private int putNumber(long value, int at) {
+            if (value < 0) {
+                buffer[at++] = '-';
+                value = -value; // Long.MIN_VALUE is no timestamp anyone generates
+            }
+            int end = at + digits(value);
+            for (int i = end - 1; i >= at; i--) {
+                buffer[i] = (byte) ('0' + value % 10);
+                value /= 10;
+            }
+            return end;
+        }
+    }
+
+    private byte[] newBuffer() {
+        byte[] free = freeBuffers.poll();
+        return free != null ? free : new byte[bufferBytes];
+    }
+
+    // characters needed to print the number, sign included
+    private static int digits(long value) {
+        int count = value < 0 ? 2 : 1;
+        long rest = Math.abs(value / 10);
+        while (rest > 0) {
+            count++;
+            rest /= 10;
         }
+        return count;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,79 @@
+package com.cardio_generator.outputs;
+
+/**
+ * Describes when {@link FileOutputStrategy} closes the file of a label and starts a new one.
+ *
+ * The file that is written to is always {@code <label>.txt}. When it grows past the size limit, or
+ * has been open longer than the interval, it is renamed to a numbered segment {@code <label>-<n>.log},
+ * optionally compressed to {@code <label>-<n>.log.gz}, and its time range is added to the
+ * {@link com.data_management.SegmentManifest} of the directory.
+ *
+ * Instances are immutable, the {@code with...} methods return a changed copy.
+ */
+public final class FileRotation {
+
+    /** use as a limit to never rotate on it */
+    public static final long NEVER = Long.MAX_VALUE;
+
+    /** a single file per label that grows forever, the behaviour of the file output without rotation */
+    public static final FileRotation NONE = new FileRotation(NEVER, NEVER, false);
+
+    private final long maxBytes;
+    private final long intervalMillis;
+    private final boolean compressed;
+
+    private FileRotation(long maxBytes, long intervalMillis, boolean compressed) {
+        this.maxBytes = maxBytes;
+        this.intervalMillis = intervalMillis;
+        this.compressed = compressed;
+    }
+
+    /**
+     * @param maxBytes - size after which the file of a label is rotated
+     * @return a copy that rotates on size
+     */
+    public FileRotation withMaxBytes(long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("The size limit must be positive: " + maxBytes);
+        }
+        return new FileRotation(maxBytes, intervalMillis, compressed);
+    }
+
+    /**
+     * @param intervalMillis - how long the file of a label is written to before it is rotated
+     * @return a copy that rotates on time
+     */
+    public FileRotation withInterval(long intervalMillis) {
+        if (intervalMillis <= 0) {
+            throw new IllegalArgumentException("The rotation interval must be positive: " + intervalMillis);
+        }
+        return new FileRotation(maxBytes, intervalMillis, compressed);
+    }
+
+    /**
+     * @param compressed - true to GZIP the segments once they are closed
+     * @return a copy with the given compression
+     */
+    public FileRotation withCompression(boolean compressed) {
+        return new FileRotation(maxBytes, intervalMillis, compressed);
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public long getIntervalMillis() {
+        return intervalMillis;
+    }
+
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    /**
+     * @return true if the files are never rotated
+     */
+    public boolean isNone() {
+        return maxBytes == NEVER && intervalMillis == NEVER;
+    }
+}
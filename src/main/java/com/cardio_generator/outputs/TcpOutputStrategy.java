@@ -1,49 +1,118 @@
 package com.cardio_generator.outputs;
 
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.util.concurrent.Executors;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 /**
- * Implements {@link OutputStrategy} using it to save / send the data to a TCP client
+ * Implements {@link OutputStrategy} using it to save / send the data to TCP clients
+ *
+ * Any number of clients can connect. A single thread runs a {@link Selector} that accepts them and
+ * writes to them without blocking. A reading is encoded once and appended to the queue of every
+ * client, a list of direct buffers, which the selector thread writes out with gathering writes every
+ * {@link #FLUSH_MILLIS} ms, or as soon as a buffer is full. The generators never wait for a socket.
+ *
+ * Every client may fall behind by at most its backlog limit. A client over the limit is either
+ * disconnected, or skips the readings until it catches up, see {@link SlowClientPolicy}.
+ *
+ * The clients get text lines, or with the binary format the frames of {@link BinaryRecordFormat},
+ * starting with the labels known when they connected.
  */
-public class TcpOutputStrategy implements OutputStrategy {
+public class TcpOutputStrategy implements OutputStrategy, AutoCloseable {
 
-    private ServerSocket serverSocket;
-    private Socket clientSocket;
-    private PrintWriter out;
+    /**
+     * What happens to a client whose backlog is full.
+     */
+    public enum SlowClientPolicy {
+        /** the readings are dropped for that client until it catches up */
+        DROP,
+        /** the client is disconnected */
+        DISCONNECT
+    }
+
+    public static final long FLUSH_MILLIS = 5;
+    public static final int DEFAULT_MAX_BACKLOG_BYTES = 4 << 20;
+    private static final int BLOCK_BYTES = 16 * 1024;
+    private static final int MAX_FREE_BLOCKS = 256;
+    private static final int MAX_GATHERED_BLOCKS = 64;
+
+    private final boolean binary;
+    private final SlowClientPolicy policy;
+    private final long maxBacklogBytes;
+    private final BinaryRecordFormat.Dictionary dictionary = new BinaryRecordFormat.Dictionary();
+    private final List<Client> clients = new CopyOnWriteArrayList<>();
+    private final Queue<ByteBuffer> freeBlocks = new ConcurrentLinkedQueue<>();
+    private final AtomicLong droppedReadings = new AtomicLong();
+    private final AtomicLong disconnectedClients = new AtomicLong();
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private Thread selectorThread;
+    private volatile boolean closed;
 
 
     /**
-     * This code takes in a port with which it listens for a TCP connection      *
+     * This code takes in a port with which it listens for TCP connections      *
      * @param port - port with which the machine will listen for a connection
      */
     public TcpOutputStrategy(int port) {
+        this(port, false);
+    }
+
+    /**
+     * @param port - port with which the machine will listen for a connection
+     * @param binary - true to send the binary frames of {@link BinaryRecordFormat} instead of text lines
+     */
+    public TcpOutputStrategy(int port, boolean binary) {
+        this(port, binary, SlowClientPolicy.DISCONNECT, DEFAULT_MAX_BACKLOG_BYTES);
+    }
+
+    /**
+     * @param port - port with which the machine will listen for a connection, 0 for any free port
+     * @param binary - true to send the binary frames of {@link BinaryRecordFormat} instead of text lines
+     * @param policy - what happens to a client that falls further behind than the backlog
+     * @param maxBacklogBytes - how many bytes may wait to be sent to a single client
+     */
+    public TcpOutputStrategy(int port, boolean binary, SlowClientPolicy policy, long maxBacklogBytes) {
+        if (maxBacklogBytes < BLOCK_BYTES) {
+            throw new IllegalArgumentException("The backlog needs at least " + BLOCK_BYTES + " bytes");
+        }
+        this.binary = binary;
+        this.policy = policy;
+        this.maxBacklogBytes = maxBacklogBytes;
         try {
-            serverSocket = new ServerSocket(port);
-            System.out.println("TCP Server started on port " + port);
-
-            // Accept clients in a new thread to not block the main thread
-            Executors.newSingleThreadExecutor().submit(() -> {
-                try {
-                    clientSocket = serverSocket.accept();
-                    out = new PrintWriter(clientSocket.getOutputStream(), true);
-                    System.out.println("Client connected: " + clientSocket.getInetAddress());
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            });
+            selector = Selector.open();
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(new InetSocketAddress(port));
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+            System.out.println("TCP Server started on port " + getPort());
+
+            // Accept and write to the clients in a new thread to not block the generators
+            selectorThread = new Thread(this::serve, "tcp-output");
+            selectorThread.setDaemon(true);
+            selectorThread.start();
         } catch (IOException e) {
             e.printStackTrace();
+            closed = true;
         }
     }
 
     /**
      * This method takes in the information from the patients and outputs it in a csv
-     * and sends it through the TCP connection
+     * and queues it for every connected TCP client
      *
      * @param patientId - The ID of the patient which you want to get the values from
      * @param timestamp - The time at which the person was said
@@ -52,9 +121,247 @@ public class TcpOutputStrategy implements OutputStrategy {
      */
     @Override
     public void output(int patientId, long timestamp, String label, String data) {
-        if (out != null) {
-            String message = String.format("%d,%d,%s,%s", patientId, timestamp, label, data);
-            out.println(message);
+        if (clients.isEmpty()) {
+            return;
+        }
+        byte[] message;
+        if (binary) {
+            double value = BinaryRecordFormat.parseValue(data);
+            int code = Double.isNaN(value) ? -1 : dictionary.codeOf(label, this::announce);
+            if (code < 0) {
+                return;
+            }
+            ByteBuffer frame = ByteBuffer.allocate(BinaryRecordFormat.RECORD_BYTES);
+            BinaryRecordFormat.putRecord(frame, patientId, timestamp, code, value);
+            message = frame.array();
+        } else {
+            message = (patientId + "," + timestamp + "," + label + "," + data + "\n").getBytes(StandardCharsets.UTF_8);
+        }
+        for (Client client : clients) {
+            if (!client.append(message, false)) {
+                if (policy == SlowClientPolicy.DISCONNECT) {
+                    client.closing = true;
+                    selector.wakeup();
+                } else {
+                    droppedReadings.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the port the server listens on, -1 if it could not start
+     */
+    public int getPort() {
+        return serverChannel != null && serverChannel.socket().isBound() ? serverChannel.socket().getLocalPort() : -1;
+    }
+
+    /**
+     * @return the number of clients connected
+     */
+    public int getClientCount() {
+        return clients.size();
+    }
+
+    /**
+     * @return the number of readings a client missed because its backlog was full, summed over the clients
+     */
+    public long getDroppedReadings() {
+        return droppedReadings.get();
+    }
+
+    /**
+     * @return the number of clients disconnected because their backlog was full
+     */
+    public long getDisconnectedClients() {
+        return disconnectedClients.get();
+    }
+
+    /**
+     * Stops accepting clients and closes the connections, after a last attempt to write what they are owed.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        selector.wakeup();
+        try {
+            selectorThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // the label frames are never dropped, without them the records of the label can not be read
+    private void announce(byte[] labelFrame) {
+        for (Client client : clients) {
+            client.append(labelFrame, true);
+        }
+    }
+
+    private void serve() {
+        try {
+            while (!closed) {
+                selector.select(FLUSH_MILLIS);
+                for (SelectionKey key : selector.selectedKeys()) {
+                    if (key.isValid() && key.isAcceptable()) {
+                        try {
+                            accept();
+                        } catch (IOException e) {
+                            System.err.println("Error accepting a TCP client: " + e.getMessage());
+                        }
+                    }
+                }
+                selector.selectedKeys().clear();
+                for (Client client : clients) {
+                    if (client.closing) {
+                        disconnectedClients.incrementAndGet();
+                        System.out.println("Disconnecting slow client: " + client.channel.socket().getRemoteSocketAddress());
+                        disconnect(client);
+                    } else {
+                        writeTo(client);
+                    }
+                }
+            }
+            for (Client client : clients) {
+                writeTo(client); // whatever the socket takes without waiting
+                disconnect(client);
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            System.err.println("TCP output stopped: " + e.getMessage());
+        } finally {
+            try {
+                serverChannel.close();
+                selector.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            Client client = new Client(channel, channel.register(selector, 0));
+            System.out.println("Client connected: " + channel.socket().getInetAddress());
+            if (binary) {
+                // the labels known so far first, then the records
+                dictionary.locked(labelFrames -> {
+                    for (byte[] labelFrame : labelFrames) {
+                        client.append(labelFrame, true);
+                    }
+                    clients.add(client);
+                });
+            } else {
+                clients.add(client);
+            }
+        }
+    }
+
+    private void writeTo(Client client) {
+        try {
+            client.write();
+        } catch (IOException e) {
+            System.out.println("Client disconnected: " + e.getMessage());
+            disconnect(client);
+        }
+    }
+
+    private void disconnect(Client client) {
+        clients.remove(client);
+        client.key.cancel();
+        try {
+            client.channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private ByteBuffer takeBlock() {
+        ByteBuffer block = freeBlocks.poll();
+        return block != null ? block : ByteBuffer.allocateDirect(BLOCK_BYTES);
+    }
+
+    private void recycle(ByteBuffer block) {
+        if (block.isDirect() && block.capacity() == BLOCK_BYTES && freeBlocks.size() < MAX_FREE_BLOCKS) {
+            block.clear();
+            freeBlocks.add(block);
+        }
+    }
+
+    /**
+     * One connected client and the bytes it is owed.
+     */
+    private final class Client {
+        final SocketChannel channel;
+        final SelectionKey key;
+        final ArrayDeque<ByteBuffer> filled = new ArrayDeque<>(); // full blocks, ready to be written
+        final ArrayDeque<ByteBuffer> writing = new ArrayDeque<>(); // only used by the selector thread
+        final AtomicLong backlog = new AtomicLong(); // bytes appended but not written yet
+        ByteBuffer current; // block being filled
+        volatile boolean closing;
+
+        Client(SocketChannel channel, SelectionKey key) {
+            this.channel = channel;
+            this.key = key;
+        }
+
+        // false if the message does not fit in the backlog
+        boolean append(byte[] message, boolean force) {
+            boolean full;
+            synchronized (this) {
+                if (closing || (!force && backlog.get() + message.length > maxBacklogBytes)) {
+                    return false;
+                }
+                if (current == null) {
+                    current = takeBlock();
+                }
+                full = current.remaining() < message.length;
+                if (full) {
+                    current.flip();
+                    filled.add(current);
+                    current = message.length > BLOCK_BYTES ? ByteBuffer.allocate(message.length) : takeBlock();
+                }
+                current.put(message);
+                backlog.addAndGet(message.length);
+            }
+            if (full) {
+                selector.wakeup(); // no need to wait for the next flush
+            }
+            return true;
+        }
+
+        void write() throws IOException {
+            synchronized (this) {
+                writing.addAll(filled);
+                filled.clear();
+                if (current != null && current.position() > 0) {
+                    current.flip();
+                    writing.add(current);
+                    current = null;
+                }
+            }
+            if (writing.isEmpty()) {
+                return;
+            }
+            ByteBuffer[] buffers = new ByteBuffer[Math.min(writing.size(), MAX_GATHERED_BLOCKS)];
+            int count = 0;
+            for (ByteBuffer buffer : writing) {
+                if (count == buffers.length) {
+                    break;
+                }
+                buffers[count++] = buffer;
+            }
+            backlog.addAndGet(-channel.write(buffers));
+            while (!writing.isEmpty() && !writing.peekFirst().hasRemaining()) {
+                recycle(writing.pollFirst());
+            }
+            // wake up as soon as the socket takes more
+            key.interestOps(writing.isEmpty() ? 0 : SelectionKey.OP_WRITE);
         }
     }
 }
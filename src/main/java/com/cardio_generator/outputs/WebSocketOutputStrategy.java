@@ -1,45 +1,223 @@
 package com.cardio_generator.outputs;
 
 import org.java_websocket.WebSocket;
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.exceptions.WebsocketNotConnectedException;
+import org.java_websocket.protocols.IProtocol;
+import org.java_websocket.protocols.Protocol;
 import org.java_websocket.server.WebSocketServer;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 
 /**
- * this class 
+ * Streams the readings to every connected WebSocket client.
+ *
+ * The format is chosen per connection during the handshake: clients that ask for the
+ * {@link BinaryRecordFormat#PROTOCOL} subprotocol get binary frames, every other client keeps
+ * getting the "patientId,timestamp,label,data" text messages.
+ *
+ * With batching on, readings are collected and sent as one message per batch instead of one per
+ * reading: the text lines separated by '\n', the binary frames one after another. A batch is sent once
+ * it holds the maximum number of readings, or when the batch window is over, so a reading waits at
+ * most that long. {@link #close()} sends what is left before it stops the server.
  */
-public class WebSocketOutputStrategy implements OutputStrategy {
+public class WebSocketOutputStrategy implements OutputStrategy, AutoCloseable {
 
     private WebSocketServer server;
+    private final Set<WebSocket> textClients = ConcurrentHashMap.newKeySet();
+    private final Set<WebSocket> binaryClients = ConcurrentHashMap.newKeySet(); // only once they got the dictionary
+    private final BinaryRecordFormat.Dictionary dictionary = new BinaryRecordFormat.Dictionary();
+
+    public static final int DEFAULT_MAX_BATCH_RECORDS = 512;
+
+    private final int maxBatchRecords; // 1 sends every reading on its own
+    private final StringBuilder textBatch = new StringBuilder();
+    private int textBatchRecords;
+    private final ByteBuffer binaryBatch;
+    private int binaryBatchRecords;
+    private final ScheduledExecutorService flusher; // null when every reading is sent on its own
+    private volatile boolean closed;
 
     public WebSocketOutputStrategy(int port) {
+        this(port, 0, 1);
+    }
+
+    /**
+     * @param port - port the server listens on
+     * @param batchMillis - the longest a reading waits in a batch, 0 to send every reading on its own
+     * @param maxBatchRecords - the most readings sent in one message
+     */
+    public WebSocketOutputStrategy(int port, long batchMillis, int maxBatchRecords) {
+        if (batchMillis < 0 || maxBatchRecords < 1) {
+            throw new IllegalArgumentException("Invalid batch window or size");
+        }
+        this.maxBatchRecords = batchMillis == 0 ? 1 : maxBatchRecords;
+        this.binaryBatch = ByteBuffer.allocate(this.maxBatchRecords * BinaryRecordFormat.RECORD_BYTES);
         server = new SimpleWebSocketServer(new InetSocketAddress(port));
         System.out.println("WebSocket server created on port: " + port + ", listening for connections...");
         server.start();
+        if (this.maxBatchRecords > 1) {
+            flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "websocket-batches");
+                thread.setDaemon(true);
+                return thread;
+            });
+            flusher.scheduleAtFixedRate(this::flush, batchMillis, batchMillis, TimeUnit.MILLISECONDS);
+        } else {
+            flusher = null;
+        }
     }
 
     @Override
     public void output(int patientId, long timestamp, String label, String data) {
-        String message = String.format("%d,%d,%s,%s", patientId, timestamp, label, data);
+        if (!textClients.isEmpty()) {
+            synchronized (textBatch) {
+                if (textBatchRecords > 0) {
+                    textBatch.append('\n');
+                }
+                textBatch.append(patientId).append(',').append(timestamp).append(',').append(label).append(',')
+                        .append(data);
+                if (++textBatchRecords == maxBatchRecords) {
+                    sendTextBatch();
+                }
+            }
+        }
+        if (!binaryClients.isEmpty()) {
+            double value = BinaryRecordFormat.parseValue(data);
+            if (Double.isNaN(value)) {
+                return;
+            }
+            int code = dictionary.codeOf(label, this::sendBinary);
+            if (code < 0) {
+                return;
+            }
+            synchronized (binaryBatch) {
+                BinaryRecordFormat.putRecord(binaryBatch, patientId, timestamp, code, value);
+                if (++binaryBatchRecords == maxBatchRecords) {
+                    sendBinaryBatch();
+                }
+            }
+        }
+    }
+
+    /**
+     * Sends the readings waiting in the batches right away.
+     */
+    public void flush() {
+        synchronized (textBatch) {
+            if (textBatchRecords > 0) {
+                sendTextBatch();
+            }
+        }
+        synchronized (binaryBatch) {
+            if (binaryBatchRecords > 0) {
+                sendBinaryBatch();
+            }
+        }
+    }
+
+    /**
+     * Stops the batching thread, sends the readings still waiting in the batches, then closes the
+     * connections and stops the server.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (flusher != null) {
+            flusher.shutdown();
+            try {
+                flusher.awaitTermination(1, TimeUnit.SECONDS); // a flush may be running
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flush();
+        try {
+            server.stop(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // called with the batch locked, so batches go out in order
+    private void sendTextBatch() {
+        String message = textBatch.toString();
+        textBatch.setLength(0);
+        textBatchRecords = 0;
         // Broadcast the message to all connected clients
-        for (WebSocket conn : server.getConnections()) {
-            conn.send(message);
+        for (WebSocket conn : textClients) {
+            try {
+                conn.send(message);
+            } catch (WebsocketNotConnectedException e) {
+                textClients.remove(conn); // closed, onClose did not run yet
+            }
         }
     }
 
-    private static class SimpleWebSocketServer extends WebSocketServer {
+    private void sendBinaryBatch() {
+        byte[] frames = Arrays.copyOf(binaryBatch.array(), binaryBatch.position());
+        binaryBatch.clear();
+        binaryBatchRecords = 0;
+        sendBinary(frames);
+    }
+
+    // also sends the frames of new labels, with the dictionary locked
+    private void sendBinary(byte[] frame) {
+        for (WebSocket conn : binaryClients) {
+            try {
+                conn.send(frame);
+            } catch (WebsocketNotConnectedException e) {
+                binaryClients.remove(conn);
+            }
+        }
+    }
+
+    private static boolean wantsBinary(WebSocket conn) {
+        IProtocol protocol = conn.getProtocol();
+        return protocol != null && BinaryRecordFormat.PROTOCOL.equals(protocol.getProvidedProtocol());
+    }
+
+    private class SimpleWebSocketServer extends WebSocketServer {
 
         public SimpleWebSocketServer(InetSocketAddress address) {
-            super(address);
+            // the empty protocol accepts the clients that do not ask for one
+            super(address, Collections.<Draft>singletonList(new Draft_6455(Collections.emptyList(),
+                    List.of(new Protocol(BinaryRecordFormat.PROTOCOL), new Protocol("")))));
         }
 
         @Override
         public void onOpen(WebSocket conn, org.java_websocket.handshake.ClientHandshake handshake) {
             System.out.println("New connection: " + conn.getRemoteSocketAddress());
+            if (wantsBinary(conn)) {
+                // the labels known so far first, then the records
+                dictionary.locked(labelFrames -> {
+                    for (byte[] labelFrame : labelFrames) {
+                        conn.send(labelFrame);
+                    }
+                    binaryClients.add(conn);
+                });
+            } else {
+                textClients.add(conn);
+            }
         }
 
         @Override
         public void onClose(WebSocket conn, int code, String reason, boolean remote) {
+            textClients.remove(conn);
+            binaryClients.remove(conn);
             System.out.println("Closed connection: " + conn.getRemoteSocketAddress());
         }
 
@@ -0,0 +1,266 @@
+package com.data_management;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the alert analysis of a {@link DataStorage} on its own thread and its own cadence,
+ * so the threads that ingest readings never wait for an analysis cycle.
+ *
+ * The readings are handed over to the scheduler as they are stored, see {@link #offer}, and every
+ * cycle analyses the readings that arrived since the previous cycle, whatever their timestamp, so
+ * a reading that arrives late is analysed like any other. Handing over a reading only copies its
+ * fields into a buffer, under a lock that a cycle only holds to swap the buffers.
+ *
+ * Cycles never overlap and are separated by a pause of {@code cyclePeriodMillis}: if one takes long,
+ * the next one simply has more readings. The hand-off is bounded both ways: a reading that waited
+ * longer than {@code maxAnalysisLagMillis} is skipped instead of analysed, and once
+ * {@link #MAX_PENDING_READINGS} are waiting the next ones are skipped until a cycle takes them.
+ * Both are counted in {@link #getSkippedReadings()}.
+ */
+public class AnalysisScheduler implements AutoCloseable {
+
+    public static final long DEFAULT_CYCLE_PERIOD_MILLIS = 10_000;
+    public static final long DEFAULT_MAX_ANALYSIS_LAG_MILLIS = 60_000;
+    public static final int MAX_PENDING_READINGS = 1 << 20;
+
+    private final DataStorage storage;
+    private final ScheduledExecutorService executor;
+    private final AtomicBoolean started = new AtomicBoolean();
+    private final AtomicLong analysedReadings = new AtomicLong();
+    private final AtomicLong skippedReadings = new AtomicLong();
+    private final Object cycleLock = new Object(); // one cycle at a time, also when run by hand
+    private Pending pending = new Pending(); // filled under the monitor of this
+    private Pending draining = new Pending(); // only touched by the cycle holding cycleLock
+
+    private volatile long cyclePeriodMillis;
+    private volatile long maxAnalysisLagMillis;
+    private ScheduledFuture<?> cycle;
+    private boolean closed;
+
+    /**
+     * @param storage - the storage whose patients are analysed
+     * @param cyclePeriodMillis - pause between the end of one analysis cycle and the start of the next
+     * @param maxAnalysisLagMillis - how long a reading may wait for a cycle before it is skipped
+     */
+    public AnalysisScheduler(DataStorage storage, long cyclePeriodMillis, long maxAnalysisLagMillis) {
+        this.storage = storage;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "alert-analysis");
+            thread.setDaemon(true);
+            return thread;
+        });
+        configure(cyclePeriodMillis, maxAnalysisLagMillis);
+    }
+
+    /**
+     * Changes the cadence of the analysis. If the scheduler is running, the new period applies
+     * from the next cycle on.
+     *
+     * @param cyclePeriodMillis - pause between the end of one analysis cycle and the start of the next
+     * @param maxAnalysisLagMillis - how long a reading may wait for a cycle before it is skipped
+     */
+    public synchronized void configure(long cyclePeriodMillis, long maxAnalysisLagMillis) {
+        if (cyclePeriodMillis <= 0) {
+            throw new IllegalArgumentException("The analysis period must be positive: " + cyclePeriodMillis);
+        }
+        if (maxAnalysisLagMillis < cyclePeriodMillis) {
+            throw new IllegalArgumentException("The maximum analysis lag can not be shorter than the period");
+        }
+        this.cyclePeriodMillis = cyclePeriodMillis;
+        this.maxAnalysisLagMillis = maxAnalysisLagMillis;
+        if (cycle != null) {
+            cycle.cancel(false);
+            schedule();
+        }
+    }
+
+    /**
+     * Starts the cycles if they are not running yet. Calling it again is cheap and does nothing.
+     */
+    public void start() {
+        if (started.get() || !started.compareAndSet(false, true)) {
+            return;
+        }
+        synchronized (this) {
+            if (!closed) {
+                schedule();
+            }
+        }
+    }
+
+    /**
+     * Stops scheduling new cycles, a running cycle is allowed to finish.
+     */
+    public synchronized void stop() {
+        if (cycle != null) {
+            cycle.cancel(false);
+            cycle = null;
+        }
+        started.set(false);
+    }
+
+    /**
+     * Hands a stored reading over to the next cycle, and starts the cycles if they are not running yet.
+     *
+     * @param patientId - the unique identifier of the patient
+     * @param measurementValue - the value of the health metric
+     * @param typeCode - code of the record type, see {@link RecordTypes}
+     * @param timestamp - the time at which the measurement was taken
+     */
+    public void offer(int patientId, double measurementValue, int typeCode, long timestamp) {
+        offer(patientId, measurementValue, typeCode, timestamp, System.currentTimeMillis());
+        start();
+    }
+
+    // hands a reading over as if it arrived at the given time, without starting the cycles
+    synchronized void offer(int patientId, double measurementValue, int typeCode, long timestamp, long arrival) {
+        if (pending.size == MAX_PENDING_READINGS) {
+            skippedReadings.incrementAndGet(); // the cycles fell far behind, keep the memory bounded
+        } else {
+            pending.add(patientId, measurementValue, typeCode, timestamp, arrival);
+        }
+    }
+
+    /**
+     * Runs one analysis cycle on the calling thread, covering every reading handed over since the previous cycle.
+     */
+    public void runCycle() {
+        runCycle(System.currentTimeMillis());
+    }
+
+    // runs a cycle as if it started at the given time, which decides the readings that waited too long
+    void runCycle(long now) {
+        synchronized (cycleLock) {
+            synchronized (this) {
+                Pending taken = pending;
+                pending = draining;
+                draining = taken;
+            }
+            long oldest = now - maxAnalysisLagMillis;
+            Pending readings = draining;
+            Map<Integer, List<PatientRecord>> windows = new HashMap<>();
+            int skipped = 0;
+            for (int i = 0; i < readings.size; i++) {
+                if (readings.arrivals[i] < oldest) {
+                    skipped++; // waited too long, an alert on it would come too late anyway
+                    continue;
+                }
+                windows.computeIfAbsent(readings.patientIds[i], id -> new ArrayList<>()).add(new PatientRecord(
+                        readings.patientIds[i], readings.values[i], readings.typeCodes[i], readings.timestamps[i]));
+            }
+            int analysed = readings.size - skipped;
+            readings.size = 0;
+            for (List<PatientRecord> records : windows.values()) {
+                records.sort(Comparator.comparingLong(PatientRecord::getTimestamp)); // the late ones go back in place
+            }
+            if (!windows.isEmpty()) {
+                storage.analyse(windows);
+            }
+            analysedReadings.addAndGet(analysed);
+            skippedReadings.addAndGet(skipped);
+        }
+    }
+
+    /**
+     * Stops the cycles and the analysis thread, then analyses what is still waiting on the calling thread.
+     * Readings handed over afterwards wait until {@link #runCycle()} is called.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        stop();
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        runCycle();
+    }
+
+    /**
+     * @return how long the oldest reading waiting for a cycle has been waiting, 0 when none is waiting
+     */
+    public synchronized long getAnalysisLag() {
+        return pending.size == 0 ? 0 : System.currentTimeMillis() - pending.arrivals[0];
+    }
+
+    /**
+     * @return the number of readings analysed so far
+     */
+    public long getAnalysedReadings() {
+        return analysedReadings.get();
+    }
+
+    /**
+     * @return the number of readings skipped because they waited longer than the maximum lag, or found the hand-off full
+     */
+    public long getSkippedReadings() {
+        return skippedReadings.get();
+    }
+
+    public long getCyclePeriodMillis() {
+        return cyclePeriodMillis;
+    }
+
+    public long getMaxAnalysisLagMillis() {
+        return maxAnalysisLagMillis;
+    }
+
+    private void schedule() {
+        cycle = executor.scheduleWithFixedDelay(() -> {
+            try {
+                runCycle();
+            } catch (RuntimeException e) {
+                // a failed cycle must not cancel the following ones
+                System.err.println("Alert analysis failed: " + e.getMessage());
+                e.printStackTrace();
+            }
+        }, cyclePeriodMillis, cyclePeriodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * The readings waiting for a cycle, column by column, in the order they arrived.
+     */
+    private static final class Pending {
+        int[] patientIds = new int[1024];
+        int[] typeCodes = new int[1024];
+        long[] timestamps = new long[1024];
+        double[] values = new double[1024];
+        long[] arrivals = new long[1024];
+        int size;
+
+        void add(int patientId, double value, int typeCode, long timestamp, long arrival) {
+            if (size == patientIds.length) {
+                int capacity = size * 2;
+                patientIds = Arrays.copyOf(patientIds, capacity);
+                typeCodes = Arrays.copyOf(typeCodes, capacity);
+                timestamps = Arrays.copyOf(timestamps, capacity);
+                values = Arrays.copyOf(values, capacity);
+                arrivals = Arrays.copyOf(arrivals, capacity);
+            }
+            patientIds[size] = patientId;
+            typeCodes[size] = typeCode;
+            timestamps[size] = timestamp;
+            values[size] = value;
+            arrivals[size] = arrival;
+            size++;
+        }
+    }
+}
@@ -2,12 +2,19 @@ package com.data_management;
 
 import java.io.IOException;
 import java.net.URI;
+import java.io.UncheckedIOException;
 import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
 
 import com.alerts.AlertGenerator;
 
@@ -16,11 +23,49 @@ import com.alerts.AlertGenerator;
  * system.
  * This class serves as a repository for all patient records, organized by
  * patient IDs.
+ *
+ * Ingestion is safe from any number of threads: the patient map is concurrent and
+ * every {@link Patient} locks per record type, so a busy patient never blocks the others.
+ * By default every reading is fed to the alert strategies as it is stored
+ * ({@link AnalysisMode#INCREMENTAL}), the strategies keep per-patient state so this costs O(1)
+ * per reading. In {@link AnalysisMode#PERIODIC} mode the readings are instead handed over to an
+ * {@link AnalysisScheduler} that analyses them in cycles on its own thread, so the writers never
+ * wait for the analysis.
+ *
+ * Without further configuration every reading is kept forever. {@link #configureRetention(RetentionPolicy)}
+ * bounds the history: a {@link RetentionCompactor} then drops and downsamples old readings in the background.
+ * Readings only live in memory unless {@link #enableDurability(Path, long, long)} is called, they are then
+ * logged to disk as well and restored on the next start, see {@link PersistenceManager}.
+ * {@link #enableSegments(Path, long, long)} moves the history older than a hot window into memory-mapped
+ * segment files, {@link #getRecords(int, long, long)} reads them transparently, see {@link SegmentStore}.
  */
 public class DataStorage {
-    private Map<Integer, Patient> patientMap;// Stores patient objects indexed by their unique patient ID.
-    private long currentTime ;
-    private ArrayList<Integer> patientIDs ;
+
+    /**
+     * When the alert strategies look at the readings.
+     */
+    public enum AnalysisMode {
+        /** every reading is evaluated as it arrives */
+        INCREMENTAL,
+        /** time windows are evaluated in cycles by the {@link AnalysisScheduler} */
+        PERIODIC
+    }
+
+    private static final int MAX_RETAINED_ALERTS = 10_000;
+    private static final long WARM_UP_MILLIS = 10 * 60 * 1000; // history replayed to the strategies after a restart
+
+    private ConcurrentMap<Integer, Patient> patientMap;// Stores patient objects indexed by their unique patient ID.
+    private volatile AnalysisScheduler analysisScheduler; // replaced, and the old one closed, when the mode changes
+    private final RetentionCompactor retentionCompactor;
+    private volatile ForkJoinPool analysisPool; // null when patients are evaluated one after another
+    private final AlertGenerator alertGenerator;
+    private volatile AnalysisMode analysisMode = AnalysisMode.INCREMENTAL;
+    private volatile PersistenceManager persistence; // null while the readings only live in memory
+    private volatile SegmentStore segmentStore; // null while the whole history stays on the heap
+    private volatile IngestionQueue ingestionQueue; // null while the readers store their readings themselves
+    private volatile ReadingRingBuffer ringBuffer; // null while the readings are stored, analysed and logged in turn
+    private volatile long ringStored; // readings the ring storage stage is done with, only written by it
+    private volatile long ringLogged; // readings the ring persistence stage is done with, only written by it
 
     /**
      * Constructs a new instance of DataStorage, initializing the underlying storage
@@ -31,10 +76,12 @@ public class DataStorage {
 
 
     private DataStorage() {
-        this.patientMap = new HashMap<>();
-        this.patientIDs = new ArrayList<>();
-        currentTime = 0;
-
+        this.patientMap = new ConcurrentHashMap<>();
+        this.analysisScheduler = new AnalysisScheduler(this, AnalysisScheduler.DEFAULT_CYCLE_PERIOD_MILLIS,
+                AnalysisScheduler.DEFAULT_MAX_ANALYSIS_LAG_MILLIS);
+        this.alertGenerator = new AlertGenerator(this);
+        this.alertGenerator.setMaxRetainedAlerts(MAX_RETAINED_ALERTS);
+        this.retentionCompactor = new RetentionCompactor(patientMap.values(), RetentionCompactor.DEFAULT_PERIOD_MILLIS);
 
     }
     public static DataStorage getInstance() throws IOException {
@@ -54,6 +101,7 @@ public class DataStorage {
      * If the patient does not exist, a new Patient object is created and added to
      * the storage.
      * Otherwise, the new data is added to the existing patient's records.
+     * This method can be called from several threads at the same time.
      *
      * @param patientId        the unique identifier of the patient
      * @param measurementValue the value of the health metric being recorded
@@ -63,63 +111,409 @@ public class DataStorage {
      *                         milliseconds since the Unix epoch
      */
     public void addPatientData(int patientId, double measurementValue, String recordType, long timestamp) {
+        addPatientData(patientId, measurementValue, RecordTypes.codeOf(recordType), timestamp);
+    }
 
+    // same as above for callers that already interned the record type
+    void addPatientData(int patientId, double measurementValue, int typeCode, long timestamp) {
+        loadPatientData(patientId, measurementValue, typeCode, timestamp);
+        analyse(patientId, measurementValue, typeCode, timestamp);
+    }
 
-        if(patientMap.get(patientId) == null){
-            patientIDs.add(patientId);
-            Patient patient = new Patient(patientId);
-            patient.addRecord(measurementValue , recordType , timestamp);
-            patientMap.put(patientId ,patient);
+    // hands a stored reading to the alert strategies
+    private void analyse(int patientId, double measurementValue, int typeCode, long timestamp) {
+        if (analysisMode == AnalysisMode.INCREMENTAL) {
+            alertGenerator.onRecord(new PatientRecord(patientId, measurementValue, typeCode, timestamp));
+        } else {
+            // the analysis runs on its own thread, the first reading starts the cycles
+            analysisScheduler.offer(patientId, measurementValue, typeCode, timestamp);
+        }
+    }
+
+    // the live readings of a reader, queued when there is an ingestion queue; the batch is empty afterwards
+    void ingest(RecordBatch batch) {
+        IngestionQueue queue = ingestionQueue;
+        if (queue != null) {
+            queue.offer(batch);
+        } else {
+            dispatch(batch);
+        }
+    }
+
+    // the live readings leaving the ingestion queue, or the readers: through the ring buffer when there is one
+    void dispatch(RecordBatch batch) {
+        ReadingRingBuffer ring = ringBuffer;
+        if (ring == null || !ring.publish(batch)) {
+            batch.storeInto(this);
+        }
+    }
+
+    /**
+     * Stores a reading without handing it to the alert strategies, for bulk imports.
+     * Call {@link #finishBulkLoad(Iterable)} once the import is done.
+     *
+     * @param patientId        the unique identifier of the patient
+     * @param measurementValue the value of the health metric being recorded
+     * @param typeCode         code of the record type, see {@link RecordTypes}
+     * @param timestamp        the time at which the measurement was taken
+     */
+    void loadPatientData(int patientId, double measurementValue, int typeCode, long timestamp) {
+        PersistenceManager durable = persistence;
+        if (durable == null) {
+            appendRecord(patientId, measurementValue, typeCode, timestamp);
+            return;
         }
-        else{
-            patientMap.get(patientId).addRecord(measurementValue , recordType , timestamp);
+        Lock storing = durable.storing(); // a snapshot sees the reading stored and logged, or neither
+        storing.lock();
+        try {
+            appendRecord(patientId, measurementValue, typeCode, timestamp);
+            logRecord(durable, patientId, measurementValue, typeCode, timestamp);
+        } finally {
+            storing.unlock();
         }
+    }
 
+    private void appendRecord(int patientId, double measurementValue, int typeCode, long timestamp) {
+        patientMap.computeIfAbsent(patientId, Patient::new).addRecord(measurementValue, typeCode, timestamp);
+    }
 
-        // such that  we can accumulate data
-        if (System.currentTimeMillis() - currentTime > 10_000) { // you can change this to the size that you want depends on the size of the batch you want to analyse
-            buffer_Analyse();
+    // only once the reading is stored: a snapshot covers whatever was logged before it started
+    private static void logRecord(PersistenceManager durable, int patientId, double measurementValue, int typeCode,
+                                  long timestamp) {
+        try {
+            durable.append(patientId, typeCode, timestamp, measurementValue);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not log the reading of patient " + patientId, e);
+        }
+    }
 
-            currentTime = System.currentTimeMillis();
+    // the ring storage stage; the persistence stage logs the reading later, a cut of the log waits for it
+    private void storeFromRing(int patientId, double measurementValue, int typeCode, long timestamp) {
+        PersistenceManager durable = persistence;
+        Lock storing = durable == null ? null : durable.storing();
+        if (storing != null) {
+            storing.lock();
         }
+        try {
+            appendRecord(patientId, measurementValue, typeCode, timestamp);
+        } finally {
+            ringStored++;
+            if (storing != null) {
+                storing.unlock();
+            }
+        }
+    }
 
+    // the ring persistence stage
+    private void logFromRing(int patientId, double measurementValue, int typeCode, long timestamp) {
+        try {
+            PersistenceManager durable = persistence;
+            if (durable != null) {
+                logRecord(durable, patientId, measurementValue, typeCode, timestamp);
+            }
+        } finally {
+            ringLogged++;
+        }
+    }
 
+    // a sealing takes the readings off the patients at a position of the log, if there is one
+    private long cutLog(Runnable atCut) throws IOException {
+        PersistenceManager durable = persistence;
+        if (durable == null) {
+            atCut.run();
+            return 0;
+        }
+        return durable.cut(atCut);
+    }
+
+    // run by a cut of the log, while no reading is being stored: the ring logs what its storage stage stored
+    private void awaitRingLogged() {
+        long stored = ringStored;
+        while (ringLogged < stored) {
+            LockSupport.parkNanos(50_000);
+        }
     }
 
     /**
-     * Accumulates the data based on time intervals after which it uses the alert analysis to  analyse each patient at a time
-     * using the Evaluate Data class .
+     * Ends a bulk import. In incremental mode the last minutes of every imported patient are replayed to
+     * the alert strategies, without alerting, so they pick up the trends of the imported history;
+     * in periodic mode the next cycles look at the readings anyway.
+     *
+     * @param patientIds the patients that received readings
      */
-    public  void buffer_Analyse(){
-            System.out.println("Running buffer....................................................................................................");
-            long now = System.currentTimeMillis();
-            Map<Integer, Patient> bufferPatientMap = new ConcurrentHashMap<>();
-
-            for (int patientId : patientIDs) {
-                List<PatientRecord> records = patientMap.get(patientId).getRecords();
-                for (PatientRecord r : records) {
-                    long ts = r.getTimestamp();
-                    if (ts <= now && ts >= (now -  10 * 1000)) {
-                        bufferPatientMap.computeIfAbsent(patientId, id -> new Patient(id))
-                                .addRecord(r.getMeasurementValue(), r.getRecordType(), ts);
-                    }
-                }
+    void finishBulkLoad(Iterable<Integer> patientIds) {
+        if (analysisMode != AnalysisMode.INCREMENTAL) {
+            return;
+        }
+        for (int patientId : patientIds) {
+            Patient patient = patientMap.get(patientId);
+            if (patient != null) {
+                long last = patient.getLastTimestamp();
+                alertGenerator.warmUp(patientId, patient.getRecords(last - WARM_UP_MILLIS, last));
             }
+        }
+    }
 
-            getAlerts(bufferPatientMap);
+    /**
+     * Runs one analysis cycle right away on the calling thread, covering the readings handed over
+     * since the previous cycle.
+     */
+    public  void buffer_Analyse(){
+        analysisScheduler.runCycle();
     }
 
-    private  void getAlerts(Map<Integer , Patient> patientMap){
+    /**
+     * Evaluates the given patients against the alert strategies, used by the analysis cycles.
+     *
+     * @param windows the readings to evaluate, by patient ID, ordered by timestamp
+     */
+    void analyse(Map<Integer, List<PatientRecord>> windows){
+        getAlerts(windows);
+    }
+
+    private  void getAlerts(Map<Integer , List<PatientRecord>> windows){
         AlertGenerator alertGenerator = new AlertGenerator(this);
-        for(int i = 0 ; i<patientIDs.size(); i++){
-            alertGenerator.evaluateData(patientMap.get(patientIDs.get(i)));
+        ForkJoinPool pool = analysisPool;
+        if (pool != null) {
+            alertGenerator.evaluateData(windows, pool);
+        } else {
+            for (Map.Entry<Integer, List<PatientRecord>> window : windows.entrySet()) {
+                alertGenerator.evaluateData(window.getKey(), window.getValue());
+            }
+        }
+    }
+
+    /**
+     * Chooses how many threads evaluate the patients during an analysis cycle.
+     *
+     * @param threads 1 to evaluate the patients one after another on the analysis thread,
+     *                more to spread them over a fork-join pool of that size
+     */
+    public synchronized void configureAnalysisThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("At least one analysis thread is needed: " + threads);
+        }
+        ForkJoinPool previous = analysisPool;
+        analysisPool = threads == 1 ? null : new ForkJoinPool(threads);
+        if (previous != null) {
+            previous.shutdown();
+        }
+    }
+
+    /**
+     * Chooses whether readings are evaluated as they arrive or in periodic cycles.
+     *
+     * @param mode the analysis mode
+     */
+    public synchronized void configureAnalysisMode(AnalysisMode mode) {
+        if (mode == analysisMode) {
+            return;
+        }
+        this.analysisMode = mode;
+        // a fresh scheduler for the new mode, its thread only starts with the first periodic reading
+        AnalysisScheduler previous = analysisScheduler;
+        analysisScheduler = new AnalysisScheduler(this, previous.getCyclePeriodMillis(),
+                previous.getMaxAnalysisLagMillis());
+        previous.close();
+    }
+
+    public AnalysisMode getAnalysisMode() {
+        return analysisMode;
+    }
+
+    /**
+     * @return the generator that evaluates readings as they arrive, it holds the most recent alerts
+     */
+    public AlertGenerator getAlertGenerator() {
+        return alertGenerator;
+    }
+
+    /**
+     * Changes the cadence of the alert analysis.
+     *
+     * @param cyclePeriodMillis    pause between two analysis cycles, in milliseconds
+     * @param maxAnalysisLagMillis how long a reading may wait for a cycle before it is skipped, in milliseconds
+     */
+    public void configureAnalysis(long cyclePeriodMillis, long maxAnalysisLagMillis) {
+        analysisScheduler.configure(cyclePeriodMillis, maxAnalysisLagMillis);
+    }
+
+    public AnalysisScheduler getAnalysisScheduler() {
+        return analysisScheduler;
+    }
+
+    /**
+     * Chooses how long readings are kept. Old readings are dropped and downsampled in the background
+     * from now on, {@link RetentionPolicy#KEEP_ALL} turns it off again.
+     *
+     * @param policy the retention to apply
+     */
+    public void configureRetention(RetentionPolicy policy) {
+        retentionCompactor.configure(policy);
+    }
+
+    public RetentionCompactor getRetentionCompactor() {
+        return retentionCompactor;
+    }
+
+    /**
+     * Restores the readings kept in the given directory and logs every new reading there from now on.
+     * In incremental mode the last minutes of every restored patient are replayed to the alert
+     * strategies, without alerting, so they get their trends back.
+     *
+     * @param directory              where the log and the snapshots are kept
+     * @param flushIntervalMillis    pause between two syncs of the log to disk, the most a crash can lose
+     * @param snapshotIntervalMillis pause between two snapshots
+     * @return the number of readings restored
+     * @throws IOException if the directory can not be read or the log can not be opened
+     */
+    public synchronized int enableDurability(Path directory, long flushIntervalMillis, long snapshotIntervalMillis) throws IOException {
+        if (persistence != null) {
+            throw new IllegalStateException("Durability is already enabled");
+        }
+        PersistenceManager manager = new PersistenceManager(directory);
+        SegmentStore segments = segmentStore;
+        // the log may still hold readings sealed since they were logged
+        int restored = manager.recover(patientMap, Runtime.getRuntime().availableProcessors(),
+                segments == null ? sequence -> Long.MIN_VALUE : segments::sealedBefore);
+        finishBulkLoad(patientMap.keySet());
+        manager.catchUpWith(this::awaitRingLogged);
+        manager.start(patientMap.values(), flushIntervalMillis, snapshotIntervalMillis);
+        persistence = manager;
+        return restored;
+    }
+
+    /**
+     * Syncs and closes the log, new readings only live in memory again.
+     *
+     * @throws IOException if the log can not be closed
+     */
+    public synchronized void disableDurability() throws IOException {
+        PersistenceManager manager = persistence;
+        persistence = null;
+        if (manager != null) {
+            manager.close();
+        }
+    }
+
+    /**
+     * Moves the readings that leave the hot window into memory-mapped segment files in the given
+     * directory, one per closed period. Segments already in the directory are opened; enable them before
+     * {@link #enableDurability(Path, long, long)}, so the recovery leaves out the readings they hold.
+     *
+     * @param directory         where the segments are kept
+     * @param hotWindowMillis   how much recent history stays in memory
+     * @param segmentMillis     the period covered by one segment
+     * @throws IOException if the directory or a segment can not be read
+     */
+    public synchronized void enableSegments(Path directory, long hotWindowMillis, long segmentMillis) throws IOException {
+        if (segmentStore != null) {
+            throw new IllegalStateException("Segments are already enabled");
+        }
+        SegmentStore segments = new SegmentStore(directory);
+        if (persistence != null && segments.getSegmentCount() > 0) {
+            throw new IllegalStateException("Enable the segments before the durability, the readings were restored already");
+        }
+        segments.cutWith(this::cutLog);
+        segments.start(patientMap.values(), hotWindowMillis, segmentMillis);
+        segmentStore = segments;
+    }
+
+    /**
+     * Puts a bounded queue between the readers and the storage: the readers queue what they read
+     * and a thread of its own stores it, so a slow storage or analysis does not hold back the
+     * sockets and files being read. Readings added directly with {@link #addPatientData} and bulk
+     * imports are not queued.
+     *
+     * @param capacity       how many readings may wait in memory
+     * @param policy         what happens to the readings that arrive while the queue is full
+     * @param spillDirectory where the readings wait on disk, only used with {@link IngestionQueue.OverflowPolicy#SPILL_TO_DISK}
+     * @return the queue, for its metrics
+     * @throws IOException if the spill file can not be created
+     */
+    public synchronized IngestionQueue enableIngestionQueue(int capacity, IngestionQueue.OverflowPolicy policy,
+                                                            Path spillDirectory) throws IOException {
+        if (ingestionQueue != null) {
+            throw new IllegalStateException("The ingestion queue is already enabled");
+        }
+        ingestionQueue = new IngestionQueue(this, capacity, policy, spillDirectory);
+        return ingestionQueue;
+    }
+
+    /**
+     * Stores what is still queued and lets the readers store their readings themselves again.
+     *
+     * @throws IOException if the spill file can not be closed
+     */
+    public synchronized void disableIngestionQueue() throws IOException {
+        IngestionQueue queue = ingestionQueue;
+        ingestionQueue = null;
+        if (queue != null) {
+            queue.close();
+        }
+    }
+
+    /**
+     * @return the ingestion queue, null if it is not enabled
+     */
+    public IngestionQueue getIngestionQueue() {
+        return ingestionQueue;
+    }
+
+    /**
+     * Hands the live readings to a {@link ReadingRingBuffer} instead of storing, analysing and logging
+     * them one after another on the thread of the reader. Three stages take every reading of the ring:
+     * the storage and the alert strategies side by side, and the log once the storage is done with it.
+     * The readers, or the ingestion queue, only publish to the ring and go on. A snapshot holds the
+     * storage stage and lets the log catch up with it before it starts, so it is cut at the same reading
+     * in memory and in the log.
+     *
+     * @param capacity how many readings the ring holds
+     * @return the ring, for its metrics
+     */
+    public synchronized ReadingRingBuffer enableRingBuffer(int capacity) {
+        if (ringBuffer != null) {
+            throw new IllegalStateException("The ring buffer is already enabled");
         }
+        ReadingRingBuffer ring = new ReadingRingBuffer(capacity);
+        ReadingRingBuffer.Stage stored = ring.handleWith("ring-storage", this::storeFromRing);
+        ring.handleWith("ring-alerts", this::analyse);
+        ring.handleWith("ring-persistence", this::logFromRing, stored);
+        ring.start();
+        ringBuffer = ring;
+        return ring;
+    }
 
+    /**
+     * Lets the stages handle what is still in the ring buffer, then goes back to storing the readings
+     * on the thread that brings them.
+     */
+    public synchronized void disableRingBuffer() {
+        ReadingRingBuffer ring = ringBuffer;
+        ringBuffer = null;
+        if (ring != null) {
+            ring.close();
+        }
+    }
+
+    /**
+     * @return the ring buffer, null if it is not enabled
+     */
+    public ReadingRingBuffer getRingBuffer() {
+        return ringBuffer;
+    }
+
+    /**
+     * @return the store of the sealed history, null if segments are not enabled
+     */
+    public SegmentStore getSegmentStore() {
+        return segmentStore;
     }
 
     /**
      * Retrieves a list of PatientRecord objects for a specific patient, filtered by
-     * a time range.
+     * a time range. With segments enabled the records come from memory and from the
+     * mapped segments alike.
      *
      * @param patientId the unique identifier of the patient whose records are to be
      *                  retrieved
@@ -132,6 +526,10 @@ public class DataStorage {
      */
     public List<PatientRecord> getRecords(int patientId, long startTime, long endTime) {
         Patient patient = patientMap.get(patientId);
+        SegmentStore segments = segmentStore;
+        if (segments != null) {
+            return segments.getRecords(patient, patientId, -1, startTime, endTime);
+        }
         if (patient != null) {
             return patient.getRecords(startTime, endTime);
         }
@@ -142,19 +540,86 @@ public class DataStorage {
 
     }
 
+    /**
+     * Retrieves the records of one type for a specific patient, filtered by a time range.
+     *
+     * @param patientId  the unique identifier of the patient
+     * @param recordType the type of record, e.g. "ECG"
+     * @param startTime  the start of the time range, in milliseconds since the Unix epoch
+     * @param endTime    the end of the time range, in milliseconds since the Unix epoch
+     * @return a read-only list of the matching records, ordered by timestamp
+     */
+    public List<PatientRecord> getRecords(int patientId, String recordType, long startTime, long endTime) {
+        Patient patient = patientMap.get(patientId);
+        SegmentStore segments = segmentStore;
+        if (segments != null) {
+            return segments.getRecords(patient, patientId, RecordTypes.codeOf(recordType), startTime, endTime);
+        }
+        if (patient == null) {
+            return new ArrayList<>();
+        }
+        return patient.getRecords(recordType, startTime, endTime);
+    }
+
+    /**
+     * Retrieves the records of one type for a specific patient as buckets, with the minimum,
+     * maximum and mean of the readings that were downsampled by the retention.
+     *
+     * @param patientId  the unique identifier of the patient
+     * @param recordType the type of record, e.g. "ECG"
+     * @param startTime  the start of the time range, in milliseconds since the Unix epoch
+     * @param endTime    the end of the time range, in milliseconds since the Unix epoch
+     * @return the buckets, ordered by time
+     */
+    public List<RecordBucket> getBuckets(int patientId, String recordType, long startTime, long endTime) {
+        Patient patient = patientMap.get(patientId);
+        if (patient == null) {
+            return new ArrayList<>();
+        }
+        return patient.getBuckets(recordType, startTime, endTime);
+    }
+
     /**
      * Retrieves a collection of all patients stored in the data storage.
      *
-     * @return a list of all patients
+     * @return a list of all patients, ordered by patient ID
      */
     public List<Patient> getAllPatients() {
-        return new ArrayList<>(patientMap.values());
+        List<Patient> patients = new ArrayList<>(patientMap.values());
+        patients.sort(Comparator.comparingInt(Patient::getPatientId));
+        return patients;
     }
 
     /**
      * The main method for the DataStorage class.
      * Initializes the system, reads data into storage, and continuously monitors
      * and evaluates patient data.
+     *
+     * Options:
+     *   --analysis-period &lt;ms&gt;    pause between two analysis cycles (default 10000)
+     *   --max-analysis-lag &lt;ms&gt;   how long a reading may wait for a cycle, at least the period (default 60000,
+     *                              or the period if it is longer)
+     *   --analysis-mode &lt;mode&gt;    'incremental' to evaluate every reading as it arrives (default),
+     *                              'periodic' to evaluate time windows in cycles
+     *   --analysis-threads &lt;n&gt;    threads that evaluate patients in parallel in periodic mode (default 1)
+     *   --retention-ttl &lt;ms&gt;      age after which readings are dropped (default one day)
+     *   --raw-retention &lt;ms&gt;      age after which readings are downsampled (default one hour)
+     *   --retention-bucket &lt;ms&gt;   time span of a downsampled bucket (default one minute)
+     *   --max-samples-per-patient &lt;n&gt;  cap on the readings kept per patient (default none)
+     *   --wal-dir &lt;path&gt;          log readings to this directory and restore them on start (default off)
+     *   --wal-flush-interval &lt;ms&gt; pause between two syncs of the log to disk (default 10)
+     *   --snapshot-interval &lt;ms&gt;  pause between two snapshots (default 300000)
+     *   --segment-dir &lt;path&gt;      seal the history older than the hot window into mapped files there (default off)
+     *   --hot-window &lt;ms&gt;         history kept in memory when segments are on (default 7200000)
+     *   --segment-length &lt;ms&gt;     period covered by one segment file (default 3600000)
+     *   --follow &lt;path&gt;           follow the files written to this directory instead of the WebSocket server
+     *   --tcp &lt;host:port&gt;        read the TCP output of the simulator instead of the WebSocket server
+     *   --wire-format &lt;format&gt;    'text' (default) or 'binary' frames from the WebSocket or TCP server
+     *   --ingestion-queue &lt;n&gt;      queue up to n readings between the readers and the storage (default off)
+     *   --ingestion-overflow &lt;p&gt;   'block' (default), 'drop-oldest' or 'spill' when the queue is full
+     *   --spill-dir &lt;path&gt;         where the queue spills (default the temporary directory)
+     *   --ring-buffer &lt;n&gt;          store, analyse and log the live readings on their own threads, through
+     *                              a ring of n readings (default off)
      * 
      * @param args command line arguments
      */
@@ -162,8 +627,139 @@ public class DataStorage {
 
         DataStorage storage = DataStorage.getInstance();
 
+        long period = AnalysisScheduler.DEFAULT_CYCLE_PERIOD_MILLIS;
+        long maxLag = AnalysisScheduler.DEFAULT_MAX_ANALYSIS_LAG_MILLIS;
+        boolean maxLagGiven = false;
+        RetentionPolicy retention = RetentionPolicy.DEFAULT;
+        Path walDirectory = null;
+        long flushInterval = PersistenceManager.DEFAULT_FLUSH_INTERVAL_MILLIS;
+        long snapshotInterval = PersistenceManager.DEFAULT_SNAPSHOT_INTERVAL_MILLIS;
+        Path segmentDirectory = null;
+        long hotWindow = SegmentStore.DEFAULT_HOT_WINDOW_MILLIS;
+        long segmentLength = SegmentStore.DEFAULT_SEGMENT_MILLIS;
+        String followed = null;
+        String tcpServer = null;
+        boolean binary = false;
+        int queueCapacity = 0;
+        int ringCapacity = 0;
+        IngestionQueue.OverflowPolicy overflow = IngestionQueue.OverflowPolicy.BLOCK;
+        Path spillDirectory = Paths.get(System.getProperty("java.io.tmpdir"));
+        for (int i = 0; i + 1 < args.length; i++) {
+            switch (args[i]) {
+                case "--analysis-period":
+                    period = Long.parseLong(args[++i]);
+                    break;
+                case "--max-analysis-lag":
+                    maxLag = Long.parseLong(args[++i]);
+                    maxLagGiven = true;
+                    break;
+                case "--analysis-mode":
+                    storage.configureAnalysisMode(AnalysisMode.valueOf(args[++i].toUpperCase()));
+                    break;
+                case "--analysis-threads":
+                    storage.configureAnalysisThreads(Integer.parseInt(args[++i]));
+                    break;
+                case "--retention-ttl":
+                    retention = retention.withTimeToLive(Long.parseLong(args[++i]));
+                    break;
+                case "--raw-retention":
+                    retention = retention.withDownsampling(Long.parseLong(args[++i]), retention.getBucketMillis());
+                    break;
+                case "--retention-bucket":
+                    retention = retention.withDownsampling(retention.getRawRetentionMillis(), Long.parseLong(args[++i]));
+                    break;
+                case "--max-samples-per-patient":
+                    retention = retention.withMaxSamplesPerPatient(Integer.parseInt(args[++i]));
+                    break;
+                case "--wal-dir":
+                    walDirectory = Paths.get(args[++i]);
+                    break;
+                case "--wal-flush-interval":
+                    flushInterval = Long.parseLong(args[++i]);
+                    break;
+                case "--snapshot-interval":
+                    snapshotInterval = Long.parseLong(args[++i]);
+                    break;
+                case "--segment-dir":
+                    segmentDirectory = Paths.get(args[++i]);
+                    break;
+                case "--hot-window":
+                    hotWindow = Long.parseLong(args[++i]);
+                    break;
+                case "--segment-length":
+                    segmentLength = Long.parseLong(args[++i]);
+                    break;
+                case "--follow":
+                    followed = args[++i];
+                    break;
+                case "--tcp":
+                    tcpServer = args[++i];
+                    break;
+                case "--wire-format":
+                    binary = args[++i].equalsIgnoreCase("binary");
+                    break;
+                case "--ingestion-queue":
+                    queueCapacity = Integer.parseInt(args[++i]);
+                    break;
+                case "--ingestion-overflow":
+                    String policy = args[++i].toUpperCase().replace('-', '_');
+                    overflow = IngestionQueue.OverflowPolicy.valueOf(policy.equals("SPILL") ? "SPILL_TO_DISK" : policy);
+                    break;
+                case "--spill-dir":
+                    spillDirectory = Paths.get(args[++i]);
+                    break;
+                case "--ring-buffer":
+                    ringCapacity = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    System.err.println("Unknown option '" + args[i] + "'");
+            }
+        }
+        if (maxLag < period && !maxLagGiven) {
+            System.out.println("The maximum analysis lag is raised to the analysis period, " + period + " ms");
+            maxLag = period;
+        } else if (maxLag < period) {
+            System.err.println("The maximum analysis lag (" + maxLag + " ms) can not be shorter than the analysis period ("
+                    + period + " ms), see --max-analysis-lag");
+            return;
+        }
+        storage.configureAnalysis(period, maxLag);
+        storage.configureRetention(retention);
+        if (segmentDirectory != null) {
+            storage.enableSegments(segmentDirectory, hotWindow, segmentLength);
+        }
+        if (walDirectory != null) {
+            System.out.println("Restored " + storage.enableDurability(walDirectory, flushInterval, snapshotInterval)
+                    + " readings from " + walDirectory);
+        }
+
+        if (ringCapacity > 0) {
+            storage.enableRingBuffer(ringCapacity);
+        }
+        if (queueCapacity > 0) {
+            storage.enableIngestionQueue(queueCapacity, overflow, spillDirectory);
+        }
+
+        DataReader reader = null;
+        if (followed != null) {
+            reader = new FileTailReader(followed, storage, true);
+        } else if (tcpServer != null) {
+            int colon = tcpServer.lastIndexOf(':');
+            reader = new TcpDataReader(colon > 0 ? tcpServer.substring(0, colon) : "localhost",
+                    Integer.parseInt(tcpServer.substring(colon + 1)), storage, binary);
+        }
+        if (reader != null) {
+            reader.startStreaming();
+            while (true) {
+                try {
+                    Thread.sleep(Long.MAX_VALUE); // the reader runs on a daemon thread
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
 
-        WebSocketClientAdapter webSocketClientAdapter = new WebSocketClientAdapter( new URI("ws://localhost:8080") , storage);
+        WebSocketClientAdapter webSocketClientAdapter = new WebSocketClientAdapter( new URI("ws://localhost:8080") , storage, binary);
         webSocketClientAdapter.startStreaming();
     }
 }
@@ -1,52 +1,338 @@
 package com.data_management;
 
 import java.io.IOException;
-import java.io.BufferedReader;
-import java.io.FileReader;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.file.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
 
+/**
+ * Imports the files written by {@link com.cardio_generator.outputs.FileOutputStrategy}.
+ *
+ * Files are read in large blocks and every line is parsed straight from the bytes by a
+ * {@link RecordLineParser}, so an import does not create a string nor a regex match per line.
+ * The readings go into the storage through its bulk path, which skips the per-record analysis;
+ * the alert strategies are primed with the recent history of the imported patients at the end.
+ *
+ * With more than one thread the files are cut into chunks at line boundaries and the chunks are
+ * parsed in parallel, a wave of chunks at a time. The parsed readings are split by patient, and
+ * every patient is then stored by a single thread, in the order of the files and of the chunks,
+ * so the readings of a patient reach the storage in the same order as with one thread.
+ *
+ * Rotated segments ({@code <label>-<n>.log}, or {@code .log.gz} when compressed) are read along with
+ * the current files, oldest first. {@link #readData(DataStorage, long, long)} only imports a time range
+ * and skips the segments that the {@link SegmentManifest} places outside of it without opening them.
+ * A compressed segment can not be split, it is always a single chunk.
+ */
 public class FileDataReader implements FileDataReaderInterface {
+    public static final long DEFAULT_CHUNK_BYTES = 16 << 20;
+    private static final int BLOCK_SIZE = 1 << 20;
+
     private final Path path;
+    private final int threads;
+    private final long chunkBytes;
+    private long skippedLines;
 
     public FileDataReader(String path) {
-        this.path = Paths.get(path);
+        this(path, 1);
+    }
+
+    /**
+     * @param path - the directory holding the files
+     * @param threads - threads that import the files, 1 imports them one after another on the calling thread
+     */
+    public FileDataReader(String path, int threads) {
+        this(path, threads, DEFAULT_CHUNK_BYTES);
+    }
 
+    /**
+     * @param path - the directory holding the files
+     * @param threads - threads that import the files, 1 imports them one after another on the calling thread
+     * @param chunkBytes - files larger than this are split in chunks of about this size
+     */
+    public FileDataReader(String path, int threads, long chunkBytes) {
+        if (threads < 1 || chunkBytes < 1) {
+            throw new IllegalArgumentException("The threads and the chunk size must be positive");
+        }
+        this.path = Paths.get(path);
+        this.threads = threads;
+        this.chunkBytes = chunkBytes;
     }
 
 
     public void readData(DataStorage dataStorage) throws IOException {
-        try (DirectoryStream<Path> stream = Files.newDirectoryStream(path, "*.txt")) {
+        readData(dataStorage, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * Imports the readings taken in [startTime, endTime], from the current files and the rotated segments.
+     *
+     * @param dataStorage - where the readings go
+     * @param startTime - the start of the time range, in milliseconds since UNIX epoch
+     * @param endTime - the end of the time range, in milliseconds since UNIX epoch
+     * @return the number of readings imported
+     * @throws IOException - if a file can not be read
+     */
+    public long readData(DataStorage dataStorage, long startTime, long endTime) throws IOException {
+        Map<String, SegmentManifest.Entry> manifest = SegmentManifest.read(path);
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(path)) {
             for (Path file : stream) {
-                fileScanner(file, dataStorage);
+                String name = file.getFileName().toString();
+                if (name.endsWith(SegmentManifest.SEGMENT_SUFFIX)
+                        && Files.exists(file.resolveSibling(name + ".gz"))) {
+                    continue; // being compressed, the compressed copy is already complete
+                }
+                SegmentManifest.Entry entry = manifest.get(name);
+                if (entry != null && !entry.overlaps(startTime, endTime)) {
+                    continue;
+                }
+                if (name.endsWith(".txt") || SegmentManifest.isSegment(name)) {
+                    files.add(file);
+                }
             }
         }
+        files.sort(null); // the segments of a label sort before its current file
+        return importFiles(files, dataStorage, startTime, endTime);
     }
-        public void fileScanner (Path fPath, DataStorage dataStorage) throws IOException {
-            Pattern style = Pattern.compile("Patient ID: (\\d+), Timestamp: (\\d+), Label: ([^,]+), Data: ([-+]?\\d*\\.?\\d+)");
 
+    /**
+     * Imports a single file.
+     *
+     * @param fPath - the file to import
+     * @param dataStorage - where the readings go
+     * @return the number of readings imported
+     * @throws IOException - if the file can not be read
+     */
+    public long fileScanner(Path fPath, DataStorage dataStorage) throws IOException {
+        return importFiles(List.of(fPath), dataStorage, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
 
-            Files.lines(fPath).forEach(line -> {
-                Matcher matcher = style.matcher(line);
-                if (matcher.matches()) {
-                    try {
-                        int patientId = Integer.parseInt(matcher.group(1));
-                        double measurementValue = Double.parseDouble(matcher.group(4));
-                        String recordType = (matcher.group(3));
-                        long timestamp = Long.parseLong(matcher.group(2));
+    /**
+     * @return the number of lines that were not valid readings, e.g. the "triggered" values of alerts
+     */
+    public long getSkippedLines() {
+        return skippedLines;
+    }
 
-                        dataStorage.addPatientData(patientId, measurementValue, recordType, timestamp);
-                       // System.out.println(patientId + " | "+ timestamp + " | "+recordType+ " | "+ measurementValue);
+    private long importFiles(List<Path> files, DataStorage dataStorage, long startTime, long endTime)
+            throws IOException {
+        List<long[]> chunks = chunksOf(files);
+        Set<Integer> patients = new HashSet<>();
+        long readings = 0;
+        if (threads == 1) {
+            RecordLineParser parser = new RecordLineParser();
+            RecordBatch[] batch = {new RecordBatch()};
+            for (long[] chunk : chunks) {
+                skippedLines += readChunk(files.get((int) chunk[0]), chunk, startTime, endTime, parser, batch);
+                readings += batch[0].size;
+                batch[0].loadInto(dataStorage, patients);
+                batch[0].size = 0;
+            }
+        } else {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                // a few chunks per thread at a time, so the parsed readings never pile up in memory
+                int wave = threads * 2;
+                for (int first = 0; first < chunks.size(); first += wave) {
+                    readings += importWave(files, chunks.subList(first, Math.min(chunks.size(), first + wave)),
+                            startTime, endTime, dataStorage, pool, patients);
+                }
+            } finally {
+                pool.shutdown();
+            }
+        }
+        dataStorage.finishBulkLoad(patients);
+        return readings;
+    }
 
-                    } catch (NumberFormatException e) {
-                        System.out.println("Error parsing" + line);
-                    }
+    // {file index, start, end} of every chunk, the end of the last chunk of a file is open
+    private List<long[]> chunksOf(List<Path> files) throws IOException {
+        List<long[]> chunks = new ArrayList<>();
+        for (int f = 0; f < files.size(); f++) {
+            if (isCompressed(files.get(f))) {
+                chunks.add(new long[]{f, 0, Long.MAX_VALUE});
+                continue;
+            }
+            long size = Files.size(files.get(f));
+            long start = 0;
+            do {
+                long end = size - start > chunkBytes ? start + chunkBytes : Long.MAX_VALUE;
+                chunks.add(new long[]{f, start, end});
+                start = end;
+            } while (start < size);
+        }
+        return chunks;
+    }
 
+    private long importWave(List<Path> files, List<long[]> chunks, long startTime, long endTime,
+                            DataStorage dataStorage, ForkJoinPool pool, Set<Integer> patients) throws IOException {
+        AtomicLong skipped = new AtomicLong();
+        List<Callable<RecordBatch[]>> parsing = new ArrayList<>();
+        for (long[] chunk : chunks) {
+            parsing.add(() -> {
+                RecordBatch[] batches = new RecordBatch[threads];
+                for (int p = 0; p < threads; p++) {
+                    batches[p] = new RecordBatch();
                 }
+                skipped.addAndGet(readChunk(files.get((int) chunk[0]), chunk, startTime, endTime,
+                        new RecordLineParser(), batches));
+                return batches;
             });
+        }
+        List<RecordBatch[]> parsed = runAll(pool, parsing);
+        skippedLines += skipped.get();
+
+        // one thread per group of patients, going through the chunks in order
+        List<Callable<Set<Integer>>> loading = new ArrayList<>();
+        for (int p = 0; p < threads; p++) {
+            int partition = p;
+            loading.add(() -> {
+                Set<Integer> loaded = new HashSet<>();
+                for (RecordBatch[] batches : parsed) {
+                    batches[partition].loadInto(dataStorage, loaded);
+                }
+                return loaded;
+            });
+        }
+        for (Set<Integer> loaded : runAll(pool, loading)) {
+            patients.addAll(loaded);
+        }
 
+        long readings = 0;
+        for (RecordBatch[] batches : parsed) {
+            for (RecordBatch batch : batches) {
+                readings += batch.size;
+            }
+        }
+        return readings;
+    }
 
+    private static <T> List<T> runAll(ForkJoinPool pool, List<Callable<T>> tasks) throws IOException {
+        List<T> results = new ArrayList<>();
+        try {
+            for (Future<T> future : pool.invokeAll(tasks)) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Import interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException(e.getCause());
         }
+        return results;
+    }
+
+    private static boolean isCompressed(Path file) {
+        return file.getFileName().toString().endsWith(SegmentManifest.COMPRESSED_SUFFIX);
     }
 
+    // reads one {file index, start, end} chunk of a file
+    private static long readChunk(Path file, long[] chunk, long startTime, long endTime, RecordLineParser parser,
+                                  RecordBatch[] batches) throws IOException {
+        if (isCompressed(file)) {
+            try (ReadableByteChannel channel = Channels.newChannel(
+                    new GZIPInputStream(Files.newInputStream(file), BLOCK_SIZE))) {
+                return readLines(channel, 0, Long.MAX_VALUE, false, startTime, endTime, parser, batches);
+            }
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long start = chunk[1];
+            boolean inPreviousChunk = start > 0 && !startsLine(channel, start);
+            channel.position(start);
+            return readLines(channel, start, chunk[2], inPreviousChunk, startTime, endTime, parser, batches);
+        }
+    }
+
+    /**
+     * Reads the lines that start in [start, end) of a file, from a channel positioned at start, and
+     * adds the valid ones taken in [startTime, endTime] to the batches, split by patient. The last line
+     * may run past end; the first one is skipped when it belongs to the previous chunk.
+     *
+     * @return the number of lines that were skipped
+     */
+    private static long readLines(ReadableByteChannel channel, long start, long end, boolean inPreviousChunk,
+                                  long startTime, long endTime, RecordLineParser parser, RecordBatch[] batches)
+            throws IOException {
+        long skipped = 0;
+        byte[] block = new byte[BLOCK_SIZE];
+        long blockOffset = start; // position of block[0] in the file
+        int filled = 0;
+        boolean done = false;
+        while (!done) {
+            if (filled == block.length) {
+                block = Arrays.copyOf(block, block.length * 2); // a line longer than the block
+            }
+            int read = channel.read(ByteBuffer.wrap(block, filled, block.length - filled));
+            if (read < 0) {
+                break;
+            }
+            int scanned = filled;
+            filled += read;
+
+            int lineStart = 0;
+            for (int i = scanned; i < filled; i++) {
+                if (block[i] == '\n') {
+                    if (blockOffset + lineStart >= end) {
+                        done = true;
+                        break;
+                    }
+                    if (inPreviousChunk) {
+                        inPreviousChunk = false;
+                    } else if (parser.parse(block, lineStart, i)) {
+                        add(parser, startTime, endTime, batches);
+                    } else if (i > lineStart) {
+                        skipped++;
+                    }
+                    lineStart = i + 1;
+                }
+            }
+            // keep the partial last line for the next block
+            System.arraycopy(block, lineStart, block, 0, filled - lineStart);
+            filled -= lineStart;
+            blockOffset += lineStart;
+        }
+        if (!done && filled > 0 && !inPreviousChunk && blockOffset < end) {
+            // last line of the file, without a line break
+            if (parser.parse(block, 0, filled)) {
+                add(parser, startTime, endTime, batches);
+            } else {
+                skipped++;
+            }
+        }
+        return skipped;
+    }
+
+    private static void add(RecordLineParser parser, long startTime, long endTime, RecordBatch[] batches) {
+        long timestamp = parser.getTimestamp();
+        if (timestamp >= startTime && timestamp <= endTime) {
+            batches[Math.floorMod(parser.getPatientId(), batches.length)].add(parser);
+        }
+    }
+
+    // true if a line starts at the given position, i.e. the byte before it is a line break
+    private static boolean startsLine(FileChannel channel, long position) throws IOException {
+        ByteBuffer previous = ByteBuffer.allocate(1);
+        return channel.read(previous, position - 1) == 1 && previous.get(0) == '\n';
+    }
+}
@@ -0,0 +1,333 @@
+package com.data_management;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Follows the files that {@link com.cardio_generator.outputs.FileOutputStrategy} keeps appending to,
+ * the way {@code tail -F} does, and stores every new reading as it lands, with the usual analysis.
+ *
+ * The directory is watched with a {@link WatchService}. Every followed file keeps its byte offset, so
+ * only the appended bytes are read, and a partial last line waits for the rest of it. A file that is
+ * replaced (rotated) is read to its end before the new one is followed from its start; if the old
+ * file shows up again under another name it is not read twice. A file that shrinks (truncated) is
+ * followed from its start again. Some platforms only poll for changes
+ * every few seconds, so the files are also checked every {@link #POLL_MILLIS} ms when nothing was
+ * reported.
+ */
+public class FileTailReader implements DataReader {
+
+    public static final long POLL_MILLIS = 50;
+    private static final int BLOCK_SIZE = 64 * 1024;
+
+    private final Path directory;
+    private final DataStorage storage;
+    private final boolean fromStart;
+    private final RecordLineParser parser = new RecordLineParser();
+    private final RecordBatch batch = new RecordBatch(); // the readings of one block
+    private final Map<Path, TailedFile> files = new HashMap<>(); // only touched by the following thread
+    private final Map<Object, Long> finishedOffsets = new HashMap<>(); // files left behind, in case they show up renamed
+    private final ByteBuffer block = ByteBuffer.allocate(BLOCK_SIZE);
+    private volatile WatchService watchService;
+    private volatile long readings;
+    private volatile long skippedLines;
+    private Thread thread;
+
+    /**
+     * @param directory - the directory the files are written to
+     * @param storage - where the readings go
+     * @param fromStart - true to first read what the files already hold, false to only follow what is appended
+     */
+    public FileTailReader(String directory, DataStorage storage, boolean fromStart) {
+        this.directory = Paths.get(directory);
+        this.storage = storage;
+        this.fromStart = fromStart;
+    }
+
+    @Override
+    public synchronized void startStreaming() throws IOException {
+        if (thread != null) {
+            return;
+        }
+        Files.createDirectories(directory);
+        watchService = directory.getFileSystem().newWatchService();
+        directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.txt")) {
+            for (Path file : stream) {
+                TailedFile tailed = new TailedFile(file);
+                if (!fromStart) {
+                    tailed.skipToEnd();
+                }
+                files.put(file, tailed);
+            }
+        }
+        thread = new Thread(this::follow, "file-tail");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public synchronized void stopStreaming() throws IOException {
+        if (thread == null) {
+            return;
+        }
+        watchService.close();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+        for (TailedFile tailed : files.values()) {
+            tailed.close();
+        }
+        files.clear();
+    }
+
+    /**
+     * @return the number of readings stored so far
+     */
+    public long getReadings() {
+        return readings;
+    }
+
+    /**
+     * @return the number of complete lines that were not valid readings
+     */
+    public long getSkippedLines() {
+        return skippedLines;
+    }
+
+    private void follow() {
+        WatchService watcher = watchService;
+        while (true) {
+            WatchKey key;
+            try {
+                key = watcher.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                break;
+            }
+            try {
+                if (key == null) {
+                    for (TailedFile tailed : files.values()) {
+                        tailed.readAppended();
+                    }
+                    discoverFiles();
+                    continue;
+                }
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        discoverFiles();
+                        continue;
+                    }
+                    Path file = directory.resolve((Path) event.context());
+                    if (!file.getFileName().toString().endsWith(".txt")) {
+                        continue;
+                    }
+                    TailedFile tailed = files.computeIfAbsent(file, TailedFile::new);
+                    tailed.readAppended();
+                    if (tailed.channel == null && !Files.exists(file)) {
+                        files.remove(file);
+                    }
+                }
+                if (!key.reset()) {
+                    System.err.println("The directory " + directory + " can no longer be followed");
+                    break;
+                }
+            } catch (ClosedWatchServiceException e) {
+                break;
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Error while following " + directory + ": " + e.getMessage());
+            }
+        }
+    }
+
+    // picks up files the watch service did not report, e.g. after an overflow, and forgets the files left
+    // behind that are no longer in the directory
+    private void discoverFiles() throws IOException {
+        Set<Object> presentKeys = new HashSet<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.txt")) {
+            for (Path file : stream) {
+                if (!files.containsKey(file)) {
+                    TailedFile tailed = new TailedFile(file);
+                    files.put(file, tailed);
+                    tailed.readAppended();
+                }
+                if (!finishedOffsets.isEmpty()) {
+                    try {
+                        presentKeys.add(Files.readAttributes(file, BasicFileAttributes.class).fileKey());
+                    } catch (NoSuchFileException e) {
+                        // gone meanwhile
+                    }
+                }
+            }
+        }
+        finishedOffsets.keySet().retainAll(presentKeys);
+        Iterator<Map.Entry<Path, TailedFile>> it = files.entrySet().iterator();
+        while (it.hasNext()) {
+            TailedFile tailed = it.next().getValue();
+            if (tailed.channel == null && !Files.exists(tailed.path)) {
+                it.remove();
+            }
+        }
+    }
+
+    private void store(byte[] line, int from, int to) {
+        if (parser.parse(line, from, to)) {
+            batch.add(parser);
+        } else if (to > from) {
+            skippedLines++;
+        }
+    }
+
+    private void storeBatch() {
+        int count = batch.size;
+        storage.ingest(batch);
+        readings += count;
+    }
+
+    /**
+     * One followed file: its open channel, how far it was read and the partial last line.
+     */
+    private final class TailedFile {
+        final Path path;
+        FileChannel channel;
+        Object fileKey;
+        long offset;
+        byte[] partial = new byte[256];
+        int partialLength;
+
+        TailedFile(Path path) {
+            this.path = path;
+        }
+
+        void skipToEnd() throws IOException {
+            if (open()) {
+                offset = channel.size();
+            }
+        }
+
+        // reads whatever was appended since the last time, following rotations and truncations
+        void readAppended() throws IOException {
+            if (channel == null && !open()) {
+                return;
+            }
+            Object currentKey = currentFileKey();
+            if (currentKey == null || (fileKey != null && !Objects.equals(currentKey, fileKey))) {
+                // deleted or replaced: what was appended to the old file still counts, then start over
+                readTo(channel.size());
+                flushPartial();
+                if (fileKey != path) {
+                    finishedOffsets.put(fileKey, offset);
+                }
+                close();
+                if (currentKey == null || !open()) {
+                    return;
+                }
+            }
+            long size = channel.size();
+            if (size < offset) {
+                offset = 0; // truncated
+                partialLength = 0;
+            }
+            readTo(size);
+        }
+
+        private void readTo(long size) throws IOException {
+            while (offset < size) {
+                block.clear();
+                int read = channel.read(block, offset);
+                if (read <= 0) {
+                    break;
+                }
+                offset += read;
+                byte[] bytes = block.array();
+                int lineStart = 0;
+                for (int i = 0; i < read; i++) {
+                    if (bytes[i] == '\n') {
+                        if (partialLength > 0) {
+                            append(bytes, lineStart, i);
+                            store(partial, 0, partialLength);
+                            partialLength = 0;
+                        } else {
+                            store(bytes, lineStart, i);
+                        }
+                        lineStart = i + 1;
+                    }
+                }
+                append(bytes, lineStart, read); // partial last line, completed by a later read
+                storeBatch();
+            }
+        }
+
+        private void append(byte[] bytes, int from, int to) {
+            int length = to - from;
+            if (partialLength + length > partial.length) {
+                partial = Arrays.copyOf(partial, Math.max(partial.length * 2, partialLength + length));
+            }
+            System.arraycopy(bytes, from, partial, partialLength, length);
+            partialLength += length;
+        }
+
+        // the last line of a file that is gone will never be completed
+        private void flushPartial() {
+            if (partialLength > 0) {
+                store(partial, 0, partialLength);
+                partialLength = 0;
+                storeBatch();
+            }
+        }
+
+        private boolean open() throws IOException {
+            try {
+                channel = FileChannel.open(path, StandardOpenOption.READ);
+            } catch (NoSuchFileException e) {
+                return false;
+            }
+            fileKey = currentFileKey();
+            Long finished = finishedOffsets.remove(fileKey);
+            offset = finished != null ? finished : 0;
+            partialLength = 0;
+            return true;
+        }
+
+        // identity of the file currently at the path, e.g. its inode; null if there is none
+        private Object currentFileKey() throws IOException {
+            try {
+                Object key = Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+                return key != null ? key : path; // no file keys on this platform, only truncation is noticed
+            } catch (NoSuchFileException e) {
+                return null;
+            }
+        }
+
+        void close() throws IOException {
+            if (channel != null) {
+                channel.close();
+                channel = null;
+            }
+        }
+    }
+}
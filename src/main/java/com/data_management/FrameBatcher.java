@@ -0,0 +1,32 @@
+package com.data_management;
+
+import com.cardio_generator.outputs.BinaryRecordFormat;
+
+import java.util.Arrays;
+
+/**
+ * Adds the records of decoded binary frames to a batch. The code of {@link RecordTypes} that goes with a
+ * label code of the connection is looked up once, when the label frame arrives, so a record costs an array
+ * read instead of a map lookup. Not thread safe, like the decoder that feeds it.
+ */
+final class FrameBatcher implements BinaryRecordFormat.FrameSink {
+    private final RecordBatch batch;
+    private int[] typeCodes = new int[16]; // by label code, only read for the labels the decoder was told about
+
+    FrameBatcher(RecordBatch batch) {
+        this.batch = batch;
+    }
+
+    @Override
+    public void label(int labelCode, String label) {
+        if (labelCode >= typeCodes.length) {
+            typeCodes = Arrays.copyOf(typeCodes, Math.max(labelCode + 1, typeCodes.length * 2));
+        }
+        typeCodes[labelCode] = RecordTypes.codeOf(label);
+    }
+
+    @Override
+    public void record(int patientId, long timestamp, int labelCode, double value) {
+        batch.add(patientId, timestamp, typeCodes[labelCode], value);
+    }
+}
@@ -0,0 +1,360 @@
+package com.data_management;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded queue between the readers and the storage, see {@link DataStorage#enableIngestionQueue}.
+ *
+ * The readers hand their batches to the queue and go back to their socket or file right away; a
+ * single thread drains the queue in batches of up to {@link #DRAIN_BATCH} readings into the storage,
+ * with the usual analysis. The queued readings are kept column by column in a ring allocated once.
+ *
+ * When the storage falls so far behind that the ring is full, the {@link OverflowPolicy} decides what
+ * happens. With {@link OverflowPolicy#SPILL_TO_DISK} the readings go to a file once the ring is full,
+ * and keep going there until the storage has caught up with the file, so they are stored in the order
+ * they arrived.
+ */
+public final class IngestionQueue implements AutoCloseable {
+
+    /**
+     * What happens to a reading that arrives while the queue is full.
+     */
+    public enum OverflowPolicy {
+        /** the reader waits until there is room */
+        BLOCK,
+        /** the oldest queued reading makes room and is counted as dropped */
+        DROP_OLDEST,
+        /** the reading waits in a file on disk, nothing is lost */
+        SPILL_TO_DISK
+    }
+
+    public static final int DEFAULT_CAPACITY = 64 * 1024;
+    public static final int DRAIN_BATCH = 1024;
+    private static final int SPILL_RECORD_BYTES = 24; // patient id, timestamp, type code, value
+    private static final int SPILL_BUFFER_BYTES = SPILL_RECORD_BYTES * 2048;
+
+    private final DataStorage storage;
+    private final OverflowPolicy policy;
+    private final int capacity;
+    private final int mask;
+    private final int[] patientIds;
+    private final long[] timestamps;
+    private final int[] typeCodes;
+    private final double[] values;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private long head; // next reading to drain
+    private long tail; // next free slot
+    private boolean closed;
+
+    // the spill file: read by the draining thread from spillRead to spillEnd, then the bytes still in spillOut
+    private final FileChannel spill;
+    private final ByteBuffer spillOut;
+    private final ByteBuffer spillIn;
+    private long spillEnd;
+    private long spillRead;
+
+    private volatile long storedReadings;
+    private volatile long droppedReadings;
+    private volatile long spilledReadings;
+    private volatile long maxDepth;
+    private final Thread drainer;
+
+    /**
+     * @param storage - where the readings are drained to
+     * @param capacity - how many readings the ring holds, rounded up to a power of two
+     * @param policy - what happens to the readings that arrive while the ring is full
+     * @param spillDirectory - where the spill file is created, only used with {@link OverflowPolicy#SPILL_TO_DISK}
+     * @throws IOException if the spill file can not be created
+     */
+    IngestionQueue(DataStorage storage, int capacity, OverflowPolicy policy, Path spillDirectory) throws IOException {
+        this(storage, checkCapacity(capacity), policy,
+                policy == OverflowPolicy.SPILL_TO_DISK ? openSpill(spillDirectory) : null);
+    }
+
+    // with the spill file already open, null unless the policy is SPILL_TO_DISK
+    IngestionQueue(DataStorage storage, int capacity, OverflowPolicy policy, FileChannel spill) {
+        checkCapacity(capacity);
+        this.storage = storage;
+        this.policy = policy;
+        this.capacity = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        this.mask = this.capacity - 1;
+        patientIds = new int[this.capacity];
+        timestamps = new long[this.capacity];
+        typeCodes = new int[this.capacity];
+        values = new double[this.capacity];
+        if (policy == OverflowPolicy.SPILL_TO_DISK) {
+            this.spill = spill;
+            spillOut = ByteBuffer.allocate(SPILL_BUFFER_BYTES);
+            spillIn = ByteBuffer.allocate(SPILL_BUFFER_BYTES);
+        } else {
+            this.spill = null;
+            spillOut = null;
+            spillIn = null;
+        }
+        drainer = new Thread(this::drain, "ingestion");
+        drainer.setDaemon(true);
+        drainer.start();
+    }
+
+    private static int checkCapacity(int capacity) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Invalid ingestion queue capacity: " + capacity);
+        }
+        return capacity;
+    }
+
+    private static FileChannel openSpill(Path spillDirectory) throws IOException {
+        Files.createDirectories(spillDirectory);
+        Path file = Files.createTempFile(spillDirectory, "ingestion-", ".spill");
+        return FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.DELETE_ON_CLOSE);
+    }
+
+    /**
+     * Queues the readings of a batch, in order, and empties the batch. Once the queue is closed the
+     * readings are stored right away instead.
+     */
+    void offer(RecordBatch batch) {
+        lock.lock();
+        try {
+            if (!closed) {
+                for (int i = 0; i < batch.size; i++) {
+                    put(batch.patientIds[i], batch.timestamps[i], batch.typeCodes[i], batch.values[i]);
+                }
+                batch.size = 0;
+                long depth = depth();
+                if (depth > maxDepth) {
+                    maxDepth = depth;
+                }
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        storage.dispatch(batch);
+    }
+
+    /**
+     * @return the number of readings waiting to be stored, in memory and on disk
+     */
+    public long getDepth() {
+        lock.lock();
+        try {
+            return depth();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the highest number of readings that were waiting at once
+     */
+    public long getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * @return how many readings the ring holds
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of readings drained into the storage so far
+     */
+    public long getStoredReadings() {
+        return storedReadings;
+    }
+
+    /**
+     * @return the number of readings dropped to make room, or that could not be spilled
+     */
+    public long getDroppedReadings() {
+        return droppedReadings;
+    }
+
+    /**
+     * @return the number of readings that went through the spill file
+     */
+    public long getSpilledReadings() {
+        return spilledReadings;
+    }
+
+    /**
+     * Stores whatever is still queued, then stops the draining thread. Readings offered from now on
+     * are stored by the caller.
+     */
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            drainer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (spill != null) {
+            spill.close();
+        }
+    }
+
+    // with the lock held
+    private void put(int patientId, long timestamp, int typeCode, double value) {
+        if (spilling()) {
+            spill(patientId, timestamp, typeCode, value); // behind the readings already spilled
+            return;
+        }
+        while (tail - head == capacity) {
+            if (policy == OverflowPolicy.DROP_OLDEST) {
+                head++;
+                droppedReadings++;
+            } else if (policy == OverflowPolicy.SPILL_TO_DISK) {
+                spill(patientId, timestamp, typeCode, value);
+                return;
+            } else {
+                notFull.awaitUninterruptibly(); // the drainer keeps going until the ring is empty, even closed
+            }
+        }
+        int slot = (int) tail & mask;
+        patientIds[slot] = patientId;
+        timestamps[slot] = timestamp;
+        typeCodes[slot] = typeCode;
+        values[slot] = value;
+        if (tail++ == head) {
+            notEmpty.signal();
+        }
+    }
+
+    // with the lock held
+    private void spill(int patientId, long timestamp, int typeCode, double value) {
+        if (!spillOut.hasRemaining()) {
+            spillOut.flip();
+            long start = spillEnd;
+            try {
+                while (spillOut.hasRemaining()) {
+                    spill.write(spillOut, start + spillOut.position());
+                }
+                spillEnd = start + spillOut.limit();
+            } catch (IOException e) {
+                System.err.println("Could not spill the ingestion queue: " + e.getMessage());
+                // keep the whole records that made it, the next write goes over the rest
+                int written = spillOut.position() / SPILL_RECORD_BYTES * SPILL_RECORD_BYTES;
+                spillEnd = start + written;
+                droppedReadings += (spillOut.limit() - written) / SPILL_RECORD_BYTES;
+            }
+            spillOut.clear();
+        }
+        spillOut.putInt(patientId).putLong(timestamp).putInt(typeCode).putDouble(value);
+        spilledReadings++;
+    }
+
+    // with the lock held
+    private boolean spilling() {
+        return spill != null && (spillRead < spillEnd || spillOut.position() > 0);
+    }
+
+    // with the lock held
+    private long depth() {
+        long spilled = spill == null ? 0 : (spillEnd - spillRead + spillOut.position()) / SPILL_RECORD_BYTES;
+        return tail - head + spilled;
+    }
+
+    private void drain() {
+        RecordBatch batch = new RecordBatch();
+        while (true) {
+            long readFrom = -1;
+            long readTo = 0;
+            lock.lock();
+            try {
+                while (head == tail && !spilling() && !closed) {
+                    notEmpty.awaitUninterruptibly();
+                }
+                if (head == tail && !spilling()) {
+                    return; // closed and empty
+                }
+                int count = (int) Math.min(tail - head, DRAIN_BATCH);
+                for (int i = 0; i < count; i++) {
+                    int slot = (int) head++ & mask;
+                    batch.add(patientIds[slot], timestamps[slot], typeCodes[slot], values[slot]);
+                }
+                if (count > 0) {
+                    notFull.signalAll();
+                } else if (spillRead < spillEnd) {
+                    readFrom = spillRead; // read below, without holding back the readers
+                    readTo = Math.min(spillEnd, spillRead + spillIn.capacity());
+                } else {
+                    // the file is read, the last spilled readings are still in the buffer
+                    spillOut.flip();
+                    readSpilled(spillOut, batch);
+                    spillOut.clear();
+                    spillEnd = 0;
+                    spillRead = 0;
+                    truncateSpill();
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (readFrom >= 0) {
+                readSpillFile(readFrom, readTo, batch);
+            }
+            int drained = batch.size;
+            storage.dispatch(batch);
+            storedReadings += drained;
+        }
+    }
+
+    private void readSpillFile(long from, long to, RecordBatch batch) {
+        spillIn.clear().limit((int) (to - from));
+        try {
+            while (spillIn.hasRemaining()) {
+                if (spill.read(spillIn, from + spillIn.position()) < 0) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Could not read the spilled readings: " + e.getMessage());
+        }
+        long lost = spillIn.remaining() / SPILL_RECORD_BYTES;
+        spillIn.flip();
+        readSpilled(spillIn, batch);
+        lock.lock();
+        try {
+            spillRead = to;
+            droppedReadings += lost;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static void readSpilled(ByteBuffer in, RecordBatch batch) {
+        while (in.remaining() >= SPILL_RECORD_BYTES) {
+            batch.add(in.getInt(), in.getLong(), in.getInt(), in.getDouble());
+        }
+    }
+
+    private void truncateSpill() {
+        try {
+            spill.truncate(0);
+        } catch (IOException e) {
+            System.err.println("Could not truncate the spill file: " + e.getMessage());
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package com.data_management;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -8,20 +10,31 @@ import java.util.List;
  * This class stores patient-specific data, allowing for the addition and
  * retrieval
  * of medical records based on specified criteria.
+ *
+ * The records are stored column by column: every record type gets its own
+ * {@link TimeSeries} of primitive timestamps and values, indexed by the code
+ * handed out by {@link RecordTypes}. Lists of {@link PatientRecord} are only
+ * created on demand through a {@link PatientRecordView}.
+ *
+ * Patients are safe to share between threads. Each series has its own lock, and the
+ * array of series is copied on write when a new record type shows up, so readers never lock it.
+ *
+ * Old readings can be dropped or downsampled with {@link #applyRetention(RetentionPolicy, long)};
+ * range queries then return one record per bucket, holding the mean of the bucket.
  */
 public class Patient {
     private int patientId;
-    private List<PatientRecord> patientRecords;
+    private volatile TimeSeries[] series; // indexed by record type code, null when the patient has no such records
 
     /**
      * Constructs a new Patient with a specified ID.
-     * Initializes an empty list of patient records.
+     * Initializes an empty set of record series.
      *
      * @param patientId the unique identifier for the patient
      */
     public Patient(int patientId) {
         this.patientId = patientId;
-        this.patientRecords = new ArrayList<>();
+        this.series = new TimeSeries[0];
     }
 
     /**
@@ -36,14 +49,20 @@ public class Patient {
      *                         milliseconds since UNIX epoch
      */
     public void addRecord(double measurementValue, String recordType, long timestamp) {
-        PatientRecord record = new PatientRecord(this.patientId, measurementValue, recordType, timestamp);
-        this.patientRecords.add(record);
+        seriesFor(RecordTypes.codeOf(recordType)).add(timestamp, measurementValue);
+    }
+
+    // same as above for callers that already interned the record type
+    void addRecord(double measurementValue, int typeCode, long timestamp) {
+        seriesFor(typeCode).add(timestamp, measurementValue);
     }
 
     /**
      * Retrieves a list of PatientRecord objects for this patient that fall within a
      * specified time range.
-     * The method filters records based on the start and end times provided.
+     * Every series is sorted by timestamp, so the range is found with a binary search
+     * instead of scanning the whole history. The returned list is a read-only view on
+     * the stored data, ordered by timestamp.
      *
      * @param startTime the start of the time range, in milliseconds since UNIX
      *                  epoch
@@ -52,20 +71,231 @@ public class Patient {
      *         range
      */
     public List<PatientRecord> getRecords(long startTime, long endTime) {
+        TimeSeries.Slice[] slices = slices(startTime, endTime);
+        if (slices.length == 0) {
+            return Collections.emptyList();
+        }
+        return new PatientRecordView(patientId, slices);
+    }
+
+    /**
+     * Retrieves the records of a single type that fall within a time range, without merging
+     * other series in.
+     *
+     * @param recordType the type of record, e.g. "ECG"
+     * @param startTime  the start of the time range, in milliseconds since UNIX epoch
+     * @param endTime    the end of the time range, in milliseconds since UNIX epoch
+     * @return a read-only view of the matching records, ordered by timestamp
+     */
+    public List<PatientRecord> getRecords(String recordType, long startTime, long endTime) {
+        TimeSeries.Slice slice = slice(RecordTypes.codeOf(recordType), startTime, endTime);
+        if (slice == null) {
+            return Collections.emptyList();
+        }
+        return new PatientRecordView(patientId, new TimeSeries.Slice[]{slice});
+    }
 
-        ArrayList<PatientRecord> selectivePatientRecords = new ArrayList<>();
+    /**
+     * Retrieves every record of this patient.
+     *
+     * @return a read-only list of all the records, ordered by timestamp
+     */
+    public List<PatientRecord> getRecords() {
+        return getRecords(Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * Retrieves the records of a single type as buckets, with the minimum, maximum and mean of
+     * the readings that were downsampled. Raw readings come back as buckets of one.
+     *
+     * @param recordType the type of record, e.g. "ECG"
+     * @param startTime  the start of the time range, in milliseconds since UNIX epoch
+     * @param endTime    the end of the time range, in milliseconds since UNIX epoch
+     * @return the buckets, ordered by time
+     */
+    public List<RecordBucket> getBuckets(String recordType, long startTime, long endTime) {
+        int typeCode = RecordTypes.codeOf(recordType);
+        TimeSeries[] current = series;
+        if (typeCode >= current.length || current[typeCode] == null) {
+            return Collections.emptyList();
+        }
+        return current[typeCode].buckets(startTime, endTime);
+    }
 
-        for(int i =0  ; i<patientRecords.size() ; i++){
-            long timeStamp = patientRecords.get(i).getTimestamp();
-            if(timeStamp >= startTime && timeStamp <= endTime){
-                selectivePatientRecords.add(patientRecords.get(i));
+    /**
+     * Drops and downsamples the old readings of this patient as described by the policy.
+     * Writers can keep adding readings meanwhile.
+     *
+     * @param policy the retention to apply
+     * @param now    the current time, the ages of the policy are relative to it
+     * @return the number of entries this patient shrank by
+     */
+    public int applyRetention(RetentionPolicy policy, long now) {
+        int removed = 0;
+        for (TimeSeries current : series) {
+            if (current == null) {
+                continue;
             }
+            long timeToLive = policy.getTimeToLive(RecordTypes.nameOf(current.getTypeCode()));
+            removed += current.compact(olderThan(now, timeToLive),
+                    olderThan(now, policy.getRawRetentionMillis()), policy.getBucketMillis());
         }
+        int count = getRecordCount();
+        if (count > policy.getMaxSamplesPerPatient()) {
+            removed += dropOldest(count - policy.getMaxSamplesPerPatient());
+        }
+        return removed;
+    }
 
-        return selectivePatientRecords;
+    public int getPatientId() {
+        return patientId;
     }
 
-    public List<PatientRecord> getRecords() {
-        return patientRecords;
+    /**
+     * @return the timestamp of the most recent record of this patient, Long.MIN_VALUE if it has none
+     */
+    public long getLastTimestamp() {
+        long last = Long.MIN_VALUE;
+        for (TimeSeries current : series) {
+            if (current != null) {
+                last = Math.max(last, current.lastTimestamp());
+            }
+        }
+        return last;
+    }
+
+    /**
+     * @return the amount of records stored for this patient
+     */
+    public int getRecordCount() {
+        int count = 0;
+        for (TimeSeries current : series) {
+            if (current != null) {
+                count += current.size();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of bytes used by the columnar arrays of this patient
+     */
+    public long getStorageBytes() {
+        long bytes = 0;
+        for (TimeSeries current : series) {
+            if (current != null) {
+                bytes += current.capacityBytes();
+            }
+        }
+        return bytes;
+    }
+
+    // a snapshot of every series, used to write the whole patient out
+    TimeSeries.Slice[] slices() {
+        return slices(Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    // a snapshot of the given range of every series, empty series left out
+    TimeSeries.Slice[] slices(long startTime, long endTime) {
+        TimeSeries[] current = series;
+        TimeSeries.Slice[] slices = new TimeSeries.Slice[current.length];
+        int count = 0;
+        for (TimeSeries typeSeries : current) {
+            if (typeSeries != null) {
+                TimeSeries.Slice slice = typeSeries.slice(startTime, endTime);
+                if (slice != null) {
+                    slices[count++] = slice;
+                }
+            }
+        }
+        return count == slices.length ? slices : Arrays.copyOf(slices, count);
+    }
+
+    // a snapshot of the given range of one series, null if it has no readings there
+    TimeSeries.Slice slice(int typeCode, long startTime, long endTime) {
+        TimeSeries[] current = series;
+        if (typeCode >= current.length || current[typeCode] == null) {
+            return null;
+        }
+        return current[typeCode].slice(startTime, endTime);
+    }
+
+    // removes the readings taken before the given time from every series and returns them
+    List<TimeSeries.Slice> cutBefore(long time) {
+        List<TimeSeries.Slice> removed = new ArrayList<>();
+        for (TimeSeries typeSeries : series) {
+            if (typeSeries != null) {
+                TimeSeries.Slice slice = typeSeries.cutBefore(time);
+                if (slice != null) {
+                    removed.add(slice);
+                }
+            }
+        }
+        return removed;
+    }
+
+    private static long olderThan(long now, long age) {
+        return age == RetentionPolicy.FOREVER ? Long.MIN_VALUE : now - age;
+    }
+
+    // drops at least the given number of the oldest entries, across every series
+    private int dropOldest(int excess) {
+        TimeSeries[] current = series;
+        long low = Long.MAX_VALUE;
+        long high = Long.MIN_VALUE;
+        for (TimeSeries typeSeries : current) {
+            if (typeSeries != null && typeSeries.size() > 0) {
+                low = Math.min(low, typeSeries.timestampAt(0));
+                high = Math.max(high, typeSeries.timestampAt(typeSeries.size() - 1));
+            }
+        }
+        if (low > high) {
+            return 0;
+        }
+
+        // smallest time such that at least 'excess' entries were taken before it
+        high++;
+        while (low < high) {
+            long mid = low + (high - low) / 2;
+            int before = 0;
+            for (TimeSeries typeSeries : current) {
+                if (typeSeries != null) {
+                    before += typeSeries.lowerBound(mid);
+                }
+            }
+            if (before >= excess) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+
+        int removed = 0;
+        for (TimeSeries typeSeries : current) {
+            if (typeSeries != null) {
+                removed += typeSeries.compact(low, Long.MIN_VALUE, 0);
+            }
+        }
+        return removed;
+    }
+
+    private TimeSeries seriesFor(int typeCode) {
+        TimeSeries[] current = series;
+        if (typeCode < current.length && current[typeCode] != null) {
+            return current[typeCode];
+        }
+        synchronized (this) {
+            current = series;
+            if (typeCode >= current.length) {
+                current = Arrays.copyOf(current, typeCode + 1);
+            } else if (current[typeCode] == null) {
+                current = current.clone();
+            } else {
+                return current[typeCode];
+            }
+            current[typeCode] = new TimeSeries(typeCode);
+            series = current;
+            return current[typeCode];
+        }
     }
 }
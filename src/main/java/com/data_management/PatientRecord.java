@@ -14,6 +14,7 @@ public class PatientRecord {
     private String recordType; // Example: ECG, blood pressure, etc.
     private double measurementValue; // Example: heart rate
     private long timestamp;
+    private int typeCode = -1; // interned code of the record type, looked up on first use
 
     /**
      * Constructs a new patient record with specified details.
@@ -32,6 +33,21 @@ public class PatientRecord {
         this.timestamp = timestamp;
     }
 
+    /**
+     * Constructs a record whose record type has already been interned, e.g. by the columnar
+     * storage, so {@link #getTypeCode()} does not need a lookup.
+     *
+     * @param patientId        the unique identifier for the patient
+     * @param measurementValue the numerical value of the recorded measurement
+     * @param typeCode         the code of the record type, see {@link RecordTypes}
+     * @param timestamp        the time at which the measurement was recorded, in
+     *                         milliseconds since epoch
+     */
+    public PatientRecord(int patientId, double measurementValue, int typeCode, long timestamp) {
+        this(patientId, measurementValue, RecordTypes.nameOf(typeCode), timestamp);
+        this.typeCode = typeCode;
+    }
+
     /**
      * Returns the patient ID associated with this record.
      * 
@@ -67,4 +83,16 @@ public class PatientRecord {
     public String getRecordType() {
         return recordType;
     }
+
+    /**
+     * Returns the interned code of the record type, see {@link RecordTypes}.
+     *
+     * @return the record type code
+     */
+    public int getTypeCode() {
+        if (typeCode < 0) {
+            typeCode = RecordTypes.codeOf(recordType);
+        }
+        return typeCode;
+    }
 }
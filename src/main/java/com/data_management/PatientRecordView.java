@@ -0,0 +1,94 @@
+package com.data_management;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * Read-only {@link java.util.List} of {@link PatientRecord} on top of the columnar
+ * {@link TimeSeries} of a patient. The view covers one {@link TimeSeries.Slice} of each series
+ * and only keeps references to the backing arrays or mapped files, nothing is copied. Slices never change once
+ * taken, so the view is a consistent snapshot even while readings keep arriving.
+ * A {@link PatientRecord} is created when an element is accessed, so callers that only
+ * iterate once never hold more than one record at a time.
+ *
+ * When the view spans several series they are merged by timestamp, which costs two ints
+ * per element for the merge order instead of one object per record.
+ */
+public class PatientRecordView extends AbstractList<PatientRecord> implements RandomAccess {
+
+    private final int patientId;
+    private final TimeSeries.Slice[] slices;
+    private final int singleFrom; // start of the range when the view spans one series
+    private final int[] slots; // merge order, null when the view spans one series
+    private final int[] positions;
+    private final int size;
+
+    /**
+     * @param patientId - the patient that owns the records
+     * @param slices - the ranges the elements are taken from, each sorted by timestamp
+     */
+    PatientRecordView(int patientId, TimeSeries.Slice[] slices) {
+        this.patientId = patientId;
+        this.slices = slices;
+        int[] from = new int[slices.length];
+        int[] to = new int[slices.length];
+        int total = 0;
+        for (int i = 0; i < slices.length; i++) {
+            from[i] = slices[i].from;
+            to[i] = slices[i].to;
+            total += slices[i].size();
+        }
+        this.size = total;
+
+        if (slices.length == 1) {
+            this.singleFrom = from[0];
+            this.slots = null;
+            this.positions = null;
+        } else {
+            this.singleFrom = 0;
+            this.slots = new int[total];
+            this.positions = new int[total];
+            merge(from, to);
+        }
+    }
+
+    @Override
+    public PatientRecord get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size);
+        }
+        int slot = 0;
+        int position = singleFrom + index;
+        if (slots != null) {
+            slot = slots[index];
+            position = positions[index];
+        }
+        TimeSeries.Slice slice = slices[slot];
+        return new PatientRecord(patientId, slice.valueAt(position), slice.typeCode, slice.timestampAt(position));
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    // k-way merge of the sorted ranges, ties go to the series that comes first
+    private void merge(int[] from, int[] to) {
+        int[] heads = from.clone();
+        for (int out = 0; out < size; out++) {
+            int best = -1;
+            long bestTime = 0;
+            for (int s = 0; s < heads.length; s++) {
+                if (heads[s] < to[s]) {
+                    long time = slices[s].timestampAt(heads[s]);
+                    if (best == -1 || time < bestTime) {
+                        best = s;
+                        bestTime = time;
+                    }
+                }
+            }
+            slots[out] = best;
+            positions[out] = heads[best]++;
+        }
+    }
+}
@@ -0,0 +1,400 @@
+package com.data_management;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongUnaryOperator;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Makes the readings of a {@link DataStorage} durable with a {@link WriteAheadLog} and periodic snapshots.
+ *
+ * A background thread flushes the log every {@code flushIntervalMillis}, one fsync per interval for
+ * all the readings appended meanwhile, and writes a snapshot of every patient every
+ * {@code snapshotIntervalMillis}. A snapshot starts a new log file first, and once it is safely on
+ * disk the log files and snapshots it covers are deleted, so the directory does not grow forever.
+ *
+ * A snapshot is cut while no reading is being stored: the readings it holds are exactly the readings
+ * logged to the files before it, see {@link #storing()}. On startup {@link #recover(ConcurrentMap, int)}
+ * loads the latest snapshot and replays the log files written after it, nothing is restored twice.
+ * Each file is mapped in memory and decoded once, and several threads restore the readings, each
+ * thread its own share of the patients.
+ *
+ * Snapshots store the entries of the series as they are: a bucket left by the retention comes back
+ * as one reading holding its mean.
+ */
+public class PersistenceManager implements AutoCloseable {
+
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 10;
+    public static final long DEFAULT_SNAPSHOT_INTERVAL_MILLIS = 5 * 60_000;
+    private static final long CLOSE_TIMEOUT_SECONDS = 30; // a snapshot of a large storage takes a while
+    private static final int REPLAY_BATCH = 1 << 14; // readings handed to a replay thread at once
+
+    private static final int SNAPSHOT_MAGIC = 0x534E4150;
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".bin";
+
+    private final Path directory;
+    private final WriteAheadLog log;
+    private final ScheduledExecutorService executor;
+    private final ReentrantReadWriteLock cut = new ReentrantReadWriteLock(); // stores share it, a cut takes it alone
+    private volatile Runnable catchUp = () -> { };
+
+    /**
+     * Opens the log in the given directory. Call {@link #recover} before appending anything.
+     *
+     * @param directory - where the log files and snapshots are kept, created if missing
+     * @throws IOException - if the directory or the log can not be created
+     */
+    public PersistenceManager(Path directory) throws IOException {
+        this.directory = directory;
+        this.log = new WriteAheadLog(directory);
+        this.executor = Executors.newScheduledThreadPool(2, runnable -> {
+            Thread thread = new Thread(runnable, "durability");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Restores the readings found in the directory: the latest snapshot, then the log files written after it.
+     *
+     * @param patients - where the readings are restored to
+     * @param threads - how many threads replay a log file
+     * @return the number of readings restored
+     * @throws IOException - if a file can not be read
+     */
+    public int recover(ConcurrentMap<Integer, Patient> patients, int threads) throws IOException {
+        return recover(patients, threads, sequence -> Long.MIN_VALUE);
+    }
+
+    /**
+     * Restores the readings found in the directory, except the ones already sealed into segments.
+     *
+     * @param patients - where the readings are restored to
+     * @param threads - how many threads replay a log file
+     * @param sealedBefore - for the sequence number of a log file, the time before which its readings are
+     *                     sealed, see {@link SegmentStore#sealedBefore(long)}
+     * @return the number of readings restored
+     * @throws IOException - if a file can not be read
+     */
+    public int recover(ConcurrentMap<Integer, Patient> patients, int threads, LongUnaryOperator sealedBefore)
+            throws IOException {
+        int restored = 0;
+        long replayFrom = 0;
+        List<Long> snapshots = WriteAheadLog.sequences(directory, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+        if (!snapshots.isEmpty()) {
+            replayFrom = snapshots.get(snapshots.size() - 1);
+            // the snapshot holds the readings of the files before it
+            restored += readSnapshot(snapshotFile(replayFrom), patients, sealedBefore.applyAsLong(replayFrom - 1));
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            for (long sequence : WriteAheadLog.logSequences(directory)) {
+                if (sequence < replayFrom || sequence >= log.getSequence()) {
+                    continue;
+                }
+                restored += replay(WriteAheadLog.fileFor(directory, sequence), patients, threads,
+                        sealedBefore.applyAsLong(sequence), pool);
+            }
+        } finally {
+            pool.shutdown();
+        }
+        return restored;
+    }
+
+    /**
+     * Starts flushing the log and taking snapshots in the background.
+     *
+     * @param patients - the patients written to the snapshots, typically a live view of the storage
+     * @param flushIntervalMillis - pause between two flushes of the log
+     * @param snapshotIntervalMillis - pause between two snapshots
+     */
+    public void start(Iterable<Patient> patients, long flushIntervalMillis, long snapshotIntervalMillis) {
+        if (flushIntervalMillis <= 0 || snapshotIntervalMillis <= 0) {
+            throw new IllegalArgumentException("The flush and snapshot intervals must be positive");
+        }
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                log.flush();
+            } catch (IOException e) {
+                System.err.println("Flushing the write-ahead log failed: " + e.getMessage());
+            }
+        }, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                snapshot(patients);
+            } catch (IOException e) {
+                System.err.println("Writing a snapshot failed: " + e.getMessage());
+            }
+        }, snapshotIntervalMillis, snapshotIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Logs a reading, see {@link WriteAheadLog#append}.
+     *
+     * @param patientId - the patient of the reading
+     * @param typeCode - code of the record type, see {@link RecordTypes}
+     * @param timestamp - the time of the reading
+     * @param value - the measurement value
+     * @throws IOException - if the log can not be written
+     */
+    public void append(int patientId, int typeCode, long timestamp, double value) throws IOException {
+        log.append(patientId, typeCode, timestamp, value);
+    }
+
+    /**
+     * The lock to hold while a reading is stored and logged, so a snapshot finds it either in the
+     * patients and in the log files it covers, or in neither. Needed as soon as snapshots run in the
+     * background, see {@link #start}.
+     *
+     * @return the shared side of the lock, a snapshot takes it exclusively
+     */
+    public Lock storing() {
+        return cut.readLock();
+    }
+
+    /**
+     * Sets what a cut runs first, once nothing is being stored: readings stored without {@link #storing()}
+     * must be logged by the time it returns, see {@link DataStorage#enableRingBuffer(int)}.
+     *
+     * @param catchUp - waits for the readings stored but not logged yet
+     */
+    void catchUpWith(Runnable catchUp) {
+        this.catchUp = catchUp;
+    }
+
+    /**
+     * Starts a new log file while no reading is being stored, and runs the given task at that point.
+     *
+     * @param atCut - runs while no reading is being stored, what it sees of the patients is exactly what the older files hold
+     * @return the sequence number of the new log file
+     * @throws IOException - if the log can not be rolled
+     */
+    long cut(Runnable atCut) throws IOException {
+        cut.writeLock().lock();
+        try {
+            catchUp.run();
+            long sequence = log.roll();
+            atCut.run();
+            return sequence;
+        } finally {
+            cut.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Forces every reading logged so far to disk.
+     *
+     * @throws IOException - if the log can not be written
+     */
+    public void flush() throws IOException {
+        log.flush();
+    }
+
+    /**
+     * Writes every patient to a new snapshot and deletes the files it makes obsolete.
+     *
+     * @param patients - the patients to write
+     * @throws IOException - if the snapshot can not be written
+     */
+    public synchronized void snapshot(Iterable<Patient> patients) throws IOException {
+        Map<Integer, TimeSeries.Slice[]> taken = new LinkedHashMap<>();
+        long sequence = cut(() -> {
+            for (Patient patient : patients) {
+                taken.put(patient.getPatientId(), patient.slices()); // the slices are views, written out after the cut
+            }
+        });
+        Path temporary = directory.resolve(SNAPSHOT_PREFIX + sequence + ".tmp");
+        try {
+            writeSnapshot(temporary, taken);
+        } catch (IOException e) {
+            Files.deleteIfExists(temporary); // the log files it would replace are still there
+            throw e;
+        }
+        Files.move(temporary, snapshotFile(sequence), StandardCopyOption.ATOMIC_MOVE);
+
+        log.deleteBefore(sequence);
+        for (long older : WriteAheadLog.sequences(directory, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX)) {
+            if (older < sequence) {
+                Files.deleteIfExists(snapshotFile(older));
+            }
+        }
+    }
+
+    private static void writeSnapshot(Path temporary, Map<Integer, TimeSeries.Slice[]> patients) throws IOException {
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+            out.writeInt(SNAPSHOT_MAGIC);
+            for (Map.Entry<Integer, TimeSeries.Slice[]> patient : patients.entrySet()) {
+                for (TimeSeries.Slice slice : patient.getValue()) {
+                    out.writeByte(1);
+                    out.writeInt(patient.getKey());
+                    out.writeUTF(RecordTypes.nameOf(slice.typeCode));
+                    out.writeInt(slice.size());
+                    for (int i = slice.from; i < slice.to; i++) {
+                        out.writeLong(slice.timestampAt(i));
+                        out.writeDouble(slice.valueAt(i));
+                    }
+                }
+            }
+            out.writeByte(0);
+            out.flush();
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Stops the background work and closes the log after a last flush. A flush or a snapshot that is
+     * running is allowed to finish: interrupting it would close the log file under its feet.
+     *
+     * @throws IOException - if the log can not be closed
+     */
+    @Override
+    public void close() throws IOException {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                System.err.println("The durability thread did not stop in time, interrupting it");
+                executor.shutdownNow();
+                executor.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        log.close();
+    }
+
+    private Path snapshotFile(long sequence) {
+        return directory.resolve(String.format("%s%010d%s", SNAPSHOT_PREFIX, sequence, SNAPSHOT_SUFFIX));
+    }
+
+    private static int readSnapshot(Path file, ConcurrentMap<Integer, Patient> patients, long sealedBefore)
+            throws IOException {
+        int restored = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            if (in.readInt() != SNAPSHOT_MAGIC) {
+                throw new IOException("Not a snapshot: " + file);
+            }
+            while (in.readByte() == 1) {
+                Patient patient = patients.computeIfAbsent(in.readInt(), Patient::new);
+                int typeCode = RecordTypes.codeOf(in.readUTF());
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    long timestamp = in.readLong();
+                    double value = in.readDouble();
+                    if (timestamp >= sealedBefore) {
+                        patient.addRecord(value, typeCode, timestamp);
+                        restored++;
+                    }
+                }
+            }
+        }
+        return restored;
+    }
+
+    private static int replay(Path file, ConcurrentMap<Integer, Patient> patients, int threads, long sealedBefore,
+                              ExecutorService pool) throws IOException {
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() == 0) {
+                return 0;
+            }
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        Replay replay = new Replay(patients, threads, sealedBefore, pool);
+        try {
+            WriteAheadLog.replay(mapped, replay);
+            return replay.finish();
+        } catch (CompletionException e) {
+            throw new IOException("Replaying " + file + " failed", e.getCause());
+        }
+    }
+
+    /**
+     * Decodes a log file once and hands the readings to the threads in batches, the readings of a
+     * patient always to the same thread, so they are restored in the order they were logged.
+     */
+    private static final class Replay implements WriteAheadLog.ReadingConsumer {
+        private final ConcurrentMap<Integer, Patient> patients;
+        private final long sealedBefore;
+        private final ExecutorService pool;
+        private final RecordBatch[] filling;
+        private final CompletableFuture<?>[] restoring;
+        private int restored;
+
+        Replay(ConcurrentMap<Integer, Patient> patients, int threads, long sealedBefore, ExecutorService pool) {
+            this.patients = patients;
+            this.sealedBefore = sealedBefore;
+            this.pool = pool;
+            this.filling = new RecordBatch[threads];
+            this.restoring = new CompletableFuture<?>[threads];
+            for (int partition = 0; partition < threads; partition++) {
+                filling[partition] = new RecordBatch();
+                restoring[partition] = CompletableFuture.completedFuture(null);
+            }
+        }
+
+        @Override
+        public void accept(int patientId, int typeCode, long timestamp, double value) {
+            if (timestamp < sealedBefore) {
+                return; // a segment holds it
+            }
+            int partition = Math.floorMod(patientId, filling.length);
+            RecordBatch batch = filling[partition];
+            batch.add(patientId, timestamp, typeCode, value);
+            if (batch.size == REPLAY_BATCH) {
+                handOver(partition);
+            }
+        }
+
+        int finish() {
+            for (int partition = 0; partition < filling.length; partition++) {
+                if (filling[partition].size > 0) {
+                    handOver(partition);
+                }
+            }
+            CompletableFuture.allOf(restoring).join();
+            return restored;
+        }
+
+        // the previous batch of the partition goes first, so at most two batches per thread are in memory
+        private void handOver(int partition) {
+            RecordBatch batch = filling[partition];
+            restoring[partition].join();
+            filling[partition] = new RecordBatch();
+            restored += batch.size;
+            restoring[partition] = CompletableFuture.runAsync(() -> restore(batch), pool);
+        }
+
+        private void restore(RecordBatch batch) {
+            for (int i = 0; i < batch.size; i++) {
+                patients.computeIfAbsent(batch.patientIds[i], Patient::new)
+                        .addRecord(batch.values[i], batch.typeCodes[i], batch.timestamps[i]);
+            }
+        }
+    }
+}
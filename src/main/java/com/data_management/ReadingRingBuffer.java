@@ -0,0 +1,319 @@
+package com.data_management;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A ring of reading slots, allocated once, that one producer fills and several stages read, in the
+ * manner of the LMAX Disruptor, see {@link DataStorage#enableRingBuffer(int)}.
+ *
+ * The slots are columns of primitives written in place by the producer; no event object is created
+ * nor copied. Every stage runs on a thread of its own and hands the fields of every slot to its
+ * {@link Handler}. The stages only share counters: the producer publishes the cursor, the sequence of
+ * the last slot it wrote, and every stage publishes the sequence of the last slot it handled. A stage
+ * reads up to the cursor, or up to the sequence of the stages it runs after, its barrier; the producer
+ * does not reuse a slot until every stage is past it. None of this takes a lock, the threads spin,
+ * yield, then park shortly while they have nothing to do.
+ *
+ * The producer side is meant for a single thread; {@link #publish} is synchronized anyway, so several
+ * readers may share a ring at the cost of an uncontended lock per batch.
+ */
+public final class ReadingRingBuffer implements AutoCloseable {
+
+    /**
+     * Gets the fields of every slot a stage handles.
+     */
+    public interface Handler {
+        /**
+         * @param patientId - the unique identifier of the patient
+         * @param measurementValue - the value of the health metric
+         * @param typeCode - code of the record type, see {@link RecordTypes}
+         * @param timestamp - the time at which the measurement was taken
+         */
+        void onReading(int patientId, double measurementValue, int typeCode, long timestamp);
+    }
+
+    public static final int DEFAULT_CAPACITY = 16 * 1024;
+    private static final int SPINS = 100;
+    private static final int YIELDS = 100;
+    private static final long PARK_NANOS = 50_000;
+
+    private final int capacity;
+    private final int mask;
+    private final int[] patientIds;
+    private final double[] values;
+    private final int[] typeCodes;
+    private final long[] timestamps;
+    private final Sequence cursor = new Sequence();
+    private final List<Stage> stages = new ArrayList<>();
+    private long claimed = -1; // producer side, the last slot written
+    private long gate = -1; // producer side, the slowest stage when last looked at
+    private boolean started;
+    private volatile boolean closed;
+
+    /**
+     * @param capacity - number of slots, rounded up to a power of two
+     */
+    public ReadingRingBuffer(int capacity) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Invalid ring buffer capacity: " + capacity);
+        }
+        this.capacity = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        this.mask = this.capacity - 1;
+        patientIds = new int[this.capacity];
+        values = new double[this.capacity];
+        typeCodes = new int[this.capacity];
+        timestamps = new long[this.capacity];
+    }
+
+    /**
+     * Adds a stage, before {@link #start()}.
+     *
+     * @param name - name of the thread of the stage
+     * @param handler - gets every reading, in order
+     * @param after - stages that must be done with a slot before this one gets it, none to follow the producer
+     * @return the stage, to run other stages after it
+     */
+    public synchronized Stage handleWith(String name, Handler handler, Stage... after) {
+        if (started) {
+            throw new IllegalStateException("The ring buffer is already started");
+        }
+        Stage stage = new Stage(name, handler, after);
+        stages.add(stage);
+        return stage;
+    }
+
+    /**
+     * Starts the threads of the stages.
+     */
+    public synchronized void start() {
+        if (started) {
+            return;
+        }
+        if (stages.isEmpty()) {
+            throw new IllegalStateException("The ring buffer has no stage");
+        }
+        started = true;
+        for (Stage stage : stages) {
+            stage.thread.start();
+        }
+    }
+
+    /**
+     * Writes one reading to the next slot, waiting for the slowest stage if the ring is full.
+     *
+     * @param patientId - the unique identifier of the patient
+     * @param measurementValue - the value of the health metric
+     * @param typeCode - code of the record type, see {@link RecordTypes}
+     * @param timestamp - the time at which the measurement was taken
+     * @return false if the ring is closed, the reading was not taken
+     */
+    public synchronized boolean publish(int patientId, double measurementValue, int typeCode, long timestamp) {
+        if (!open()) {
+            return false;
+        }
+        put(patientId, measurementValue, typeCode, timestamp);
+        cursor.set(claimed);
+        return true;
+    }
+
+    // the readings of a batch, published together; the batch is empty afterwards, unless the ring is closed
+    synchronized boolean publish(RecordBatch batch) {
+        if (!open()) {
+            return false;
+        }
+        for (int i = 0; i < batch.size; i++) {
+            put(batch.patientIds[i], batch.values[i], batch.typeCodes[i], batch.timestamps[i]);
+        }
+        cursor.set(claimed);
+        batch.size = 0;
+        return true;
+    }
+
+    /**
+     * @return the number of slots
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of readings published so far
+     */
+    public long getPublished() {
+        return cursor.get() + 1;
+    }
+
+    /**
+     * @return the number of published readings that some stage has not handled yet
+     */
+    public long getBacklog() {
+        return cursor.get() - slowestStage();
+    }
+
+    /**
+     * Lets the stages handle what was published, then stops them. Nothing can be published afterwards.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (!started) {
+                return;
+            }
+        }
+        for (Stage stage : stages) {
+            try {
+                stage.thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private boolean open() {
+        if (!started && !closed) {
+            throw new IllegalStateException("The ring buffer is not started");
+        }
+        return !closed;
+    }
+
+    // with the lock held
+    private void put(int patientId, double measurementValue, int typeCode, long timestamp) {
+        long next = claimed + 1;
+        long wrapPoint = next - capacity;
+        if (wrapPoint > gate) {
+            cursor.set(claimed); // the stages may go on with what is already written
+            int idle = 0;
+            while (wrapPoint > (gate = slowestStage())) {
+                idle = idle(idle);
+            }
+        }
+        int slot = (int) next & mask;
+        patientIds[slot] = patientId;
+        values[slot] = measurementValue;
+        typeCodes[slot] = typeCode;
+        timestamps[slot] = timestamp;
+        claimed = next;
+    }
+
+    private long slowestStage() {
+        long slowest = Long.MAX_VALUE;
+        for (Stage stage : stages) {
+            slowest = Math.min(slowest, stage.sequence.get());
+        }
+        return slowest;
+    }
+
+    private static int idle(int idle) {
+        if (idle < SPINS) {
+            Thread.onSpinWait();
+        } else if (idle < SPINS + YIELDS) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+        return idle + 1;
+    }
+
+    /**
+     * A thread that hands every slot to its handler, once the stages it runs after are done with it.
+     */
+    public final class Stage {
+        private final Handler handler;
+        private final Stage[] after;
+        private final Sequence sequence = new Sequence();
+        private final Thread thread;
+        private volatile long errors;
+
+        private Stage(String name, Handler handler, Stage[] after) {
+            this.handler = handler;
+            this.after = after.clone();
+            this.thread = new Thread(this::run, name);
+            this.thread.setDaemon(true);
+        }
+
+        /**
+         * @return the number of readings this stage handled
+         */
+        public long getHandled() {
+            return sequence.get() + 1;
+        }
+
+        /**
+         * @return the number of readings the handler failed on, they count as handled
+         */
+        public long getErrors() {
+            return errors;
+        }
+
+        private void run() {
+            long next = sequence.get() + 1;
+            int idle = 0;
+            while (true) {
+                long available = cursor.get();
+                for (Stage stage : after) {
+                    available = Math.min(available, stage.sequence.get());
+                }
+                if (available >= next) {
+                    for (long s = next; s <= available; s++) {
+                        int slot = (int) s & mask;
+                        try {
+                            handler.onReading(patientIds[slot], values[slot], typeCodes[slot], timestamps[slot]);
+                        } catch (Throwable e) {
+                            // whatever it is, the stage goes on: a stage that stops would hold the producer forever
+                            errors++;
+                            System.err.println(thread.getName() + " failed on a reading: " + e.getMessage());
+                        }
+                        // slot by slot: if the next reading blocks the handler, the stages after this one
+                        // still get what it handled, see DataStorage#enableRingBuffer
+                        sequence.set(s);
+                    }
+                    next = available + 1;
+                    idle = 0;
+                } else if (closed && next > cursor.get()) {
+                    return; // nothing is published once closed
+                } else {
+                    idle = idle(idle);
+                }
+            }
+        }
+    }
+
+    /**
+     * A counter alone on its cache line, so the threads updating neighbouring counters do not slow
+     * each other down. Written with release semantics, read with acquire semantics.
+     */
+    private static final class Sequence {
+        private static final VarHandle VALUE;
+
+        static {
+            try {
+                VALUE = MethodHandles.lookup().findVarHandle(Sequence.class, "value", long.class);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        @SuppressWarnings("unused")
+        private long p1, p2, p3, p4, p5, p6, p7;
+        private volatile long value = -1;
+        @SuppressWarnings("unused")
+        private long q1, q2, q3, q4, q5, q6, q7;
+
+        long get() {
+            return (long) VALUE.getAcquire(this);
+        }
+
+        void set(long sequence) {
+            VALUE.setRelease(this, sequence);
+        }
+    }
+}
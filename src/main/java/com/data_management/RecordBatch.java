@@ -0,0 +1,55 @@
+package com.data_management;
+
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * Parsed readings, column by column, waiting to be stored. Used by the readers to parse a block of
+ * input in one go and then store it in one go. Not thread safe.
+ */
+final class RecordBatch {
+    int[] patientIds = new int[1024];
+    int[] typeCodes = new int[1024];
+    long[] timestamps = new long[1024];
+    double[] values = new double[1024];
+    int size;
+
+    void add(RecordLineParser parser) {
+        add(parser.getPatientId(), parser.getTimestamp(), parser.getTypeCode(), parser.getValue());
+    }
+
+    void add(int patientId, long timestamp, int typeCode, double value) {
+        if (size == patientIds.length) {
+            int capacity = size * 2;
+            patientIds = Arrays.copyOf(patientIds, capacity);
+            typeCodes = Arrays.copyOf(typeCodes, capacity);
+            timestamps = Arrays.copyOf(timestamps, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        patientIds[size] = patientId;
+        typeCodes[size] = typeCode;
+        timestamps[size] = timestamp;
+        values[size] = value;
+        size++;
+    }
+
+    // bulk path, without the analysis, see DataStorage.finishBulkLoad
+    void loadInto(DataStorage dataStorage, Set<Integer> patients) {
+        int lastPatient = -1;
+        for (int i = 0; i < size; i++) {
+            dataStorage.loadPatientData(patientIds[i], values[i], typeCodes[i], timestamps[i]);
+            if (patientIds[i] != lastPatient) {
+                lastPatient = patientIds[i];
+                patients.add(lastPatient);
+            }
+        }
+    }
+
+    // live path, every reading is analysed as usual; the batch is empty afterwards
+    void storeInto(DataStorage dataStorage) {
+        for (int i = 0; i < size; i++) {
+            dataStorage.addPatientData(patientIds[i], values[i], typeCodes[i], timestamps[i]);
+        }
+        size = 0;
+    }
+}
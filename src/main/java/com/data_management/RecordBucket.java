@@ -0,0 +1,48 @@
+package com.data_management;
+
+/**
+ * Summary of the readings of one record type taken during one bucket of time, as left behind
+ * by the downsampling of a {@link RetentionPolicy}. Raw readings are returned as buckets of one.
+ */
+public class RecordBucket {
+    private final long startTime;
+    private final double min;
+    private final double max;
+    private final double mean;
+    private final int count;
+
+    /**
+     * @param startTime - start of the bucket, or timestamp of the reading for a raw reading
+     * @param min - smallest reading of the bucket
+     * @param max - largest reading of the bucket
+     * @param mean - mean of the readings of the bucket
+     * @param count - number of readings summarised
+     */
+    public RecordBucket(long startTime, double min, double max, double mean, int count) {
+        this.startTime = startTime;
+        this.min = min;
+        this.max = max;
+        this.mean = mean;
+        this.count = count;
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    public double getMin() {
+        return min;
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    public double getMean() {
+        return mean;
+    }
+
+    public int getCount() {
+        return count;
+    }
+}
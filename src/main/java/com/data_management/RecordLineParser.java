@@ -0,0 +1,298 @@
+package com.data_management;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Parses the lines written by {@link com.cardio_generator.outputs.FileOutputStrategy}:
+ *
+ *     Patient ID: 12, Timestamp: 1714376789050, Label: ECG, Data: 0.4321
+ *
+ * straight from the bytes, without regular expressions nor intermediate strings. The fields of
+ * the last parsed line are kept in the parser, so a parse does not allocate anything; only the
+ * first occurrence of a label creates a string, the next ones are found back in a small table.
+ * A trailing '%' after the value (saturation readings) is accepted, like the WebSocket client does.
+ * {@link #parseMessage(byte[], int, int)} parses the shorter lines of the network outputs the same way:
+ *
+ *     12,1714376789050,ECG,0.4321
+ *
+ * A parser is not thread safe, every reading thread uses its own.
+ */
+public final class RecordLineParser {
+
+    private static final byte[] PATIENT = "Patient ID: ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TIMESTAMP = ", Timestamp: ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] LABEL = ", Label: ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] DATA = ", Data: ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] COMMA = {','};
+
+    private static final double[] POWERS_OF_TEN = new double[23]; // exact as doubles
+    private static final long MAX_EXACT = 1L << 53;
+    private static final long MAX_MANTISSA = 100_000_000_000_000_000L; // 18 digits still fit in a long
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    // labels seen so far, open addressing on the hash of their bytes
+    private byte[][] labels = new byte[32][];
+    private int[] labelCodes = new int[32];
+    private int labelCount;
+
+    private int patientId;
+    private long timestamp;
+    private int typeCode;
+    private double value;
+
+    private int position; // cursor while parsing
+
+    /**
+     * Parses one line. The fields can then be read with the getters, until the next parse.
+     *
+     * @param line - the bytes holding the line
+     * @param from - index of the first byte of the line
+     * @param to - index after the last byte of the line, without the line break
+     * @return true if the line is a valid reading, false if it should be skipped
+     */
+    public boolean parse(byte[] line, int from, int to) {
+        if (to > from && line[to - 1] == '\r') {
+            to--;
+        }
+        position = from;
+        return literal(line, to, PATIENT) && fields(line, to, TIMESTAMP, LABEL, DATA);
+    }
+
+    /**
+     * Parses one "patientId,timestamp,label,value" line of the network outputs. The fields can then be read
+     * with the getters, until the next parse.
+     *
+     * @param line - the bytes holding the line
+     * @param from - index of the first byte of the line
+     * @param to - index after the last byte of the line, without the line break
+     * @return true if the line is a valid reading, false if it should be skipped
+     */
+    public boolean parseMessage(byte[] line, int from, int to) {
+        if (to > from && line[to - 1] == '\r') {
+            to--;
+        }
+        position = from;
+        return fields(line, to, COMMA, COMMA, COMMA);
+    }
+
+    // the fields from the patient id on, with what separates them
+    private boolean fields(byte[] line, int to, byte[] afterId, byte[] afterTimestamp, byte[] afterLabel) {
+        long id = digits(line, to);
+        if (id < 0 || id > Integer.MAX_VALUE || !literal(line, to, afterId)) {
+            return false;
+        }
+        long time = digits(line, to);
+        if (time < 0 || !literal(line, to, afterTimestamp)) {
+            return false;
+        }
+        int labelStart = position;
+        while (position < to && line[position] != ',') {
+            position++;
+        }
+        int labelEnd = position;
+        if (labelEnd == labelStart || !literal(line, to, afterLabel)) {
+            return false;
+        }
+        if (!number(line, to)) {
+            return false;
+        }
+        if (position < to && line[position] == '%') {
+            position++;
+        }
+        if (position != to) {
+            return false;
+        }
+        patientId = (int) id;
+        timestamp = time;
+        typeCode = codeOf(line, labelStart, labelEnd);
+        return true;
+    }
+
+    public int getPatientId() {
+        return patientId;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return the code of the label, see {@link RecordTypes}
+     */
+    public int getTypeCode() {
+        return typeCode;
+    }
+
+    public double getValue() {
+        return value;
+    }
+
+    private boolean literal(byte[] line, int to, byte[] expected) {
+        if (to - position < expected.length
+                || !Arrays.equals(line, position, position + expected.length, expected, 0, expected.length)) {
+            return false;
+        }
+        position += expected.length;
+        return true;
+    }
+
+    // unsigned decimal number, -1 if there is none or it overflows
+    private long digits(byte[] line, int to) {
+        int start = position;
+        long result = 0;
+        while (position < to && line[position] >= '0' && line[position] <= '9') {
+            if (result > (Long.MAX_VALUE - 9) / 10) {
+                return -1;
+            }
+            result = result * 10 + (line[position++] - '0');
+        }
+        return position == start ? -1 : result;
+    }
+
+    // [-+]digits[.digits][(e|E)[-+]digits] into value, falls back on Double.parseDouble when it can not be exact
+    private boolean number(byte[] line, int to) {
+        int start = position;
+        boolean negative = false;
+        if (position < to && (line[position] == '-' || line[position] == '+')) {
+            negative = line[position++] == '-';
+        }
+        long mantissa = 0;
+        int scale = 0;
+        int digitCount = 0;
+        boolean exact = true;
+        while (position < to && line[position] >= '0' && line[position] <= '9') {
+            if (mantissa < MAX_MANTISSA / 10) {
+                mantissa = mantissa * 10 + (line[position] - '0');
+            } else {
+                exact = false;
+            }
+            position++;
+            digitCount++;
+        }
+        if (position < to && line[position] == '.') {
+            position++;
+            while (position < to && line[position] >= '0' && line[position] <= '9') {
+                if (mantissa < MAX_MANTISSA / 10) {
+                    mantissa = mantissa * 10 + (line[position] - '0');
+                    scale++;
+                } else {
+                    exact = false;
+                }
+                position++;
+                digitCount++;
+            }
+        }
+        if (digitCount == 0) {
+            return false;
+        }
+        if (position < to && (line[position] == 'e' || line[position] == 'E')) {
+            position++;
+            if (position < to && (line[position] == '-' || line[position] == '+')) {
+                position++;
+            }
+            if (digits(line, to) < 0) {
+                return false;
+            }
+            exact = false; // rare, Double.toString only uses it for tiny and huge values
+        }
+
+        double result = exact && scale < POWERS_OF_TEN.length ? divide(mantissa, scale) : Double.NaN;
+        if (!Double.isNaN(result)) {
+            value = result;
+        } else {
+            try {
+                value = Double.parseDouble(new String(line, start, position - start, StandardCharsets.US_ASCII));
+                return true;
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        }
+        if (negative) {
+            value = -value;
+        }
+        return true;
+    }
+
+    // mantissa / 10^scale rounded correctly, NaN when it is too close to a tie to tell without more precision
+    private static double divide(long mantissa, int scale) {
+        double power = POWERS_OF_TEN[scale];
+        if (mantissa < MAX_EXACT) {
+            return mantissa / power; // both exact, so the division rounds correctly
+        }
+        // Double.toString writes up to 17 digits, so this is the common case: guess, then check the guess
+        // against the exact mantissa, split in two parts that are both exact as doubles
+        double high = mantissa & ~0x7FFL;
+        double low = mantissa & 0x7FFL;
+        double quotient = mantissa / power;
+        for (int attempt = 0; attempt < 3; attempt++) {
+            double product = Math.fma(quotient, power, -high);
+            double residual = product - low; // quotient * power - mantissa
+            double margin = 4 * (Math.ulp(product) + Math.ulp(residual));
+            double below = (quotient - Math.nextDown(quotient)) * power / 2;
+            double above = (Math.nextUp(quotient) - quotient) * power / 2;
+            if (residual > below + margin) {
+                quotient = Math.nextDown(quotient);
+            } else if (residual < -above - margin) {
+                quotient = Math.nextUp(quotient);
+            } else if (residual < below - margin && residual > -above + margin) {
+                return quotient;
+            } else {
+                return Double.NaN;
+            }
+        }
+        return Double.NaN;
+    }
+
+    private int codeOf(byte[] line, int from, int to) {
+        int hash = 0;
+        for (int i = from; i < to; i++) {
+            hash = 31 * hash + line[i];
+        }
+        int mask = labels.length - 1;
+        int slot = hash & mask;
+        while (labels[slot] != null) {
+            byte[] label = labels[slot];
+            if (Arrays.equals(label, 0, label.length, line, from, to)) {
+                return labelCodes[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        byte[] label = Arrays.copyOfRange(line, from, to);
+        int code = RecordTypes.codeOf(new String(label, StandardCharsets.UTF_8));
+        labels[slot] = label;
+        labelCodes[slot] = code;
+        if (++labelCount * 2 > labels.length) {
+            grow();
+        }
+        return code;
+    }
+
+    private void grow() {
+        byte[][] oldLabels = labels;
+        int[] oldCodes = labelCodes;
+        labels = new byte[oldLabels.length * 2][];
+        labelCodes = new int[oldLabels.length * 2];
+        int mask = labels.length - 1;
+        for (int i = 0; i < oldLabels.length; i++) {
+            if (oldLabels[i] != null) {
+                int hash = 0;
+                for (byte b : oldLabels[i]) {
+                    hash = 31 * hash + b;
+                }
+                int slot = hash & mask;
+                while (labels[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                labels[slot] = oldLabels[i];
+                labelCodes[slot] = oldCodes[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.data_management;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interns record type labels (e.g. "ECG", "Saturation") to small integer codes.
+ * The columnar storage keeps one {@link TimeSeries} per patient and code, so the
+ * label of a reading is stored once per series instead of once per record.
+ *
+ * Codes are handed out in order of first appearance and never change for the
+ * lifetime of the JVM.
+ */
+public final class RecordTypes {
+
+    private static final Map<String, Integer> CODES = new ConcurrentHashMap<>();
+    private static volatile String[] names = new String[16];
+    private static int count;
+
+    private RecordTypes() {
+    }
+
+    /**
+     * Returns the code of a record type, registering the label if it has not been seen before.
+     *
+     * @param recordType - the label of the record, e.g. "ECG"
+     * @return the small integer code of the label
+     */
+    public static int codeOf(String recordType) {
+        Integer code = CODES.get(recordType);
+        if (code != null) {
+            return code;
+        }
+        return register(recordType);
+    }
+
+    /**
+     * Returns the label that was registered under the given code.
+     *
+     * @param code - a code previously returned by {@link #codeOf(String)}
+     * @return the label of the record type
+     */
+    public static String nameOf(int code) {
+        String[] current = names;
+        if (code < 0 || code >= current.length || current[code] == null) {
+            throw new IllegalArgumentException("Unknown record type code: " + code);
+        }
+        return current[code];
+    }
+
+    /**
+     * @return the amount of record types registered so far, which is also the upper bound (exclusive) of the codes
+     */
+    public static int size() {
+        synchronized (RecordTypes.class) {
+            return count;
+        }
+    }
+
+    private static synchronized int register(String recordType) {
+        Integer existing = CODES.get(recordType);
+        if (existing != null) {
+            return existing;
+        }
+        int code = count;
+        String[] current = names;
+        if (code == current.length) {
+            current = Arrays.copyOf(current, current.length * 2);
+        }
+        current[code] = recordType;
+        names = current; // publish the label before the code becomes visible
+        count++;
+        CODES.put(recordType, code);
+        return code;
+    }
+}
@@ -0,0 +1,107 @@
+package com.data_management;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Applies a {@link RetentionPolicy} to a set of patients in the background, so their history
+ * stops growing once the oldest readings reach the age of the policy. Under a steady load the
+ * memory held by the patients then stays bounded.
+ *
+ * Compaction runs on its own daemon thread every {@code periodMillis}. Each series is compacted
+ * under its own lock, so writers of the other series of a patient never wait for it.
+ */
+public class RetentionCompactor {
+
+    public static final long DEFAULT_PERIOD_MILLIS = 60_000;
+
+    private final Iterable<Patient> patients;
+    private final ScheduledExecutorService executor;
+    private final AtomicLong removedEntries = new AtomicLong();
+
+    private volatile RetentionPolicy policy = RetentionPolicy.KEEP_ALL;
+    private volatile long periodMillis;
+    private ScheduledFuture<?> compaction;
+
+    /**
+     * @param patients - the patients to compact, typically a live view such as the values of a map
+     * @param periodMillis - pause between two compactions
+     */
+    public RetentionCompactor(Iterable<Patient> patients, long periodMillis) {
+        if (periodMillis <= 0) {
+            throw new IllegalArgumentException("The compaction period must be positive: " + periodMillis);
+        }
+        this.patients = patients;
+        this.periodMillis = periodMillis;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "retention-compaction");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Changes the retention. The compactions run only while the policy drops or downsamples something.
+     *
+     * @param policy - the retention to apply from now on
+     */
+    public synchronized void configure(RetentionPolicy policy) {
+        this.policy = policy;
+        if (policy.keepsAll()) {
+            stop();
+        } else if (compaction == null) {
+            compaction = executor.scheduleWithFixedDelay(() -> {
+                try {
+                    runCompaction(System.currentTimeMillis());
+                } catch (RuntimeException e) {
+                    // a failed compaction must not cancel the following ones
+                    System.err.println("Retention compaction failed: " + e.getMessage());
+                    e.printStackTrace();
+                }
+            }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stops the background compactions, a running one is allowed to finish.
+     */
+    public synchronized void stop() {
+        if (compaction != null) {
+            compaction.cancel(false);
+            compaction = null;
+        }
+    }
+
+    /**
+     * Compacts every patient once on the calling thread.
+     *
+     * @param now - the current time, the ages of the policy are relative to it
+     * @return the number of entries dropped or merged into buckets
+     */
+    public int runCompaction(long now) {
+        RetentionPolicy current = policy;
+        if (current.keepsAll()) {
+            return 0;
+        }
+        int removed = 0;
+        for (Patient patient : patients) {
+            removed += patient.applyRetention(current, now);
+        }
+        removedEntries.addAndGet(removed);
+        return removed;
+    }
+
+    public RetentionPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * @return the total number of entries dropped or merged into buckets so far
+     */
+    public long getRemovedEntries() {
+        return removedEntries.get();
+    }
+}
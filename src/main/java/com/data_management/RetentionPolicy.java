@@ -0,0 +1,122 @@
+package com.data_management;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Describes how long the readings of a patient are kept, see {@link RetentionCompactor}.
+ *
+ * Readings go through up to three tiers as they age:
+ * <ul>
+ *   <li>younger than the raw retention, they are kept as they arrived;</li>
+ *   <li>older than that, the readings of each bucket of {@code bucketMillis} are replaced by one
+ *       {@link RecordBucket} holding their minimum, maximum and mean;</li>
+ *   <li>older than the time to live of their record type, they are dropped.</li>
+ * </ul>
+ * On top of that, a patient may be capped to a number of samples, the oldest go first.
+ *
+ * Instances are immutable, the {@code with...} methods return a changed copy.
+ */
+public final class RetentionPolicy {
+
+    /** use as a duration to never drop or never downsample */
+    public static final long FOREVER = Long.MAX_VALUE;
+
+    /** keeps every reading as it arrived, the behaviour of a storage without retention */
+    public static final RetentionPolicy KEEP_ALL = new RetentionPolicy(FOREVER, new HashMap<>(), FOREVER, 60_000, Integer.MAX_VALUE);
+
+    /** one hour of raw readings, then one minute buckets up to a day */
+    public static final RetentionPolicy DEFAULT = KEEP_ALL
+            .withTimeToLive(24 * 60 * 60 * 1000L)
+            .withDownsampling(60 * 60 * 1000L, 60_000);
+
+    private final long timeToLiveMillis;
+    private final Map<String, Long> timeToLiveByType;
+    private final long rawRetentionMillis;
+    private final long bucketMillis;
+    private final int maxSamplesPerPatient;
+
+    private RetentionPolicy(long timeToLiveMillis, Map<String, Long> timeToLiveByType, long rawRetentionMillis,
+                            long bucketMillis, int maxSamplesPerPatient) {
+        this.timeToLiveMillis = timeToLiveMillis;
+        this.timeToLiveByType = timeToLiveByType;
+        this.rawRetentionMillis = rawRetentionMillis;
+        this.bucketMillis = bucketMillis;
+        this.maxSamplesPerPatient = maxSamplesPerPatient;
+    }
+
+    /**
+     * @param timeToLiveMillis - age after which readings of any type without their own time to live are dropped
+     * @return a copy with the given default time to live
+     */
+    public RetentionPolicy withTimeToLive(long timeToLiveMillis) {
+        checkPositive(timeToLiveMillis, "time to live");
+        return new RetentionPolicy(timeToLiveMillis, timeToLiveByType, rawRetentionMillis, bucketMillis, maxSamplesPerPatient);
+    }
+
+    /**
+     * @param recordType - the type of record, e.g. "ECG"
+     * @param timeToLiveMillis - age after which readings of that type are dropped
+     * @return a copy with the given time to live for one record type
+     */
+    public RetentionPolicy withTimeToLive(String recordType, long timeToLiveMillis) {
+        checkPositive(timeToLiveMillis, "time to live");
+        Map<String, Long> byType = new HashMap<>(timeToLiveByType);
+        byType.put(recordType, timeToLiveMillis);
+        return new RetentionPolicy(this.timeToLiveMillis, byType, rawRetentionMillis, bucketMillis, maxSamplesPerPatient);
+    }
+
+    /**
+     * @param rawRetentionMillis - age after which readings are summarised into buckets
+     * @param bucketMillis - time span summarised by one bucket
+     * @return a copy with the given downsampling
+     */
+    public RetentionPolicy withDownsampling(long rawRetentionMillis, long bucketMillis) {
+        checkPositive(rawRetentionMillis, "raw retention");
+        checkPositive(bucketMillis, "bucket size");
+        return new RetentionPolicy(timeToLiveMillis, timeToLiveByType, rawRetentionMillis, bucketMillis, maxSamplesPerPatient);
+    }
+
+    /**
+     * @param maxSamplesPerPatient - maximum number of readings and buckets kept for one patient
+     * @return a copy with the given cap
+     */
+    public RetentionPolicy withMaxSamplesPerPatient(int maxSamplesPerPatient) {
+        checkPositive(maxSamplesPerPatient, "sample cap");
+        return new RetentionPolicy(timeToLiveMillis, timeToLiveByType, rawRetentionMillis, bucketMillis, maxSamplesPerPatient);
+    }
+
+    /**
+     * @param recordType - the type of record, e.g. "ECG"
+     * @return the time to live of that record type, {@link #FOREVER} if it is never dropped
+     */
+    public long getTimeToLive(String recordType) {
+        return timeToLiveByType.getOrDefault(recordType, timeToLiveMillis);
+    }
+
+    public long getRawRetentionMillis() {
+        return rawRetentionMillis;
+    }
+
+    public long getBucketMillis() {
+        return bucketMillis;
+    }
+
+    public int getMaxSamplesPerPatient() {
+        return maxSamplesPerPatient;
+    }
+
+    /**
+     * @return true if this policy never drops nor downsamples anything
+     */
+    public boolean keepsAll() {
+        return timeToLiveMillis == FOREVER && timeToLiveByType.isEmpty() && rawRetentionMillis == FOREVER
+                && maxSamplesPerPatient == Integer.MAX_VALUE;
+    }
+
+    private static void checkPositive(long value, String name) {
+        if (value <= 0) {
+            throw new IllegalArgumentException("The " + name + " must be positive: " + value);
+        }
+    }
+}
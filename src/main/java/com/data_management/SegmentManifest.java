@@ -0,0 +1,160 @@
+package com.data_management;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The list of closed segments of a file output directory, with the time range of the readings in
+ * each of them, so readers can skip the segments outside the range they are interested in.
+ *
+ * It is a text file, {@value #FILE_NAME}, with one tab separated line per segment:
+ * file name, label, first timestamp, last timestamp and number of readings. A segment only gets its
+ * line once it is complete (and compressed), so a segment without a line has to be read in full.
+ *
+ * The manifest is written by {@link com.cardio_generator.outputs.FileOutputStrategy} and read by
+ * {@link FileDataReader}.
+ */
+public final class SegmentManifest {
+
+    public static final String FILE_NAME = "segments.manifest";
+    public static final String SEGMENT_SUFFIX = ".log";
+    public static final String COMPRESSED_SUFFIX = ".log.gz";
+
+    /**
+     * One closed segment.
+     */
+    public static final class Entry {
+        private final String fileName;
+        private final String label;
+        private final long firstTimestamp;
+        private final long lastTimestamp;
+        private final long readings;
+
+        public Entry(String fileName, String label, long firstTimestamp, long lastTimestamp, long readings) {
+            this.fileName = fileName;
+            this.label = label;
+            this.firstTimestamp = firstTimestamp;
+            this.lastTimestamp = lastTimestamp;
+            this.readings = readings;
+        }
+
+        public String getFileName() {
+            return fileName;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        public long getFirstTimestamp() {
+            return firstTimestamp;
+        }
+
+        public long getLastTimestamp() {
+            return lastTimestamp;
+        }
+
+        public long getReadings() {
+            return readings;
+        }
+
+        /**
+         * @return true if the segment may hold readings taken in [startTime, endTime]
+         */
+        public boolean overlaps(long startTime, long endTime) {
+            return firstTimestamp <= endTime && lastTimestamp >= startTime;
+        }
+    }
+
+    private SegmentManifest() {
+    }
+
+    /**
+     * @param directory - the file output directory
+     * @return the closed segments listed in the manifest, by file name, empty if there is no manifest
+     * @throws IOException - if the manifest can not be read
+     */
+    public static Map<String, Entry> read(Path directory) throws IOException {
+        Map<String, Entry> entries = new HashMap<>();
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(directory.resolve(FILE_NAME), StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
+            return entries;
+        }
+        for (String line : lines) {
+            String[] fields = line.split("\t");
+            if (fields.length != 5) {
+                continue; // a line cut short by a crash
+            }
+            try {
+                entries.put(fields[0], new Entry(fields[0], fields[1], Long.parseLong(fields[2]),
+                        Long.parseLong(fields[3]), Long.parseLong(fields[4])));
+            } catch (NumberFormatException e) {
+                System.err.println("Skipping invalid manifest line: " + line);
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * @param fileName - name of a file in a file output directory
+     * @return true if it is a closed segment, compressed or not
+     */
+    public static boolean isSegment(String fileName) {
+        return fileName.endsWith(SEGMENT_SUFFIX) || fileName.endsWith(COMPRESSED_SUFFIX);
+    }
+
+    /**
+     * @param label - the label the segment holds readings of
+     * @param sequence - number of the segment among those of the label
+     * @return the file name of the segment, before compression
+     */
+    public static String segmentName(String label, long sequence) {
+        return String.format("%s-%08d%s", label, sequence, SEGMENT_SUFFIX);
+    }
+
+    /**
+     * @param label - the label the segment holds readings of
+     * @param fileName - name of a file in a file output directory
+     * @return the sequence number of the segment, -1 if the file is no segment of this label
+     */
+    public static long sequenceOf(String label, String fileName) {
+        String prefix = label + "-";
+        if (!fileName.startsWith(prefix)) {
+            return -1;
+        }
+        String rest = fileName.substring(prefix.length());
+        int end = rest.endsWith(COMPRESSED_SUFFIX) ? rest.length() - COMPRESSED_SUFFIX.length()
+                : rest.endsWith(SEGMENT_SUFFIX) ? rest.length() - SEGMENT_SUFFIX.length() : -1;
+        if (end <= 0) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(rest.substring(0, end));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Adds the line of a segment that is complete, synced to disk before it returns.
+     *
+     * @param directory - the file output directory
+     * @param entry - the segment
+     * @throws IOException - if the manifest can not be written
+     */
+    public static synchronized void append(Path directory, Entry entry) throws IOException {
+        String line = entry.fileName + "\t" + entry.label + "\t" + entry.firstTimestamp + "\t" + entry.lastTimestamp
+                + "\t" + entry.readings + "\n";
+        Files.write(directory.resolve(FILE_NAME), line.getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.SYNC);
+    }
+}
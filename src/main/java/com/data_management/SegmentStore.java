@@ -0,0 +1,506 @@
+package com.data_management;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Keeps the older history of the patients in memory-mapped segment files instead of on the heap.
+ *
+ * Readings older than the hot window are regularly cut from the {@link Patient}s and sealed into a
+ * new numbered segment file, one per closed period of {@code segmentMillis}. A segment is columnar and fixed
+ * width: an index sorted by patient, with one entry per record type pointing at a run of rows,
+ * followed by all the timestamps and then all the values. The file is mapped read-only, so range
+ * queries binary search the mapped columns and hand out views on them, nothing is copied nor loaded
+ * onto the heap; only the index of each segment is.
+ *
+ * {@link #getRecords(Patient, int, int, long, long)} merges the segments, the readings being sealed
+ * and the readings still on the heap, so callers can not tell where a reading lives. A reading that
+ * arrives after its period was sealed stays on the heap until the next sealing picks it up.
+ *
+ * With a write-ahead log, a sealing cuts the readings while no reading is being stored, and the segment
+ * records the log file that readings stored afterwards go to. A recovery then leaves out exactly the logged
+ * readings that some segment holds, see {@link #sealedBefore(long)}, late readings included.
+ */
+public class SegmentStore {
+
+    public static final long DEFAULT_SEGMENT_MILLIS = 60 * 60 * 1000L;
+    public static final long DEFAULT_HOT_WINDOW_MILLIS = 2 * 60 * 60 * 1000L;
+
+    private static final int MAGIC = 0x5345474D;
+    private static final int VERSION = 2; // 1 did not record the log position of the cut
+    private static final String PREFIX = "segment-";
+    private static final String SUFFIX = ".seg";
+    private static final int ENTRY_BYTES = 4 * Integer.BYTES + 2 * Long.BYTES;
+    private static final int ROW_BYTES = Long.BYTES + Double.BYTES;
+
+    private final Path directory;
+    private final List<Segment> segments = new CopyOnWriteArrayList<>();
+    private final Map<Integer, List<TimeSeries.Slice>> pending = new HashMap<>(); // cut from the heap, not mapped yet
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock(); // guards moving readings between tiers
+    private final ScheduledExecutorService executor;
+    private volatile long sealedUpTo = Long.MIN_VALUE;
+    private volatile LogCut logCut = atCut -> {
+        atCut.run();
+        return 0; // nothing is logged, no logged reading is in the segment
+    };
+    private long nextSequence; // number of the next segment file, late readings can seal the same period twice
+    private ScheduledFuture<?> sealing;
+
+    /**
+     * Opens the segments already in the directory.
+     *
+     * @param directory - where the segment files are kept, created if missing
+     * @throws IOException - if the directory or a segment can not be read
+     */
+    public SegmentStore(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+        for (long sequence : WriteAheadLog.sequences(directory, PREFIX, SUFFIX)) {
+            Segment segment = Segment.open(fileFor(sequence));
+            segments.add(segment);
+            sealedUpTo = Math.max(sealedUpTo, segment.upTo);
+            nextSequence = sequence + 1;
+        }
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "segment-sealing");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Cuts the readings being sealed at a position of the write-ahead log, see {@link PersistenceManager#cut}.
+     */
+    interface LogCut {
+        /**
+         * @param atCut - takes the readings off the patients, run while no reading is being stored
+         * @return the sequence number of the log file the readings stored afterwards go to, 0 if nothing is logged
+         * @throws IOException - if the log can not be rolled
+         */
+        long cut(Runnable atCut) throws IOException;
+    }
+
+    /**
+     * Sets how the sealings are cut at a position of the log, none by default.
+     *
+     * @param logCut - cuts the log while the readings are taken off the patients
+     */
+    void cutWith(LogCut logCut) {
+        this.logCut = logCut;
+    }
+
+    /**
+     * Starts sealing the readings that leave the hot window, one segment per closed period.
+     *
+     * @param patients - the patients to seal, typically a live view of the storage
+     * @param hotWindowMillis - how much recent history stays on the heap
+     * @param segmentMillis - the period covered by one segment
+     */
+    public synchronized void start(Iterable<Patient> patients, long hotWindowMillis, long segmentMillis) {
+        if (hotWindowMillis <= 0 || segmentMillis <= 0) {
+            throw new IllegalArgumentException("The hot window and the segment length must be positive");
+        }
+        if (sealing != null) {
+            sealing.cancel(false);
+        }
+        long check = Math.min(segmentMillis, 60_000);
+        sealing = executor.scheduleWithFixedDelay(() -> {
+            long upTo = Math.floorDiv(System.currentTimeMillis() - hotWindowMillis, segmentMillis) * segmentMillis;
+            if (upTo > sealedUpTo) {
+                try {
+                    seal(patients, upTo);
+                } catch (IOException e) {
+                    System.err.println("Sealing a segment failed: " + e.getMessage());
+                }
+            }
+        }, check, check, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops sealing new segments, a running sealing is allowed to finish.
+     */
+    public synchronized void stop() {
+        if (sealing != null) {
+            sealing.cancel(false);
+            sealing = null;
+        }
+    }
+
+    /**
+     * Moves every reading taken before the given time from the heap to a new segment file.
+     *
+     * @param patients - the patients to seal
+     * @param upTo - readings taken before this time are sealed
+     * @return the number of readings sealed
+     * @throws IOException - if the segment can not be written, the readings then go back to the heap
+     */
+    public synchronized int seal(Iterable<Patient> patients, long upTo) throws IOException {
+        Map<Patient, List<TimeSeries.Slice>> cut = new LinkedHashMap<>();
+        long logSequence = logCut.cut(() -> {
+            for (Patient patient : patients) {
+                lock.writeLock().lock();
+                try {
+                    List<TimeSeries.Slice> slices = patient.cutBefore(upTo);
+                    if (!slices.isEmpty()) {
+                        cut.put(patient, slices);
+                        pending.put(patient.getPatientId(), slices);
+                    }
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            }
+        });
+        if (cut.isEmpty()) {
+            sealedUpTo = Math.max(sealedUpTo, upTo);
+            return 0;
+        }
+
+        Segment segment;
+        try {
+            segment = Segment.open(write(cut, upTo, logSequence));
+        } catch (IOException | RuntimeException e) {
+            lock.writeLock().lock();
+            try {
+                pending.clear();
+                for (Map.Entry<Patient, List<TimeSeries.Slice>> entry : cut.entrySet()) {
+                    for (TimeSeries.Slice slice : entry.getValue()) {
+                        for (int i = slice.from; i < slice.to; i++) {
+                            entry.getKey().addRecord(slice.valueAt(i), slice.typeCode, slice.timestampAt(i));
+                        }
+                    }
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+            throw e;
+        }
+
+        lock.writeLock().lock();
+        try {
+            segments.add(segment);
+            pending.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        sealedUpTo = Math.max(sealedUpTo, upTo);
+        return segment.rows;
+    }
+
+    /**
+     * Tells a recovery which readings of a log file some segment already holds: the readings taken before
+     * the returned time, as the segments cut after the file was written took every such reading off the heap.
+     * Readings that arrived late, after their period was sealed, are only in the log files written after the cut.
+     *
+     * @param logSequence - sequence number of a write-ahead log file, or the last file a snapshot covers
+     * @return the time before which the readings of that file are in segments, Long.MIN_VALUE if none are
+     */
+    public long sealedBefore(long logSequence) {
+        long upTo = Long.MIN_VALUE;
+        for (Segment segment : segments) {
+            if (segment.logSequence > logSequence) {
+                upTo = Math.max(upTo, segment.upTo);
+            }
+        }
+        return upTo;
+    }
+
+    /**
+     * Retrieves the records of a patient wherever they live: sealed segments, readings being sealed
+     * and the heap.
+     *
+     * @param patient - the patient on the heap, null if it only has sealed readings
+     * @param patientId - the ID of the patient
+     * @param typeCode - code of the record type, see {@link RecordTypes}, or -1 for every type
+     * @param startTime - start of the range, inclusive
+     * @param endTime - end of the range, inclusive
+     * @return a read-only view of the records, ordered by timestamp
+     */
+    public List<PatientRecord> getRecords(Patient patient, int patientId, int typeCode, long startTime, long endTime) {
+        List<TimeSeries.Slice> slices = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (Segment segment : segments) {
+                segment.collect(patientId, typeCode, startTime, endTime, slices);
+            }
+            for (TimeSeries.Slice slice : pending.getOrDefault(patientId, Collections.emptyList())) {
+                if (typeCode < 0 || slice.typeCode == typeCode) {
+                    TimeSeries.Slice range = slice.range(startTime, endTime);
+                    if (range != null) {
+                        slices.add(range);
+                    }
+                }
+            }
+            if (patient != null) {
+                if (typeCode < 0) {
+                    Collections.addAll(slices, patient.slices(startTime, endTime));
+                } else {
+                    TimeSeries.Slice slice = patient.slice(typeCode, startTime, endTime);
+                    if (slice != null) {
+                        slices.add(slice);
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (slices.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return new PatientRecordView(patientId, slices.toArray(new TimeSeries.Slice[0]));
+    }
+
+    /**
+     * @return the time before which every reading known at sealing time lives in a segment
+     */
+    public long getSealedUpTo() {
+        return sealedUpTo;
+    }
+
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    private Path fileFor(long sequence) {
+        return directory.resolve(String.format("%s%020d%s", PREFIX, sequence, SUFFIX));
+    }
+
+    private Path write(Map<Patient, List<TimeSeries.Slice>> cut, long upTo, long logSequence) throws IOException {
+        // index sorted by patient, record types in the order of their series
+        Map<Integer, List<TimeSeries.Slice>> byPatient = new TreeMap<>();
+        for (Map.Entry<Patient, List<TimeSeries.Slice>> entry : cut.entrySet()) {
+            byPatient.put(entry.getKey().getPatientId(), entry.getValue());
+        }
+        Map<Integer, byte[]> labels = new TreeMap<>();
+        long rows = 0;
+        int entries = 0;
+        long minTime = Long.MAX_VALUE;
+        long maxTime = Long.MIN_VALUE;
+        for (List<TimeSeries.Slice> slices : byPatient.values()) {
+            for (TimeSeries.Slice slice : slices) {
+                labels.computeIfAbsent(slice.typeCode, code -> RecordTypes.nameOf(code).getBytes(StandardCharsets.UTF_8));
+                rows += slice.size();
+                entries++;
+                minTime = Math.min(minTime, slice.timestampAt(slice.from));
+                maxTime = Math.max(maxTime, slice.timestampAt(slice.to - 1));
+            }
+        }
+
+        int headerBytes = 2 * Integer.BYTES + 4 * Long.BYTES + Integer.BYTES;
+        for (byte[] label : labels.values()) {
+            headerBytes += Integer.BYTES + Short.BYTES + label.length;
+        }
+        headerBytes += Integer.BYTES + Long.BYTES;
+        headerBytes = (headerBytes + 7) & ~7; // the columns are aligned on 8 bytes
+        long fileBytes = headerBytes + (long) entries * ENTRY_BYTES + rows * ROW_BYTES;
+        if (fileBytes > Integer.MAX_VALUE) {
+            throw new IOException("A segment of " + rows + " readings is too large to map, use shorter segments");
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(headerBytes + entries * ENTRY_BYTES);
+        header.putInt(MAGIC).putInt(VERSION).putLong(upTo).putLong(logSequence).putLong(minTime).putLong(maxTime);
+        header.putInt(labels.size());
+        for (Map.Entry<Integer, byte[]> label : labels.entrySet()) {
+            header.putInt(label.getKey()).putShort((short) label.getValue().length).put(label.getValue());
+        }
+        header.putInt(entries).putLong(rows);
+        header.position(headerBytes);
+        int row = 0;
+        for (Map.Entry<Integer, List<TimeSeries.Slice>> patient : byPatient.entrySet()) {
+            for (TimeSeries.Slice slice : patient.getValue()) {
+                header.putInt(patient.getKey()).putInt(slice.typeCode).putInt(row).putInt(slice.size())
+                        .putLong(slice.timestampAt(slice.from)).putLong(slice.timestampAt(slice.to - 1));
+                row += slice.size();
+            }
+        }
+        header.flip();
+
+        long sequence = nextSequence++;
+        Path temporary = directory.resolve(PREFIX + sequence + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            ByteBuffer column = ByteBuffer.allocateDirect(1 << 16);
+            for (List<TimeSeries.Slice> slices : byPatient.values()) {
+                for (TimeSeries.Slice slice : slices) {
+                    for (int i = slice.from; i < slice.to; i++) {
+                        if (!column.hasRemaining()) {
+                            drain(channel, column);
+                        }
+                        column.putLong(slice.timestampAt(i));
+                    }
+                }
+            }
+            for (List<TimeSeries.Slice> slices : byPatient.values()) {
+                for (TimeSeries.Slice slice : slices) {
+                    for (int i = slice.from; i < slice.to; i++) {
+                        if (!column.hasRemaining()) {
+                            drain(channel, column);
+                        }
+                        column.putDouble(slice.valueAt(i));
+                    }
+                }
+            }
+            drain(channel, column);
+            channel.force(true);
+        }
+        Path file = fileFor(sequence);
+        Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE);
+        return file;
+    }
+
+    private static void drain(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * One mapped segment file. Only the index lives on the heap.
+     */
+    private static final class Segment {
+        final long upTo;
+        final long logSequence; // the log file readings stored after the cut went to
+        final long minTime;
+        final long maxTime;
+        final int rows;
+        final int[] patientIds;
+        final int[] typeCodes;
+        final int[] firstRows;
+        final int[] rowCounts;
+        final long[] entryMin;
+        final long[] entryMax;
+        final LongBuffer timestamps;
+        final DoubleBuffer values;
+
+        private Segment(MappedByteBuffer file) throws IOException {
+            if (file.getInt() != MAGIC) {
+                throw new IOException("Not a segment file");
+            }
+            int version = file.getInt();
+            if (version != VERSION && version != 1) {
+                throw new IOException("Unknown segment version " + version);
+            }
+            upTo = file.getLong();
+            logSequence = version == 1 ? Long.MAX_VALUE : file.getLong(); // version 1 covered every logged reading
+            minTime = file.getLong();
+            maxTime = file.getLong();
+            Map<Integer, Integer> codes = new HashMap<>(); // code in the file -> code in this JVM
+            int labelCount = file.getInt();
+            for (int i = 0; i < labelCount; i++) {
+                int fileCode = file.getInt();
+                byte[] label = new byte[file.getShort() & 0xFFFF];
+                file.get(label);
+                codes.put(fileCode, RecordTypes.codeOf(new String(label, StandardCharsets.UTF_8)));
+            }
+            int entries = file.getInt();
+            rows = (int) file.getLong();
+            file.position((file.position() + 7) & ~7);
+
+            patientIds = new int[entries];
+            typeCodes = new int[entries];
+            firstRows = new int[entries];
+            rowCounts = new int[entries];
+            entryMin = new long[entries];
+            entryMax = new long[entries];
+            for (int i = 0; i < entries; i++) {
+                patientIds[i] = file.getInt();
+                typeCodes[i] = codes.get(file.getInt());
+                firstRows[i] = file.getInt();
+                rowCounts[i] = file.getInt();
+                entryMin[i] = file.getLong();
+                entryMax[i] = file.getLong();
+            }
+            int columns = file.position();
+            timestamps = file.duplicate().position(columns).limit(columns + rows * Long.BYTES).slice().asLongBuffer();
+            values = file.duplicate().position(columns + rows * Long.BYTES).limit(columns + rows * ROW_BYTES)
+                    .slice().asDoubleBuffer();
+        }
+
+        static Segment open(Path file) throws IOException {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                return new Segment(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            }
+        }
+
+        void collect(int patientId, int typeCode, long startTime, long endTime, List<TimeSeries.Slice> out) {
+            if (maxTime < startTime || minTime > endTime) {
+                return;
+            }
+            int low = 0;
+            int high = patientIds.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (patientIds[mid] < patientId) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            for (int i = low; i < patientIds.length && patientIds[i] == patientId; i++) {
+                if ((typeCode >= 0 && typeCodes[i] != typeCode) || entryMax[i] < startTime || entryMin[i] > endTime) {
+                    continue;
+                }
+                TimeSeries.Slice range = new MappedSlice(typeCodes[i], timestamps, values, firstRows[i],
+                        firstRows[i] + rowCounts[i]).range(startTime, endTime);
+                if (range != null) {
+                    out.add(range);
+                }
+            }
+        }
+    }
+
+    /**
+     * Range of rows of a mapped segment, read straight from the mapped columns.
+     */
+    private static final class MappedSlice extends TimeSeries.Slice {
+        private final LongBuffer mappedTimestamps;
+        private final DoubleBuffer mappedValues;
+
+        MappedSlice(int typeCode, LongBuffer timestamps, DoubleBuffer values, int from, int to) {
+            super(typeCode, null, null, from, to);
+            this.mappedTimestamps = timestamps;
+            this.mappedValues = values;
+        }
+
+        @Override
+        long timestampAt(int index) {
+            return mappedTimestamps.get(index);
+        }
+
+        @Override
+        double valueAt(int index) {
+            return mappedValues.get(index);
+        }
+
+        @Override
+        TimeSeries.Slice narrow(int from, int to) {
+            return new MappedSlice(typeCode, mappedTimestamps, mappedValues, from, to);
+        }
+    }
+}
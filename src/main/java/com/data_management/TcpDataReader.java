@@ -0,0 +1,183 @@
+package com.data_management;
+
+import com.cardio_generator.outputs.BinaryRecordFormat;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Stores the readings streamed by a {@link com.cardio_generator.outputs.TcpOutputStrategy}, as text
+ * lines or in the {@link BinaryRecordFormat}, whichever the server sends.
+ *
+ * A daemon thread reads the socket into one reusable buffer. Every read is parsed in place, straight
+ * from the bytes, into a batch that is then stored with the usual analysis; a line or frame cut at the
+ * end of the buffer waits for the next read. When the connection drops, or can not be made, the reader
+ * tries again after a pause that doubles every failed attempt, from {@link #INITIAL_BACKOFF_MILLIS} up to
+ * {@link #MAX_BACKOFF_MILLIS}, with some jitter so several readers do not come back all at once.
+ */
+public class TcpDataReader implements DataReader {
+
+    public static final long INITIAL_BACKOFF_MILLIS = 100;
+    public static final long MAX_BACKOFF_MILLIS = 10_000;
+    private static final int BUFFER_BYTES = 64 * 1024;
+
+    private final InetSocketAddress address;
+    private final DataStorage storage;
+    private final boolean binary;
+    private final RecordLineParser parser = new RecordLineParser();
+    private final RecordBatch batch = new RecordBatch();
+    private final FrameBatcher frames = new FrameBatcher(batch); // every connection announces its labels again
+    private volatile SocketChannel channel;
+    private volatile boolean running;
+    private volatile long readings;
+    private volatile long skipped;
+    private volatile int connections;
+    private Thread thread;
+
+    /**
+     * @param host - the host of the TCP output
+     * @param port - the port of the TCP output
+     * @param storage - where the readings go
+     * @param binary - true if the server sends binary frames, false for text lines
+     */
+    public TcpDataReader(String host, int port, DataStorage storage, boolean binary) {
+        this.address = new InetSocketAddress(host, port);
+        this.storage = storage;
+        this.binary = binary;
+    }
+
+    @Override
+    public synchronized void startStreaming() throws IOException {
+        if (thread != null) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this::run, "tcp-reader");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public synchronized void stopStreaming() throws IOException {
+        if (thread == null) {
+            return;
+        }
+        running = false;
+        SocketChannel current = channel;
+        if (current != null) {
+            current.close(); // unblocks the read
+        }
+        thread.interrupt(); // or the pause before the next attempt
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+    }
+
+    /**
+     * @return the number of readings stored so far
+     */
+    public long getReadings() {
+        return readings;
+    }
+
+    /**
+     * @return the number of lines or frames that were not valid readings
+     */
+    public long getSkipped() {
+        return skipped;
+    }
+
+    /**
+     * @return how many times a connection was made, the first one included
+     */
+    public int getConnections() {
+        return connections;
+    }
+
+    private void run() {
+        long backoff = INITIAL_BACKOFF_MILLIS;
+        while (running) {
+            try (SocketChannel socket = SocketChannel.open()) {
+                channel = socket;
+                if (!running) {
+                    break;
+                }
+                socket.connect(address);
+                connections++;
+                backoff = INITIAL_BACKOFF_MILLIS;
+                System.out.println("Connected to " + address);
+                receive(socket);
+                if (running) {
+                    System.out.println("Connection to " + address + " closed by the server");
+                }
+            } catch (IOException e) {
+                if (running) {
+                    System.err.println("TCP feed " + address + " unavailable: " + e.getMessage());
+                }
+            }
+            if (!running) {
+                break;
+            }
+            try {
+                Thread.sleep(backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1));
+            } catch (InterruptedException e) {
+                break;
+            }
+            backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+        }
+        channel = null;
+    }
+
+    // reads until the server closes the connection
+    private void receive(SocketChannel socket) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES);
+        BinaryRecordFormat.Decoder decoder = new BinaryRecordFormat.Decoder(); // the dictionary of this connection
+        long invalidFrames = 0; // of this connection, already counted in skipped
+        while (socket.read(buffer) >= 0) {
+            buffer.flip();
+            if (binary) {
+                if (!decoder.decode(buffer, frames)) {
+                    skipped += decoder.getInvalidFrames() - invalidFrames;
+                    invalidFrames = decoder.getInvalidFrames();
+                    if (decoder.isLost()) {
+                        throw new IOException("Invalid frame, the stream can not be read anymore");
+                    }
+                }
+            } else {
+                readLines(buffer);
+            }
+            int count = batch.size;
+            storage.ingest(batch);
+            readings += count;
+            buffer.compact();
+            if (!buffer.hasRemaining()) {
+                // a line longer than the buffer, nothing in it is a reading
+                skipped++;
+                buffer.clear();
+            }
+        }
+    }
+
+    // parses the complete lines of the buffer, the position is left on the partial last line
+    private void readLines(ByteBuffer buffer) {
+        byte[] bytes = buffer.array();
+        int lineStart = buffer.position();
+        for (int i = lineStart; i < buffer.limit(); i++) {
+            if (bytes[i] == '\n') {
+                if (parser.parseMessage(bytes, lineStart, i)) {
+                    batch.add(parser);
+                } else if (i > lineStart) {
+                    skipped++;
+                }
+                lineStart = i + 1;
+            }
+        }
+        buffer.position(lineStart);
+    }
+}
@@ -0,0 +1,439 @@
+package com.data_management;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Columnar storage of the readings of one record type for one patient.
+ * Timestamps and values are kept in two parallel primitive arrays that grow on demand,
+ * so a reading costs 16 bytes instead of a whole {@link PatientRecord} object.
+ *
+ * The series is always sorted by timestamp. Readings nearly always arrive in order and are
+ * appended; a late reading is inserted at its place, after any reading with the same timestamp.
+ * Time ranges are found with a binary search, see {@link #lowerBound(long)} and {@link #upperBound(long)}.
+ *
+ * All methods are synchronized on the series, so writers of different patients or different
+ * record types never wait for each other. A {@link Slice} taken from the series stays valid
+ * while writers carry on: appends only write past the end of the slice, and a late insert
+ * copies the arrays first if a slice may still be reading them.
+ *
+ * {@link #compact(long, long, long)} applies a retention: it drops the oldest readings and
+ * replaces older ones by one entry per bucket of time. Those entries stay at the front of the
+ * arrays, their value is the mean of the bucket and the minimum, maximum and size of the
+ * bucket are kept aside, see {@link #buckets(long, long)}.
+ */
+public class TimeSeries {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final int typeCode;
+    private long[] timestamps;
+    private double[] values;
+    private int size;
+    private boolean shared; // true when a slice may be reading the current arrays
+
+    // the first bucketCount entries summarise a bucket of older readings each
+    private int bucketCount;
+    private double[] bucketMin = new double[0];
+    private double[] bucketMax = new double[0];
+    private int[] bucketSizes = new int[0];
+    private long bucketMillis;
+    private long compactedUpTo = Long.MIN_VALUE; // readings taken before this time only live in buckets
+
+    /**
+     * Creates an empty series for the given record type.
+     *
+     * @param typeCode - code of the record type, see {@link RecordTypes}
+     */
+    public TimeSeries(int typeCode) {
+        this.typeCode = typeCode;
+        this.timestamps = new long[INITIAL_CAPACITY];
+        this.values = new double[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Adds a reading to the series, keeping it sorted by timestamp.
+     *
+     * @param timestamp - the time at which the measurement was taken, in milliseconds since UNIX epoch
+     * @param value - the measurement value
+     */
+    public synchronized void add(long timestamp, double value) {
+        if (timestamp < compactedUpTo) {
+            addToBucket(timestamp, value);
+            return;
+        }
+        if (size == 0 || timestamps[size - 1] <= timestamp) {
+            if (size == timestamps.length) {
+                grow(timestamps.length + (timestamps.length >> 1));
+            }
+            timestamps[size] = timestamp;
+            values[size] = value;
+        } else {
+            // late arrival, shift the newer readings one place to the right
+            int index = upperBound(timestamp);
+            if (shared || size == timestamps.length) {
+                grow(size == timestamps.length ? timestamps.length + (timestamps.length >> 1) : timestamps.length);
+            }
+            System.arraycopy(timestamps, index, timestamps, index + 1, size - index);
+            System.arraycopy(values, index, values, index + 1, size - index);
+            timestamps[index] = timestamp;
+            values[index] = value;
+        }
+        size++;
+    }
+
+    /**
+     * @param timestamp - the time to look for
+     * @return the index of the first reading taken at or after {@code timestamp}, {@link #size()} if there is none
+     */
+    public synchronized int lowerBound(long timestamp) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (timestamps[mid] < timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @param timestamp - the time to look for
+     * @return the index of the first reading taken after {@code timestamp}, {@link #size()} if there is none
+     */
+    public synchronized int upperBound(long timestamp) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (timestamps[mid] <= timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Takes a consistent snapshot of the readings taken between two times.
+     *
+     * @param startTime - start of the range, inclusive
+     * @param endTime - end of the range, inclusive
+     * @return the slice, or null if no reading falls in the range
+     */
+    public synchronized Slice slice(long startTime, long endTime) {
+        int from = lowerBound(startTime);
+        int to = upperBound(endTime);
+        if (from >= to) {
+            return null;
+        }
+        shared = true;
+        return new Slice(typeCode, timestamps, values, from, to);
+    }
+
+    /**
+     * Applies a retention to the series. The arrays are replaced by new, trimmed ones, so slices
+     * taken before stay valid.
+     *
+     * @param dropBefore - readings taken before this time are dropped, Long.MIN_VALUE to keep everything
+     * @param downsampleBefore - readings taken before this time are summarised into buckets,
+     *                         Long.MIN_VALUE to keep them raw
+     * @param bucketMillis - time span of a bucket; buckets start at a multiple of it
+     * @return the number of entries the series shrank by
+     */
+    public synchronized int compact(long dropBefore, long downsampleBefore, long bucketMillis) {
+        int firstKept = lowerBound(dropBefore);
+        int keptBuckets = Math.max(0, bucketCount - firstKept);
+        int rawFrom = Math.max(bucketCount, firstKept);
+        int rawTo = rawFrom;
+        long newCompactedUpTo = Math.max(compactedUpTo, dropBefore);
+        if (downsampleBefore != Long.MIN_VALUE) {
+            long end = Math.floorDiv(downsampleBefore, bucketMillis) * bucketMillis; // only whole buckets
+            if (end > newCompactedUpTo) {
+                rawTo = Math.max(rawFrom, lowerBound(end));
+                newCompactedUpTo = end;
+            }
+            this.bucketMillis = bucketMillis;
+        }
+        if (firstKept == 0 && rawTo == rawFrom) {
+            compactedUpTo = newCompactedUpTo;
+            return 0;
+        }
+
+        int newBuckets = 0;
+        long previousStart = Long.MIN_VALUE;
+        for (int i = rawFrom; i < rawTo; i++) {
+            long start = Math.max(bucketStart(timestamps[i]), compactedUpTo);
+            if (newBuckets == 0 || start != previousStart) {
+                newBuckets++;
+                previousStart = start;
+            }
+        }
+
+        int buckets = keptBuckets + newBuckets;
+        int newSize = buckets + (size - rawTo);
+        long[] newTimestamps = new long[Math.max(INITIAL_CAPACITY, newSize + (newSize >> 2))];
+        double[] newValues = new double[newTimestamps.length];
+        double[] newMin = Arrays.copyOfRange(bucketMin, bucketCount - keptBuckets, bucketCount - keptBuckets + buckets);
+        double[] newMax = Arrays.copyOfRange(bucketMax, bucketCount - keptBuckets, bucketCount - keptBuckets + buckets);
+        int[] newSizes = Arrays.copyOfRange(bucketSizes, bucketCount - keptBuckets, bucketCount - keptBuckets + buckets);
+        System.arraycopy(timestamps, bucketCount - keptBuckets, newTimestamps, 0, keptBuckets);
+        System.arraycopy(values, bucketCount - keptBuckets, newValues, 0, keptBuckets);
+
+        int out = keptBuckets - 1;
+        for (int i = rawFrom; i < rawTo; i++) {
+            long start = Math.max(bucketStart(timestamps[i]), compactedUpTo);
+            double value = values[i];
+            if (out < keptBuckets || newTimestamps[out] != start) {
+                out++;
+                newTimestamps[out] = start;
+                newValues[out] = 0;
+                newMin[out] = value;
+                newMax[out] = value;
+                newSizes[out] = 0;
+            }
+            newValues[out] += value; // sum for now, turned into the mean below
+            newMin[out] = Math.min(newMin[out], value);
+            newMax[out] = Math.max(newMax[out], value);
+            newSizes[out]++;
+        }
+        for (int b = keptBuckets; b < buckets; b++) {
+            newValues[b] /= newSizes[b];
+        }
+        System.arraycopy(timestamps, rawTo, newTimestamps, buckets, size - rawTo);
+        System.arraycopy(values, rawTo, newValues, buckets, size - rawTo);
+
+        int removed = size - newSize;
+        timestamps = newTimestamps;
+        values = newValues;
+        size = newSize;
+        bucketCount = buckets;
+        bucketMin = newMin;
+        bucketMax = newMax;
+        bucketSizes = newSizes;
+        compactedUpTo = newCompactedUpTo;
+        shared = false;
+        return removed;
+    }
+
+    /**
+     * Removes the readings taken before a time and hands them out as a slice, e.g. to move them to
+     * a {@link SegmentStore}. Readings that arrive later for that period are kept as usual.
+     *
+     * @param time - readings taken before this time are removed
+     * @return the removed readings, or null if there were none
+     */
+    public synchronized Slice cutBefore(long time) {
+        int count = lowerBound(time);
+        if (count == 0) {
+            return null;
+        }
+        Slice removed = new Slice(typeCode, timestamps, values, 0, count);
+        int remaining = size - count;
+        long[] newTimestamps = new long[Math.max(INITIAL_CAPACITY, remaining + (remaining >> 2))];
+        double[] newValues = new double[newTimestamps.length];
+        System.arraycopy(timestamps, count, newTimestamps, 0, remaining);
+        System.arraycopy(values, count, newValues, 0, remaining);
+        int keptBuckets = Math.max(0, bucketCount - count);
+        bucketMin = Arrays.copyOfRange(bucketMin, bucketCount - keptBuckets, bucketCount);
+        bucketMax = Arrays.copyOfRange(bucketMax, bucketCount - keptBuckets, bucketCount);
+        bucketSizes = Arrays.copyOfRange(bucketSizes, bucketCount - keptBuckets, bucketCount);
+        bucketCount = keptBuckets;
+        timestamps = newTimestamps;
+        values = newValues;
+        size = remaining;
+        shared = false;
+        return removed;
+    }
+
+    /**
+     * Summarises the entries taken between two times: buckets left by {@link #compact} as they are,
+     * raw readings as buckets of one.
+     *
+     * @param startTime - start of the range, inclusive
+     * @param endTime - end of the range, inclusive
+     * @return the buckets, ordered by time
+     */
+    public synchronized List<RecordBucket> buckets(long startTime, long endTime) {
+        int from = lowerBound(startTime);
+        int to = upperBound(endTime);
+        List<RecordBucket> result = new ArrayList<>(Math.max(0, to - from));
+        for (int i = from; i < to; i++) {
+            if (i < bucketCount) {
+                result.add(new RecordBucket(timestamps[i], bucketMin[i], bucketMax[i], values[i], bucketSizes[i]));
+            } else {
+                result.add(new RecordBucket(timestamps[i], values[i], values[i], values[i], 1));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the timestamp of the most recent reading, Long.MIN_VALUE if the series is empty
+     */
+    public synchronized long lastTimestamp() {
+        return size == 0 ? Long.MIN_VALUE : timestamps[size - 1];
+    }
+
+    public int getTypeCode() {
+        return typeCode;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized long timestampAt(int index) {
+        checkIndex(index);
+        return timestamps[index];
+    }
+
+    public synchronized double valueAt(int index) {
+        checkIndex(index);
+        return values[index];
+    }
+
+    /**
+     * @return the number of bytes held by the backing arrays, including unused capacity
+     */
+    public synchronized long capacityBytes() {
+        return (long) timestamps.length * Long.BYTES + (long) values.length * Double.BYTES
+                + (long) bucketMin.length * Double.BYTES * 2 + (long) bucketSizes.length * Integer.BYTES;
+    }
+
+    // a late reading older than the raw readings goes into its bucket, or into a new one
+    private void addToBucket(long timestamp, double value) {
+        int index = upperBound(timestamp) - 1;
+        if (index < 0) {
+            return; // older than anything kept, it would be dropped straight away
+        }
+        if (shared) {
+            grow(timestamps.length);
+        }
+        long start = bucketStart(timestamp);
+        if (start > timestamps[index]) {
+            // no bucket for this time yet, open one right after index
+            if (size == timestamps.length) {
+                grow(timestamps.length + (timestamps.length >> 1));
+            }
+            index++;
+            System.arraycopy(timestamps, index, timestamps, index + 1, size - index);
+            System.arraycopy(values, index, values, index + 1, size - index);
+            bucketMin = insertAt(bucketMin, index, value);
+            bucketMax = insertAt(bucketMax, index, value);
+            int[] sizes = new int[bucketCount + 1];
+            System.arraycopy(bucketSizes, 0, sizes, 0, index);
+            System.arraycopy(bucketSizes, index, sizes, index + 1, bucketCount - index);
+            bucketSizes = sizes;
+            timestamps[index] = start;
+            values[index] = 0;
+            size++;
+            bucketCount++;
+        }
+        int count = bucketSizes[index];
+        values[index] = (values[index] * count + value) / (count + 1);
+        bucketMin[index] = Math.min(bucketMin[index], value);
+        bucketMax[index] = Math.max(bucketMax[index], value);
+        bucketSizes[index] = count + 1;
+    }
+
+    private static double[] insertAt(double[] array, int index, double value) {
+        double[] result = new double[array.length + 1];
+        System.arraycopy(array, 0, result, 0, index);
+        result[index] = value;
+        System.arraycopy(array, index, result, index + 1, array.length - index);
+        return result;
+    }
+
+    private long bucketStart(long timestamp) {
+        return bucketMillis == 0 ? timestamp : Math.floorDiv(timestamp, bucketMillis) * bucketMillis;
+    }
+
+    // fresh arrays are never shared with a slice
+    private void grow(int newCapacity) {
+        timestamps = Arrays.copyOf(timestamps, newCapacity);
+        values = Arrays.copyOf(values, newCapacity);
+        shared = false;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size);
+        }
+    }
+
+    /**
+     * Immutable range of a series. The arrays are never written inside {@code [from, to)} once
+     * the slice has been handed out. Subclasses may read the range from elsewhere, e.g. a mapped
+     * segment file, see {@link SegmentStore}.
+     */
+    public static class Slice {
+        final int typeCode;
+        final long[] timestamps;
+        final double[] values;
+        final int from;
+        final int to;
+
+        Slice(int typeCode, long[] timestamps, double[] values, int from, int to) {
+            this.typeCode = typeCode;
+            this.timestamps = timestamps;
+            this.values = values;
+            this.from = from;
+            this.to = to;
+        }
+
+        long timestampAt(int index) {
+            return timestamps[index];
+        }
+
+        double valueAt(int index) {
+            return values[index];
+        }
+
+        // same readings, narrowed to [from, to)
+        Slice narrow(int from, int to) {
+            return new Slice(typeCode, timestamps, values, from, to);
+        }
+
+        /**
+         * @param startTime - start of the range, inclusive
+         * @param endTime - end of the range, inclusive
+         * @return the part of this slice taken between the two times, or null if there is none
+         */
+        Slice range(long startTime, long endTime) {
+            int low = from;
+            int high = to;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (timestampAt(mid) < startTime) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            int start = low;
+            high = to;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (timestampAt(mid) <= endTime) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            if (start >= low) {
+                return null;
+            }
+            return start == from && low == to ? this : narrow(start, low);
+        }
+
+        public int size() {
+            return to - from;
+        }
+    }
+}
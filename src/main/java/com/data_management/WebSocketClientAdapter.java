@@ -1,20 +1,63 @@
 package com.data_management;
 
+import com.cardio_generator.outputs.BinaryRecordFormat;
 import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.drafts.Draft_6455;
 import org.java_websocket.handshake.ServerHandshake;
+import org.java_websocket.protocols.Protocol;
 
 import java.io.IOException;
 import java.net.URI;
-
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Stores the readings streamed by a {@link com.cardio_generator.outputs.WebSocketOutputStrategy}.
+ *
+ * A binary adapter asks the server for the {@link BinaryRecordFormat} during the handshake; a server
+ * that does not know it keeps sending text, which is still understood.
+ *
+ * Both formats are decoded without intermediate strings: a text message is copied into a reusable
+ * byte array and parsed by a {@link RecordLineParser}, the labels become the codes of {@link RecordTypes},
+ * and the readings of a message are stored as one batch. Malformed lines and frames are not printed,
+ * they are counted, see {@link #getMalformedMessages()}.
+ */
 public class WebSocketClientAdapter extends WebSocketClient implements DataReader{
 
     private DataStorage storage ;
+    private final BinaryRecordFormat.Decoder decoder = new BinaryRecordFormat.Decoder();
+    private final RecordLineParser parser = new RecordLineParser();
+    private final RecordBatch batch = new RecordBatch();
+    private final FrameBatcher frames = new FrameBatcher(batch);
+    private byte[] text = new byte[4096];
+    private volatile long malformedLines;
 
     public WebSocketClientAdapter(URI serverUri, DataStorage dataStorage) {
         super(serverUri);
         this.storage = dataStorage;
     }
 
+    /**
+     * @param serverUri - address of the WebSocket server
+     * @param dataStorage - where the readings go
+     * @param binary - true to ask for binary frames instead of text messages
+     */
+    public WebSocketClientAdapter(URI serverUri, DataStorage dataStorage, boolean binary) {
+        super(serverUri, binary ? new Draft_6455(Collections.emptyList(),
+                List.of(new Protocol(BinaryRecordFormat.PROTOCOL),
+                        new Protocol(""))) : new Draft_6455());
+        this.storage = dataStorage;
+    }
+
+    /**
+     * @return the number of text lines and binary frames that were not valid readings
+     */
+    public long getMalformedMessages() {
+        return malformedLines + decoder.getInvalidFrames();
+    }
+
     @Override
     public void startStreaming() throws IOException {
         this.connect();
@@ -36,35 +79,53 @@ public class WebSocketClientAdapter extends WebSocketClient implements DataReade
     /**
      * This takes the message that is formatted in the webSocketOutputStrategy and is then added into the data storage
      * The data storage will process and accumulate this data
+     * A batch holds several readings, one per line
      * @param message - message that contains the information for the hospital
      */
     @Override
     public void onMessage(String message ) {
-        System.out.println("Received Message : "+ message);
-
-        try{
-            String[] values = message.split(",");
-
-            if(values.length != 4){
-                System.out.println("Invalid Message : "+ message);
-                return;
+        synchronized (batch) {
+            int length = message.length();
+            if (text.length < length) {
+                text = new byte[Math.max(length, text.length * 2)];
             }
-            else{
-
-                int patientID = Integer.parseInt(values[0]);
-                long timestamp = Long.parseLong(values[1]);
-                String recordType = values[2];
-                String rawValue = values[3];
-                double data = Double.parseDouble(rawValue.replace("%", ""));
-
-                storage.addPatientData(patientID,data,recordType,timestamp);
-
+            byte[] bytes = text;
+            for (int i = 0; i < length; i++) {
+                char c = message.charAt(i);
+                if (c >= 0x80) {
+                    // a label out of ASCII, rare enough to encode the whole message
+                    bytes = message.getBytes(StandardCharsets.UTF_8);
+                    length = bytes.length;
+                    break;
+                }
+                bytes[i] = (byte) c;
             }
-
-        }catch(Exception ex){
-            System.out.println("Failed to parse or store the message : "+ ex.getMessage());
+            int lineStart = 0;
+            for (int i = 0; i <= length; i++) {
+                if (i == length || bytes[i] == '\n') {
+                    if (parser.parseMessage(bytes, lineStart, i)) {
+                        batch.add(parser);
+                    } else {
+                        malformedLines++;
+                    }
+                    lineStart = i + 1;
+                }
+            }
+            storage.ingest(batch);
         }
+    }
 
+    /**
+     * Stores the readings of a binary message, see {@link BinaryRecordFormat}. The labels announced
+     * by the server are kept for the rest of the connection.
+     * @param bytes - one or more frames, a batch is simply several records
+     */
+    @Override
+    public void onMessage(ByteBuffer bytes) {
+        synchronized (batch) {
+            decoder.decode(bytes, frames); // the invalid frames are counted by the decoder
+            storage.ingest(batch);
+        }
     }
 
     /**
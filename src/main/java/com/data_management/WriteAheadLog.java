@@ -0,0 +1,276 @@
+package com.data_management;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Append-only binary log of the readings stored in a {@link DataStorage}, so they survive a restart.
+ *
+ * Every reading takes 25 bytes: a kind byte, the patient ID, the type code, the timestamp and the
+ * value. Type codes are only valid inside one JVM, so the first time a code is used in a file
+ * its label is written first, and replay maps the labels back to the codes of the new JVM.
+ *
+ * Appends only copy the reading into a buffer. The buffer is written to the {@link FileChannel}
+ * when it is full or on {@link #flush()}, and {@link #flush()} also forces the file to disk, so one
+ * fsync covers every reading appended since the previous one (group commit). Readings appended
+ * after the last flush can be lost in a crash; a torn entry at the end of a file is ignored on replay.
+ *
+ * The log is split into numbered files, {@link #roll()} starts the next one so that the older
+ * files can be deleted once a snapshot covers them, see {@link PersistenceManager}.
+ */
+public class WriteAheadLog implements AutoCloseable {
+
+    static final byte KIND_READING = 1;
+    static final byte KIND_TYPE = 2;
+    static final int READING_BYTES = 1 + Integer.BYTES * 2 + Long.BYTES + Double.BYTES;
+
+    private static final int BUFFER_BYTES = 1 << 16;
+    private static final long MAX_FILE_BYTES = 1L << 30; // files are mapped whole on replay
+    private static final String PREFIX = "wal-";
+    private static final String SUFFIX = ".log";
+
+    private final Path directory;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+    private FileChannel channel;
+    private long sequence;
+    private boolean[] typeWritten = new boolean[16]; // labels already written to the current file
+    private volatile boolean dirty; // written to the channel but not forced to disk yet
+
+    /**
+     * Opens a new log file after the files already in the directory.
+     *
+     * @param directory - where the log files are kept, created if missing
+     * @throws IOException - if the directory or the file can not be created
+     */
+    public WriteAheadLog(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+        List<Long> existing = sequences(directory, PREFIX, SUFFIX);
+        open(existing.isEmpty() ? 1 : existing.get(existing.size() - 1) + 1);
+    }
+
+    /**
+     * Appends a reading. It becomes durable with the next {@link #flush()}.
+     *
+     * @param patientId - the patient of the reading
+     * @param typeCode - code of the record type, see {@link RecordTypes}
+     * @param timestamp - the time of the reading, in milliseconds since UNIX epoch
+     * @param value - the measurement value
+     * @throws IOException - if the buffer had to be written and that failed
+     */
+    public synchronized void append(int patientId, int typeCode, long timestamp, double value) throws IOException {
+        if (typeCode >= typeWritten.length || !typeWritten[typeCode]) {
+            writeType(typeCode);
+        }
+        if (buffer.remaining() < READING_BYTES) {
+            writeBuffer();
+            if (channel.position() >= MAX_FILE_BYTES) {
+                roll();
+            }
+        }
+        buffer.put(KIND_READING).putInt(patientId).putInt(typeCode).putLong(timestamp).putDouble(value);
+    }
+
+    /**
+     * Writes the buffered readings and forces them to disk. Appends carry on while the disk syncs.
+     *
+     * @throws IOException - if writing or syncing fails
+     */
+    public void flush() throws IOException {
+        FileChannel current;
+        synchronized (this) {
+            writeBuffer();
+            if (!dirty) {
+                return;
+            }
+            dirty = false;
+            current = channel;
+        }
+        try {
+            current.force(false);
+        } catch (ClosedByInterruptException e) {
+            throw e; // the file is closed for good, the buffered readings would be lost silently
+        } catch (ClosedChannelException e) {
+            synchronized (this) {
+                if (channel == current) {
+                    throw e; // not closed by a roll
+                }
+            }
+            // rolled meanwhile, closing the file forced it already
+        }
+    }
+
+    /**
+     * Closes the current file and starts the next one.
+     *
+     * @return the sequence number of the new file; every reading appended before the call is in older files
+     * @throws IOException - if the files can not be closed or created
+     */
+    public synchronized long roll() throws IOException {
+        writeBuffer();
+        channel.force(false);
+        channel.close();
+        open(sequence + 1);
+        return sequence;
+    }
+
+    /**
+     * @return the sequence number of the file readings are currently appended to
+     */
+    public synchronized long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Deletes the log files older than the given one.
+     *
+     * @param sequence - sequence number of the oldest file to keep
+     * @throws IOException - if a file can not be deleted
+     */
+    public void deleteBefore(long sequence) throws IOException {
+        for (long existing : sequences(directory, PREFIX, SUFFIX)) {
+            if (existing < sequence) {
+                Files.deleteIfExists(fileFor(directory, existing));
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        writeBuffer();
+        channel.force(false);
+        channel.close();
+    }
+
+    /**
+     * @param directory - where the log files are kept
+     * @return the sequence numbers of the log files in the directory, in ascending order
+     * @throws IOException - if the directory can not be listed
+     */
+    static List<Long> logSequences(Path directory) throws IOException {
+        return sequences(directory, PREFIX, SUFFIX);
+    }
+
+    static Path fileFor(Path directory, long sequence) {
+        return directory.resolve(String.format("%s%010d%s", PREFIX, sequence, SUFFIX));
+    }
+
+    /**
+     * Receives the readings of a log file during replay.
+     */
+    interface ReadingConsumer {
+        /**
+         * @param patientId - the patient of the reading
+         * @param typeCode - the code of the record type in the current JVM
+         * @param timestamp - the time of the reading
+         * @param value - the measurement value
+         */
+        void accept(int patientId, int typeCode, long timestamp, double value);
+    }
+
+    /**
+     * Replays one log file.
+     *
+     * @param file - the file, mapped in memory
+     * @param consumer - receives every complete reading, in the order they were appended
+     */
+    static void replay(MappedByteBuffer file, ReadingConsumer consumer) {
+        ByteBuffer in = file.duplicate();
+        int[] codes = new int[16]; // code in the file -> code in this JVM
+        while (in.remaining() > 0) {
+            byte kind = in.get();
+            if (kind == KIND_READING) {
+                if (in.remaining() < READING_BYTES - 1) {
+                    return; // torn write at the end of the file
+                }
+                int patientId = in.getInt();
+                int fileCode = in.getInt();
+                long timestamp = in.getLong();
+                double value = in.getDouble();
+                if (fileCode < codes.length && codes[fileCode] > 0) {
+                    consumer.accept(patientId, codes[fileCode] - 1, timestamp, value);
+                }
+            } else if (kind == KIND_TYPE) {
+                if (in.remaining() < Integer.BYTES + Short.BYTES) {
+                    return;
+                }
+                int fileCode = in.getInt();
+                int length = in.getShort() & 0xFFFF;
+                if (in.remaining() < length) {
+                    return;
+                }
+                byte[] label = new byte[length];
+                in.get(label);
+                if (fileCode >= codes.length) {
+                    codes = Arrays.copyOf(codes, Math.max(fileCode + 1, codes.length * 2));
+                }
+                codes[fileCode] = RecordTypes.codeOf(new String(label, StandardCharsets.UTF_8)) + 1;
+            } else {
+                return; // zeroed or garbage tail, nothing valid can follow
+            }
+        }
+    }
+
+    static List<Long> sequences(Path directory, String prefix, String suffix) throws IOException {
+        List<Long> result = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return result;
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.startsWith(prefix) && name.endsWith(suffix))
+                    .forEach(name -> {
+                        try {
+                            result.add(Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length())));
+                        } catch (NumberFormatException e) {
+                            // not one of ours
+                        }
+                    });
+        }
+        result.sort(null);
+        return result;
+    }
+
+    private void open(long sequence) throws IOException {
+        this.sequence = sequence;
+        this.channel = FileChannel.open(fileFor(directory, sequence),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        Arrays.fill(typeWritten, false);
+    }
+
+    private void writeType(int typeCode) throws IOException {
+        byte[] label = RecordTypes.nameOf(typeCode).getBytes(StandardCharsets.UTF_8);
+        if (buffer.remaining() < 1 + Integer.BYTES + Short.BYTES + label.length) {
+            writeBuffer();
+        }
+        buffer.put(KIND_TYPE).putInt(typeCode).putShort((short) label.length).put(label);
+        if (typeCode >= typeWritten.length) {
+            typeWritten = Arrays.copyOf(typeWritten, Math.max(typeCode + 1, typeWritten.length * 2));
+        }
+        typeWritten[typeCode] = true;
+    }
+
+    private void writeBuffer() throws IOException {
+        if (buffer.position() == 0) {
+            return;
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+        dirty = true;
+    }
+}
@@ -5,6 +5,31 @@ import com.data_management.PatientRecord;
 
 import java.util.List;
 
+/**
+ * A strategy checks the records of one patient for a specific alert condition.
+ *
+ * Strategies are stateful: an instance belongs to one patient and keeps whatever trend it needs
+ * between records. {@link #onRecord} is fed one record at a time, in O(1) amortized time, and
+ * {@link #checkAlert} simply feeds a whole list of records through it.
+ */
 public interface AlertInterface {
     void checkAlert(int patientId, List<PatientRecord> record, AlertGenerator generator);
+
+    /**
+     * Feeds one new record of the patient to the strategy. Records of types the strategy does
+     * not look at are ignored.
+     *
+     * @param patientId - the patient the record belongs to
+     * @param record - the new record
+     * @param generator - where alerts are triggered
+     */
+    void onRecord(int patientId, PatientRecord record, AlertGenerator generator);
+
+    /**
+     * Tells a dispatcher which records the strategy needs, so it is never handed the others.
+     *
+     * @param recordType - a record type label, e.g. "ECG"
+     * @return true if {@link #onRecord} has to see records of this type
+     */
+    boolean accepts(String recordType);
 }
@@ -4,12 +4,10 @@ import com.alerts.AlertGenerator;
 import com.data_management.PatientRecord;
 import com.design_pattern.Factory.BloodPressureAlertFactory;
 
-import java.sql.SQLOutput;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
 
 public class BloodPressureStrategy implements AlertInterface{
 
@@ -23,6 +21,7 @@ public class BloodPressureStrategy implements AlertInterface{
 
     private static final String SYSTOLIC  = "SystolicPressure";
     private static final String DIASTOLIC = "DiastolicPressure";
+    private static final int HISTORY_SIZE = 4; // readings needed to see three consecutive drops
 
     private Map<String , ArrayList<PatientRecord>> historyOfPressure ;
 
@@ -38,41 +37,49 @@ public class BloodPressureStrategy implements AlertInterface{
 
     @Override
     public void checkAlert(int patientId, List<PatientRecord> record, AlertGenerator  generator) {
-        List<PatientRecord> pressureList = record.stream().filter(r ->
-                        r.getRecordType().equalsIgnoreCase(SYSTOLIC) ||
-                        r.getRecordType().equalsIgnoreCase(DIASTOLIC))
-                            .collect(Collectors.toList());
-
         int i = 0 ;
-        while( i<pressureList.size()){
-            PatientRecord currentRecord = pressureList.get(i);
-
-            historyOfPressure.get(currentRecord.getRecordType()).add(currentRecord);
-            checkHistory(patientId, generator);
-
-            switch(currentRecord.getRecordType()){
-                case(SYSTOLIC):
-                    if(currentRecord.getMeasurementValue()>=SYSTOLIC_PRESSURE_MAX || currentRecord.getMeasurementValue()<=SYSTOLIC_PRESSURE_MIN){
-                        generator.triggerAlert(factory.createAlert(String.valueOf(patientId)
-                                                  , currentRecord.getRecordType()
-                                                  ,currentRecord.getTimestamp()));
-                    }
-                    break;
-                case(DIASTOLIC):
-                    if(currentRecord.getMeasurementValue()>=DIASTOLIC_PRESSURE_MAX || currentRecord.getMeasurementValue()<=DIASTOLIC_PRESSURE_MIN){
-                        generator.triggerAlert( factory.createAlert(String.valueOf(patientId)
-                                , currentRecord.getRecordType()
-                                ,currentRecord.getTimestamp()));
-                    }
-                    break;
-            }
+        while( i<record.size()){
+            onRecord(patientId, record.get(i), generator);
+            i++;
+        }
 
 
+    }
 
-            i++;
+    @Override
+    public void onRecord(int patientId, PatientRecord currentRecord, AlertGenerator generator) {
+        ArrayList<PatientRecord> history = historyOfPressure.get(currentRecord.getRecordType());
+        if (history == null) {
+            return; // not a pressure reading
         }
 
+        history.add(currentRecord);
+        if (history.size() > HISTORY_SIZE) {
+            history.remove(0); // the trend only looks at the last few readings
+        }
+        checkHistory(patientId, generator);
+
+        switch(currentRecord.getRecordType()){
+            case(SYSTOLIC):
+                if(currentRecord.getMeasurementValue()>=SYSTOLIC_PRESSURE_MAX || currentRecord.getMeasurementValue()<=SYSTOLIC_PRESSURE_MIN){
+                    generator.triggerAlert(factory.createAlert(String.valueOf(patientId)
+                                              , currentRecord.getRecordType()
+                                              ,currentRecord.getTimestamp()));
+                }
+                break;
+            case(DIASTOLIC):
+                if(currentRecord.getMeasurementValue()>=DIASTOLIC_PRESSURE_MAX || currentRecord.getMeasurementValue()<=DIASTOLIC_PRESSURE_MIN){
+                    generator.triggerAlert( factory.createAlert(String.valueOf(patientId)
+                            , currentRecord.getRecordType()
+                            ,currentRecord.getTimestamp()));
+                }
+                break;
+        }
+    }
 
+    @Override
+    public boolean accepts(String recordType) {
+        return historyOfPressure.containsKey(recordType);
     }
 
     private void checkHistory(int patientId, AlertGenerator generator){
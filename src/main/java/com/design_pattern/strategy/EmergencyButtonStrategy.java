@@ -5,7 +5,6 @@ import com.data_management.PatientRecord;
 import com.design_pattern.Factory.EmergencyButtonFactory;
 
 import java.util.List;
-import java.util.stream.Collectors;
 
 public class EmergencyButtonStrategy implements AlertInterface{
 
@@ -20,18 +19,22 @@ public class EmergencyButtonStrategy implements AlertInterface{
 
     @Override
     public void checkAlert(int patientId, List<PatientRecord> record, AlertGenerator generator) {
-        List<PatientRecord> EmergencyButtonlist = record.stream().filter(R -> R.getRecordType()
-                                                            .equalsIgnoreCase("EmergencyButton"))
-                                                            .collect(Collectors.toList());
-
-        for ( int i = 0 ; i<EmergencyButtonlist.size() ; i++){
-            PatientRecord currentRecord = EmergencyButtonlist.get(i) ;
-            if(currentRecord.getMeasurementValue() == 1){
-                generator.triggerAlert(factory.createAlert(String.valueOf(patientId)
-                        , currentRecord.getRecordType()
-                        ,currentRecord.getTimestamp()));
-            }
+        for ( int i = 0 ; i<record.size() ; i++){
+            onRecord(patientId, record.get(i), generator);
+        }
+    }
 
+    @Override
+    public void onRecord(int patientId, PatientRecord currentRecord, AlertGenerator generator) {
+        if(currentRecord.getRecordType().equalsIgnoreCase("EmergencyButton") && currentRecord.getMeasurementValue() == 1){
+            generator.triggerAlert(factory.createAlert(String.valueOf(patientId)
+                    , currentRecord.getRecordType()
+                    ,currentRecord.getTimestamp()));
         }
     }
+
+    @Override
+    public boolean accepts(String recordType) {
+        return recordType.equalsIgnoreCase("EmergencyButton");
+    }
 }
@@ -2,58 +2,48 @@ package com.design_pattern.strategy;
 
 
 import com.alerts.AlertGenerator;
+import com.alerts.window.RollingWindow;
 import com.data_management.PatientRecord;
 import com.design_pattern.Factory.HeartRateAlertFactory;
 
 import java.util.List;
-import java.util.stream.Collectors;
 
 /**
  * This code will analyse data using the check alert method and return a
+ * alert when an ECG reading is above the average of the readings before it.
+ * The last readings are kept between calls in a {@link RollingWindow}, so the strategy can be fed
+ * one record at a time and every record costs the same whatever the size of the window.
  */
 public class HeartRateStrategy implements AlertInterface{
 
-    private List<PatientRecord> ECGRecord ;
     private static final int WINDOW_SIZE = 5 ;
     private static final double THRESHOLD = -1  ;
     private HeartRateAlertFactory factory ;
 
+    private final RollingWindow lastValues ; // the previous ECG values
+    private final double threshold ;
+
     public HeartRateStrategy(HeartRateAlertFactory factory) {
+        this(factory, WINDOW_SIZE, THRESHOLD);
+    }
+
+    /**
+     * @param factory - creates the alerts
+     * @param windowSize - number of previous readings the new reading is compared with
+     * @param threshold - an alert fires when the average minus the new reading is at most this value
+     */
+    public HeartRateStrategy(HeartRateAlertFactory factory, int windowSize, double threshold) {
         this.factory = factory;
+        this.lastValues = new RollingWindow(windowSize);
+        this.threshold = threshold;
     }
 
 
     @Override
     public void checkAlert(int patientId, List<PatientRecord> record , AlertGenerator generator) {
-        List<PatientRecord> ECGList = record.stream().filter(Record ->Record.getRecordType()
-                        .equalsIgnoreCase("ECG"))
-                        .collect(Collectors.toList());
-        this.ECGRecord  = ECGList ;
-
-
-        if (ECGList.isEmpty()){
-            System.out.println("ECG is Empty");
-            return ;
-        }
-
         int i = 0 ;
-        while ( i<ECGList.size()){
-
-            PatientRecord currentRecord = ECGList.get(i);
-            double average = getAverage(WINDOW_SIZE, i);
-
-            if(Math.abs(average -Math.PI)<=1E-10){
-                //System.out.println("Not enough data for now .....");
-            }
-            else{
-                if((average-currentRecord.getMeasurementValue()) <=THRESHOLD ){
-                    System.out.println(currentRecord.getMeasurementValue() + " "+ average);
-                    generator.triggerAlert(factory.createAlert(String.valueOf(patientId)
-                                                    , currentRecord.getRecordType()
-                                                    , currentRecord.getTimestamp()));
-                }
-            }
-
+        while ( i<record.size()){
+            onRecord(patientId, record.get(i), generator);
             i++;
         }
 
@@ -61,18 +51,26 @@ public class HeartRateStrategy implements AlertInterface{
 
     }
 
-    // class that gets average using window
-    private double getAverage(int windowSize , int currentIndex ){
+    @Override
+    public void onRecord(int patientId, PatientRecord currentRecord, AlertGenerator generator) {
+        if (!currentRecord.getRecordType().equalsIgnoreCase("ECG")) {
+            return;
+        }
 
-        double sum = 0 ;
-        for ( int i = currentIndex- windowSize; i<currentIndex; i++){
-            if(i<0){
-                return Math.PI ; // allows me to analyse the output in the checkAlert
-            }
-            else{
-                sum+=ECGRecord.get(i).getMeasurementValue() ;
+        if (lastValues.isFull()) { // not enough data for now otherwise
+            double average = lastValues.mean();
+            if((average-currentRecord.getMeasurementValue()) <=threshold ){
+                generator.triggerAlert(factory.createAlert(String.valueOf(patientId)
+                                                , currentRecord.getRecordType()
+                                                , currentRecord.getTimestamp()));
             }
         }
-        return (sum/windowSize);
+
+        lastValues.add(currentRecord.getTimestamp(), currentRecord.getMeasurementValue());
+    }
+
+    @Override
+    public boolean accepts(String recordType) {
+        return recordType.equalsIgnoreCase("ECG");
     }
 }
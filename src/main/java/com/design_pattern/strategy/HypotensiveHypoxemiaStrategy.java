@@ -1,21 +1,29 @@
 package com.design_pattern.strategy;
 
-import com.alerts.Alert;
 import com.alerts.AlertGenerator;
+import com.alerts.window.TemporalJoin;
 import com.data_management.PatientRecord;
-import com.design_pattern.Factory.EmergencyButtonFactory;
 import com.design_pattern.Factory.HypotensiveHypoxemiaAlertFactory;
 
-import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.Collectors;
 
+/**
+ * Alerts when a low systolic pressure and a low oxygen saturation are measured less than a second
+ * apart. The two signals are joined with a {@link TemporalJoin}, so the alert fires once per
+ * episode instead of on every record that follows a matching pair.
+ */
 public class HypotensiveHypoxemiaStrategy implements AlertInterface{
 
     private HypotensiveHypoxemiaAlertFactory factory ;
     private static final double SYSTOLIC_PRESSURE_MIN = 90 ;
     private static final double OXYGEN_SATURATION_MIN = 92 ;
 
+    private static final long MAX_INTERVAL = 1000 ;
+    private static final int REMEMBERED_READINGS = 8 ;
+
+    // first signal is the systolic pressure, second one the saturation
+    private final TemporalJoin lowPressureAndSaturation = new TemporalJoin(MAX_INTERVAL, REMEMBERED_READINGS) ;
+
     public HypotensiveHypoxemiaStrategy(HypotensiveHypoxemiaAlertFactory factory){
         this.factory = factory;
     }
@@ -23,46 +31,39 @@ public class HypotensiveHypoxemiaStrategy implements AlertInterface{
 
     @Override
     public void checkAlert(int patientId, List<PatientRecord> records, AlertGenerator generator) {
-
-        ArrayList<Item> TriggerSys  = new ArrayList<>();
-        ArrayList<Item>Trigger02  = new ArrayList<>();
-
         int i = 0 ;
         while(i <records.size()){
-            //System.out.println("Running hypotensiveHypoxemiaAlert "+i);
-
-            PatientRecord currentRecord = records.get(i) ;
-            switch (currentRecord.getRecordType()){
-                case("SystolicPressure") :
-                    if(currentRecord.getMeasurementValue()<SYSTOLIC_PRESSURE_MIN){
-                        Item newItem = new Item(1 , currentRecord.getTimestamp());
-                        TriggerSys.add(newItem);
-                    }
-                    break ;
-                case("Saturation"):
-                    if(currentRecord.getMeasurementValue()<OXYGEN_SATURATION_MIN) {
-                        Item newItem = new Item(1 , currentRecord.getTimestamp());
-                        Trigger02.add(newItem);
-                    }
-                    break ;
-                default:
-                    break;
-
+            onRecord(patientId, records.get(i), generator);
+            i++;
+        }
 
-            }
-            if(Trigger02.isEmpty() | TriggerSys.isEmpty()){
-                i++;
-                continue;
-            }
-            else if(Trigger02.get(Trigger02.size()-1).getMeasurementValue() == TriggerSys.get(TriggerSys.size()-1).getMeasurementValue() && Math.abs(Trigger02.get(Trigger02.size()-1).getTimeStamp()-TriggerSys.get(TriggerSys.size()-1).getTimeStamp())<1000){
-                generator.triggerAlert(factory.createAlert(String.valueOf(patientId)
-                                            , "HYPOTENSIVE HYPOXEMIA ALERT"
-                                            ,currentRecord.getTimestamp()));
+    }
 
-            }
+    @Override
+    public boolean accepts(String recordType) {
+        return recordType.equals("SystolicPressure") || recordType.equals("Saturation");
+    }
 
-            i++;
+    @Override
+    public void onRecord(int patientId, PatientRecord currentRecord, AlertGenerator generator) {
+        boolean newEpisode ;
+        switch (currentRecord.getRecordType()){
+            case("SystolicPressure") :
+                newEpisode = lowPressureAndSaturation.onFirst(currentRecord.getTimestamp()
+                        , currentRecord.getMeasurementValue()<SYSTOLIC_PRESSURE_MIN);
+                break ;
+            case("Saturation"):
+                newEpisode = lowPressureAndSaturation.onSecond(currentRecord.getTimestamp()
+                        , currentRecord.getMeasurementValue()<OXYGEN_SATURATION_MIN);
+                break ;
+            default:
+                return;
         }
+        if(newEpisode){
+            generator.triggerAlert(factory.createAlert(String.valueOf(patientId)
+                                        , "HYPOTENSIVE HYPOXEMIA ALERT"
+                                        ,currentRecord.getTimestamp()));
 
+        }
     }
 }
@@ -1,84 +1,73 @@
 package com.design_pattern.strategy;
 
 import com.alerts.AlertGenerator;
+import com.alerts.window.RollingExtremum;
 import com.data_management.PatientRecord;
 import com.design_pattern.Factory.OxygenSaturationAlertFactory;
 
 import java.util.List;
-import java.util.stream.Collectors;
 
+/**
+ * Alerts when the oxygen saturation is below the minimum, or when it dropped by 5% or more
+ * compared with the highest saturation of the last 10 minutes. The highest value is kept
+ * exactly between records with a {@link RollingExtremum}.
+ */
 public class OxygenSaturationStrategy implements AlertInterface{
     private OxygenSaturationAlertFactory factory ;
     private static final double OXYGEN_SATURATION_MIN = 92 ;
-    private boolean isUpdated ;
+    private static final long RAPID_DECREASE_WINDOW = 1000*60*10 ;
+    private static final double RAPID_DECREASE = 0.05 ;
+
+    // kept between records, so the largest value of the last 10 minutes survives across calls
+    private final RollingExtremum largest = RollingExtremum.maximum(RAPID_DECREASE_WINDOW) ;
+    private long newest = Long.MIN_VALUE ; // time of the newest saturation seen
 
 
     public OxygenSaturationStrategy(OxygenSaturationAlertFactory factory){
         this.factory = factory;
-        this.isUpdated = false;
     }
 
     @Override
     public void checkAlert(int patientId, List<PatientRecord> record, AlertGenerator generator) {
-        List<PatientRecord> saturationList = record.stream().filter(r -> r.getRecordType()
-                                        .equalsIgnoreCase("Saturation"))
-                                        .collect(Collectors.toList());
-
         int i = 0 ;
-
-        Item LargestItem = new Item(0 , 0) ;
-        Item currentItem = new Item(0 , 0 );
-
-        while(i<saturationList.size()){
-            PatientRecord currentRecord = saturationList.get(i);
-
-            currentItem.setMeasurementValue(currentRecord.getMeasurementValue());
-            currentItem.setTimeStamp(currentRecord.getTimestamp());
-
-            update(LargestItem , currentItem);
-            if(currentItem.getMeasurementValue()<OXYGEN_SATURATION_MIN){
-                generator.triggerAlert(factory.createAlert(String.valueOf(patientId)
-                        , currentRecord.getRecordType()
-                        ,currentRecord.getTimestamp()));
-            }
-            if(!isUpdated && LargestItem.getMeasurementValue()- currentItem.getMeasurementValue()>= LargestItem.getMeasurementValue()*0.05){
-                generator.triggerAlert(factory.createAlert(String.valueOf(patientId)
-                        , "RAPID DECREASE IN OXYGEN "
-                        ,currentRecord.getTimestamp()));
-            }
-
-
-            isUpdated = true ;
+        while(i<record.size()){
+            onRecord(patientId, record.get(i), generator);
             i++;
         }
 
 
     }
 
-    private void update(Item LargestItem , Item currentItem){
-        double largestMeasurement = LargestItem.getMeasurementValue();
-        double currentMeasurement = currentItem.getMeasurementValue();
+    @Override
+    public void onRecord(int patientId, PatientRecord currentRecord, AlertGenerator generator) {
+        if (!currentRecord.getRecordType().equalsIgnoreCase("Saturation")) {
+            return;
+        }
 
-        long currentTimeStamp = currentItem.getTimeStamp();
+        double current = currentRecord.getMeasurementValue();
+        largest.add(currentRecord.getTimestamp(), current); // a late one goes in its place for the next ones
+        boolean late = currentRecord.getTimestamp() < newest;
+        newest = Math.max(newest, currentRecord.getTimestamp());
 
-        if(largestMeasurement<currentMeasurement){
-            LargestItem.setMeasurementValue(currentMeasurement);
-            LargestItem.setTimeStamp(currentTimeStamp);
-            isUpdated();
+        if(current<OXYGEN_SATURATION_MIN){
+            generator.triggerAlert(factory.createAlert(String.valueOf(patientId)
+                    , currentRecord.getRecordType()
+                    ,currentRecord.getTimestamp()));
         }
-        else if(LargestItem.getTimeStamp()+1000*60*10 <= currentItem.getTimeStamp()){
-            LargestItem.setMeasurementValue(currentMeasurement);
-            LargestItem.setTimeStamp(currentTimeStamp);
-            isUpdated();
+        if (late) {
+            return; // the maximum holds readings taken after it, there is no decrease to compare with
         }
-        else{
-            isUpdated = false;
+        double max = largest.get();
+        if(max - current >= max*RAPID_DECREASE){
+            generator.triggerAlert(factory.createAlert(String.valueOf(patientId)
+                    , "RAPID DECREASE IN OXYGEN "
+                    ,currentRecord.getTimestamp()));
         }
-
-
     }
-    private void isUpdated(){
-        isUpdated = true ;
+
+    @Override
+    public boolean accepts(String recordType) {
+        return recordType.equalsIgnoreCase("Saturation");
     }
 
 }
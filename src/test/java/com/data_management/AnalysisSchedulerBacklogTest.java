@@ -0,0 +1,63 @@
+package com.data_management;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+/**
+ * Sits in the package of the scheduler to hand it readings and run its cycles at chosen times, instead
+ * of waiting for the wall clock.
+ */
+class AnalysisSchedulerBacklogTest {
+
+    private static final int ECG = RecordTypes.codeOf("ECG");
+
+    /**
+     * A reading that waited for a cycle longer than the maximum lag is skipped, the ones that waited less
+     * are analysed
+     */
+    @Test
+    void testStaleReadingsAreSkipped() throws IOException {
+        AnalysisScheduler scheduler = new AnalysisScheduler(DataStorage.getInstance(), 20, 50);
+        try {
+            long arrival = 1_000_000;
+            scheduler.offer(9942, 70, ECG, arrival, arrival);
+            scheduler.offer(9942, 71, ECG, arrival + 100, arrival + 100);
+            scheduler.runCycle(arrival + 120); // the first one waited 120 ms, the second 20 ms
+
+            assertEquals(1, scheduler.getSkippedReadings());
+            assertEquals(1, scheduler.getAnalysedReadings());
+        } finally {
+            scheduler.close();
+        }
+    }
+
+    /**
+     * Once MAX_PENDING_READINGS are waiting, the next readings are skipped until a cycle takes the waiting
+     * ones, then readings are taken again
+     */
+    @Test
+    void testPendingReadingsAreCapped() throws IOException {
+        AnalysisScheduler scheduler = new AnalysisScheduler(DataStorage.getInstance(), 20, 50);
+        try {
+            long arrival = 1_000_000;
+            for (int i = 0; i < AnalysisScheduler.MAX_PENDING_READINGS + 10; i++) {
+                scheduler.offer(9944, 70, ECG, i, arrival);
+            }
+            assertEquals(10, scheduler.getSkippedReadings());
+
+            scheduler.runCycle(arrival + 1_000); // all of them waited too long, nothing to analyse
+            assertEquals(AnalysisScheduler.MAX_PENDING_READINGS + 10, scheduler.getSkippedReadings());
+            assertEquals(0, scheduler.getAnalysedReadings());
+
+            scheduler.offer(9944, 71, ECG, 1, arrival + 2_000);
+            scheduler.runCycle(arrival + 2_000);
+            assertEquals(1, scheduler.getAnalysedReadings());
+            assertEquals(AnalysisScheduler.MAX_PENDING_READINGS + 10, scheduler.getSkippedReadings());
+        } finally {
+            scheduler.close();
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package com.data_management;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Sits in the package of the queue to hand it a spill file that fails.
+ */
+class IngestionQueueSpillTest {
+
+    @TempDir
+    Path directory;
+
+    /**
+     * A spill write that fails halfway should only lose the records it did not write in whole, the
+     * records spilled afterwards should still be read back as they were
+     */
+    @Test
+    void testFailedSpillWriteKeepsRecordsAligned() throws Exception {
+        DataStorage storage = DataStorage.getInstance();
+        FileChannel file = FileChannel.open(directory.resolve("queue.spill"), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        IngestionQueue queue = new IngestionQueue(storage, 1, IngestionQueue.OverflowPolicy.SPILL_TO_DISK,
+                new FailingChannel(file, 3 * 24 + 10));
+        long now = System.currentTimeMillis();
+        try {
+            RecordBatch batch = new RecordBatch();
+            int code = RecordTypes.codeOf("SpillECG");
+            for (int i = 0; i < 8000; i++) {
+                batch.add(9931, now + i, code, i);
+            }
+            // one reading in the ring, the others spilled by buffers of 2048: the second write to the file
+            // fails after 3 records and 10 bytes, the third one goes on from there
+            queue.offer(batch);
+            assertEquals(2045, queue.getDroppedReadings());
+            waitFor(() -> queue.getStoredReadings() == 8000 - 2045);
+        } finally {
+            queue.close();
+        }
+
+        List<PatientRecord> records = storage.getRecords(9931, now, Long.MAX_VALUE);
+        assertEquals(8000 - 2045, records.size());
+        for (PatientRecord record : records) {
+            assertEquals(record.getTimestamp() - now, record.getMeasurementValue());
+            assertEquals("SpillECG", record.getRecordType());
+        }
+        assertEquals(now + 2051, records.get(2051).getTimestamp());
+        assertEquals(now + 4097, records.get(2052).getTimestamp()); // the rest of the failed write is gone
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "timed out");
+            Thread.sleep(5);
+        }
+    }
+
+    /**
+     * A file where the write of the second spilled buffer stops after a few bytes and then fails, like a full disk.
+     */
+    private static final class FailingChannel extends FileChannel {
+        private final FileChannel file;
+        private int partialBytes;
+        private boolean failed;
+
+        FailingChannel(FileChannel file, int partialBytes) {
+            this.file = file;
+            this.partialBytes = partialBytes;
+        }
+
+        @Override
+        public int write(ByteBuffer src, long position) throws IOException {
+            if (!failed && position > 0) { // the second buffer spilled
+                if (partialBytes == 0) {
+                    failed = true;
+                    throw new IOException("No space left on device");
+                }
+                ByteBuffer part = src.duplicate();
+                part.limit(part.position() + Math.min(partialBytes, part.remaining()));
+                int written = file.write(part, position);
+                src.position(src.position() + written);
+                partialBytes -= written;
+                return written;
+            }
+            return file.write(src, position);
+        }
+
+        @Override
+        public int read(ByteBuffer dst, long position) throws IOException {
+            return file.read(dst, position);
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            return file.read(dst);
+        }
+
+        @Override
+        public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+            return file.read(dsts, offset, length);
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            return file.write(src);
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+            return file.write(srcs, offset, length);
+        }
+
+        @Override
+        public long position() throws IOException {
+            return file.position();
+        }
+
+        @Override
+        public FileChannel position(long newPosition) throws IOException {
+            file.position(newPosition);
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return file.size();
+        }
+
+        @Override
+        public FileChannel truncate(long size) throws IOException {
+            file.truncate(size);
+            return this;
+        }
+
+        @Override
+        public void force(boolean metaData) throws IOException {
+            file.force(metaData);
+        }
+
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+            return file.transferTo(position, count, target);
+        }
+
+        @Override
+        public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException {
+            return file.transferFrom(src, position, count);
+        }
+
+        @Override
+        public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+            return file.map(mode, position, size);
+        }
+
+        @Override
+        public FileLock lock(long position, long size, boolean shared) throws IOException {
+            return file.lock(position, size, shared);
+        }
+
+        @Override
+        public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+            return file.tryLock(position, size, shared);
+        }
+
+        @Override
+        protected void implCloseChannel() throws IOException {
+            file.close();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.data_management;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Sits in the package of the segments to cut them at a position of the log, as the storage does.
+ */
+class SegmentRecoveryTest {
+
+    @TempDir
+    Path directory;
+
+    /**
+     * After a restart the readings a segment holds should not come back from the log, but a reading that
+     * arrived late, after its period was sealed, should, even if no sealing picked it up before the restart
+     */
+    @Test
+    void testRecoveryKeepsLateReadings() throws IOException {
+        Path logs = directory.resolve("wal");
+        Path segmentDirectory = directory.resolve("segments");
+        ConcurrentMap<Integer, Patient> patients = new ConcurrentHashMap<>();
+        try (PersistenceManager manager = new PersistenceManager(logs)) {
+            manager.recover(patients, 1);
+            SegmentStore segments = new SegmentStore(segmentDirectory);
+            segments.cutWith(manager::cut);
+            for (long t = 0; t < 100; t++) {
+                store(manager, patients, t, t * 1000);
+            }
+            manager.snapshot(patients.values()); // holds every reading, the sealed ones too
+            assertEquals(50, segments.seal(patients.values(), 50_000));
+            store(manager, patients, -1, 10_500); // late, its period is already sealed
+            store(manager, patients, -2, 10_500); // the same time twice, not the same reading
+        }
+
+        ConcurrentMap<Integer, Patient> restored = new ConcurrentHashMap<>();
+        SegmentStore reopened = new SegmentStore(segmentDirectory);
+        try (PersistenceManager manager = new PersistenceManager(logs)) {
+            assertEquals(52, manager.recover(restored, 2, reopened::sealedBefore));
+        }
+        Patient patient = restored.get(7);
+        assertEquals(52, patient.getRecordCount());
+        List<PatientRecord> records = reopened.getRecords(patient, 7, -1, 0, Long.MAX_VALUE);
+        assertEquals(102, records.size());
+        assertEquals(10, records.get(10).getMeasurementValue());
+        assertEquals(10_500, records.get(11).getTimestamp());
+        assertEquals(10_500, records.get(12).getTimestamp());
+        assertEquals(49, records.get(51).getMeasurementValue());
+    }
+
+    private static void store(PersistenceManager manager, ConcurrentMap<Integer, Patient> patients,
+                              double value, long timestamp) throws IOException {
+        manager.storing().lock();
+        try {
+            patients.computeIfAbsent(7, Patient::new).addRecord(value, "HeartRate", timestamp);
+            manager.append(7, RecordTypes.codeOf("HeartRate"), timestamp, value);
+        } finally {
+            manager.storing().unlock();
+        }
+    }
+}
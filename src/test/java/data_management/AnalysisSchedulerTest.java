@@ -0,0 +1,71 @@
+package data_management;
+
+import com.data_management.AnalysisScheduler;
+import com.data_management.DataStorage;
+import com.data_management.RecordTypes;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AnalysisSchedulerTest {
+
+    private static final int ECG = RecordTypes.codeOf("ECG");
+
+    @Test
+    void testRejectsInvalidConfiguration() throws IOException {
+        DataStorage storage = DataStorage.getInstance();
+        assertThrows(IllegalArgumentException.class, () -> new AnalysisScheduler(storage, 0, 1_000));
+        assertThrows(IllegalArgumentException.class, () -> new AnalysisScheduler(storage, 1_000, 500));
+    }
+
+    /**
+     * The cycles run by themselves once started, which keeps the lag close to the period
+     */
+    @Test
+    void testCyclesRunOnTheirOwn() throws Exception {
+        AnalysisScheduler scheduler = new AnalysisScheduler(DataStorage.getInstance(), 50, 200);
+        try {
+            scheduler.start();
+            Thread.sleep(500);
+            assertTrue(scheduler.getAnalysisLag() < 200, "lag was " + scheduler.getAnalysisLag());
+        } finally {
+            scheduler.close();
+        }
+    }
+
+    /**
+     * A reading that arrives after newer ones were analysed should still be analysed by the next cycle
+     */
+    @Test
+    void testLateReadingIsAnalysed() throws Exception {
+        AnalysisScheduler scheduler = new AnalysisScheduler(DataStorage.getInstance(), 60_000, 60_000);
+        try {
+            long now = System.currentTimeMillis();
+            scheduler.offer(9941, 70, ECG, now);
+            scheduler.runCycle();
+            scheduler.offer(9941, 72, ECG, now - 30 * 60_000); // taken half an hour ago, arrives now
+            scheduler.runCycle();
+            assertEquals(2, scheduler.getAnalysedReadings());
+            assertEquals(0, scheduler.getSkippedReadings());
+        } finally {
+            scheduler.close();
+        }
+    }
+
+    /**
+     * Closing should analyse what is still waiting and stop the cycles for good
+     */
+    @Test
+    void testCloseAnalysesWhatIsLeft() throws Exception {
+        AnalysisScheduler scheduler = new AnalysisScheduler(DataStorage.getInstance(), 60_000, 60_000);
+        scheduler.offer(9943, 70, ECG, System.currentTimeMillis());
+        assertEquals(0, scheduler.getAnalysedReadings());
+        scheduler.close();
+        assertEquals(1, scheduler.getAnalysedReadings());
+        scheduler.offer(9943, 71, ECG, System.currentTimeMillis()); // no thread left to run it
+        assertEquals(1, scheduler.getAnalysedReadings());
+        scheduler.close();
+    }
+}
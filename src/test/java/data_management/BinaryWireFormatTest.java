@@ -0,0 +1,159 @@
+package data_management;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.cardio_generator.outputs.BinaryRecordFormat;
+import com.cardio_generator.outputs.WebSocketOutputStrategy;
+import com.data_management.DataStorage;
+import com.data_management.WebSocketClientAdapter;
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.handshake.ServerHandshake;
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.BooleanSupplier;
+
+class BinaryWireFormatTest {
+
+    /**
+     * Frames should decode to the same readings, also when a frame is split over two reads of a stream,
+     * and a record whose label was never announced should be skipped
+     */
+    @Test
+    void testRoundTrip() {
+        BinaryRecordFormat.Dictionary dictionary = new BinaryRecordFormat.Dictionary();
+        ByteBuffer stream = ByteBuffer.allocate(1024);
+        int ecg = dictionary.codeOf("ECG", stream::put);
+        int saturation = dictionary.codeOf("Saturation", stream::put);
+        assertEquals(ecg, dictionary.codeOf("ECG", frame -> fail("announced twice")));
+        BinaryRecordFormat.putRecord(stream, 12, 1714376789050L, ecg, -0.4321);
+        BinaryRecordFormat.putRecord(stream, 13, 1714376789051L, saturation,
+                BinaryRecordFormat.parseValue("97.0%"));
+        BinaryRecordFormat.putRecord(stream, 14, 1, 7, 1.0); // code 7 was never announced
+        stream.flip();
+
+        List<String> decoded = new ArrayList<>();
+        BinaryRecordFormat.Decoder decoder = new BinaryRecordFormat.Decoder();
+        BinaryRecordFormat.Sink sink = (patientId, timestamp, label, value) ->
+                decoded.add(patientId + "," + timestamp + "," + label + "," + value);
+        ByteBuffer first = ByteBuffer.allocate(64).put(stream.array(), 0, 30).flip();
+        assertTrue(decoder.decode(first, sink));
+        assertEquals(7, first.remaining()); // both labels, then the first record cut short, left for the next read
+        ByteBuffer rest = ByteBuffer.allocate(1024).put(first).put(stream.array(), 30, stream.limit() - 30).flip();
+        assertFalse(decoder.decode(rest, sink));
+        assertFalse(rest.hasRemaining());
+        assertEquals(List.of("12,1714376789050,ECG,-0.4321", "13,1714376789051,Saturation,97.0"), decoded);
+        assertEquals(1, decoder.getInvalidFrames());
+        assertTrue(Double.isNaN(BinaryRecordFormat.parseValue("triggered")));
+    }
+
+    /**
+     * A frame sink should be told every label once, when it is announced, then get the records with their code
+     */
+    @Test
+    void testFrameSinkGetsLabelsOnce() {
+        ByteBuffer stream = ByteBuffer.allocate(1024);
+        stream.put(BinaryRecordFormat.labelFrame(3, "ECG"));
+        for (int i = 0; i < 3; i++) {
+            BinaryRecordFormat.putRecord(stream, 12, i, 3, i * 0.5);
+        }
+        BinaryRecordFormat.putRecord(stream, 12, 9, 4, 1.0); // code 4 was never announced
+        stream.flip();
+
+        List<String> decoded = new ArrayList<>();
+        BinaryRecordFormat.Decoder decoder = new BinaryRecordFormat.Decoder();
+        assertFalse(decoder.decode(stream, new BinaryRecordFormat.FrameSink() {
+            @Override
+            public void label(int labelCode, String label) {
+                decoded.add(labelCode + "=" + label);
+            }
+
+            @Override
+            public void record(int patientId, long timestamp, int labelCode, double value) {
+                decoded.add(patientId + "," + timestamp + "," + labelCode + "," + value);
+            }
+        }));
+        assertEquals(List.of("3=ECG", "12,0,3,0.0", "12,1,3,0.5", "12,2,3,1.0"), decoded);
+        assertEquals(1, decoder.getInvalidFrames());
+    }
+
+    /**
+     * A client asking for the binary format should get the readings in binary, while a plain client keeps
+     * getting text, non-numeric data included
+     */
+    @Test
+    void testNegotiatesFormatPerConnection() throws Exception {
+        int port = ThreadLocalRandom.current().nextInt(20000, 40000);
+        WebSocketOutputStrategy output = new WebSocketOutputStrategy(port);
+        List<Object> textMessages = new CopyOnWriteArrayList<>();
+        WebSocketClient textClient = new WebSocketClient(new URI("ws://localhost:" + port)) {
+            @Override
+            public void onOpen(ServerHandshake handshake) {
+            }
+
+            @Override
+            public void onMessage(String message) {
+                textMessages.add(message);
+            }
+
+            @Override
+            public void onMessage(ByteBuffer bytes) {
+                textMessages.add(bytes);
+            }
+
+            @Override
+            public void onClose(int code, String reason, boolean remote) {
+            }
+
+            @Override
+            public void onError(Exception ex) {
+            }
+        };
+        assertTrue(connect(textClient));
+        output.output(9601, 1, "WireECG", "0.5"); // only the text client sees this one
+
+        DataStorage storage = DataStorage.getInstance();
+        WebSocketClientAdapter adapter = new WebSocketClientAdapter(new URI("ws://localhost:" + port), storage, true);
+        try {
+            assertTrue(connect(adapter));
+            output.output(9601, 2, "WireECG", "0.25");
+            output.output(9601, 3, "WireSaturation", "96.0%");
+            output.output(9601, 4, "Alert", "triggered");
+            waitFor(() -> storage.getRecords(9601, 0, Long.MAX_VALUE).size() == 2 && textMessages.size() == 4);
+            assertEquals(0.25, storage.getRecords(9601, 2, 2).get(0).getMeasurementValue());
+            assertEquals("WireSaturation", storage.getRecords(9601, 3, 3).get(0).getRecordType());
+            assertEquals(96.0, storage.getRecords(9601, 3, 3).get(0).getMeasurementValue());
+            assertEquals(List.of("9601,1,WireECG,0.5", "9601,2,WireECG,0.25", "9601,3,WireSaturation,96.0%",
+                    "9601,4,Alert,triggered"), textMessages);
+        } finally {
+            adapter.closeBlocking();
+            textClient.closeBlocking();
+            output.close();
+        }
+    }
+
+    // the server may take a moment to start listening
+    private static boolean connect(WebSocketClient client) throws InterruptedException {
+        for (int attempt = 0; attempt < 50; attempt++) {
+            if (attempt == 0 ? client.connectBlocking() : client.reconnectBlocking()) {
+                Thread.sleep(200); // the server only registers the connection after answering the handshake
+                return true;
+            }
+            Thread.sleep(20);
+        }
+        return false;
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "timed out");
+            Thread.sleep(5);
+        }
+    }
+}
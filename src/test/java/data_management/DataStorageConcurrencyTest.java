@@ -0,0 +1,103 @@
+package data_management;
+
+import com.data_management.DataStorage;
+import com.data_management.PatientRecord;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DataStorageConcurrencyTest {
+
+    private static final int WRITERS = 8;
+    private static final int READINGS_PER_WRITER = 50_000;
+    private static final int FIRST_PATIENT = 1_000; // keeps clear of the ids used by the other tests
+    private static final int PATIENTS = 16;
+    private static final int HOT_PATIENT = FIRST_PATIENT + PATIENTS;
+
+    /**
+     * Several writers add readings at the same time, half of them to one "hot" patient that every
+     * writer shares, while a reader keeps taking snapshots. Every reading has to be stored exactly once,
+     * and every snapshot has to be ordered by timestamp.
+     */
+    @Test
+    void testNoReadingIsLost() throws Exception {
+        DataStorage storage = DataStorage.getInstance();
+        ExecutorService pool = Executors.newFixedThreadPool(WRITERS + 1);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicBoolean writing = new AtomicBoolean(true);
+        List<Future<?>> writers = new ArrayList<>();
+
+        for (int w = 0; w < WRITERS; w++) {
+            int writer = w;
+            writers.add(pool.submit(() -> {
+                start.await();
+                for (int i = 0; i < READINGS_PER_WRITER; i++) {
+                    // timestamps interleave between writers, so the hot patient also sees late arrivals
+                    long timestamp = (long) i * WRITERS + writer;
+                    // steady values, so the alert strategies stay quiet while being fed
+                    if (i % 2 == 0) {
+                        storage.addPatientData(HOT_PATIENT, 75, "ECG", timestamp);
+                    } else {
+                        storage.addPatientData(FIRST_PATIENT + (i % PATIENTS), 97, i % 4 == 1 ? "ECG" : "Saturation", timestamp);
+                    }
+                }
+                return null;
+            }));
+        }
+        Future<?> reader = pool.submit(() -> {
+            start.await();
+            while (writing.get()) {
+                assertSorted(storage.getRecords(HOT_PATIENT, 0, Long.MAX_VALUE));
+                assertSorted(storage.getRecords(FIRST_PATIENT + 1, 0, Long.MAX_VALUE));
+            }
+            return null;
+        });
+
+        start.countDown();
+        for (Future<?> future : writers) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+        writing.set(false);
+        reader.get(60, TimeUnit.SECONDS);
+        pool.shutdown();
+
+        int stored = storage.getRecords(HOT_PATIENT, 0, Long.MAX_VALUE).size();
+        for (int p = FIRST_PATIENT; p < FIRST_PATIENT + PATIENTS; p++) {
+            stored += storage.getRecords(p, 0, Long.MAX_VALUE).size();
+        }
+        assertEquals(WRITERS * READINGS_PER_WRITER, stored);
+        assertEquals(WRITERS * READINGS_PER_WRITER / 2, storage.getRecords(HOT_PATIENT, 0, Long.MAX_VALUE).size());
+        assertSorted(storage.getRecords(HOT_PATIENT, 0, Long.MAX_VALUE));
+    }
+
+    private static void assertSorted(List<PatientRecord> records) {
+        for (int i = 1; i < records.size(); i++) {
+            assertTrue(records.get(i - 1).getTimestamp() <= records.get(i).getTimestamp());
+        }
+    }
+
+    @Test
+    void testSnapshotIsStable() throws IOException {
+        DataStorage storage = DataStorage.getInstance();
+        int patientId = HOT_PATIENT + 1;
+        storage.addPatientData(patientId, 1, "ECG", 10);
+        storage.addPatientData(patientId, 3, "ECG", 30);
+
+        List<PatientRecord> snapshot = storage.getRecords(patientId, 0, Long.MAX_VALUE);
+        storage.addPatientData(patientId, 2, "ECG", 20); // late arrival after the snapshot was taken
+
+        assertEquals(2, snapshot.size());
+        assertEquals(30, snapshot.get(1).getTimestamp());
+        assertEquals(3, storage.getRecords(patientId, 0, Long.MAX_VALUE).size());
+    }
+}
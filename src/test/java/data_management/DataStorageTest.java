@@ -3,6 +3,7 @@ package data_management;
 import static org.junit.jupiter.api.Assertions.*;
 import java.io.*;
 
+import com.data_management.AnalysisScheduler;
 import com.data_management.DataReader;
 import com.data_management.DataStorage;
 import com.data_management.FileDataReaderInterface;
@@ -38,4 +39,23 @@ class DataStorageTest {
         List<PatientRecord> records = storage.getRecords(1, 0L, Long.MAX_VALUE);
         //assertTrue(records.isEmpty());
     }
+
+    /**
+     * Leaving the periodic mode should close its scheduler, which analyses the readings still waiting
+     */
+    @Test
+    void testModeChangeClosesScheduler() throws IOException {
+        DataStorage storage = DataStorage.getInstance();
+        storage.configureAnalysisMode(DataStorage.AnalysisMode.PERIODIC);
+        AnalysisScheduler periodic = storage.getAnalysisScheduler();
+        try {
+            storage.configureAnalysis(60_000, 60_000);
+            storage.addPatientData(9951, 70, "ECG", System.currentTimeMillis());
+            assertEquals(0, periodic.getAnalysedReadings());
+        } finally {
+            storage.configureAnalysisMode(DataStorage.AnalysisMode.INCREMENTAL);
+        }
+        assertEquals(1, periodic.getAnalysedReadings());
+        assertNotSame(periodic, storage.getAnalysisScheduler());
+    }
 }
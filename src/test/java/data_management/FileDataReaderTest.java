@@ -0,0 +1,144 @@
+package data_management;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.data_management.DataStorage;
+import com.data_management.FileDataReader;
+import com.data_management.PatientRecord;
+import com.data_management.RecordLineParser;
+import com.data_management.RecordTypes;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+class FileDataReaderTest {
+
+    @TempDir
+    Path directory;
+
+    /**
+     * The parser should read the lines of the file output the same way Double.parseDouble does, and refuse the
+     * lines that are not readings
+     */
+    @Test
+    void testParseLines() {
+        RecordLineParser parser = new RecordLineParser();
+        assertTrue(parse(parser, "Patient ID: 12, Timestamp: 1714376789050, Label: ECG, Data: -0.123456789012345"));
+        assertEquals(12, parser.getPatientId());
+        assertEquals(1714376789050L, parser.getTimestamp());
+        assertEquals(RecordTypes.codeOf("ECG"), parser.getTypeCode());
+        assertEquals(-0.123456789012345, parser.getValue());
+
+        assertTrue(parse(parser, "Patient ID: 3, Timestamp: 5, Label: Saturation, Data: 97.0%\r"));
+        assertEquals(97.0, parser.getValue());
+        assertEquals(RecordTypes.codeOf("Saturation"), parser.getTypeCode());
+
+        String[] values = {"1.0E-4", "0.30000000000000004", "123456789.98765432", "42", "+7.5"};
+        for (String value : values) {
+            assertTrue(parse(parser, "Patient ID: 1, Timestamp: 2, Label: ECG, Data: " + value));
+            assertEquals(Double.parseDouble(value), parser.getValue(), value);
+        }
+
+        Random random = new Random(7);
+        for (int i = 0; i < 200_000; i++) {
+            double expected = random.nextDouble() * Math.pow(10, random.nextInt(12) - 3);
+            assertTrue(parse(parser, "Patient ID: 1, Timestamp: 2, Label: ECG, Data: " + expected));
+            assertEquals(expected, parser.getValue());
+        }
+
+        assertFalse(parse(parser, "Patient ID: 1, Timestamp: 2, Label: Alert, Data: triggered"));
+        assertFalse(parse(parser, "Patient ID: x, Timestamp: 2, Label: ECG, Data: 1.0"));
+        assertFalse(parse(parser, "Patient ID: 1, Timestamp: 2, Label: ECG, Data: 1.0 extra"));
+        assertFalse(parse(parser, ""));
+    }
+
+    /**
+     * Every reading of the files should end up in the storage, including a last line without a line break
+     */
+    @Test
+    void testReadDirectory() throws IOException {
+        StringBuilder ecg = new StringBuilder();
+        for (int t = 0; t < 50_000; t++) {
+            ecg.append("Patient ID: 9101, Timestamp: ").append(t).append(", Label: ECG, Data: ")
+                    .append(t * 0.25).append('\n');
+        }
+        Files.write(directory.resolve("ECG.txt"), ecg.toString().getBytes(StandardCharsets.US_ASCII));
+        Files.write(directory.resolve("Alert.txt"),
+                "Patient ID: 9101, Timestamp: 7, Label: Alert, Data: triggered\n".getBytes(StandardCharsets.US_ASCII));
+        Files.write(directory.resolve("Saturation.txt"),
+                "Patient ID: 9102, Timestamp: 7, Label: Saturation, Data: 95.0%".getBytes(StandardCharsets.US_ASCII));
+
+        FileDataReader reader = new FileDataReader(directory.toString());
+        DataStorage storage = DataStorage.getInstance();
+        reader.readData(storage);
+
+        List<PatientRecord> records = storage.getRecords(9101, 0, Long.MAX_VALUE);
+        assertEquals(50_000, records.size());
+        assertEquals(49_999 * 0.25, records.get(49_999).getMeasurementValue());
+        assertEquals(95.0, storage.getRecords(9102, 0, Long.MAX_VALUE).get(0).getMeasurementValue());
+        assertEquals(1, reader.getSkippedLines());
+    }
+
+    /**
+     * Importing with several threads and chunks much smaller than the files should store the same readings as
+     * a single thread, with the readings of every patient in the same order
+     */
+    @Test
+    void testParallelImport() throws IOException {
+        String[] labels = {"ECG", "Saturation", "SystolicPressure"};
+        Random random = new Random(3);
+        for (String label : labels) {
+            StringBuilder lines = new StringBuilder();
+            for (int i = 0; i < 3000; i++) {
+                int patient = 9201 + random.nextInt(20);
+                lines.append("Patient ID: ").append(patient).append(", Timestamp: ").append(i)
+                        .append(", Label: ").append(label).append(", Data: ").append(random.nextDouble())
+                        .append(i % 7 == 0 ? "\r\n" : "\n");
+                if (i % 500 == 0) {
+                    lines.append("Patient ID: ").append(patient).append(", Timestamp: ").append(i)
+                            .append(", Label: Alert, Data: triggered\n");
+                }
+            }
+            Files.write(directory.resolve(label + ".txt"), lines.toString().getBytes(StandardCharsets.US_ASCII));
+        }
+        DataStorage storage = DataStorage.getInstance();
+        FileDataReader serial = new FileDataReader(directory.toString());
+        serial.readData(storage);
+        List<List<PatientRecord>> expected = new ArrayList<>();
+        for (int id = 9201; id <= 9220; id++) {
+            expected.add(storage.getRecords(id, 0, Long.MAX_VALUE));
+        }
+
+        // same files again, for fresh patients
+        for (String label : labels) {
+            Path file = directory.resolve(label + ".txt");
+            Files.write(file, Files.readString(file).replace("Patient ID: 92", "Patient ID: 93")
+                    .getBytes(StandardCharsets.US_ASCII));
+        }
+        FileDataReader parallel = new FileDataReader(directory.toString(), 3, 1000);
+        parallel.readData(storage);
+        assertEquals(serial.getSkippedLines(), parallel.getSkippedLines());
+        for (int id = 9301; id <= 9320; id++) {
+            List<PatientRecord> records = storage.getRecords(id, 0, Long.MAX_VALUE);
+            List<PatientRecord> reference = expected.get(id - 9301);
+            assertEquals(reference.size(), records.size());
+            for (int i = 0; i < records.size(); i++) {
+                assertEquals(reference.get(i).getTimestamp(), records.get(i).getTimestamp());
+                assertEquals(reference.get(i).getMeasurementValue(), records.get(i).getMeasurementValue());
+                assertEquals(reference.get(i).getRecordType(), records.get(i).getRecordType());
+            }
+        }
+    }
+
+    private static boolean parse(RecordLineParser parser, String line) {
+        byte[] bytes = line.getBytes(StandardCharsets.US_ASCII);
+        return parser.parse(bytes, 0, bytes.length);
+    }
+}
@@ -0,0 +1,75 @@
+package data_management;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.cardio_generator.outputs.FileOutputStrategy;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+class FileOutputStrategyTest {
+
+    @TempDir
+    Path directory;
+
+    /**
+     * Readings of several generator threads should all be in the files once the output is closed, in the same
+     * format as before, and the readings of every thread in the order they were output
+     */
+    @Test
+    void testWritesEveryReadingInOrder() throws IOException, InterruptedException {
+        FileOutputStrategy output = new FileOutputStrategy(directory.toString(), 1024, 1000);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int patientId = t + 1;
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 5000; i++) {
+                    output.output(patientId, i, i % 2 == 0 ? "ECG" : "Saturation", i + ".0" + (i % 2 == 0 ? "" : "%"));
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        output.close();
+
+        List<String> ecg = Files.readAllLines(directory.resolve("ECG.txt"));
+        assertEquals(4 * 2500, ecg.size());
+        assertEquals(4 * 2500, Files.readAllLines(directory.resolve("Saturation.txt")).size());
+        assertTrue(Files.readAllLines(directory.resolve("Saturation.txt")).contains(
+                "Patient ID: 3, Timestamp: 4999, Label: Saturation, Data: 4999.0%"));
+        long[] last = new long[5];
+        for (String line : ecg) {
+            int patientId = Integer.parseInt(line.substring(12, line.indexOf(',')));
+            long timestamp = Long.parseLong(line.substring(line.indexOf("Timestamp: ") + 11, line.indexOf(", Label")));
+            assertEquals("Patient ID: " + patientId + ", Timestamp: " + timestamp + ", Label: ECG, Data: " + timestamp
+                    + ".0", line);
+            assertTrue(timestamp == 0 || timestamp == last[patientId] + 2);
+            last[patientId] = timestamp;
+        }
+    }
+
+    /**
+     * A reading that does not fill a buffer should still reach the file after the flush interval
+     */
+    @Test
+    void testFlushesAfterInterval() throws IOException, InterruptedException {
+        FileOutputStrategy output = new FileOutputStrategy(directory.toString(), FileOutputStrategy.DEFAULT_BUFFER_BYTES, 10);
+        output.output(7, 123, "HeartRate", "72.0");
+        Path file = directory.resolve("HeartRate.txt");
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!Files.exists(file) || Files.size(file) == 0) {
+            assertTrue(System.currentTimeMillis() < deadline, "never flushed");
+            Thread.sleep(5);
+        }
+        assertEquals(List.of("Patient ID: 7, Timestamp: 123, Label: HeartRate, Data: 72.0"), Files.readAllLines(file));
+        output.close();
+    }
+}
@@ -0,0 +1,89 @@
+package data_management;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.cardio_generator.outputs.FileOutputStrategy;
+import com.cardio_generator.outputs.FileRotation;
+import com.data_management.DataStorage;
+import com.data_management.FileDataReader;
+import com.data_management.SegmentManifest;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+class FileRotationTest {
+
+    @TempDir
+    Path directory;
+
+    /**
+     * A file that reaches the size limit should be closed into a compressed segment listed in the manifest,
+     * and every reading should still be imported from the segments and the current file
+     */
+    @Test
+    void testRotatesAndReadsBack() throws IOException {
+        FileOutputStrategy output = new FileOutputStrategy(directory.toString(), 1024, 1000,
+                FileRotation.NONE.withMaxBytes(4096).withCompression(true));
+        for (int i = 0; i < 2000; i++) {
+            output.output(9501, i, "RotatedECG", i + ".5");
+        }
+        output.close();
+
+        List<String> names = fileNames();
+        assertTrue(names.contains("RotatedECG-00000001.log.gz"));
+        assertTrue(names.contains("RotatedECG.txt"));
+        assertFalse(names.stream().anyMatch(name -> name.endsWith(".log") || name.endsWith(".tmp")));
+        Map<String, SegmentManifest.Entry> manifest = SegmentManifest.read(directory);
+        assertEquals(names.size() - 2, manifest.size()); // every segment but the current file and the manifest
+        SegmentManifest.Entry first = manifest.get("RotatedECG-00000001.log.gz");
+        assertEquals(0, first.getFirstTimestamp());
+        assertEquals(first.getReadings() - 1, first.getLastTimestamp());
+
+        DataStorage storage = DataStorage.getInstance();
+        FileDataReader reader = new FileDataReader(directory.toString());
+        assertEquals(2000, reader.readData(storage, Long.MIN_VALUE, Long.MAX_VALUE));
+        assertEquals(2000, storage.getRecords(9501, 0, Long.MAX_VALUE).size());
+        assertEquals(1999.5, storage.getRecords(9501, 1999, 1999).get(0).getMeasurementValue());
+    }
+
+    /**
+     * A time range read should only import the readings in the range, without opening the segments outside of it
+     */
+    @Test
+    void testSkipsSegmentsOutsideRange() throws IOException {
+        FileOutputStrategy output = new FileOutputStrategy(directory.toString(), 1024, 1000,
+                FileRotation.NONE.withMaxBytes(4096).withCompression(true));
+        for (int i = 0; i < 2000; i++) {
+            output.output(9502, i, "RangeECG", "1.0");
+        }
+        output.close();
+
+        // the first segment can not be read anymore, the range does not need it
+        SegmentManifest.Entry first = SegmentManifest.read(directory).get("RangeECG-00000001.log.gz");
+        Files.write(directory.resolve(first.getFileName()), new byte[]{1, 2, 3});
+
+        DataStorage storage = DataStorage.getInstance();
+        FileDataReader reader = new FileDataReader(directory.toString(), 2);
+        long start = first.getLastTimestamp() + 1;
+        assertEquals(2000 - start, reader.readData(storage, start, Long.MAX_VALUE));
+        assertEquals(2000 - start, storage.getRecords(9502, 0, Long.MAX_VALUE).size());
+        assertTrue(storage.getRecords(9502, 0, start - 1).isEmpty());
+    }
+
+    private List<String> fileNames() throws IOException {
+        List<String> names = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path file : stream) {
+                names.add(file.getFileName().toString());
+            }
+        }
+        return names;
+    }
+}
@@ -0,0 +1,103 @@
+package data_management;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.cardio_generator.outputs.FileOutputStrategy;
+import com.data_management.DataStorage;
+import com.data_management.FileTailReader;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.BooleanSupplier;
+
+class FileTailReaderTest {
+
+    private static final long LATENCY_MILLIS = 100; // from a write of the file output to the storage
+    private static final long LATENCY_MARGIN_MILLIS = 100; // the test machine may be busy, and waitFor polls
+
+    @TempDir
+    Path directory;
+
+    /**
+     * Only what is written after the reader started should be stored, within 100 ms of the file output writing it
+     */
+    @Test
+    void testFollowFileOutput() throws IOException {
+        DataStorage storage = DataStorage.getInstance();
+        append("TailHeartRate.txt", line(9401, 1, "TailHeartRate", "80.0"));
+        FileTailReader reader = new FileTailReader(directory.toString(), storage, false);
+        reader.startStreaming();
+        try (FileOutputStrategy output = new FileOutputStrategy(directory.toString())) {
+            long start = System.nanoTime();
+            output.output(9401, 2, "TailHeartRate", "81.5");
+            waitFor(() -> storage.getRecords(9401, 0, Long.MAX_VALUE).size() == 1);
+            long latencyMillis = (System.nanoTime() - start) / 1_000_000;
+            assertTrue(latencyMillis < LATENCY_MILLIS + LATENCY_MARGIN_MILLIS, "latency was " + latencyMillis + " ms");
+            assertEquals(81.5, storage.getRecords(9401, 0, Long.MAX_VALUE).get(0).getMeasurementValue());
+        } finally {
+            reader.stopStreaming();
+        }
+    }
+
+    /**
+     * A line that is only half written should wait for the rest of it, and a rotated file should be read to the
+     * end and never twice, even when it shows up again under another name
+     */
+    @Test
+    void testPartialLinesAndRotation() throws IOException {
+        DataStorage storage = DataStorage.getInstance();
+        FileTailReader reader = new FileTailReader(directory.toString(), storage, true);
+        append("ECG.txt", line(9402, 1, "ECG", "0.5"));
+        reader.startStreaming();
+        try {
+            waitFor(() -> reader.getReadings() == 1);
+            append("ECG.txt", "Patient ID: 9402, Timestamp: 2, Lab");
+            sleep(3 * FileTailReader.POLL_MILLIS);
+            assertEquals(1, storage.getRecords(9402, 0, Long.MAX_VALUE).size());
+            append("ECG.txt", "el: ECG, Data: 0.75\n" + line(9402, 3, "ECG", "1.0"));
+            waitFor(() -> reader.getReadings() == 3);
+            assertEquals(0.75, storage.getRecords(9402, 2, 2).get(0).getMeasurementValue());
+
+            append("ECG.txt", line(9402, 4, "ECG", "1.25"));
+            Files.move(directory.resolve("ECG.txt"), directory.resolve("ECG-old.txt"));
+            append("ECG.txt", line(9402, 5, "ECG", "1.5"));
+            waitFor(() -> reader.getReadings() == 5);
+            sleep(3 * FileTailReader.POLL_MILLIS);
+            assertEquals(5, reader.getReadings());
+            assertEquals(5, storage.getRecords(9402, 0, Long.MAX_VALUE).size());
+            assertEquals(0, reader.getSkippedLines());
+        } finally {
+            reader.stopStreaming();
+        }
+    }
+
+    private void append(String file, String text) throws IOException {
+        Files.write(directory.resolve(file), text.getBytes(StandardCharsets.US_ASCII),
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    private static String line(int patientId, long timestamp, String label, String data) {
+        return "Patient ID: " + patientId + ", Timestamp: " + timestamp + ", Label: " + label + ", Data: " + data + "\n";
+    }
+
+    private static void waitFor(BooleanSupplier condition) {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "timed out");
+            sleep(5);
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package data_management;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.data_management.DataStorage;
+import com.data_management.IngestionQueue;
+import com.data_management.Patient;
+import com.data_management.PatientRecord;
+import com.data_management.WebSocketClientAdapter;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.net.URI;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+class IngestionQueueTest {
+
+    @TempDir
+    Path spillDirectory;
+
+    private final long now = System.currentTimeMillis();
+
+    /**
+     * A full queue should drop its oldest readings, and store the newest ones once the storage catches up
+     */
+    @Test
+    void testDropsOldest() throws Exception {
+        DataStorage storage = DataStorage.getInstance();
+        IngestionQueue queue = storage.enableIngestionQueue(16, IngestionQueue.OverflowPolicy.DROP_OLDEST, spillDirectory);
+        try {
+            WebSocketClientAdapter adapter = new WebSocketClientAdapter(new URI("ws://localhost:1"), storage);
+            Patient patient = patient(storage, 9911);
+            synchronized (patient) {
+                stall(adapter, queue, 9911);
+                adapter.onMessage(lines(9911, 0, 100));
+                assertEquals(16, queue.getDepth());
+                assertEquals(84, queue.getDroppedReadings());
+            }
+            waitFor(() -> queue.getStoredReadings() == 17);
+
+            List<PatientRecord> records = storage.getRecords(9911, now, Long.MAX_VALUE);
+            assertEquals(16, records.size());
+            assertEquals(now + 84, records.get(0).getTimestamp());
+            assertEquals(16, queue.getMaxDepth());
+        } finally {
+            storage.disableIngestionQueue();
+        }
+    }
+
+    /**
+     * A full queue should spill to disk and still store every reading, in order
+     */
+    @Test
+    void testSpillsToDisk() throws Exception {
+        DataStorage storage = DataStorage.getInstance();
+        IngestionQueue queue = storage.enableIngestionQueue(16, IngestionQueue.OverflowPolicy.SPILL_TO_DISK, spillDirectory);
+        try {
+            WebSocketClientAdapter adapter = new WebSocketClientAdapter(new URI("ws://localhost:1"), storage);
+            Patient patient = patient(storage, 9912);
+            synchronized (patient) {
+                stall(adapter, queue, 9912);
+                for (int i = 0; i < 50; i++) {
+                    adapter.onMessage(lines(9912, i * 200, 200));
+                }
+                assertEquals(10_000, queue.getDepth());
+                assertEquals(10_000 - 16, queue.getSpilledReadings());
+            }
+            waitFor(() -> queue.getStoredReadings() == 10_001);
+
+            List<PatientRecord> records = storage.getRecords(9912, now, Long.MAX_VALUE);
+            assertEquals(10_000, records.size());
+            for (int i = 0; i < records.size(); i++) {
+                assertEquals(now + i, records.get(i).getTimestamp());
+                assertEquals(i, records.get(i).getMeasurementValue());
+            }
+            assertEquals(0, queue.getDroppedReadings());
+            assertEquals(0, queue.getDepth());
+
+            // back to the ring once the spill file is read
+            adapter.onMessage(lines(9912, 10_000, 10));
+            waitFor(() -> queue.getStoredReadings() == 10_011);
+            assertEquals(10_000 - 16, queue.getSpilledReadings());
+        } finally {
+            storage.disableIngestionQueue();
+        }
+    }
+
+    /**
+     * A full queue should hold the reader back until there is room
+     */
+    @Test
+    void testBlocksReader() throws Exception {
+        DataStorage storage = DataStorage.getInstance();
+        IngestionQueue queue = storage.enableIngestionQueue(16, IngestionQueue.OverflowPolicy.BLOCK, spillDirectory);
+        try {
+            WebSocketClientAdapter adapter = new WebSocketClientAdapter(new URI("ws://localhost:1"), storage);
+            Patient patient = patient(storage, 9913);
+            Thread reader = new Thread(() -> adapter.onMessage(lines(9913, 0, 100)));
+            synchronized (patient) {
+                stall(adapter, queue, 9913);
+                reader.start();
+                waitFor(() -> queue.getDepth() == 16);
+                Thread.sleep(100);
+                assertTrue(reader.isAlive());
+            }
+            reader.join(10_000);
+            assertFalse(reader.isAlive());
+            waitFor(() -> queue.getStoredReadings() == 101);
+            assertEquals(100, storage.getRecords(9913, now, Long.MAX_VALUE).size());
+            assertEquals(0, queue.getDroppedReadings());
+        } finally {
+            storage.disableIngestionQueue();
+        }
+    }
+
+    private Patient patient(DataStorage storage, int patientId) {
+        storage.addPatientData(patientId, 0, "QueueSetup", now - 1);
+        return storage.getAllPatients().stream().filter(p -> p.getPatientId() == patientId).findFirst().orElseThrow();
+    }
+
+    // With the lock of the patient held, holds the draining thread back: the first reading of a new
+    // type has to create its series under that lock
+    private void stall(WebSocketClientAdapter adapter, IngestionQueue queue, int patientId) throws InterruptedException {
+        adapter.onMessage(patientId + "," + (now - 1) + ",QueueStall,0");
+        waitFor(() -> queue.getDepth() == 0);
+    }
+
+    private String lines(int patientId, int first, int count) {
+        StringBuilder message = new StringBuilder();
+        for (int i = first; i < first + count; i++) {
+            message.append(i > first ? "\n" : "").append(patientId).append(',').append(now + i).append(",QueueECG,")
+                    .append(i);
+        }
+        return message.toString();
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "timed out");
+            Thread.sleep(5);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package data_management;
+
+import com.alerts.Alert;
+import com.alerts.AlertGenerator;
+import com.data_management.Patient;
+import com.data_management.PatientRecord;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ParallelEvaluationTest {
+
+    /**
+     * The parallel path has to trigger exactly the same alerts as evaluating the patients one by one
+     */
+    @Test
+    void testParallelGivesSameAlertsAsSequential() {
+        Random random = new Random(42);
+        Map<Integer, List<PatientRecord>> windows = new HashMap<>();
+        for (int id = 1; id <= 100; id++) {
+            Patient patient = new Patient(id);
+            for (int t = 0; t < 30; t++) {
+                patient.addRecord(60 + random.nextInt(40), "ECG", t * 1000L);
+                patient.addRecord(85 + random.nextInt(15), "Saturation", t * 1000L + 1);
+                patient.addRecord(80 + random.nextInt(110), "SystolicPressure", t * 1000L + 2);
+                patient.addRecord(55 + random.nextInt(70), "DiastolicPressure", t * 1000L + 3);
+                patient.addRecord(random.nextInt(20) == 0 ? 1 : 0, "EmergencyButton", t * 1000L + 4);
+            }
+            windows.put(id, patient.getRecords());
+        }
+
+        AlertGenerator sequential = new AlertGenerator(null);
+        for (Map.Entry<Integer, List<PatientRecord>> window : windows.entrySet()) {
+            sequential.evaluateData(window.getKey(), window.getValue());
+        }
+        AlertGenerator parallel = new AlertGenerator(null);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        parallel.evaluateData(windows, pool);
+        pool.shutdown();
+
+        assertFalse(sequential.getAlerts().isEmpty());
+        assertEquals(describe(sequential.getAlerts()), describe(parallel.getAlerts()));
+    }
+
+    private static List<String> describe(List<Alert> alerts) {
+        List<String> described = new ArrayList<>();
+        synchronized (alerts) {
+            for (Alert alert : alerts) {
+                described.add(alert.getPatientId() + "|" + alert.getCondition() + "|" + alert.getTimestamp());
+            }
+        }
+        described.sort(null);
+        return described;
+    }
+}
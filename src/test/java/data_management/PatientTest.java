@@ -0,0 +1,101 @@
+package data_management;
+
+import com.data_management.Patient;
+import com.data_management.PatientRecord;
+import com.data_management.RecordTypes;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PatientTest {
+
+    /**
+     * Records of different types are kept in separate series but come back as one list ordered by timestamp
+     */
+    @Test
+    void testRecordsAreMergedAcrossTypes() {
+        Patient patient = new Patient(7);
+        patient.addRecord(120, "SystolicPressure", 1);
+        patient.addRecord(98, "Saturation", 2);
+        patient.addRecord(80, "DiastolicPressure", 3);
+        patient.addRecord(97, "Saturation", 4);
+
+        List<PatientRecord> records = patient.getRecords();
+        assertEquals(4, records.size());
+        assertEquals(4, patient.getRecordCount());
+        for (int i = 0; i < records.size(); i++) {
+            assertEquals(i + 1, records.get(i).getTimestamp());
+            assertEquals(7, records.get(i).getPatientId());
+        }
+        assertEquals("DiastolicPressure", records.get(2).getRecordType());
+        assertEquals(97.0, records.get(3).getMeasurementValue());
+    }
+
+    /**
+     * The time range is inclusive on both ends
+     */
+    @Test
+    void testTimeRange() {
+        Patient patient = new Patient(1);
+        for (int i = 0; i < 100; i++) {
+            patient.addRecord(i, "ECG", i * 10L);
+        }
+
+        List<PatientRecord> records = patient.getRecords(100, 200);
+        assertEquals(11, records.size());
+        assertEquals(100, records.get(0).getTimestamp());
+        assertEquals(200, records.get(10).getTimestamp());
+        assertTrue(patient.getRecords(5_000, 6_000).isEmpty());
+    }
+
+    /**
+     * A reading that arrives late is stored at the place of its timestamp, not at the end
+     */
+    @Test
+    void testLateArrivalIsInsertedInOrder() {
+        Patient patient = new Patient(1);
+        patient.addRecord(1, "ECG", 10);
+        patient.addRecord(2, "ECG", 30);
+        patient.addRecord(3, "ECG", 40);
+        patient.addRecord(4, "ECG", 20);
+        patient.addRecord(5, "ECG", 5);
+
+        List<PatientRecord> records = patient.getRecords();
+        long[] expected = {5, 10, 20, 30, 40};
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], records.get(i).getTimestamp());
+        }
+        assertEquals(4.0, patient.getRecords(15, 25).get(0).getMeasurementValue());
+    }
+
+    @Test
+    void testSingleTypeRange() {
+        Patient patient = new Patient(1);
+        for (int i = 0; i < 10; i++) {
+            patient.addRecord(i, "ECG", i);
+            patient.addRecord(90 + i, "Saturation", i);
+        }
+
+        List<PatientRecord> records = patient.getRecords("Saturation", 3, 5);
+        assertEquals(3, records.size());
+        assertEquals(93.0, records.get(0).getMeasurementValue());
+        assertTrue(patient.getRecords("Cholesterol", 0, 10).isEmpty());
+    }
+
+    @Test
+    void testRecordTypesAreInterned() {
+        int code = RecordTypes.codeOf("WhiteBloodCells");
+        assertEquals(code, RecordTypes.codeOf(new String("WhiteBloodCells".toCharArray())));
+        assertEquals("WhiteBloodCells", RecordTypes.nameOf(code));
+        assertNotEquals(code, RecordTypes.codeOf("RedBloodCells"));
+    }
+
+    @Test
+    void testViewIsReadOnly() {
+        Patient patient = new Patient(1);
+        patient.addRecord(1, "ECG", 1);
+        assertThrows(UnsupportedOperationException.class, () -> patient.getRecords().remove(0));
+    }
+}
@@ -0,0 +1,177 @@
+package data_management;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.data_management.Patient;
+import com.data_management.PersistenceManager;
+import com.data_management.PatientRecord;
+import com.data_management.RecordTypes;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Stream;
+
+class PersistenceTest {
+
+    @TempDir
+    Path directory;
+
+    /**
+     * Readings logged before a restart should come back exactly, for every patient, when the log is replayed
+     * by several threads
+     */
+    @Test
+    void testRecoverFromLog() throws IOException {
+        ConcurrentMap<Integer, Patient> before = new ConcurrentHashMap<>();
+        try (PersistenceManager manager = new PersistenceManager(directory)) {
+            manager.recover(before, 2);
+            for (int id = 1; id <= 10; id++) {
+                for (long t = 0; t < 500; t++) {
+                    store(manager, before, id, "ECG", t, id * 1000 + t);
+                    store(manager, before, id, "Saturation", t, 95);
+                }
+            }
+        }
+
+        ConcurrentMap<Integer, Patient> after = new ConcurrentHashMap<>();
+        try (PersistenceManager manager = new PersistenceManager(directory)) {
+            assertEquals(10 * 1000, manager.recover(after, 4));
+        }
+        assertSamePatients(before, after);
+    }
+
+    /**
+     * After a snapshot the old log files go away, and readings logged around the snapshot are restored once
+     */
+    @Test
+    void testRecoverFromSnapshotAndLog() throws IOException {
+        ConcurrentMap<Integer, Patient> before = new ConcurrentHashMap<>();
+        try (PersistenceManager manager = new PersistenceManager(directory)) {
+            manager.recover(before, 2);
+            for (long t = 0; t < 100; t++) {
+                store(manager, before, 1, "SystolicPressure", t, 120);
+            }
+            manager.snapshot(before.values());
+            before.get(1).addRecord(80, "SystolicPressure", 100);
+            manager.append(1, RecordTypes.codeOf("SystolicPressure"), 100, 80); // logged after the snapshot too
+            for (long t = 101; t < 200; t++) {
+                store(manager, before, 2, "DiastolicPressure", t, 70);
+            }
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(1, files.filter(file -> file.getFileName().toString().startsWith("snapshot-")).count());
+        }
+
+        ConcurrentMap<Integer, Patient> after = new ConcurrentHashMap<>();
+        try (PersistenceManager manager = new PersistenceManager(directory)) {
+            manager.recover(after, 2);
+        }
+        assertSamePatients(before, after);
+    }
+
+    /**
+     * A reading that really came twice should come back twice, also when a snapshot falls between the two
+     */
+    @Test
+    void testDuplicateReadingsAreKept() throws IOException {
+        ConcurrentMap<Integer, Patient> before = new ConcurrentHashMap<>();
+        try (PersistenceManager manager = new PersistenceManager(directory)) {
+            manager.recover(before, 2);
+            store(manager, before, 5, "HeartRate", 10, 70);
+            store(manager, before, 5, "HeartRate", 10, 70);
+            manager.snapshot(before.values());
+            store(manager, before, 5, "HeartRate", 10, 70);
+        }
+
+        ConcurrentMap<Integer, Patient> after = new ConcurrentHashMap<>();
+        try (PersistenceManager manager = new PersistenceManager(directory)) {
+            assertEquals(3, manager.recover(after, 2));
+        }
+        assertSamePatients(before, after);
+    }
+
+    /**
+     * A reading torn by a crash at the end of the log should be skipped, everything before it restored
+     */
+    @Test
+    void testTornTailIsIgnored() throws IOException {
+        ConcurrentMap<Integer, Patient> before = new ConcurrentHashMap<>();
+        try (PersistenceManager manager = new PersistenceManager(directory)) {
+            manager.recover(before, 1);
+            for (long t = 0; t < 10; t++) {
+                store(manager, before, 3, "ECG", t, 60);
+            }
+        }
+        Path log;
+        try (Stream<Path> files = Files.list(directory)) {
+            log = files.filter(file -> file.getFileName().toString().startsWith("wal-")).findFirst().orElseThrow();
+        }
+        Files.write(log, new byte[]{1, 0, 0, 0, 3, 0, 0}, StandardOpenOption.APPEND);
+
+        ConcurrentMap<Integer, Patient> after = new ConcurrentHashMap<>();
+        try (PersistenceManager manager = new PersistenceManager(directory)) {
+            assertEquals(10, manager.recover(after, 1));
+        }
+        assertSamePatients(before, after);
+    }
+
+    /**
+     * Closing while the background flushes and snapshots are busy should neither lose readings nor leave
+     * a half written snapshot behind
+     */
+    @Test
+    void testCloseWhileFlushing() throws IOException {
+        ConcurrentMap<Integer, Patient> before = new ConcurrentHashMap<>();
+        long t = 0;
+        for (int round = 0; round < 20; round++) {
+            try (PersistenceManager manager = new PersistenceManager(directory)) {
+                manager.recover(new ConcurrentHashMap<>(), 1);
+                manager.start(before.values(), 1, 1);
+                for (int i = 0; i < 2000; i++, t++) {
+                    store(manager, before, 4, "ECG", t, t % 100);
+                }
+            }
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(0, files.filter(file -> file.getFileName().toString().endsWith(".tmp")).count());
+        }
+
+        ConcurrentMap<Integer, Patient> after = new ConcurrentHashMap<>();
+        try (PersistenceManager manager = new PersistenceManager(directory)) {
+            manager.recover(after, 1);
+        }
+        assertSamePatients(before, after);
+    }
+
+    private static void store(PersistenceManager manager, ConcurrentMap<Integer, Patient> patients,
+                              int id, String type, long timestamp, double value) throws IOException {
+        manager.storing().lock();
+        try {
+            patients.computeIfAbsent(id, Patient::new).addRecord(value, type, timestamp);
+            manager.append(id, RecordTypes.codeOf(type), timestamp, value);
+        } finally {
+            manager.storing().unlock();
+        }
+    }
+
+    private static void assertSamePatients(ConcurrentMap<Integer, Patient> expected, ConcurrentMap<Integer, Patient> actual) {
+        assertEquals(expected.keySet(), actual.keySet());
+        for (Patient patient : expected.values()) {
+            List<PatientRecord> expectedRecords = patient.getRecords();
+            List<PatientRecord> actualRecords = actual.get(patient.getPatientId()).getRecords();
+            assertEquals(expectedRecords.size(), actualRecords.size());
+            for (int i = 0; i < expectedRecords.size(); i++) {
+                assertEquals(expectedRecords.get(i).getTimestamp(), actualRecords.get(i).getTimestamp());
+                assertEquals(expectedRecords.get(i).getRecordType(), actualRecords.get(i).getRecordType());
+                assertEquals(expectedRecords.get(i).getMeasurementValue(), actualRecords.get(i).getMeasurementValue());
+            }
+        }
+    }
+}
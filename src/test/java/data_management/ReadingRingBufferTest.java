@@ -0,0 +1,151 @@
+package data_management;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.data_management.DataStorage;
+import com.data_management.Patient;
+import com.data_management.PatientRecord;
+import com.data_management.PersistenceManager;
+import com.data_management.ReadingRingBuffer;
+import com.data_management.WebSocketClientAdapter;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.net.URI;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+class ReadingRingBufferTest {
+
+    /**
+     * Every stage should get every reading in order, and a stage should never get a slot before the
+     * stage it runs after is done with it, even with a ring much smaller than the readings
+     */
+    @Test
+    void testStagesSeeEveryReadingInOrder() {
+        ReadingRingBuffer ring = new ReadingRingBuffer(8);
+        List<Long> first = new ArrayList<>();
+        List<Long> second = new ArrayList<>();
+        List<Long> last = new ArrayList<>();
+        AtomicLong failures = new AtomicLong(); // a wrong value or a stage overtaken
+        ReadingRingBuffer.Stage firstStage = ring.handleWith("first", (patientId, value, typeCode, timestamp) -> {
+            if (value != timestamp * 0.5) {
+                failures.incrementAndGet(); // an assertion would only stop the thread of the stage
+            }
+            first.add(timestamp);
+        });
+        ring.handleWith("second", (patientId, value, typeCode, timestamp) -> second.add(timestamp));
+        ring.handleWith("last", (patientId, value, typeCode, timestamp) -> {
+            if (firstStage.getHandled() <= timestamp) {
+                failures.incrementAndGet();
+            }
+            last.add(timestamp);
+        }, firstStage);
+        ring.start();
+
+        for (int i = 0; i < 20_000; i++) {
+            assertTrue(ring.publish(i % 7, i * 0.5, 0, i));
+        }
+        ring.close();
+
+        assertFalse(ring.publish(1, 1, 0, 1));
+        assertEquals(20_000, ring.getPublished());
+        assertEquals(0, ring.getBacklog());
+        assertEquals(0, failures.get());
+        assertEquals(0, firstStage.getErrors());
+        for (List<Long> seen : List.of(first, second, last)) {
+            assertEquals(20_000, seen.size());
+            for (int i = 0; i < seen.size(); i++) {
+                assertEquals(i, seen.get(i));
+            }
+        }
+    }
+
+    /**
+     * A handler that fails, even with an error, should not stop its stage, or the producer would wait
+     * forever once the ring wraps
+     */
+    @Test
+    void testFailingHandlerKeepsStageGoing() {
+        ReadingRingBuffer ring = new ReadingRingBuffer(8);
+        ReadingRingBuffer.Stage failing = ring.handleWith("failing", (patientId, value, typeCode, timestamp) -> {
+            if (timestamp % 10 == 0) {
+                throw new StackOverflowError("reading " + timestamp);
+            }
+        });
+        ReadingRingBuffer.Stage after = ring.handleWith("after", (patientId, value, typeCode, timestamp) -> {
+        }, failing);
+        ring.start();
+
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(ring.publish(1, i, 0, i));
+        }
+        ring.close();
+
+        assertEquals(1000, failing.getHandled());
+        assertEquals(100, failing.getErrors());
+        assertEquals(1000, after.getHandled());
+    }
+
+    /**
+     * With the ring buffer, the readings of a reader should still be stored, and all of them once it is disabled
+     */
+    @Test
+    void testStoresThroughRing() throws Exception {
+        DataStorage storage = DataStorage.getInstance();
+        ReadingRingBuffer ring = storage.enableRingBuffer(64);
+        long now = System.currentTimeMillis();
+        try {
+            WebSocketClientAdapter adapter = new WebSocketClientAdapter(new URI("ws://localhost:1"), storage);
+            for (int m = 0; m < 20; m++) {
+                StringBuilder message = new StringBuilder();
+                for (int i = m * 100; i < (m + 1) * 100; i++) {
+                    message.append(i > m * 100 ? "\n" : "").append("9921,").append(now + i).append(",RingECG,").append(i);
+                }
+                adapter.onMessage(message.toString());
+            }
+        } finally {
+            storage.disableRingBuffer();
+        }
+        assertEquals(2000, ring.getPublished());
+        List<PatientRecord> records = storage.getRecords(9921, now, Long.MAX_VALUE);
+        assertEquals(2000, records.size());
+        assertEquals(1999, records.get(1999).getMeasurementValue());
+        assertNull(storage.getRingBuffer());
+    }
+
+    /**
+     * Snapshots taken while the ring stores and logs should be cut at the same reading in memory and in
+     * the log, so recovery brings every reading back exactly once
+     */
+    @Test
+    void testSnapshotsWhileRingRuns(@TempDir Path directory) throws Exception {
+        DataStorage storage = DataStorage.getInstance();
+        storage.enableDurability(directory, 1, 2);
+        long now = System.currentTimeMillis();
+        try {
+            storage.enableRingBuffer(64);
+            try {
+                WebSocketClientAdapter adapter = new WebSocketClientAdapter(new URI("ws://localhost:1"), storage);
+                for (int i = 0; i < 5000; i++) {
+                    adapter.onMessage("9922," + (now + i / 2) + ",RingECG," + (i % 100)); // pairs of equal timestamps
+                }
+            } finally {
+                storage.disableRingBuffer();
+            }
+        } finally {
+            storage.disableDurability();
+        }
+
+        ConcurrentMap<Integer, Patient> recovered = new ConcurrentHashMap<>();
+        try (PersistenceManager manager = new PersistenceManager(directory)) {
+            manager.recover(recovered, 2);
+        }
+        assertEquals(5000, recovered.get(9922).getRecords(now, Long.MAX_VALUE).size());
+        assertEquals(5000, storage.getRecords(9922, now, Long.MAX_VALUE).size());
+    }
+}
@@ -0,0 +1,104 @@
+package data_management;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.data_management.Patient;
+import com.data_management.PatientRecord;
+import com.data_management.RecordBucket;
+import com.data_management.RetentionCompactor;
+import com.data_management.RetentionPolicy;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+class RetentionTest {
+
+    private static final long MINUTE = 60_000;
+    private static final long HOUR = 60 * MINUTE;
+
+    /**
+     * One reading per second for three hours: the last hour stays raw, the hour before is summarised per minute
+     * and the oldest hour is dropped. Range queries over the old hour return the means of the buckets
+     */
+    @Test
+    void testDownsamplingAndTimeToLive() {
+        Patient patient = new Patient(1);
+        long now = 3 * HOUR;
+        for (long t = 0; t < now; t += 1000) {
+            patient.addRecord(t % MINUTE / 1000, "ECG", t); // 0..59 in every minute
+        }
+        RetentionPolicy policy = RetentionPolicy.KEEP_ALL.withTimeToLive(2 * HOUR).withDownsampling(HOUR, MINUTE);
+
+        patient.applyRetention(policy, now);
+
+        assertEquals(60 + 3600, patient.getRecordCount());
+        List<PatientRecord> old = patient.getRecords(HOUR, 2 * HOUR - 1);
+        assertEquals(60, old.size());
+        assertEquals(HOUR + MINUTE, old.get(1).getTimestamp());
+        assertEquals(29.5, old.get(1).getMeasurementValue());
+
+        List<RecordBucket> buckets = patient.getBuckets("ECG", HOUR, 2 * HOUR - 1);
+        assertEquals(0, buckets.get(0).getMin());
+        assertEquals(59, buckets.get(0).getMax());
+        assertEquals(60, buckets.get(0).getCount());
+        assertEquals(1, patient.getBuckets("ECG", 2 * HOUR, 2 * HOUR).get(0).getCount());
+
+        // applying it again later keeps the memory bounded and only moves the tiers on
+        for (long t = now; t < now + HOUR; t += 1000) {
+            patient.addRecord(t % MINUTE / 1000, "ECG", t);
+        }
+        patient.applyRetention(policy, now + HOUR);
+        assertEquals(60 + 3600, patient.getRecordCount());
+        assertEquals(2 * HOUR, patient.getRecords().get(0).getTimestamp());
+    }
+
+    /**
+     * Every record type can have its own time to live, and a reading that arrives after its period was
+     * downsampled goes into its bucket
+     */
+    @Test
+    void testTimeToLivePerTypeAndLateReadings() {
+        Patient patient = new Patient(2);
+        for (long t = 0; t < 10 * MINUTE; t += 1000) {
+            patient.addRecord(97, "Saturation", t);
+            patient.addRecord(0, "EmergencyButton", t);
+        }
+        RetentionPolicy policy = RetentionPolicy.KEEP_ALL
+                .withTimeToLive("EmergencyButton", 5 * MINUTE)
+                .withDownsampling(5 * MINUTE, MINUTE);
+
+        patient.applyRetention(policy, 10 * MINUTE);
+        assertEquals(300, patient.getRecords("EmergencyButton", 0, Long.MAX_VALUE).size());
+        assertEquals(5 + 300, patient.getRecords("Saturation", 0, Long.MAX_VALUE).size());
+
+        patient.addRecord(91, "Saturation", MINUTE + 500);
+        patient.addRecord(0, "EmergencyButton", MINUTE + 500); // already past its time to live
+        RecordBucket bucket = patient.getBuckets("Saturation", MINUTE, MINUTE).get(0);
+        assertEquals(61, bucket.getCount());
+        assertEquals(91, bucket.getMin());
+        assertEquals(97, bucket.getMax());
+        assertEquals(300, patient.getRecords("EmergencyButton", 0, Long.MAX_VALUE).size());
+    }
+
+    /**
+     * The cap per patient should drop the oldest readings first, whatever their type, and the compactor
+     * should do nothing under the default policy
+     */
+    @Test
+    void testSampleCapAndCompactor() {
+        Patient patient = new Patient(3);
+        for (long t = 0; t < 1000; t++) {
+            patient.addRecord(80, t % 2 == 0 ? "SystolicPressure" : "DiastolicPressure", t);
+        }
+        RetentionCompactor compactor = new RetentionCompactor(List.of(patient), MINUTE);
+        assertEquals(0, compactor.runCompaction(1000));
+        assertEquals(1000, patient.getRecordCount());
+
+        compactor.configure(RetentionPolicy.KEEP_ALL.withMaxSamplesPerPatient(100));
+        assertEquals(900, compactor.runCompaction(1000));
+        compactor.stop();
+        assertEquals(100, patient.getRecordCount());
+        assertEquals(900, patient.getRecords().get(0).getTimestamp());
+        assertThrows(IllegalArgumentException.class, () -> RetentionPolicy.KEEP_ALL.withTimeToLive(0));
+    }
+}
@@ -0,0 +1,159 @@
+package data_management;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.alerts.window.RollingExtremum;
+import com.alerts.window.RollingWindow;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+class RollingWindowTest {
+
+    /**
+     * The aggregates of a window bounded by a number of readings should match a plain recomputation
+     * over the last readings, also once the ring has wrapped around many times
+     */
+    @Test
+    void testCountWindowMatchesRecomputation() {
+        int size = 7;
+        RollingWindow window = new RollingWindow(size);
+        Random random = new Random(42);
+        double[] all = new double[1000];
+
+        for (int i = 0; i < all.length; i++) {
+            all[i] = 60 + random.nextGaussian() * 15;
+            window.add(i, all[i]);
+
+            int from = Math.max(0, i - size + 1);
+            double sum = 0, min = Double.MAX_VALUE, max = -Double.MAX_VALUE;
+            for (int j = from; j <= i; j++) {
+                sum += all[j];
+                min = Math.min(min, all[j]);
+                max = Math.max(max, all[j]);
+            }
+            int n = i - from + 1;
+            double mean = sum / n;
+            double variance = 0;
+            for (int j = from; j <= i; j++) {
+                variance += (all[j] - mean) * (all[j] - mean);
+            }
+            variance /= n;
+
+            assertEquals(n, window.size());
+            assertEquals(sum, window.sum(), 1e-6);
+            assertEquals(mean, window.mean(), 1e-9);
+            assertEquals(variance, window.variance(), 1e-6);
+            assertEquals(min, window.min());
+            assertEquals(max, window.max());
+        }
+        assertTrue(window.isFull());
+    }
+
+    /**
+     * A window bounded in time should drop the readings that got too old, and grow past its initial
+     * capacity when many readings fall in the time span
+     */
+    @Test
+    void testTimeWindowExpiresOldReadings() {
+        RollingWindow window = new RollingWindow(1000, 100);
+        for (int t = 0; t < 500; t++) {
+            window.add(t, t);
+        }
+        assertEquals(100, window.size());
+        assertEquals(400, window.oldestTimestamp());
+        assertEquals(400, window.min());
+        assertEquals(499, window.max());
+        assertEquals(449.5, window.mean(), 1e-9);
+
+        window.expire(550);
+        assertEquals(49, window.size());
+        assertEquals(451, window.min());
+
+        window.expire(10_000);
+        assertTrue(window.isEmpty());
+        assertTrue(Double.isNaN(window.mean()));
+        window.add(10_001, 5);
+        assertEquals(5, window.max());
+        assertEquals(0, window.variance());
+    }
+
+    @Test
+    void testInvalidWindow() {
+        assertThrows(IllegalArgumentException.class, () -> new RollingWindow(0));
+        assertThrows(IllegalArgumentException.class, () -> new RollingWindow(5, 0));
+    }
+
+    /**
+     * The rolling maximum and minimum over a time span should match a plain recomputation over the readings
+     * of the span, with irregular gaps between readings
+     */
+    @Test
+    void testRollingExtremumMatchesRecomputation() {
+        long span = 1000;
+        RollingExtremum maximum = RollingExtremum.maximum(span);
+        RollingExtremum minimum = RollingExtremum.minimum(span);
+        Random random = new Random(7);
+        long[] times = new long[2000];
+        double[] all = new double[times.length];
+
+        long t = 0;
+        for (int i = 0; i < times.length; i++) {
+            t += random.nextInt(60);
+            times[i] = t;
+            all[i] = 90 + random.nextInt(10);
+            maximum.add(t, all[i]);
+            minimum.add(t, all[i]);
+
+            double max = -Double.MAX_VALUE, min = Double.MAX_VALUE;
+            for (int j = i; j >= 0 && times[j] > t - span; j--) {
+                max = Math.max(max, all[j]);
+                min = Math.min(min, all[j]);
+            }
+            assertEquals(max, maximum.get());
+            assertEquals(min, minimum.get());
+        }
+
+        maximum.expire(t + span);
+        assertTrue(maximum.isEmpty());
+        assertTrue(Double.isNaN(maximum.get()));
+        assertThrows(IllegalArgumentException.class, () -> RollingExtremum.maximum(0));
+    }
+
+    /**
+     * Readings that arrive late should go in their place, so the extremes match a recomputation over the readings
+     * of the span of the newest one, whatever order they came in
+     */
+    @Test
+    void testRollingExtremumWithLateReadings() {
+        long span = 1000;
+        RollingExtremum maximum = RollingExtremum.maximum(span);
+        RollingExtremum minimum = RollingExtremum.minimum(span);
+        Random random = new Random(11);
+        long[] times = new long[3000];
+        double[] all = new double[times.length];
+
+        long newest = 0;
+        for (int i = 0; i < times.length; i++) {
+            long t = newest + random.nextInt(60);
+            if (random.nextInt(4) == 0) {
+                t = newest - random.nextInt(1500); // late, sometimes already out of the span
+            }
+            newest = Math.max(newest, t);
+            times[i] = t;
+            all[i] = 90 + random.nextInt(10);
+            maximum.add(t, all[i]);
+            minimum.add(t, all[i]);
+
+            double max = -Double.MAX_VALUE, min = Double.MAX_VALUE;
+            for (int j = 0; j <= i; j++) {
+                if (times[j] > newest - span) {
+                    max = Math.max(max, all[j]);
+                    min = Math.min(min, all[j]);
+                }
+            }
+            assertEquals(max, maximum.get());
+            assertEquals(min, minimum.get());
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package data_management;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.data_management.Patient;
+import com.data_management.PatientRecord;
+import com.data_management.RecordTypes;
+import com.data_management.SegmentStore;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+class SegmentStoreTest {
+
+    @TempDir
+    Path directory;
+
+    /**
+     * Sealing moves the old readings off the heap, but a query over the whole range should still return
+     * every reading, in order, whether it lives in a segment or in memory
+     */
+    @Test
+    void testQueryAcrossHeapAndSegments() throws IOException {
+        List<Patient> patients = new ArrayList<>();
+        for (int id = 1; id <= 3; id++) {
+            Patient patient = new Patient(id);
+            for (long t = 0; t < 1000; t++) {
+                patient.addRecord(id * 10_000 + t, "ECG", t * 10);
+                patient.addRecord(95 - id, "Saturation", t * 10 + 5);
+            }
+            patients.add(patient);
+        }
+        List<PatientRecord> expected = new ArrayList<>(patients.get(1).getRecords());
+
+        SegmentStore store = new SegmentStore(directory);
+        assertEquals(2 * 3 * 400, store.seal(patients, 4000));
+        store.seal(patients, 7000);
+        assertEquals(2, store.getSegmentCount());
+        assertEquals(600, patients.get(1).getRecordCount());
+
+        assertSameRecords(expected, store.getRecords(patients.get(1), 2, -1, Long.MIN_VALUE, Long.MAX_VALUE));
+
+        // a range spanning both segments and the heap, for a single type
+        List<PatientRecord> range = store.getRecords(patients.get(1), 2, RecordTypes.codeOf("ECG"), 3500, 7500);
+        assertEquals(401, range.size());
+        assertEquals(3500, range.get(0).getTimestamp());
+        assertEquals(7500, range.get(400).getTimestamp());
+        assertEquals(20_350, range.get(0).getMeasurementValue());
+        assertEquals("ECG", range.get(0).getRecordType());
+    }
+
+    /**
+     * The segments should be found again when the store is reopened, even for patients that are no longer
+     * in memory, and readings that arrive late should not be lost
+     */
+    @Test
+    void testReopenAndLateReadings() throws IOException {
+        Patient patient = new Patient(7);
+        for (long t = 0; t < 100; t++) {
+            patient.addRecord(t, "HeartRate", t * 1000);
+        }
+        List<Patient> patients = List.of(patient);
+        SegmentStore store = new SegmentStore(directory);
+        store.seal(patients, 50_000);
+
+        patient.addRecord(-1, "HeartRate", 10_500); // late, its period is already sealed
+        List<PatientRecord> records = store.getRecords(patient, 7, -1, 10_000, 11_000);
+        assertEquals(3, records.size());
+        assertEquals(-1, records.get(1).getMeasurementValue());
+        store.seal(patients, 50_000);
+
+        SegmentStore reopened = new SegmentStore(directory);
+        assertEquals(50_000, reopened.getSealedUpTo());
+        records = reopened.getRecords(null, 7, RecordTypes.codeOf("HeartRate"), 0, Long.MAX_VALUE);
+        assertEquals(51, records.size());
+        assertEquals(49, records.get(records.size() - 1).getMeasurementValue());
+        assertTrue(reopened.getRecords(null, 8, -1, 0, Long.MAX_VALUE).isEmpty());
+
+    }
+
+    private static void assertSameRecords(List<PatientRecord> expected, List<PatientRecord> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getTimestamp(), actual.get(i).getTimestamp());
+            assertEquals(expected.get(i).getMeasurementValue(), actual.get(i).getMeasurementValue());
+            assertEquals(expected.get(i).getRecordType(), actual.get(i).getRecordType());
+        }
+    }
+}
@@ -5,6 +5,7 @@ import java.io.*;
 
 import com.alerts.Alert;
 import com.alerts.AlertGenerator;
+import com.alerts.AlertThresholds;
 import com.data_management.DataReader;
 import com.data_management.DataStorage;
 import com.data_management.Patient;
@@ -96,6 +97,27 @@ class StrategiesTest{
 
     }
 
+    /**
+     * Records of other types handed to the strategy one by one should be ignored, they must neither alert nor
+     * count in the average of the ECG readings
+     */
+    @Test
+    void testECGIgnoresOtherTypes(){
+        HeartRateStrategy heartRateStrategy = new HeartRateStrategy(new HeartRateAlertFactory());
+        AlertGenerator generator = new AlertGenerator(null) ;
+
+        for (int t = 1; t <= 5; t++) {
+            heartRateStrategy.onRecord(1, new PatientRecord(1, 34, "ECG", t), generator);
+            heartRateStrategy.onRecord(1, new PatientRecord(1, 99, "Saturation", t), generator);
+        }
+        heartRateStrategy.onRecord(1, new PatientRecord(1, 200, "Saturation", 6), generator);
+        assertEquals(0, generator.getAlerts().size());
+
+        heartRateStrategy.onRecord(1, new PatientRecord(1, 67, "ECG", 7), generator);
+        assertEquals(1, generator.getAlerts().size());
+        assertEquals(7, generator.getAlerts().get(0).getTimestamp());
+    }
+
     /**
      * We want to trigger an alert when the button is pressed
      */
@@ -181,9 +203,9 @@ class StrategiesTest{
         Patient p1 = new Patient(1);
 
         //Decrease in systolic pressure
-        p1.addRecord(179 , "SystolicPressure" ,7);
+        p1.addRecord(179 , "SystolicPressure" ,5);
         p1.addRecord(151 , "SystolicPressure" ,6);
-        p1.addRecord(121 , "SystolicPressure" ,5);
+        p1.addRecord(121 , "SystolicPressure" ,7);
         p1.addRecord(24 , "DiastolicPressure" ,4);
         p1.addRecord(94 , "SystolicPressure" ,8);
 
@@ -245,9 +267,9 @@ class StrategiesTest{
         Patient p1 = new Patient(1);
 
         //Decrease in systolic pressure
-        p1.addRecord(119 , "DiastolicPressure" ,7);
+        p1.addRecord(119 , "DiastolicPressure" ,5);
         p1.addRecord(108 , "DiastolicPressure" ,6);
-        p1.addRecord(97 , "DiastolicPressure" ,5);
+        p1.addRecord(97 , "DiastolicPressure" ,7);
         p1.addRecord(182 , "SystolicPressure" ,8);
         p1.addRecord(68 , "DiastolicPressure" ,9);
 
@@ -353,9 +375,31 @@ class StrategiesTest{
     }
 
     /**
-     * We expect there to bee three alerts , One for the first two initial values where they are clearly both undert the
-     * thresholds , then we want to pass a few other saturation values to see whether the alarm would still trigger
-     * finally we effectively "reset" the systolic pressure and then drop it again to see whether the test is responsive to change
+     * The drop should be measured against the highest saturation of the last 10 minutes, even when that peak
+     * came after an older and higher one that has left the window
+     */
+    @Test
+    void testOxygenSaturation_DecreaseFromRollingPeak(){
+        OxygenSaturationStrategy oxygenSaturationStrategy = new OxygenSaturationStrategy(new OxygenSaturationAlertFactory());
+        AlertGenerator generator = new AlertGenerator(null) ;
+
+        Patient patient = new Patient(1);
+        patient.addRecord(99, "Saturation" ,0);
+        patient.addRecord(98 , "Saturation" ,1000*60*6);
+        patient.addRecord(93 , "Saturation" ,1000*60*11);
+
+        oxygenSaturationStrategy.checkAlert(1,patient.getRecords() , generator);
+
+        assertEquals(1, generator.getAlerts().size());
+        assertEquals("RAPID DECREASE IN OXYGEN ", generator.getAlerts().get(0).getCondition());
+        assertEquals(1000*60*11, generator.getAlerts().get(0).getTimestamp());
+    }
+
+    /**
+     * We expect there to bee two alerts , One for the first two initial values where they are clearly both undert the
+     * thresholds , then we want to pass a few other saturation values to see that the alarm does not trigger again for
+     * the same episode , finally we effectively "reset" the systolic pressure and then drop it again to see whether the
+     * test is responsive to change
      */
 
     @Test
@@ -383,22 +427,104 @@ class StrategiesTest{
         assertEquals(generator.getAlerts().get(0).getCondition() ,expectedAlert1.getCondition());
         assertEquals(generator.getAlerts().get(0).getTimestamp() ,expectedAlert1.getTimestamp());
 
-        Alert expectedAlert2 = new Alert("1" , "HYPOTENSIVE HYPOXEMIA ALERT" , 3);
+        Alert expectedAlert2 = new Alert("1" , "HYPOTENSIVE HYPOXEMIA ALERT" , 2027);
         assertEquals(generator.getAlerts().get(1).getPatientId() ,expectedAlert2.getPatientId());
         assertEquals(generator.getAlerts().get(1).getCondition() ,expectedAlert2.getCondition());
         assertEquals(generator.getAlerts().get(1).getTimestamp() ,expectedAlert2.getTimestamp());
 
-        Alert expectedAlert3 = new Alert("1" , "HYPOTENSIVE HYPOXEMIA ALERT" , 2027);
-        assertEquals(generator.getAlerts().get(2).getPatientId() ,expectedAlert3.getPatientId());
-        assertEquals(generator.getAlerts().get(2).getCondition() ,expectedAlert3.getCondition());
-        assertEquals(generator.getAlerts().get(2).getTimestamp() ,expectedAlert3.getTimestamp());
+        assertEquals(2, generator.getAlerts().size());
 
 
         
     }
 
+    /**
+     * The generator keeps the strategies of every patient between records, so a trend that spans
+     * readings fed one at a time is still detected, and patients do not share state.
+     */
+    @Test
+    void testIncrementalEvaluationKeepsStatePerPatient(){
+        AlertGenerator generator = new AlertGenerator(null) ;
+
+        for (int t = 1; t <= 5; t++) {
+            generator.onRecord(new PatientRecord(1, 34, "ECG", t));
+            generator.onRecord(new PatientRecord(2, 80, "ECG", t));
+        }
+        generator.onRecord(new PatientRecord(1, 67, "ECG", 6));
+        generator.onRecord(new PatientRecord(2, 70, "ECG", 6));
+
+        assertEquals(1, generator.getAlerts().size());
+        Alert expectedAlert = new Alert("1" , "ECG" , 6);
+        assertEquals(generator.getAlerts().get(0).getPatientId() ,expectedAlert.getPatientId());
+        assertEquals(generator.getAlerts().get(0).getTimestamp() ,expectedAlert.getTimestamp());
+    }
 
+    /**
+     * A saturation that arrives late should go in its place in the last 10 minutes: it must not hide the
+     * highest saturation that follows it, nor be compared with readings taken after it
+     */
+    @Test
+    void testSaturationOutOfOrder(){
+        OxygenSaturationStrategy saturationStrategy = new OxygenSaturationStrategy(new OxygenSaturationAlertFactory());
+        AlertGenerator generator = new AlertGenerator(null) ;
+
+        saturationStrategy.onRecord(1, new PatientRecord(1, 95, "Saturation", 60_000), generator);
+        saturationStrategy.onRecord(1, new PatientRecord(1, 99, "Saturation", 120_000), generator);
+        saturationStrategy.onRecord(1, new PatientRecord(1, 100, "Saturation", 30_000), generator); // late
+        saturationStrategy.onRecord(1, new PatientRecord(1, 95, "Saturation", 90_000), generator); // late, lower
+        assertEquals(0, generator.getAlerts().size());
+
+        // 10 minutes later the late 100 is out, the 99 is still in
+        saturationStrategy.onRecord(1, new PatientRecord(1, 94, "Saturation", 650_000), generator);
+        assertEquals(1, generator.getAlerts().size());
+        assertEquals("RAPID DECREASE IN OXYGEN ", generator.getAlerts().get(0).getCondition());
+        assertEquals(650_000, generator.getAlerts().get(0).getTimestamp());
+    }
 
+    /**
+     * A patient with a smaller heart rate window and a stricter threshold should not alert on a peak that
+     * would alert with the default settings
+     */
+    @Test
+    void testHeartRateSettingsPerPatient(){
+        AlertGenerator generator = new AlertGenerator(null) ;
+        generator.configurePatient(2, AlertThresholds.DEFAULT.withHeartRate(3, -40));
+
+        for (int t = 1; t <= 5; t++) {
+            generator.onRecord(new PatientRecord(1, 34, "ECG", t));
+            generator.onRecord(new PatientRecord(2, 34, "ECG", t));
+        }
+        generator.onRecord(new PatientRecord(1, 67, "ECG", 6));
+        generator.onRecord(new PatientRecord(2, 67, "ECG", 6));
+        generator.onRecord(new PatientRecord(2, 150, "ECG", 7));
+
+        assertEquals(2, generator.getAlerts().size());
+        assertEquals("1", generator.getAlerts().get(0).getPatientId());
+        assertEquals("2", generator.getAlerts().get(1).getPatientId());
+        assertEquals(7, generator.getAlerts().get(1).getTimestamp());
+    }
 
-
+    /**
+     * A matching pair should fire once, even when more low readings of the same episode follow, and a low saturation
+     * that arrives late should still be joined with the pressure it was measured next to
+     */
+    @Test
+    void testHypotensiveHypoxemiaOncePerEpisode(){
+        HypotensiveHypoxemiaStrategy hypoxemiaStrategy = new HypotensiveHypoxemiaStrategy(new HypotensiveHypoxemiaAlertFactory());
+        AlertGenerator generator = new AlertGenerator(null) ;
+
+        hypoxemiaStrategy.onRecord(1, new PatientRecord(1, 80, "SystolicPressure", 1000), generator);
+        hypoxemiaStrategy.onRecord(1, new PatientRecord(1, 85, "Saturation", 1500), generator);
+        hypoxemiaStrategy.onRecord(1, new PatientRecord(1, 84, "Saturation", 1900), generator);
+        hypoxemiaStrategy.onRecord(1, new PatientRecord(1, 82, "SystolicPressure", 2000), generator);
+        assertEquals(1, generator.getAlerts().size());
+
+        // pressure recovers, then a new episode where the saturation is reported after a later pressure
+        hypoxemiaStrategy.onRecord(1, new PatientRecord(1, 120, "SystolicPressure", 3000), generator);
+        hypoxemiaStrategy.onRecord(1, new PatientRecord(1, 80, "SystolicPressure", 5000), generator);
+        hypoxemiaStrategy.onRecord(1, new PatientRecord(1, 120, "SystolicPressure", 6000), generator);
+        hypoxemiaStrategy.onRecord(1, new PatientRecord(1, 85, "Saturation", 5200), generator);
+        assertEquals(2, generator.getAlerts().size());
+        assertEquals(5200, generator.getAlerts().get(1).getTimestamp());
+    }
 }
@@ -0,0 +1,150 @@
+package data_management;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.cardio_generator.outputs.BinaryRecordFormat;
+import com.cardio_generator.outputs.TcpOutputStrategy;
+import com.data_management.DataStorage;
+import com.data_management.PatientRecord;
+import com.data_management.TcpDataReader;
+import org.junit.jupiter.api.Test;
+
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+class TcpDataReaderTest {
+
+    /**
+     * Every reading of the text feed should be stored, the malformed lines skipped
+     */
+    @Test
+    void testReadsTextFeed() throws Exception {
+        DataStorage storage = DataStorage.getInstance();
+        try (TcpOutputStrategy output = new TcpOutputStrategy(0)) {
+            TcpDataReader reader = new TcpDataReader("localhost", output.getPort(), storage, false);
+            reader.startStreaming();
+            try {
+                waitFor(() -> output.getClientCount() == 1);
+                for (int i = 0; i < 5000; i++) {
+                    output.output(9801, i, "TcpECG", i + ".5");
+                }
+                output.output(9801, 5000, "TcpECG", "not a number");
+                output.output(9801, 5001, "TcpSaturation", "97.0%");
+                waitFor(() -> reader.getReadings() == 5001);
+
+                List<PatientRecord> records = storage.getRecords(9801, 0, Long.MAX_VALUE);
+                assertEquals(5001, records.size());
+                assertEquals(1, reader.getSkipped());
+                assertEquals(4999.5, records.stream().filter(r -> r.getTimestamp() == 4999).findFirst()
+                        .orElseThrow().getMeasurementValue());
+                assertEquals(97.0, records.stream().filter(r -> r.getRecordType().equals("TcpSaturation"))
+                        .findFirst().orElseThrow().getMeasurementValue());
+            } finally {
+                reader.stopStreaming();
+            }
+        }
+    }
+
+    /**
+     * The binary feed should be decoded with the labels announced on the connection
+     */
+    @Test
+    void testReadsBinaryFeed() throws Exception {
+        DataStorage storage = DataStorage.getInstance();
+        try (TcpOutputStrategy output = new TcpOutputStrategy(0, true)) {
+            TcpDataReader reader = new TcpDataReader("localhost", output.getPort(), storage, true);
+            reader.startStreaming();
+            try {
+                waitFor(() -> output.getClientCount() == 1);
+                for (int i = 0; i < 5000; i++) {
+                    output.output(9802, i, i % 2 == 0 ? "TcpECG" : "TcpSaturation", i + ".25");
+                }
+                waitFor(() -> reader.getReadings() == 5000);
+
+                List<PatientRecord> records = storage.getRecords(9802, 0, Long.MAX_VALUE);
+                assertEquals(5000, records.size());
+                assertEquals(0, reader.getSkipped());
+                assertEquals(2500, records.stream().filter(r -> r.getRecordType().equals("TcpSaturation")).count());
+            } finally {
+                reader.stopStreaming();
+            }
+        }
+    }
+
+    /**
+     * A reader started before the server should connect once it is up, and again after a restart
+     */
+    @Test
+    void testReconnects() throws Exception {
+        int port;
+        try (ServerSocket free = new ServerSocket(0)) {
+            port = free.getLocalPort();
+        }
+        DataStorage storage = DataStorage.getInstance();
+        TcpDataReader reader = new TcpDataReader("localhost", port, storage, false);
+        reader.startStreaming();
+        try {
+            Thread.sleep(300); // a few failed attempts
+            assertEquals(0, reader.getConnections());
+            for (int run = 0; run < 2; run++) {
+                try (TcpOutputStrategy output = new TcpOutputStrategy(port)) {
+                    waitFor(() -> output.getClientCount() == 1);
+                    for (int i = 0; i < 100; i++) {
+                        output.output(9803, run * 100 + i, "TcpECG", "0.5");
+                    }
+                    int expected = (run + 1) * 100;
+                    waitFor(() -> reader.getReadings() == expected);
+                }
+            }
+            assertEquals(2, reader.getConnections());
+            assertEquals(200, storage.getRecords(9803, 0, Long.MAX_VALUE).size());
+        } finally {
+            reader.stopStreaming();
+        }
+    }
+
+    /**
+     * The frames that could not be decoded should add up over the connections, not start over with every one
+     */
+    @Test
+    void testCountsInvalidFramesOfEveryConnection() throws Exception {
+        DataStorage storage = DataStorage.getInstance();
+        try (ServerSocket server = new ServerSocket(0)) {
+            TcpDataReader reader = new TcpDataReader("localhost", server.getLocalPort(), storage, true);
+            reader.startStreaming();
+            try {
+                for (int run = 0; run < 2; run++) {
+                    ByteBuffer frames = ByteBuffer.allocate(4096);
+                    for (int i = 0; i < 3; i++) {
+                        BinaryRecordFormat.putRecord(frames, 9804, run * 10 + i, 7, 0.5); // label 7 never announced
+                    }
+                    frames.put(BinaryRecordFormat.labelFrame(0, "TcpECG"));
+                    BinaryRecordFormat.putRecord(frames, 9804, run * 10 + 5, 0, 0.5);
+                    try (Socket connection = server.accept()) {
+                        OutputStream out = connection.getOutputStream();
+                        out.write(frames.array(), 0, frames.position());
+                        out.flush();
+                        int expected = run + 1;
+                        waitFor(() -> reader.getReadings() == expected);
+                    }
+                }
+                assertEquals(6, reader.getSkipped());
+                assertEquals(2, reader.getConnections());
+            } finally {
+                reader.stopStreaming();
+            }
+        }
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 20_000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "timed out");
+            Thread.sleep(5);
+        }
+    }
+}
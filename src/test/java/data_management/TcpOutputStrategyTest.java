@@ -0,0 +1,136 @@
+package data_management;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.cardio_generator.outputs.BinaryRecordFormat;
+import com.cardio_generator.outputs.TcpOutputStrategy;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+class TcpOutputStrategyTest {
+
+    /**
+     * Every connected client should get every reading, in order
+     */
+    @Test
+    void testStreamsToSeveralClients() throws Exception {
+        try (TcpOutputStrategy output = new TcpOutputStrategy(0);
+             Socket first = new Socket("localhost", output.getPort());
+             Socket second = new Socket("localhost", output.getPort())) {
+            waitFor(() -> output.getClientCount() == 2);
+            for (int i = 0; i < 1000; i++) {
+                output.output(1, i, "ECG", i + ".5");
+            }
+            for (Socket socket : List.of(first, second)) {
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                for (int i = 0; i < 1000; i++) {
+                    assertEquals("1," + i + ",ECG," + i + ".5", in.readLine());
+                }
+            }
+        }
+    }
+
+    /**
+     * A binary client connecting late should first get the labels used so far, so it can decode the records
+     */
+    @Test
+    void testBinaryClientGetsDictionary() throws Exception {
+        try (TcpOutputStrategy output = new TcpOutputStrategy(0, true);
+             Socket early = new Socket("localhost", output.getPort())) {
+            waitFor(() -> output.getClientCount() == 1);
+            output.output(2, 1, "ECG", "0.5");
+            output.output(2, 2, "Saturation", "97.0%");
+            try (Socket late = new Socket("localhost", output.getPort())) {
+                waitFor(() -> output.getClientCount() == 2);
+                output.output(2, 3, "Saturation", "98.0%");
+                output.output(2, 4, "ECG", "0.75");
+                assertEquals(List.of("2,1,ECG,0.5", "2,2,Saturation,97.0", "2,3,Saturation,98.0", "2,4,ECG,0.75"),
+                        decode(early.getInputStream(), 4));
+                assertEquals(List.of("2,3,Saturation,98.0", "2,4,ECG,0.75"), decode(late.getInputStream(), 2));
+            }
+        }
+    }
+
+    /**
+     * A client that stops reading should not hold the generators back, it is disconnected or misses readings
+     * while the other client gets them all
+     */
+    @Test
+    void testSlowClientDoesNotStallOthers() throws Exception {
+        for (TcpOutputStrategy.SlowClientPolicy policy : TcpOutputStrategy.SlowClientPolicy.values()) {
+            Thread reader;
+            try (TcpOutputStrategy output = new TcpOutputStrategy(0, false, policy, 1 << 20);
+                 Socket slow = new Socket();
+                 Socket fast = new Socket("localhost", output.getPort())) {
+                slow.setReceiveBufferSize(4096);
+                slow.connect(new InetSocketAddress("localhost", output.getPort()));
+                waitFor(() -> output.getClientCount() == 2);
+                AtomicLong received = new AtomicLong();
+                reader = new Thread(() -> {
+                    try {
+                        BufferedReader in = new BufferedReader(new InputStreamReader(fast.getInputStream(),
+                                StandardCharsets.US_ASCII));
+                        while (in.readLine() != null) {
+                            received.incrementAndGet();
+                        }
+                    } catch (IOException e) {
+                        // closed at the end of the test
+                    }
+                });
+                reader.start();
+
+                int readings = 300_000;
+                for (int i = 0; i < readings; i++) {
+                    output.output(i % 50, 1714376789050L + i, "ECG", "0.123456789");
+                    if (i % 1000 == 0) {
+                        Thread.sleep(1); // the fast client keeps up, the slow one never reads
+                    }
+                }
+                waitFor(() -> received.get() == readings);
+                if (policy == TcpOutputStrategy.SlowClientPolicy.DISCONNECT) {
+                    waitFor(() -> output.getClientCount() == 1);
+                    assertEquals(1, output.getDisconnectedClients());
+                } else {
+                    assertEquals(2, output.getClientCount());
+                    assertTrue(output.getDroppedReadings() > 0);
+                }
+            }
+            reader.join(); // the fast socket is closed, its reader sees the end of the stream
+        }
+    }
+
+    private static List<String> decode(InputStream in, int records) throws IOException {
+        List<String> decoded = new ArrayList<>();
+        BinaryRecordFormat.Decoder decoder = new BinaryRecordFormat.Decoder();
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        while (decoded.size() < records) {
+            int read = in.read(buffer.array(), buffer.position(), buffer.remaining());
+            assertTrue(read > 0);
+            buffer.position(buffer.position() + read).flip();
+            assertTrue(decoder.decode(buffer, (patientId, timestamp, label, value) ->
+                    decoded.add(patientId + "," + timestamp + "," + label + "," + value)));
+            buffer.compact();
+        }
+        return decoded;
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "timed out");
+            Thread.sleep(5);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package data_management;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.cardio_generator.outputs.WebSocketOutputStrategy;
+import com.data_management.DataStorage;
+import com.data_management.WebSocketClientAdapter;
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.handshake.ServerHandshake;
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+
+class WebSocketBatchingTest {
+
+    /**
+     * Readings should go out in a few messages of at most the batch size, the last partial batch once the
+     * window is over, and both clients should unpack every reading in order
+     */
+    @Test
+    void testSendsBatches() throws Exception {
+        int port = ThreadLocalRandom.current().nextInt(40000, 60000);
+        WebSocketOutputStrategy output = new WebSocketOutputStrategy(port, 50, 100);
+        List<String> textMessages = new CopyOnWriteArrayList<>();
+        WebSocketClient textClient = new WebSocketClient(new URI("ws://localhost:" + port)) {
+            @Override
+            public void onOpen(ServerHandshake handshake) {
+            }
+
+            @Override
+            public void onMessage(String message) {
+                textMessages.add(message);
+            }
+
+            @Override
+            public void onClose(int code, String reason, boolean remote) {
+            }
+
+            @Override
+            public void onError(Exception ex) {
+            }
+        };
+        DataStorage storage = DataStorage.getInstance();
+        WebSocketClientAdapter adapter = new WebSocketClientAdapter(new URI("ws://localhost:" + port), storage, true);
+        try {
+            assertTrue(connect(textClient));
+            assertTrue(connect(adapter));
+            for (int i = 0; i < 250; i++) {
+                output.output(9701, i, "BatchECG", i + ".5");
+            }
+            waitFor(() -> storage.getRecords(9701, 0, Long.MAX_VALUE).size() == 250
+                    && textMessages.stream().mapToInt(message -> message.split("\n").length).sum() == 250);
+
+            assertTrue(textMessages.size() < 250 / 10, textMessages.size() + " messages");
+            List<String> lines = new ArrayList<>();
+            for (String message : textMessages) {
+                String[] batch = message.split("\n");
+                assertTrue(batch.length <= 100);
+                lines.addAll(List.of(batch));
+            }
+            for (int i = 0; i < 250; i++) {
+                assertEquals("9701," + i + ",BatchECG," + i + ".5", lines.get(i));
+            }
+            assertEquals(249.5, storage.getRecords(9701, 249, 249).get(0).getMeasurementValue());
+
+            // unpacked on the text path as well
+            adapter.onMessage("9702,1,BatchECG,1.5\n9702,2,BatchECG,2.5");
+            assertEquals(2, storage.getRecords(9702, 0, Long.MAX_VALUE).size());
+        } finally {
+            adapter.closeBlocking();
+            textClient.closeBlocking();
+            output.close();
+        }
+    }
+
+    /**
+     * Closing should send the batch that is still waiting for its window, then disconnect the clients
+     */
+    @Test
+    void testCloseSendsLastBatch() throws Exception {
+        int port = ThreadLocalRandom.current().nextInt(40000, 60000);
+        WebSocketOutputStrategy output = new WebSocketOutputStrategy(port, 60_000, 100);
+        List<String> textMessages = new CopyOnWriteArrayList<>();
+        AtomicBoolean disconnected = new AtomicBoolean();
+        WebSocketClient textClient = new WebSocketClient(new URI("ws://localhost:" + port)) {
+            @Override
+            public void onOpen(ServerHandshake handshake) {
+            }
+
+            @Override
+            public void onMessage(String message) {
+                textMessages.add(message);
+            }
+
+            @Override
+            public void onClose(int code, String reason, boolean remote) {
+                disconnected.set(true);
+            }
+
+            @Override
+            public void onError(Exception ex) {
+            }
+        };
+        try {
+            assertTrue(connect(textClient));
+            for (int i = 0; i < 3; i++) {
+                output.output(9703, i, "BatchECG", i + ".5");
+            }
+            Thread.sleep(100);
+            assertTrue(textMessages.isEmpty()); // the window is a minute long
+            output.close();
+            waitFor(disconnected::get);
+            assertEquals(List.of("9703,0,BatchECG,0.5\n9703,1,BatchECG,1.5\n9703,2,BatchECG,2.5"), textMessages);
+        } finally {
+            textClient.closeBlocking();
+            output.close();
+        }
+    }
+
+    // the server may take a moment to start listening
+    private static boolean connect(WebSocketClient client) throws InterruptedException {
+        for (int attempt = 0; attempt < 50; attempt++) {
+            if (attempt == 0 ? client.connectBlocking() : client.reconnectBlocking()) {
+                Thread.sleep(200); // the server only registers the connection after answering the handshake
+                return true;
+            }
+            Thread.sleep(20);
+        }
+        return false;
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "timed out");
+            Thread.sleep(5);
+        }
+    }
+}
@@ -1,10 +1,14 @@
 package data_management.WebSocketTests;
+import com.cardio_generator.outputs.BinaryRecordFormat;
 import com.data_management.DataStorage;
+import com.data_management.PatientRecord;
 import com.data_management.WebSocketClientAdapter;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -60,4 +64,37 @@ public class WebSocketClientAdapterTests {
 
         assertDoesNotThrow(() -> adapter.onMessage(message));
     }
+
+    /**
+     * The valid lines of a message should be stored, the others only counted
+     */
+    @Test
+    public void testCountsMalformedLines() {
+        adapter.onMessage("9901,1,AdapterSaturation,97.0%\n9901,2,AdapterECG,oops\n9901,3\n9901,4,AdapterECG,-0.25");
+
+        List<PatientRecord> records = storage.getRecords(9901, 0, Long.MAX_VALUE);
+        assertEquals(2, records.size());
+        assertEquals(2, adapter.getMalformedMessages());
+        assertEquals(97.0, records.get(0).getMeasurementValue());
+        assertEquals("AdapterSaturation", records.get(0).getRecordType());
+        assertEquals(-0.25, records.get(1).getMeasurementValue());
+    }
+
+    /**
+     * A binary record whose label was never announced should be counted, not stored
+     */
+    @Test
+    public void testCountsUnknownBinaryLabels() {
+        ByteBuffer frames = ByteBuffer.allocate(256);
+        BinaryRecordFormat.putRecord(frames, 9902, 1, 7, 0.5);
+        frames.put(BinaryRecordFormat.labelFrame(7, "AdapterECG"));
+        BinaryRecordFormat.putRecord(frames, 9902, 2, 7, 1.5);
+        frames.flip();
+        adapter.onMessage(frames);
+
+        List<PatientRecord> records = storage.getRecords(9902, 0, Long.MAX_VALUE);
+        assertEquals(1, records.size());
+        assertEquals(1.5, records.get(0).getMeasurementValue());
+        assertEquals(1, adapter.getMalformedMessages());
+    }
 }
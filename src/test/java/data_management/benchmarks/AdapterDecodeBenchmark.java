@@ -0,0 +1,92 @@
+package data_management.benchmarks;
+
+import com.data_management.DataStorage;
+import com.data_management.WebSocketClientAdapter;
+
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+
+/**
+ * Stores text messages of 64 readings through WebSocketClientAdapter.onMessage, against the old
+ * split and parse of every line, and measures the time and the bytes allocated per reading.
+ * The storage itself is part of both, with the analysis left to a cycle that never comes, so the
+ * difference is the decoding.
+ */
+public class AdapterDecodeBenchmark {
+
+    private static final int MESSAGES = 5_000;
+    private static final int LINES = 64;
+    private static final int PATIENTS = 100;
+
+    public static void main(String[] args) throws Exception {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        DataStorage storage = DataStorage.getInstance();
+        storage.configureAnalysisMode(DataStorage.AnalysisMode.PERIODIC);
+        storage.configureAnalysis(3_600_000, 3_600_000);
+        WebSocketClientAdapter adapter = new WebSocketClientAdapter(new URI("ws://localhost:1"), storage);
+        long now = System.currentTimeMillis();
+        double oldNanos = Double.MAX_VALUE, newNanos = Double.MAX_VALUE;
+        double oldBytes = 0, newBytes = 0;
+        double readings = MESSAGES * (double) LINES;
+        for (int round = 0; round < 6; round++) {
+            String[] messages = messages(2 * round, now); // new patients every pass, in order
+            long allocated = threads.getCurrentThreadAllocatedBytes();
+            long start = System.nanoTime();
+            for (String message : messages) {
+                for (String line : message.split("\n")) {
+                    storeOld(storage, line);
+                }
+            }
+            long time = System.nanoTime() - start;
+            if (round > 0) {
+                oldNanos = Math.min(oldNanos, time / readings);
+                oldBytes = (threads.getCurrentThreadAllocatedBytes() - allocated) / readings;
+            }
+
+            messages = messages(2 * round + 1, now);
+            allocated = threads.getCurrentThreadAllocatedBytes();
+            start = System.nanoTime();
+            for (String message : messages) {
+                adapter.onMessage(message);
+            }
+            time = System.nanoTime() - start;
+            if (round > 0) {
+                newNanos = Math.min(newNanos, time / readings);
+                newBytes = (threads.getCurrentThreadAllocatedBytes() - allocated) / readings;
+            }
+        }
+
+        System.out.printf("                  ns/reading  bytes allocated/reading%n");
+        System.out.printf("split and parse   %10.0f  %23.0f%n", oldNanos, oldBytes);
+        System.out.printf("byte parser       %10.0f  %23.0f%n", newNanos, newBytes);
+        System.out.printf("%.1fx faster, %d malformed%n", oldNanos / newNanos, adapter.getMalformedMessages());
+        System.exit(0);
+    }
+
+    private static String[] messages(int pass, long now) {
+        String[] messages = new String[MESSAGES];
+        for (int m = 0; m < MESSAGES; m++) {
+            StringBuilder message = new StringBuilder();
+            for (int i = 0; i < LINES; i++) {
+                int reading = m * LINES + i;
+                message.append(i > 0 ? "\n" : "").append(pass * PATIENTS + reading % PATIENTS + 1).append(',')
+                        .append(now + reading).append(i % 2 == 0 ? ",ECG," : ",Saturation,").append(reading * 0.001)
+                        .append(i % 2 == 0 ? "" : "%");
+            }
+            messages[m] = message.toString();
+        }
+        return messages;
+    }
+
+    // what onMessage did with every line, without the console output
+    private static void storeOld(DataStorage storage, String message) {
+        String[] values = message.split(",");
+        if (values.length != 4) {
+            return;
+        }
+        int patientId = Integer.parseInt(values[0]);
+        long timestamp = Long.parseLong(values[1]);
+        double data = Double.parseDouble(values[3].replace("%", ""));
+        storage.addPatientData(patientId, data, values[2], timestamp);
+    }
+}
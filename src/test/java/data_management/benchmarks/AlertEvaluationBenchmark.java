@@ -0,0 +1,86 @@
+package data_management.benchmarks;
+
+import com.alerts.AlertGenerator;
+import com.data_management.Patient;
+import com.data_management.PatientRecord;
+import com.design_pattern.Factory.*;
+import com.design_pattern.strategy.*;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+/**
+ * Microbenchmark of the evaluation of one patient.
+ *
+ * "filter per strategy" reproduces the old {@code evaluateData}: every strategy streams over the whole
+ * list with a case-insensitive compare and collects its own intermediate list. "single pass" is the
+ * current {@link AlertGenerator#evaluateData(int, List)}, which walks the list once and dispatches every
+ * record by its interned type code. Both run on the same window of 8 signals, console output discarded.
+ */
+public class AlertEvaluationBenchmark {
+
+    private static final int WINDOW_SECONDS = 60;
+    private static final int WARMUP = 20_000;
+    private static final int ITERATIONS = 50_000;
+
+    public static void main(String[] args) {
+        List<PatientRecord> records = window();
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        AlertGenerator generator = new AlertGenerator(null);
+        for (int i = 0; i < WARMUP; i++) {
+            filterPerStrategy(records, generator);
+            generator.evaluateData(1, records);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            filterPerStrategy(records, generator);
+        }
+        long before = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            generator.evaluateData(1, records);
+        }
+        long after = System.nanoTime() - start;
+        System.setOut(console);
+
+        System.out.printf("%d records per patient (%d s x 8 signals)%n", records.size(), WINDOW_SECONDS);
+        System.out.printf("filter per strategy  %8.2f us/patient%n", before / 1e3 / ITERATIONS);
+        System.out.printf("single pass          %8.2f us/patient%n", after / 1e3 / ITERATIONS);
+    }
+
+    private static void filterPerStrategy(List<PatientRecord> record, AlertGenerator generator) {
+        new BloodPressureStrategy(new BloodPressureAlertFactory()).checkAlert(1, record.stream().filter(r ->
+                r.getRecordType().equalsIgnoreCase("SystolicPressure") ||
+                r.getRecordType().equalsIgnoreCase("DiastolicPressure")).collect(Collectors.toList()), generator);
+        new OxygenSaturationStrategy(new OxygenSaturationAlertFactory()).checkAlert(1, record.stream().filter(r ->
+                r.getRecordType().equalsIgnoreCase("Saturation")).collect(Collectors.toList()), generator);
+        new HeartRateStrategy(new HeartRateAlertFactory()).checkAlert(1, record.stream().filter(r ->
+                r.getRecordType().equalsIgnoreCase("ECG")).collect(Collectors.toList()), generator);
+        new HypotensiveHypoxemiaStrategy(new HypotensiveHypoxemiaAlertFactory()).checkAlert(1, record, generator);
+        new EmergencyButtonStrategy(new EmergencyButtonFactory()).checkAlert(1, record.stream().filter(r ->
+                r.getRecordType().equalsIgnoreCase("EmergencyButton")).collect(Collectors.toList()), generator);
+    }
+
+    // steady readings, so the timing is not dominated by triggering alerts
+    private static List<PatientRecord> window() {
+        Random random = new Random(3);
+        Patient patient = new Patient(1);
+        for (int t = 0; t < WINDOW_SECONDS; t++) {
+            long time = t * 1000L;
+            patient.addRecord(70 - random.nextInt(3), "ECG", time);
+            patient.addRecord(97, "Saturation", time);
+            patient.addRecord(120, "SystolicPressure", time);
+            patient.addRecord(80, "DiastolicPressure", time);
+            patient.addRecord(random.nextDouble(), "Cholesterol", time);
+            patient.addRecord(random.nextDouble(), "WhiteBloodCells", time);
+            patient.addRecord(random.nextDouble(), "RedBloodCells", time);
+            patient.addRecord(0, "EmergencyButton", time);
+        }
+        return patient.getRecords();
+    }
+}
@@ -0,0 +1,66 @@
+package data_management.benchmarks;
+
+import com.data_management.DataStorage;
+import com.data_management.PersistenceManager;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Compares the ingest throughput of {@link DataStorage} with and without the write-ahead log.
+ * Every round feeds 8 signals of 200 patients for 10 minutes of simulated time, alternating
+ * between the two modes; each mode writes to fresh patient IDs so they never share a series.
+ * The console output of the strategies is discarded while timing.
+ */
+public class DurableIngestBenchmark {
+
+    private static final int PATIENTS = 200;
+    private static final int SECONDS = 600;
+    private static final int ROUNDS = 4;
+    private static final String[] TYPES = {"ECG", "Saturation", "SystolicPressure", "DiastolicPressure",
+            "Cholesterol", "WhiteBloodCells", "RedBloodCells", "EmergencyButton"};
+
+    public static void main(String[] args) throws IOException {
+        DataStorage storage = DataStorage.getInstance();
+        Path directory = Files.createTempDirectory("wal-benchmark");
+        long readings = (long) PATIENTS * SECONDS * TYPES.length;
+
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        long inMemory = Long.MAX_VALUE;
+        long durable = Long.MAX_VALUE;
+        int firstId = 1;
+        for (int round = 0; round < ROUNDS; round++) {
+            inMemory = Math.min(inMemory, ingest(storage, firstId));
+            firstId += PATIENTS;
+
+            storage.enableDurability(directory, PersistenceManager.DEFAULT_FLUSH_INTERVAL_MILLIS,
+                    PersistenceManager.DEFAULT_SNAPSHOT_INTERVAL_MILLIS);
+            durable = Math.min(durable, ingest(storage, firstId));
+            storage.disableDurability();
+            firstId += PATIENTS;
+        }
+        System.setOut(console);
+
+        System.out.printf("%d readings per round, best of %d%n", readings, ROUNDS);
+        System.out.printf("in memory        %8.0f readings/s%n", readings / (inMemory / 1e9));
+        System.out.printf("write-ahead log  %8.0f readings/s  (%.1f%% slower)%n", readings / (durable / 1e9),
+                (durable - inMemory) * 100.0 / inMemory);
+    }
+
+    private static long ingest(DataStorage storage, int firstId) {
+        long start = System.nanoTime();
+        for (int t = 0; t < SECONDS; t++) {
+            long time = t * 1000L;
+            for (int id = firstId; id < firstId + PATIENTS; id++) {
+                for (int type = 0; type < TYPES.length; type++) {
+                    storage.addPatientData(id, 70 + (id + t + type) % 20, TYPES[type], time);
+                }
+            }
+        }
+        return System.nanoTime() - start;
+    }
+}
@@ -0,0 +1,162 @@
+package data_management.benchmarks;
+
+import com.data_management.DataStorage;
+import com.data_management.FileDataReader;
+import com.data_management.RecordLineParser;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Compares the previous regex based import of the file output with the byte parser.
+ * A file in the format of FileOutputStrategy is generated first, its size in MB is the first
+ * argument (default 256, pass a few thousand for a multi-GB run). Two things are timed:
+ * parsing alone, best of a few rounds, and a full import into the storage, where the old path
+ * also evaluates every reading. The imports use separate files with disjoint patient IDs.
+ * The console output of the strategies is discarded while timing.
+ */
+public class FileImportBenchmark {
+
+    private static final int ROUNDS = 3;
+    private static final int PATIENTS = 500;
+    private static final String[] TYPES = {"ECG", "Saturation", "SystolicPressure", "DiastolicPressure",
+            "Cholesterol", "WhiteBloodCells", "RedBloodCells"};
+    private static final Pattern STYLE =
+            Pattern.compile("Patient ID: (\\d+), Timestamp: (\\d+), Label: ([^,]+), Data: ([-+]?\\d*\\.?\\d+)");
+
+    public static void main(String[] args) throws IOException {
+        long megabytes = args.length > 0 ? Long.parseLong(args[0]) : 256;
+        Path directory = Files.createTempDirectory("import-benchmark");
+        Path regexFile = directory.resolve("regex").resolve("data.txt");
+        Path parserFile = directory.resolve("parser").resolve("data.txt");
+        long lines = generate(regexFile, megabytes, 0);
+        generate(parserFile, megabytes, PATIENTS);
+        double size = Files.size(regexFile) / 1e6;
+        System.out.printf("%d lines, %.0f MB per file%n", lines, size);
+
+        long regex = Long.MAX_VALUE;
+        long parser = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            regex = Math.min(regex, time(() -> parseWithRegex(regexFile)));
+            parser = Math.min(parser, time(() -> parseWithParser(regexFile)));
+        }
+        System.out.printf("parse, regex        %8.0f MB/s%n", size / (regex / 1e9));
+        System.out.printf("parse, byte parser  %8.0f MB/s  (%.1fx)%n", size / (parser / 1e9), (double) regex / parser);
+
+        DataStorage storage = DataStorage.getInstance();
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        long oldImport = time(() -> importWithRegex(regexFile, storage));
+        long newImport = time(() -> new FileDataReader(parserFile.getParent().toString()).readData(storage));
+        System.setOut(console);
+        System.out.printf("import, regex + per-record analysis  %8.0f lines/s%n", lines / (oldImport / 1e9));
+        System.out.printf("import, byte parser + bulk load      %8.0f lines/s  (%.1fx)%n",
+                lines / (newImport / 1e9), (double) oldImport / newImport);
+
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted((a, b) -> b.compareTo(a)).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private interface Run {
+        void run() throws IOException;
+    }
+
+    private static long time(Run run) throws IOException {
+        long start = System.nanoTime();
+        run.run();
+        return System.nanoTime() - start;
+    }
+
+    private static long generate(Path file, long megabytes, int firstPatient) throws IOException {
+        Files.createDirectories(file.getParent());
+        Random random = new Random(42);
+        long lines = 0;
+        long timestamp = 1714376789050L;
+        try (BufferedWriter out = Files.newBufferedWriter(file)) {
+            long written = 0;
+            while (written < megabytes * 1_000_000) {
+                String type = TYPES[(int) (lines % TYPES.length)];
+                String data = Double.toString(random.nextDouble() * 100) + (type.equals("Saturation") ? "%" : "");
+                String line = "Patient ID: " + (firstPatient + 1 + lines % PATIENTS) + ", Timestamp: " + timestamp
+                        + ", Label: " + type + ", Data: " + data + "\n";
+                out.write(line);
+                written += line.length();
+                lines++;
+                if (lines % PATIENTS == 0) {
+                    timestamp++;
+                }
+            }
+        }
+        return lines;
+    }
+
+    // what FileDataReader used to do, without storing
+    private static void parseWithRegex(Path file) throws IOException {
+        double sum = 0;
+        try (Stream<String> lines = Files.lines(file)) {
+            for (String line : (Iterable<String>) lines::iterator) {
+                Matcher matcher = STYLE.matcher(line);
+                if (matcher.matches()) {
+                    sum += Integer.parseInt(matcher.group(1)) + Long.parseLong(matcher.group(2))
+                            + matcher.group(3).length() + Double.parseDouble(matcher.group(4));
+                }
+            }
+        }
+        blackhole(sum);
+    }
+
+    private static void parseWithParser(Path file) throws IOException {
+        RecordLineParser parser = new RecordLineParser();
+        double sum = 0;
+        byte[] block = new byte[1 << 20];
+        int filled = 0;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            int read;
+            while ((read = channel.read(ByteBuffer.wrap(block, filled, block.length - filled))) >= 0) {
+                filled += read;
+                int lineStart = 0;
+                for (int i = 0; i < filled; i++) {
+                    if (block[i] == '\n') {
+                        if (parser.parse(block, lineStart, i)) {
+                            sum += parser.getPatientId() + parser.getTimestamp() + parser.getTypeCode() + parser.getValue();
+                        }
+                        lineStart = i + 1;
+                    }
+                }
+                System.arraycopy(block, lineStart, block, 0, filled - lineStart);
+                filled -= lineStart;
+            }
+        }
+        blackhole(sum);
+    }
+
+    private static void importWithRegex(Path file, DataStorage storage) throws IOException {
+        try (Stream<String> lines = Files.lines(file)) {
+            lines.forEach(line -> {
+                Matcher matcher = STYLE.matcher(line);
+                if (matcher.matches()) {
+                    storage.addPatientData(Integer.parseInt(matcher.group(1)), Double.parseDouble(matcher.group(4)),
+                            matcher.group(3), Long.parseLong(matcher.group(2)));
+                }
+            });
+        }
+    }
+
+    private static void blackhole(double sum) {
+        if (sum == 42) {
+            System.out.println(sum);
+        }
+    }
+}
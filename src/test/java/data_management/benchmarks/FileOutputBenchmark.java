@@ -0,0 +1,90 @@
+package data_management.benchmarks;
+
+import com.cardio_generator.outputs.FileOutputStrategy;
+import com.cardio_generator.outputs.OutputStrategy;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Compares the file output that opened, formatted into and closed the file for every reading with
+ * the buffered writers of {@link FileOutputStrategy}. Four generator threads output readings for
+ * seven labels, like the simulator does; the buffered run includes closing, so every reading is on disk.
+ */
+public class FileOutputBenchmark {
+
+    private static final int THREADS = 4;
+    private static final String[] LABELS = {"ECG", "Saturation", "SystolicPressure", "DiastolicPressure",
+            "Cholesterol", "WhiteBloodCells", "RedBloodCells"};
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Path root = Files.createTempDirectory("file-output-benchmark");
+
+        Path old = root.resolve("open-per-reading");
+        int oldReadings = 20_000;
+        double oldSeconds = run(new OpenPerReading(old.toString()), oldReadings);
+        System.out.printf("open, printf, close per reading  %10.0f readings/s%n", oldReadings / oldSeconds);
+
+        int readings = 2_000_000;
+        FileOutputStrategy buffered = new FileOutputStrategy(root.resolve("buffered").toString());
+        long start = System.nanoTime();
+        run(buffered, readings);
+        buffered.close();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("buffered writers                 %10.0f readings/s  (%.0fx)%n", readings / seconds,
+                (readings / seconds) / (oldReadings / oldSeconds));
+
+        try (Stream<Path> files = Files.walk(root)) {
+            files.sorted((a, b) -> b.compareTo(a)).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private static double run(OutputStrategy output, int readings) throws InterruptedException {
+        List<Thread> threads = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int t = 0; t < THREADS; t++) {
+            int first = t;
+            Thread thread = new Thread(() -> {
+                for (int i = first; i < readings; i += THREADS) {
+                    output.output(i % 500 + 1, 1714376789050L + i, LABELS[i % LABELS.length],
+                            Double.toString(i * 0.001));
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return (System.nanoTime() - start) / 1e9;
+    }
+
+    // what FileOutputStrategy used to do
+    private static final class OpenPerReading implements OutputStrategy {
+        private final String baseDirectory;
+
+        OpenPerReading(String baseDirectory) {
+            this.baseDirectory = baseDirectory;
+        }
+
+        @Override
+        public void output(int patientId, long timestamp, String label, String data) {
+            try {
+                Files.createDirectories(Paths.get(baseDirectory));
+                try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(Paths.get(baseDirectory, label + ".txt"),
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND))) {
+                    out.printf("Patient ID: %d, Timestamp: %d, Label: %s, Data: %s%n", patientId, timestamp, label, data);
+                }
+            } catch (IOException e) {
+                System.err.println("Error writing to file: " + e.getMessage());
+            }
+        }
+    }
+}
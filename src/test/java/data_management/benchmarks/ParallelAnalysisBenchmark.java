@@ -0,0 +1,75 @@
+package data_management.benchmarks;
+
+import com.alerts.AlertGenerator;
+import com.data_management.Patient;
+import com.data_management.PatientRecord;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Times one analysis cycle over a 10 second window of 5,000 patients, once sequentially and
+ * once spread over a fork-join pool with one thread per core.
+ * The console output of the strategies is discarded while timing.
+ */
+public class ParallelAnalysisBenchmark {
+
+    private static final int PATIENTS = 5_000;
+    private static final int WINDOW_SECONDS = 10;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) {
+        Map<Integer, List<PatientRecord>> windows = ward();
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        long sequential = Long.MAX_VALUE;
+        long parallel = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            AlertGenerator generator = new AlertGenerator(null);
+            for (Map.Entry<Integer, List<PatientRecord>> window : windows.entrySet()) {
+                generator.evaluateData(window.getKey(), window.getValue());
+            }
+            sequential = Math.min(sequential, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            new AlertGenerator(null).evaluateData(windows, pool);
+            parallel = Math.min(parallel, System.nanoTime() - start);
+        }
+        System.setOut(console);
+        pool.shutdown();
+
+        System.out.printf("%d patients, %d s window, best of %d%n", PATIENTS, WINDOW_SECONDS, ROUNDS);
+        System.out.printf("sequential          %8.1f ms%n", sequential / 1e6);
+        System.out.printf("parallel (%2d thr)   %8.1f ms%n", threads, parallel / 1e6);
+    }
+
+    private static Map<Integer, List<PatientRecord>> ward() {
+        Random random = new Random(1);
+        Map<Integer, List<PatientRecord>> windows = new HashMap<>();
+        for (int id = 1; id <= PATIENTS; id++) {
+            Patient patient = new Patient(id);
+            for (int t = 0; t < WINDOW_SECONDS; t++) {
+                long time = t * 1000L;
+                patient.addRecord(60 + random.nextInt(30), "ECG", time);
+                patient.addRecord(93 + random.nextInt(6), "Saturation", time);
+                patient.addRecord(110 + random.nextInt(20), "SystolicPressure", time);
+                patient.addRecord(70 + random.nextInt(15), "DiastolicPressure", time);
+                patient.addRecord(random.nextDouble(), "Cholesterol", time);
+                patient.addRecord(random.nextDouble(), "WhiteBloodCells", time);
+                patient.addRecord(random.nextDouble(), "RedBloodCells", time);
+                patient.addRecord(0, "EmergencyButton", time);
+            }
+            windows.put(id, patient.getRecords());
+        }
+        return windows;
+    }
+}
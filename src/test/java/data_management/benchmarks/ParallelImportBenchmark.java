@@ -0,0 +1,95 @@
+package data_management.benchmarks;
+
+import com.data_management.DataStorage;
+import com.data_management.FileDataReader;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Measures how the import of a FileOutputStrategy directory scales with the number of threads.
+ * One file per label is generated, 32 MB each by default (first argument, in MB). Every thread
+ * import gets its own copy of the directory, with disjoint patient IDs, so no run appends to
+ * the series of another one. Thread counts double up to the number of cores, best of 3 rounds.
+ */
+public class ParallelImportBenchmark {
+
+    private static final int PATIENTS = 500;
+    private static final int ROUNDS = 3;
+    private static final String[] TYPES = {"ECG", "Saturation", "SystolicPressure", "DiastolicPressure",
+            "Cholesterol", "WhiteBloodCells", "RedBloodCells"};
+
+    public static void main(String[] args) throws IOException {
+        long megabytes = args.length > 0 ? Long.parseLong(args[0]) : 32;
+        int cores = Runtime.getRuntime().availableProcessors();
+        Path root = Files.createTempDirectory("parallel-import-benchmark");
+        DataStorage storage = DataStorage.getInstance();
+
+        List<Integer> threadCounts = new ArrayList<>();
+        for (int threads = 1; threads < cores; threads *= 2) {
+            threadCounts.add(threads);
+        }
+        threadCounts.add(cores);
+
+        PrintStream console = System.out;
+        double[] best = new double[threadCounts.size()];
+        long lines = 0;
+        int run = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int i = 0; i < threadCounts.size(); i++, run++) {
+                Path directory = root.resolve("run" + run);
+                lines = 0;
+                for (String type : TYPES) {
+                    lines += generate(directory.resolve(type + ".txt"), type, megabytes, run * PATIENTS);
+                }
+                System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+                long start = System.nanoTime();
+                new FileDataReader(directory.toString(), threadCounts.get(i)).readData(storage);
+                double seconds = (System.nanoTime() - start) / 1e9;
+                System.setOut(console);
+                best[i] = round == 0 ? seconds : Math.min(best[i], seconds);
+                delete(directory);
+            }
+        }
+        for (int i = 0; i < threadCounts.size(); i++) {
+            System.out.printf("%2d threads  %10.0f lines/s  speedup %.2f%n", threadCounts.get(i), lines / best[i],
+                    best[0] / best[i]);
+        }
+        delete(root);
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted((a, b) -> b.compareTo(a)).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private static long generate(Path file, String type, long megabytes, int firstPatient) throws IOException {
+        Files.createDirectories(file.getParent());
+        Random random = new Random(type.hashCode());
+        long lines = 0;
+        long timestamp = 1714376789050L;
+        try (BufferedWriter out = Files.newBufferedWriter(file)) {
+            long written = 0;
+            while (written < megabytes * 1_000_000) {
+                String line = "Patient ID: " + (firstPatient + 1 + lines % PATIENTS) + ", Timestamp: " + timestamp
+                        + ", Label: " + type + ", Data: " + random.nextDouble() * 100 + "\n";
+                out.write(line);
+                written += line.length();
+                lines++;
+                if (lines % PATIENTS == 0) {
+                    timestamp += 1000; // one reading per second and patient, like the simulator
+                }
+            }
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,88 @@
+package data_management.benchmarks;
+
+import com.data_management.Patient;
+import com.data_management.PatientRecord;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares the heap used by the old {@code ArrayList<PatientRecord>} layout with the columnar
+ * {@link Patient} storage. A sample of the ward is loaded in each layout, the bytes per reading
+ * are measured and then extrapolated to 10,000 patients sending 24 hours of 1 Hz data.
+ *
+ * Run with a fixed heap so the numbers are stable, e.g. {@code java -Xms4g -Xmx4g}.
+ */
+public class PatientMemoryBenchmark {
+
+    private static final int SAMPLE_PATIENTS = 500;
+    private static final int SAMPLE_SECONDS = 3_600;
+    private static final long TARGET_RECORDS = 10_000L * 24 * 3_600;
+
+    public static void main(String[] args) {
+        long records = (long) SAMPLE_PATIENTS * SAMPLE_SECONDS;
+
+        double listShared = bytesPerRecord(records, () -> legacyLayout(false));
+        double listParsed = bytesPerRecord(records, () -> legacyLayout(true));
+        double columnar = bytesPerRecord(records, PatientMemoryBenchmark::columnarLayout);
+
+        System.out.printf("sample: %d patients x %d s = %d records%n", SAMPLE_PATIENTS, SAMPLE_SECONDS, records);
+        print("ArrayList<PatientRecord>, shared labels", listShared);
+        print("ArrayList<PatientRecord>, parsed labels", listParsed);
+        print("columnar TimeSeries", columnar);
+    }
+
+    private static void print(String layout, double bytesPerRecord) {
+        System.out.printf("%-42s %6.1f B/record  -> %7.1f GB for 10k patients x 24h%n",
+                layout, bytesPerRecord, bytesPerRecord * TARGET_RECORDS / (1024.0 * 1024 * 1024));
+    }
+
+    // labels that come from WebSocketClientAdapter are new strings created by split
+    private static Object legacyLayout(boolean parsedLabels) {
+        List<List<PatientRecord>> ward = new ArrayList<>();
+        for (int p = 0; p < SAMPLE_PATIENTS; p++) {
+            List<PatientRecord> records = new ArrayList<>();
+            for (int s = 0; s < SAMPLE_SECONDS; s++) {
+                String label = parsedLabels ? new String("ECG".toCharArray()) : "ECG";
+                records.add(new PatientRecord(p, Math.sin(s), label, 1_700_000_000_000L + s * 1000L));
+            }
+            ward.add(records);
+        }
+        return ward;
+    }
+
+    private static Object columnarLayout() {
+        List<Patient> ward = new ArrayList<>();
+        for (int p = 0; p < SAMPLE_PATIENTS; p++) {
+            Patient patient = new Patient(p);
+            for (int s = 0; s < SAMPLE_SECONDS; s++) {
+                patient.addRecord(Math.sin(s), "ECG", 1_700_000_000_000L + s * 1000L);
+            }
+            ward.add(patient);
+        }
+        return ward;
+    }
+
+    private static double bytesPerRecord(long records, java.util.function.Supplier<Object> layout) {
+        long before = usedHeap();
+        Object retained = layout.get();
+        long after = usedHeap();
+        if (retained.hashCode() == 42) { // keeps the layout reachable until the measurement is done
+            System.out.println();
+        }
+        return (after - before) / (double) records;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
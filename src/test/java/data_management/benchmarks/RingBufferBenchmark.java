@@ -0,0 +1,167 @@
+package data_management.benchmarks;
+
+import com.alerts.AlertGenerator;
+import com.data_management.DataStorage;
+import com.data_management.Patient;
+import com.data_management.PatientRecord;
+import com.data_management.ReadingRingBuffer;
+import com.data_management.RecordTypes;
+import com.data_management.WriteAheadLog;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Stores, analyses and logs readings the way DataStorage does: one after another on the thread that brings
+ * them (the direct path), against a {@link ReadingRingBuffer} where the storage and the alerts run side by side
+ * and the log after the storage. Measures the throughput when the readings come as fast as they can, and the
+ * latency from the arrival of a reading until all three are done with it, at a steady rate both can sustain.
+ */
+public class RingBufferBenchmark {
+
+    private static final int READINGS = 1_000_000;
+    private static final int PACED_READINGS = 200_000;
+    private static final int PACED_RATE = 50_000; // readings per second
+    private static final int PATIENTS = 100;
+
+    private static Patient[] patients;
+    private static AlertGenerator alerts;
+    private static WriteAheadLog log;
+    private static final int ECG = RecordTypes.codeOf("ECG");
+
+    public static void main(String[] args) throws Exception {
+        System.out.println(Runtime.getRuntime().availableProcessors() + " processors, the stages need one each to run side by side");
+        alerts = new AlertGenerator(DataStorage.getInstance());
+        Path directory = Files.createTempDirectory("ring-benchmark");
+        try {
+            System.out.printf("               readings/s   p50 us   p99 us  p99.9 us  (%d readings/s)%n", PACED_RATE);
+            for (int round = 0; round < 3; round++) {
+                reset(directory);
+                double directThroughput = throughput(false);
+                reset(directory);
+                long[] directLatency = latencies(false);
+                reset(directory);
+                double ringThroughput = throughput(true);
+                reset(directory);
+                long[] ringLatency = latencies(true);
+                if (round > 0) {
+                    print("direct", directThroughput, directLatency);
+                    print("ring buffer", ringThroughput, ringLatency);
+                }
+            }
+        } finally {
+            log.close();
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+        System.exit(0);
+    }
+
+    private static void reset(Path directory) throws IOException {
+        if (log != null) {
+            log.close();
+        }
+        log = new WriteAheadLog(Files.createTempDirectory(directory, "wal"));
+        patients = new Patient[PATIENTS];
+        for (int i = 0; i < PATIENTS; i++) {
+            patients[i] = new Patient(i + 1);
+        }
+    }
+
+    // what DataStorage.addPatientData does, in three parts
+    private static void store(int patientId, double value, int typeCode, long timestamp) {
+        patients[patientId - 1].addRecord(value, RecordTypes.nameOf(typeCode), timestamp);
+    }
+
+    private static void analyse(int patientId, double value, int typeCode, long timestamp) {
+        alerts.onRecord(new PatientRecord(patientId, value, RecordTypes.nameOf(typeCode), timestamp));
+    }
+
+    private static void persist(int patientId, double value, int typeCode, long timestamp) {
+        try {
+            log.append(patientId, typeCode, timestamp, value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void direct(int patientId, double value, int typeCode, long timestamp) {
+        store(patientId, value, typeCode, timestamp);
+        analyse(patientId, value, typeCode, timestamp);
+        persist(patientId, value, typeCode, timestamp);
+    }
+
+    private static ReadingRingBuffer ring(ReadingRingBuffer.Handler done) {
+        ReadingRingBuffer ring = new ReadingRingBuffer(ReadingRingBuffer.DEFAULT_CAPACITY);
+        ReadingRingBuffer.Stage stored = ring.handleWith("ring-storage", RingBufferBenchmark::store);
+        ReadingRingBuffer.Stage analysed = ring.handleWith("ring-alerts", RingBufferBenchmark::analyse);
+        ReadingRingBuffer.Stage logged = ring.handleWith("ring-persistence", RingBufferBenchmark::persist, stored);
+        if (done != null) {
+            ring.handleWith("done", done, analysed, logged);
+        }
+        ring.start();
+        return ring;
+    }
+
+    private static double value(int i) {
+        return 0.5 + 0.1 * Math.sin(i * 0.01); // a calm ECG, no alert
+    }
+
+    private static double throughput(boolean throughRing) {
+        long start = System.nanoTime();
+        if (throughRing) {
+            ReadingRingBuffer ring = ring(null);
+            for (int i = 0; i < READINGS; i++) {
+                ring.publish(i % PATIENTS + 1, value(i), ECG, i);
+            }
+            ring.close(); // once every stage is done
+        } else {
+            for (int i = 0; i < READINGS; i++) {
+                direct(i % PATIENTS + 1, value(i), ECG, i);
+            }
+        }
+        return READINGS / ((System.nanoTime() - start) / 1e9);
+    }
+
+    // the readings arrive every 1/PACED_RATE s, the latency runs from then until all three are done
+    private static long[] latencies(boolean throughRing) {
+        long[] arrivals = new long[PACED_READINGS];
+        long[] latencies = new long[PACED_READINGS];
+        long interval = 1_000_000_000L / PACED_RATE;
+        long start = System.nanoTime() + 1_000_000;
+        for (int i = 0; i < PACED_READINGS; i++) {
+            arrivals[i] = start + i * interval;
+        }
+        ReadingRingBuffer ring = throughRing ? ring((patientId, value, typeCode, timestamp) ->
+                latencies[(int) timestamp] = System.nanoTime() - arrivals[(int) timestamp]) : null;
+        for (int i = 0; i < PACED_READINGS; i++) {
+            while (System.nanoTime() < arrivals[i]) {
+                Thread.yield(); // leaves the processor to the stages while waiting
+            }
+            if (throughRing) {
+                ring.publish(i % PATIENTS + 1, value(i), ECG, i);
+            } else {
+                direct(i % PATIENTS + 1, value(i), ECG, i);
+                latencies[i] = System.nanoTime() - arrivals[i];
+            }
+        }
+        if (throughRing) {
+            ring.close();
+        }
+        return latencies;
+    }
+
+    private static void print(String path, double throughput, long[] latencies) {
+        long[] sorted = latencies.clone();
+        Arrays.sort(sorted);
+        System.out.printf("%-12s %12.0f %8.1f %8.1f %9.1f%n", path, throughput,
+                sorted[sorted.length / 2] / 1e3, sorted[(int) (sorted.length * 0.99)] / 1e3,
+                sorted[(int) (sorted.length * 0.999)] / 1e3);
+    }
+}
@@ -0,0 +1,55 @@
+package data_management.benchmarks;
+
+import com.cardio_generator.outputs.FileOutputStrategy;
+import com.data_management.DataStorage;
+import com.data_management.FileTailReader;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+/**
+ * Measures how long a reading written by {@link FileOutputStrategy} takes to reach the storage
+ * through a {@link FileTailReader}. Readings are written one at a time, a few milliseconds apart,
+ * and the writer spins on the storage until the reading shows up.
+ */
+public class TailLatencyBenchmark {
+
+    private static final int SAMPLES = 500;
+    private static final int PATIENT = 777_001;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Path directory = Files.createTempDirectory("tail-benchmark");
+        DataStorage storage = DataStorage.getInstance();
+        FileTailReader reader = new FileTailReader(directory.toString(), storage, false);
+        reader.startStreaming();
+        FileOutputStrategy output = new FileOutputStrategy(directory.toString());
+
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        long[] latencies = new long[SAMPLES];
+        for (int i = 0; i < SAMPLES; i++) {
+            long start = System.nanoTime();
+            output.output(PATIENT, i, "ECG", Double.toString(i * 0.01));
+            while (storage.getRecords(PATIENT, 0, Long.MAX_VALUE).size() <= i) {
+                Thread.onSpinWait();
+            }
+            latencies[i] = System.nanoTime() - start;
+            Thread.sleep(5);
+        }
+        System.setOut(console);
+        reader.stopStreaming();
+
+        Arrays.sort(latencies);
+        System.out.printf("write to storage over %d readings: p50 %.2f ms, p99 %.2f ms, max %.2f ms%n", SAMPLES,
+                latencies[SAMPLES / 2] / 1e6, latencies[SAMPLES * 99 / 100] / 1e6, latencies[SAMPLES - 1] / 1e6);
+
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted((a, b) -> b.compareTo(a)).forEach(path -> path.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package data_management.benchmarks;
+
+import com.cardio_generator.outputs.OutputStrategy;
+import com.cardio_generator.outputs.TcpOutputStrategy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Streams readings to TCP clients on localhost: the old strategy (one client, a PrintWriter flushing
+ * every line) against the selector based {@link TcpOutputStrategy} with one and with four clients.
+ * Measures the readings per second until every client received every byte.
+ */
+public class TcpFanoutBenchmark {
+
+    private static final int READINGS = 500_000;
+
+    public static void main(String[] args) throws Exception {
+        try (ServerSocket server = new ServerSocket(0)) {
+            List<Socket> clients = connect(server.getLocalPort(), 1);
+            try (Socket accepted = server.accept()) {
+                PrintWriter out = new PrintWriter(accepted.getOutputStream(), true);
+                double old = run((patientId, timestamp, label, data) ->
+                        out.println(String.format("%d,%d,%s,%s", patientId, timestamp, label, data)), clients);
+                System.out.printf("printwriter, 1 client    %10.0f readings/s%n", old);
+            }
+        }
+        for (int clientCount : new int[]{1, 4}) {
+            try (TcpOutputStrategy output = new TcpOutputStrategy(0, false, TcpOutputStrategy.SlowClientPolicy.DISCONNECT,
+                    64 << 20)) {
+                List<Socket> clients = connect(output.getPort(), clientCount);
+                while (output.getClientCount() < clientCount) {
+                    Thread.sleep(1);
+                }
+                System.out.printf("selector, %d client(s)   %10.0f readings/s%n", clientCount, run(output, clients));
+            }
+        }
+    }
+
+    private static List<Socket> connect(int port, int count) throws IOException {
+        List<Socket> clients = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            clients.add(new Socket("localhost", port));
+        }
+        return clients;
+    }
+
+    private static double run(OutputStrategy output, List<Socket> clients) throws Exception {
+        long expected = 0;
+        for (int i = 0; i < READINGS; i++) {
+            expected += (i % 50 + "," + (1714376789050L + i) + ",ECG," + i * 0.001 + "\n").length();
+        }
+        AtomicLong received = new AtomicLong();
+        List<Thread> readers = new ArrayList<>();
+        long perClient = expected;
+        for (Socket client : clients) {
+            Thread reader = new Thread(() -> {
+                byte[] buffer = new byte[64 * 1024];
+                long total = 0;
+                try (InputStream in = client.getInputStream()) {
+                    int read;
+                    while (total < perClient && (read = in.read(buffer)) > 0) {
+                        total += read;
+                    }
+                } catch (IOException e) {
+                    System.err.println(e.getMessage());
+                }
+                received.addAndGet(total);
+            });
+            readers.add(reader);
+            reader.start();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < READINGS; i++) {
+            output.output(i % 50, 1714376789050L + i, "ECG", Double.toString(i * 0.001));
+        }
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        if (received.get() != perClient * clients.size()) {
+            System.err.println("Missing bytes: " + (perClient * clients.size() - received.get()));
+        }
+        return READINGS / seconds;
+    }
+}
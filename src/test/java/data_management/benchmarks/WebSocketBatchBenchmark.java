@@ -0,0 +1,70 @@
+package data_management.benchmarks;
+
+import com.cardio_generator.outputs.WebSocketOutputStrategy;
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.handshake.ServerHandshake;
+
+import java.net.URI;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Streams readings through a WebSocket server on localhost to a text client, one message per reading
+ * and then in batches, and measures how many readings per second reach the client.
+ */
+public class WebSocketBatchBenchmark {
+
+    private static final int READINGS = 200_000;
+
+    public static void main(String[] args) throws Exception {
+        double single = run(new WebSocketOutputStrategy(18801), 18801);
+        System.out.printf("one message per reading    %10.0f readings/s%n", single);
+        double batched = run(new WebSocketOutputStrategy(18802, 20, WebSocketOutputStrategy.DEFAULT_MAX_BATCH_RECORDS),
+                18802);
+        System.out.printf("batches of up to %d, 20 ms %10.0f readings/s  (%.1fx)%n",
+                WebSocketOutputStrategy.DEFAULT_MAX_BATCH_RECORDS, batched, batched / single);
+    }
+
+    private static double run(WebSocketOutputStrategy output, int port) throws Exception {
+        AtomicLong received = new AtomicLong();
+        WebSocketClient client = new WebSocketClient(new URI("ws://localhost:" + port)) {
+            @Override
+            public void onOpen(ServerHandshake handshake) {
+            }
+
+            @Override
+            public void onMessage(String message) {
+                long lines = 1;
+                for (int i = message.indexOf('\n'); i >= 0; i = message.indexOf('\n', i + 1)) {
+                    lines++;
+                }
+                received.addAndGet(lines);
+            }
+
+            @Override
+            public void onClose(int code, String reason, boolean remote) {
+            }
+
+            @Override
+            public void onError(Exception ex) {
+            }
+        };
+        boolean connected = client.connectBlocking();
+        while (!connected) { // the server may take a moment to start listening
+            Thread.sleep(20);
+            connected = client.reconnectBlocking();
+        }
+        Thread.sleep(200);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < READINGS; i++) {
+            output.output(i % 50 + 1, 1714376789050L + i, "ECG", Double.toString(i * 0.001));
+        }
+        while (received.get() < READINGS) {
+            Thread.sleep(1);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        client.closeBlocking();
+        output.close();
+        return READINGS / seconds;
+    }
+}
@@ -0,0 +1,90 @@
+package data_management.benchmarks;
+
+import com.cardio_generator.outputs.BinaryRecordFormat;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compares the text messages of the network outputs with {@link BinaryRecordFormat}: bytes on the wire
+ * per reading, and the CPU time to encode a reading on the sending side and decode it on the receiving
+ * side. The text side does what the outputs and the WebSocket client used to do (String.format, then
+ * split and parse). Sockets are left out, they cost the same per byte either way.
+ */
+public class WireFormatBenchmark {
+
+    private static final int READINGS = 1_000_000;
+    private static final String[] LABELS = {"ECG", "Saturation", "SystolicPressure", "DiastolicPressure",
+            "Cholesterol", "WhiteBloodCells", "RedBloodCells"};
+
+    private static long checksum; // keeps the JIT from dropping the work
+
+    public static void main(String[] args) {
+        String[] data = new String[READINGS];
+        for (int i = 0; i < READINGS; i++) {
+            double value = i * 0.001 + Math.random();
+            data[i] = i % LABELS.length == 1 ? Math.round(value) + ".0%" : Double.toString(value);
+        }
+
+        double textEncode = Double.MAX_VALUE, textDecode = Double.MAX_VALUE;
+        double binaryEncode = Double.MAX_VALUE, binaryDecode = Double.MAX_VALUE;
+        long textBytes = 0, binaryBytes = 0;
+        for (int round = 0; round < 4; round++) { // the first round warms up
+            long start = System.nanoTime();
+            byte[][] messages = new byte[READINGS][];
+            for (int i = 0; i < READINGS; i++) {
+                messages[i] = String.format("%d,%d,%s,%s", i % 500 + 1, 1714376789050L + i, LABELS[i % LABELS.length],
+                        data[i]).getBytes(StandardCharsets.UTF_8);
+            }
+            long encoded = System.nanoTime();
+            for (byte[] message : messages) {
+                decodeText(new String(message, StandardCharsets.UTF_8));
+            }
+            long decoded = System.nanoTime();
+            textBytes = 0;
+            for (byte[] message : messages) {
+                textBytes += message.length;
+            }
+            if (round > 0) {
+                textEncode = Math.min(textEncode, (encoded - start) / (double) READINGS);
+                textDecode = Math.min(textDecode, (decoded - encoded) / (double) READINGS);
+            }
+
+            ByteBuffer stream = ByteBuffer.allocate(READINGS * BinaryRecordFormat.RECORD_BYTES + 4096);
+            BinaryRecordFormat.Dictionary dictionary = new BinaryRecordFormat.Dictionary();
+            start = System.nanoTime();
+            for (int i = 0; i < READINGS; i++) {
+                int code = dictionary.codeOf(LABELS[i % LABELS.length], stream::put);
+                BinaryRecordFormat.putRecord(stream, i % 500 + 1, 1714376789050L + i, code,
+                        BinaryRecordFormat.parseValue(data[i]));
+            }
+            encoded = System.nanoTime();
+            stream.flip();
+            binaryBytes = stream.remaining();
+            new BinaryRecordFormat.Decoder().decode(stream, (patientId, timestamp, label, value) ->
+                    checksum += patientId + timestamp + label.length() + (long) value);
+            decoded = System.nanoTime();
+            if (round > 0) {
+                binaryEncode = Math.min(binaryEncode, (encoded - start) / (double) READINGS);
+                binaryDecode = Math.min(binaryDecode, (decoded - encoded) / (double) READINGS);
+            }
+        }
+
+        System.out.printf("          bytes/reading  encode ns/reading  decode ns/reading%n");
+        System.out.printf("text      %13.1f  %17.0f  %17.0f%n", textBytes / (double) READINGS, textEncode, textDecode);
+        System.out.printf("binary    %13.1f  %17.0f  %17.0f%n", binaryBytes / (double) READINGS, binaryEncode,
+                binaryDecode);
+        System.out.printf("binary is %.1fx smaller, %.1fx faster to encode, %.1fx faster to decode  (%d)%n",
+                textBytes / (double) binaryBytes, textEncode / binaryEncode, textDecode / binaryDecode, checksum & 1);
+    }
+
+    // what WebSocketClientAdapter.onMessage does with a text message
+    private static void decodeText(String message) {
+        String[] values = message.split(",");
+        int patientId = Integer.parseInt(values[0]);
+        long timestamp = Long.parseLong(values[1]);
+        String recordType = values[2];
+        double value = Double.parseDouble(values[3].replace("%", ""));
+        checksum += patientId + timestamp + recordType.length() + (long) value;
+    }
+}